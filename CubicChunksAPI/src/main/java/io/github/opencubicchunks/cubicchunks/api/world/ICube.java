@@ -196,6 +196,16 @@ public interface ICube extends XYZAddressable, ICapabilityProvider {
 
     @Nullable ExtendedBlockStorage getStorage();
 
+    /**
+     * Returns block storage of this cube for reading only. The storage may be shared with other cubes,
+     * so it must never be modified. Use {@link #getStorage()} to get storage that can be modified.
+     *
+     * @return block storage of this cube, or null if it's empty
+     */
+    @Nullable default ExtendedBlockStorage getReadOnlyStorage() {
+        return getStorage();
+    }
+
     /**
      * Retrieve a map of positions to their respective tile entities
      *
@@ -42,6 +42,8 @@ import net.minecraft.util.math.ChunkPos;
 import net.minecraft.world.World;
 import net.minecraft.world.biome.Biome;
 
+import javax.annotation.Nullable;
+
 public class CubeGeneratorsRegistry {
 
     /** List of populators added by other mods to vanilla compatibility generator type */
@@ -54,6 +56,8 @@ public class CubeGeneratorsRegistry {
 
     private static final TreeSet<GeneratorWrapper> sortedGeneratorList = new TreeSet<>();
 
+    @Nullable private static IPopulatorProfiler populatorProfiler = null;
+
     /**
      * Register a world generator - something that inserts new block types into the world on population stage
      *
@@ -76,8 +80,18 @@ public class CubeGeneratorsRegistry {
      * @param biome The biome we are generating in
      */
     public static void generateWorld(World world, Random random, CubePos pos, Biome biome) {
+        IPopulatorProfiler profiler = populatorProfiler;
         for (GeneratorWrapper wrapper : sortedGeneratorList) {
-            wrapper.populator.generate(world, random, pos, biome);
+            if (profiler == null) {
+                wrapper.populator.generate(world, random, pos, biome);
+                continue;
+            }
+            long start = profiler.begin();
+            try {
+                wrapper.populator.generate(world, random, pos, biome);
+            } finally {
+                profiler.end(wrapper.populator, start);
+            }
         }
     }
 
@@ -93,11 +107,31 @@ public class CubeGeneratorsRegistry {
     }
 
     public static void populateVanillaCubic(World world, Random rand, ICube cube) {
+        IPopulatorProfiler profiler = populatorProfiler;
         for (ICubicPopulator populator : customPopulatorsForFlatCubicGenerator) {
-            populator.generate(world, rand, cube.getCoords(), cube.getBiome(cube.getCoords().getCenterBlockPos()));
+            if (profiler == null) {
+                populator.generate(world, rand, cube.getCoords(), cube.getBiome(cube.getCoords().getCenterBlockPos()));
+                continue;
+            }
+            long start = profiler.begin();
+            try {
+                populator.generate(world, rand, cube.getCoords(), cube.getBiome(cube.getCoords().getCenterBlockPos()));
+            } finally {
+                profiler.end(populator, start);
+            }
         }
     }
 
+    /**
+     * Sets the profiler notified around every populator run by {@link #generateWorld} and {@link #populateVanillaCubic}.
+     * This is used by Cubic Chunks to measure worldgen performance, mods shouldn't need to call it.
+     *
+     * @param profiler the profiler, or null to disable profiling
+     */
+    public static void setPopulatorProfiler(@Nullable IPopulatorProfiler profiler) {
+        populatorProfiler = profiler;
+    }
+
     /**
      * Registers a callback invoked after loading cube NBT from disk. This callback will get called even if no data is found, potentially allowing
      * to prepare data for world generation asynchronously in a cache.
@@ -122,6 +156,27 @@ public class CubeGeneratorsRegistry {
         return columnLoadingCallbacksView;
     }
 
+    /**
+     * Receives callbacks around each populator invocation.
+     */
+    public interface IPopulatorProfiler {
+
+        /**
+         * Called right before a populator runs.
+         *
+         * @return a value that will be passed back to {@link #end(Object, long)}
+         */
+        long begin();
+
+        /**
+         * Called after a populator finished running, also when it threw an exception.
+         *
+         * @param populator the populator that has been run
+         * @param start the value returned by the matching {@link #begin()} call
+         */
+        void end(Object populator, long start);
+    }
+
     private static class GeneratorWrapper implements Comparable<GeneratorWrapper> {
 
         private final ICubicPopulator populator;
@@ -34,6 +34,8 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 @ParametersAreNonnullByDefault
 @MethodsReturnNonnullByDefault
@@ -61,9 +63,49 @@ public class CubePrimer {
         return new CubePrimer(data);
     }
 
+    /**
+     * Returns a shared, immutable primer filled with the given block state. Generators can return it for cubes that consist
+     * of a single block state, which avoids allocating a new primer and allows the cube to use shared block storage.
+     * Any attempt to modify the returned primer throws {@link UnsupportedOperationException}.
+     *
+     * @param state the block state
+     * @return immutable primer filled with the given block state
+     */
+    public static CubePrimer createUniform(IBlockState state) {
+        return UNIFORM_PRIMERS.computeIfAbsent(state, Uniform::new);
+    }
+
     protected CubePrimer(char[] data) {
         this.data = data;
     }
+
+    /**
+     * Returns the block state this primer is filled with, if all blocks are the same. Returns null if blocks differ,
+     * or if this primer doesn't use the default internal storage.
+     *
+     * @return the only block state in this primer, or null
+     */
+    @Nullable
+    public IBlockState getUniformState() {
+        if (data == null) {
+            return null;
+        }
+        char first = data[0];
+        for (char c : data) {
+            if (c != first) {
+                return null;
+            }
+        }
+        if (extData != null) {
+            byte firstExt = extData[0];
+            for (byte b : extData) {
+                if (b != firstExt) {
+                    return null;
+                }
+            }
+        }
+        return getBlockState(0, 0, 0);
+    }
     /**
      * Returns biome in a given 4x4x4 block section.
      * <p>
@@ -176,4 +218,36 @@ public class CubePrimer {
     private static int getBlockIndex(int x, int y, int z) {
         return y << 8 | z << 4 | x;
     }
+
+    private static final Map<IBlockState, CubePrimer> UNIFORM_PRIMERS = new ConcurrentHashMap<>();
+
+    private static final class Uniform extends CubePrimer {
+
+        private final IBlockState state;
+
+        Uniform(IBlockState state) {
+            super(null);
+            this.state = state;
+        }
+
+        @Override public IBlockState getBlockState(int x, int y, int z) {
+            return state;
+        }
+
+        @Override public IBlockState getUniformState() {
+            return state;
+        }
+
+        @Override public void setBlockState(int x, int y, int z, @Nonnull IBlockState state) {
+            throw new UnsupportedOperationException("Uniform cube primer is immutable");
+        }
+
+        @Override public void setBiome(int localBiomeX, int localBiomeY, int localBiomeZ, Biome biome) {
+            throw new UnsupportedOperationException("Uniform cube primer is immutable");
+        }
+
+        @Override public void reset() {
+            // nothing to reset
+        }
+    }
 }
@@ -266,6 +266,7 @@ jmh {
     warmupIterations = 10
     profilers = listOf("perfasm")
     jmhVersion = "1.17.1"
+    includeTests = true // benchmarks use test utilities
 }
 
 javadoc.apply {
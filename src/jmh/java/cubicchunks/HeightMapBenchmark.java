@@ -0,0 +1,130 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks;
+
+import io.github.opencubicchunks.cubicchunks.core.world.IServerHeightMap;
+import io.github.opencubicchunks.cubicchunks.core.world.NewServerHeightMap;
+import io.github.opencubicchunks.cubicchunks.core.world.ServerHeightMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * Compares {@link ServerHeightMap} and {@link NewServerHeightMap} on the same column. The load benchmarks deserialize the
+ * column heightmap, run them with {@code -prof gc} to compare memory used by each implementation.
+ */
+@State(Scope.Thread)
+public class HeightMapBenchmark {
+
+    private static final int QUERIES = 4096;
+
+    /**
+     * SOLID - terrain surface with solid ground below it, CAVES - surface and 512 blocks of caves below it,
+     * ISLANDS - thin layers separated by air, like floating islands
+     */
+    @Param({"SOLID", "CAVES", "ISLANDS"})
+    public String terrain;
+
+    private byte[] data;
+    private IServerHeightMap serverHeightMap;
+    private IServerHeightMap newServerHeightMap;
+    private int[] queryX, queryY, queryZ;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random rand = new Random(42);
+        ServerHeightMap heightMap = new ServerHeightMap(new int[256]);
+        for (int x = 0; x < 16; x++) {
+            for (int z = 0; z < 16; z++) {
+                int surface = 64 + rand.nextInt(8);
+                for (int y = -512; y <= surface; y++) {
+                    heightMap.onOpacityChange(x, y, z, isOpaque(rand, y) ? 255 : 0);
+                }
+            }
+        }
+        data = heightMap.getData();
+        serverHeightMap = loadServerHeightMap();
+        newServerHeightMap = loadNewServerHeightMap();
+
+        queryX = new int[QUERIES];
+        queryY = new int[QUERIES];
+        queryZ = new int[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            queryX[i] = rand.nextInt(16);
+            queryY[i] = rand.nextInt(600) - 520;
+            queryZ[i] = rand.nextInt(16);
+        }
+    }
+
+    private boolean isOpaque(Random rand, int y) {
+        switch (terrain) {
+            case "SOLID":
+                return true;
+            case "CAVES":
+                return rand.nextInt(4) != 0;
+            case "ISLANDS":
+                return (y & 31) < 3;
+            default:
+                throw new IllegalArgumentException(terrain);
+        }
+    }
+
+    @Benchmark
+    public IServerHeightMap loadServerHeightMap() {
+        ServerHeightMap heightMap = new ServerHeightMap(new int[256]);
+        heightMap.readData(data);
+        return heightMap;
+    }
+
+    @Benchmark
+    public IServerHeightMap loadNewServerHeightMap() {
+        NewServerHeightMap heightMap = new NewServerHeightMap(new int[256]);
+        heightMap.readData(data);
+        return heightMap;
+    }
+
+    @Benchmark
+    public int topBlockBelowServerHeightMap() {
+        return queryAll(serverHeightMap);
+    }
+
+    @Benchmark
+    public int topBlockBelowNewServerHeightMap() {
+        return queryAll(newServerHeightMap);
+    }
+
+    private int queryAll(IServerHeightMap heightMap) {
+        int sum = 0;
+        for (int i = 0; i < QUERIES; i++) {
+            sum += heightMap.getTopBlockYBelow(queryX[i], queryZ[i], queryY[i]);
+        }
+        return sum;
+    }
+}
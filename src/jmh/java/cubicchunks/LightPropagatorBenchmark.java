@@ -0,0 +1,85 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks;
+
+import io.github.opencubicchunks.cubicchunks.core.lighting.LightPropagator;
+import io.github.opencubicchunks.cubicchunks.core.lighting.PackedLightPropagator;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.EnumSkyBlock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares {@link LightPropagator} and {@link PackedLightPropagator} propagating light in the same random terrain.
+ */
+@State(Scope.Thread)
+public class LightPropagatorBenchmark {
+
+    private static final int SIZE = 64;
+
+    @Param({"SKY", "BLOCK"})
+    public EnumSkyBlock type;
+
+    private final LightPropagator legacyPropagator = new LightPropagator();
+    private final PackedLightPropagator packedPropagator = new PackedLightPropagator();
+
+    private ArrayLightBlockAccess template;
+    private ArrayLightBlockAccess access;
+    private List<BlockPos> positions;
+
+    @Setup(Level.Trial)
+    public void setupTrial() {
+        template = ArrayLightBlockAccess.random(new Random(42), SIZE, SIZE);
+        positions = new ArrayList<>();
+        for (BlockPos pos : BlockPos.getAllInBox(new BlockPos(-8, -8, -8), new BlockPos(7, 7, 7))) {
+            positions.add(pos);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void setupInvocation() {
+        access = template.copy();
+    }
+
+    @Benchmark
+    public ArrayLightBlockAccess legacy() {
+        legacyPropagator.propagateLight(BlockPos.ORIGIN, positions, access, type, pos -> {});
+        return access;
+    }
+
+    @Benchmark
+    public ArrayLightBlockAccess packed() {
+        packedPropagator.propagateLight(BlockPos.ORIGIN, positions, access, type, true, pos -> {});
+        return access;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks;
+
+import io.github.opencubicchunks.cubicchunks.core.util.FieldCopier;
+import net.minecraft.network.Packet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares copying packets for vanilla clients with {@link FieldCopier} to the previous reflection based copy, which looked
+ * up the constructor and got and set each field through reflection for every packet.
+ */
+@State(Scope.Thread)
+public class PacketCopyBenchmark {
+
+    @Param({
+            "net.minecraft.network.play.server.SPacketEntityTeleport",
+            "net.minecraft.network.play.server.SPacketSpawnObject",
+            "net.minecraft.network.play.server.SPacketBlockChange"
+    })
+    public String packetClass;
+
+    private final Map<Class<?>, Field[]> packetFields = new IdentityHashMap<>();
+    private Packet<?> packet;
+
+    @Setup(Level.Trial)
+    public void setup() throws ReflectiveOperationException {
+        packet = (Packet<?>) Class.forName(packetClass).getConstructor().newInstance();
+    }
+
+    @Benchmark
+    public Packet<?> copyReflection() throws ReflectiveOperationException {
+        Field[] fields = packetFields.computeIfAbsent(packet.getClass(), PacketCopyBenchmark::collectFields);
+        Packet<?> newPacket = packet.getClass().getConstructor().newInstance();
+        for (Field field : fields) {
+            field.set(newPacket, field.get(packet));
+        }
+        return newPacket;
+    }
+
+    @Benchmark
+    public Packet<?> copyFieldCopier() {
+        return FieldCopier.copy(packet);
+    }
+
+    private static Field[] collectFields(Class<?> aClass) {
+        List<Field> fields = new ArrayList<>();
+        do {
+            for (Field field : aClass.getDeclaredFields()) {
+                if (!Modifier.isStatic(field.getModifiers())) {
+                    field.setAccessible(true);
+                    fields.add(field);
+                }
+            }
+            aClass = aClass.getSuperclass();
+        } while (aClass != Object.class);
+        return fields.toArray(new Field[0]);
+    }
+}
@@ -39,6 +39,7 @@ import io.github.opencubicchunks.cubicchunks.core.util.ReflectionUtil;
 import io.github.opencubicchunks.cubicchunks.core.world.ICubeProviderInternal;
 import io.github.opencubicchunks.cubicchunks.core.world.WorldSavedCubicChunksData;
 import io.github.opencubicchunks.cubicchunks.core.world.provider.ICubicWorldProvider;
+import io.github.opencubicchunks.cubicchunks.core.worldgen.WorldgenTimings;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.entity.player.EntityPlayerMP;
 import net.minecraft.world.World;
@@ -146,6 +147,14 @@ public class CommonEventHandler {
         }
     }
 
+    @SubscribeEvent
+    public void onServerTick(TickEvent.ServerTickEvent evt) {
+        PacketDispatcher.sendDoneMessages();
+        if (evt.phase == TickEvent.Phase.END) {
+            WorldgenTimings.instance().tick();
+        }
+    }
+
     @SubscribeEvent
     public void onPlayerJoinWorld(EntityJoinWorldEvent evt) {
         if (evt.getEntity() instanceof EntityPlayerMP && ((ICubicWorld) evt.getWorld()).isCubicWorld()) {
@@ -156,6 +165,7 @@ public class CommonEventHandler {
     @SubscribeEvent
     public void onPlayerLoggedOut(PlayerEvent.PlayerLoggedOutEvent event) {
         VanillaNetworkHandler.removeBedrockPlayer((EntityPlayerMP) event.player);
+        PacketDispatcher.dropPendingMessages((EntityPlayerMP) event.player);
     }
 
     @SuppressWarnings("unchecked")
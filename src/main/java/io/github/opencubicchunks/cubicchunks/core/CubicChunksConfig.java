@@ -27,6 +27,7 @@ package io.github.opencubicchunks.cubicchunks.core;
 import com.google.common.collect.Range;
 import com.google.common.collect.TreeRangeSet;
 
+import io.github.opencubicchunks.cubicchunks.core.worldgen.WorldgenTimings;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.util.ResourceLocation;
 import net.minecraftforge.common.config.Config;
@@ -36,6 +37,7 @@ import net.minecraftforge.fml.common.Mod;
 import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
 
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
 import java.util.function.Predicate;
 import java.util.regex.Pattern;
@@ -86,6 +88,25 @@ public class CubicChunksConfig {
             + " client. Does not affect rendering, only what chunks are sent to client.")
     public static int verticalCubeLoadDistance = 8;
 
+    @Config.LangKey("cubicchunks.config.cube_selector_shape")
+    @Config.Comment("Shape of the area of cubes loaded and sent around each player.\n"
+            + "CUBOID - all cubes within horizontal and vertical view distance\n"
+            + "SPHERE - sphere with horizontal view distance as radius, cut off at vertical view distance\n"
+            + "ELLIPSOID - ellipsoid with horizontal and vertical view distance as radii\n"
+            + "Round shapes load significantly fewer cubes for the same view distance.")
+    @Config.RequiresWorldRestart
+    public static CubeSelectorShape cubeSelectorShape = CubeSelectorShape.CUBOID;
+
+    @Config.LangKey("cubicchunks.config.cube_selector_shape_overrides")
+    @Config.Comment("Overrides cubeSelectorShape for specific dimensions, in format dimensionID:SHAPE.\n"
+            + "Example:\n"
+            + "    S:cubeSelectorShapeOverrides <\n"
+            + "        0:SPHERE\n"
+            + "        -1:CUBOID\n"
+            + "     >")
+    @Config.RequiresWorldRestart
+    public static String[] cubeSelectorShapeOverrides = {};
+
     @Config.LangKey("cubicchunks.config.dimension_blacklist")
     @Config.Comment("The specified dimension ID ranges won't be created as cubic chunks world for new worlds, and worlds created before this option"
             + " has been added, unless forceDimensionExcludes is set to true. IDs can be specified either as range in format min:max, or as single "
@@ -182,6 +203,67 @@ public class CubicChunksConfig {
             + "crash.")
     public static int worldgenWatchdogTimeLimit = 10000;
 
+    @Config.LangKey("cubicchunks.config.worldgen_timings")
+    @Config.Comment("Enables collecting time spent in each world generation populator. The results can be viewed using "
+            + "/cubicchunks_worldgen_timings command.")
+    public static boolean worldgenTimings = false;
+
+    @Config.LangKey("cubicchunks.config.worldgen_timings_track_allocations")
+    @Config.Comment("Also measure amount of memory allocated by each populator when worldgen timings are enabled. Not supported on all JVMs.")
+    public static boolean worldgenTimingsTrackAllocations = false;
+
+    @Config.LangKey("cubicchunks.config.worldgen_timings_log_interval")
+    @Config.Comment("Interval (in seconds) in which summary of worldgen timings will be logged. 0 disables logging.")
+    @Config.RangeInt(min = 0)
+    public static int worldgenTimingsLogInterval = 300;
+
+    @Config.LangKey("cubicchunks.config.worldgen_timings_log_count")
+    @Config.Comment("Amount of the slowest populators included in the periodic worldgen timings summary.")
+    @Config.RangeInt(min = 1)
+    public static int worldgenTimingsLogCount = 10;
+
+    @Config.LangKey("cubicchunks.config.teleport_prewarm_distance")
+    @Config.Comment("Radius (in cubes) around teleport destinations that is loaded while a player waits in a nether portal,\n"
+            + "and before a player teleported by a command gets there if delayCommandTeleports is enabled. Set to 0 to disable.")
+    @Config.RangeInt(min = 0, max = 8)
+    public static int teleportPrewarmDistance = 2;
+
+    @Config.LangKey("cubicchunks.config.delay_command_teleports")
+    @Config.Comment("Delay players teleported by /tp and /teleport until the cubes around the destination are loaded.\n"
+            + "The command reports success before the player is moved, which can break command blocks and commands run after it.")
+    public static boolean delayCommandTeleports = false;
+
+    @Config.LangKey("cubicchunks.config.teleport_prewarm_timeout")
+    @Config.Comment("Maximum amount of ticks a command teleport can be delayed by loading the destination.")
+    @Config.RangeInt(min = 0)
+    public static int teleportPrewarmTimeout = 100;
+
+    @Config.LangKey("cubicchunks.config.teleport_prewarm_generate_time")
+    @Config.Comment("Time (in milliseconds) per tick that can be spent generating missing cubes at teleport destinations.\n"
+            + "Set to 0 to only load existing cubes.")
+    @Config.RangeInt(min = 0)
+    public static int teleportPrewarmGenerateTimeMillis = 10;
+
+    @Config.LangKey("cubicchunks.config.first_light_threads")
+    @Config.Comment("Amount of threads used to compute initial lighting of newly generated cubes. 0 computes it on the server thread.\n"
+            + "Enabling this may cause issues with mods that compute light opacity of their blocks from the world.\n"
+            + "Changing the amount of threads requires restart.")
+    @Config.RangeInt(min = 0, max = 16)
+    public static int firstLightThreads = 0;
+
+    @Config.LangKey("cubicchunks.config.deferred_lighting_distance")
+    @Config.Comment("Underground cubes further than this distance (in cubes) from all players, with no light sources and no sky\n"
+            + "above them, are assumed to be fully dark instead of computing their initial lighting. Their lighting is computed\n"
+            + "when a player gets closer or when light changes in them. 0 always computes initial lighting immediately.")
+    @Config.RangeInt(min = 0)
+    public static int deferredLightingDistance = 0;
+
+    @Config.LangKey("cubicchunks.config.lighting_tick_budget")
+    @Config.Comment("Maximum time (in nanoseconds) per tick spent on queued sky light updates. Cubes closest to players are updated first,\n"
+            + "the rest is left for the next tick. 0 disables the limit.")
+    @Config.RangeInt(min = 0)
+    public static int lightingTickBudgetNanos = 10000000;
+
     @Config.LangKey("cubicchunks.config.allow_vanilla_clients")
     @Config.Comment("Allows clients without cubic chunks to join. "
             + "THIS IS INTENDED FOR VANILLA CLIENTS. "
@@ -193,10 +275,32 @@ public class CubicChunksConfig {
             + "You can enable it if you don't need normal skylight values but want extra performance for worldgen and block updates")
     public static boolean fastSimplifiedSkyLight = false;
 
+    @Config.LangKey("cubicchunks.config.hierarchical_heightmap")
+    @Config.Comment("Uses a hierarchical heightmap on the server, storing block opacity per cube instead of a list of opacity changes\n"
+            + "for each block column. This uses less memory in columns with many layers, like caves. Both heightmaps use the same\n"
+            + "save format. Applies to columns loaded after the change.")
+    public static boolean hierarchicalHeightMap = false;
+
     @Config.LangKey("cubicchunks.config.cubes_to_send_per_tick")
     @Config.Comment("Max amount of cubes sent to client per tick to players")
     public static int cubesToSendPerTick = 81 * 8 + 1;
 
+    @Config.LangKey("cubicchunks.config.adaptive_cube_send_rate")
+    @Config.Comment("Adapts the amount of cubes sent to each player per tick to how fast that player's connection is. cubesToSendPerTick\n"
+            + "is still the upper limit. When disabled, every player gets up to cubesToSendPerTick cubes per tick.")
+    public static boolean adaptiveCubeSendRate = true;
+
+    @Config.LangKey("cubicchunks.config.cubes_packet_target_size")
+    @Config.Comment("Cubes sent to a player in one tick are split into packets of about this many bytes.")
+    @Config.RangeInt(min = 16 * 1024)
+    public static int cubesPacketTargetSize = 256 * 1024;
+
+    @Config.LangKey("cubicchunks.config.cube_packet_threads")
+    @Config.Comment("Amount of threads used to encode cube data sent to players. The server thread only copies the data. 0 encodes it on\n"
+            + "the server thread. Changing the amount of threads requires restart.")
+    @Config.RangeInt(min = 0, max = 16)
+    public static int cubePacketThreads = 1;
+
     @Config.LangKey("cubicchunks.config.vanilla_clients")
     @Config.Comment("Options relating to support for vanilla clients.")
     public static VanillaClients vanillaClients = new VanillaClients();
@@ -233,10 +337,15 @@ public class CubicChunksConfig {
     @Config.Ignore
     private static TreeRangeSet<Integer> excludedDimensionsRanges = null;
 
+    @Config.Ignore
+    private static Map<Integer, CubeSelectorShape> cubeSelectorShapes = null;
+
     public static void sync() {
         ConfigManager.sync(CubicChunks.MODID, Config.Type.INSTANCE);
 
         initDimensionRanges();
+        initCubeSelectorShapes();
+        WorldgenTimings.updateEnabled();
     }
 
     private static void initDimensionRanges() {
@@ -262,6 +371,21 @@ public class CubicChunksConfig {
         }
     }
 
+    private static void initCubeSelectorShapes() {
+        if (cubeSelectorShapes == null) {
+            cubeSelectorShapes = new HashMap<>();
+        }
+        cubeSelectorShapes.clear();
+
+        for (String str : cubeSelectorShapeOverrides) {
+            String[] parts = str.split(":");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Invalid cube selector shape override " + str);
+            }
+            cubeSelectorShapes.put(Integer.parseInt(parts[0].trim()), CubeSelectorShape.valueOf(parts[1].trim().toUpperCase(Locale.ROOT)));
+        }
+    }
+
     @SubscribeEvent
     public static void onConfigChanged(ConfigChangedEvent.OnConfigChangedEvent event) {
         if (event.getModID().equals(CubicChunks.MODID)) {
@@ -293,6 +417,19 @@ public class CubicChunksConfig {
         return excludedDimensionsRanges.contains(dimension);
     }
 
+    public static CubeSelectorShape getCubeSelectorShape(int dimension) {
+        if (cubeSelectorShapes == null) {
+            initCubeSelectorShapes();
+        }
+        return cubeSelectorShapes.getOrDefault(dimension, cubeSelectorShape);
+    }
+
+    public enum CubeSelectorShape {
+        CUBOID,
+        SPHERE,
+        ELLIPSOID
+    }
+
     public enum ForceCCMode {
         NONE,
         NEW_WORLD,
@@ -43,6 +43,7 @@ import io.github.opencubicchunks.cubicchunks.core.server.VanillaNetworkHandler;
 import io.github.opencubicchunks.cubicchunks.core.util.world.CubeSplitTickList;
 import io.github.opencubicchunks.cubicchunks.core.util.world.CubeSplitTickSet;
 import io.github.opencubicchunks.cubicchunks.core.world.ICubeProviderInternal;
+import io.github.opencubicchunks.cubicchunks.core.world.chunkloader.ForcedCubeIndex;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.block.state.IBlockState;
@@ -128,6 +129,8 @@ public interface ICubicWorldInternal extends ICubicWorld {
 
         XZMap<IColumn> getForcedColumns();
 
+        ForcedCubeIndex getForcedCubeIndex();
+
         CubeSplitTickSet getScheduledTicks();
 
         CubeSplitTickList getThisTickScheduledTicks();
@@ -38,6 +38,7 @@ import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
 import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldInternal;
 import io.github.opencubicchunks.cubicchunks.core.world.ClientHeightMap;
 import io.github.opencubicchunks.cubicchunks.core.world.IColumnInternal;
+import io.github.opencubicchunks.cubicchunks.core.world.NewServerHeightMap;
 import io.github.opencubicchunks.cubicchunks.core.world.ServerHeightMap;
 import io.github.opencubicchunks.cubicchunks.core.world.StagingHeightMap;
 import io.github.opencubicchunks.cubicchunks.core.world.column.ColumnTileEntityMap;
@@ -132,19 +133,27 @@ public abstract class MixinChunk_Cubes implements IColumnInternal {
 
     // TODO: make it go through cube raw access methods
     // TODO: make cube an interface, use the implementation only here
+    // forWrite=false doesn't copy shared cube storage, the returned storage must not be modified then
     @Nullable
-    private ExtendedBlockStorage getEBS_CubicChunks(int index) {
+    private ExtendedBlockStorage getEBS_CubicChunks(int index, boolean forWrite) {
         if (!isColumn) {
             return storageArrays[index];
         }
         if (cachedCube != null && cachedCube.getY() == index) {
-            return cachedCube.getStorage();
+            return forWrite ? cachedCube.getStorage() : cachedCube.getReadOnlyStorage();
         }
         Cube cube = getWorld().getCubeCache().getCube(this.x, index, this.z);
         if (!(cube instanceof BlankCube)) {
             cachedCube = cube;
         }
-        return cube.getStorage();
+        return forWrite ? cube.getStorage() : cube.getReadOnlyStorage();
+    }
+
+    // light checks are batched until the end of the tick, make sure the ones that can affect this cube are done before reading light
+    private void processPendingLightChecks_CubicChunks(int cubeY) {
+        if (isColumn) {
+            getWorld().getLightingManager().processPendingLightChecks(this.x, cubeY, this.z);
+        }
     }
 
     // setEBS is unlikely to be used extremely frequently, no caching
@@ -165,7 +174,7 @@ public abstract class MixinChunk_Cubes implements IColumnInternal {
             // BlankCube clientside. This is the only case where getEBS doesn't create cube
             return;
         }
-        if (loaded.getStorage() == null) {
+        if (loaded.getReadOnlyStorage() == null) {
             loaded.setStorage(ebs);
         } else {
             throw new IllegalStateException(String.format(
@@ -196,7 +205,7 @@ public abstract class MixinChunk_Cubes implements IColumnInternal {
         if (world.isRemote) {
             this.opacityIndex = new ClientHeightMap((Chunk) (Object) this, heightMap);
         } else {
-            this.opacityIndex = new ServerHeightMap(heightMap);
+            this.opacityIndex = CubicChunksConfig.hierarchicalHeightMap ? new NewServerHeightMap(heightMap) : new ServerHeightMap(heightMap);
         }
         this.stagingHeightMap = new StagingHeightMap();
         // instead of redirecting access to this map, just make the map do the work
@@ -384,7 +393,7 @@ public abstract class MixinChunk_Cubes implements IColumnInternal {
                     target = "Lnet/minecraft/world/chunk/Chunk;storageArrays:[Lnet/minecraft/world/chunk/storage/ExtendedBlockStorage;"
             ))
     private ExtendedBlockStorage getBlockState_getMaxHeight(ExtendedBlockStorage[] ebs, int y) {
-        return getEBS_CubicChunks(y);
+        return getEBS_CubicChunks(y, false);
     }
 
     // ==============================================
@@ -397,6 +406,9 @@ public abstract class MixinChunk_Cubes implements IColumnInternal {
         if (!isColumn) {
             return;
         }
+        if (!world.isRemote) {
+            ((ICubicWorldInternal.Server) world).getCubeCache().onBlockChanged(pos);
+        }
         if (getCube(blockToCube(pos.getY())).isSurfaceTracked()) {
             opacityIndex.onOpacityChange(blockToLocal(pos.getX()), pos.getY(), blockToLocal(pos.getZ()), state.getLightOpacity(world, pos));
             getWorld().getLightingManager().sendHeightMapUpdate(pos);
@@ -411,7 +423,7 @@ public abstract class MixinChunk_Cubes implements IColumnInternal {
             args = "array=get"
     ))
     private ExtendedBlockStorage setBlockState_CubicChunks_EBSGetRedirect(ExtendedBlockStorage[] array, int index) {
-        return getEBS_CubicChunks(index);
+        return getEBS_CubicChunks(index, true);
     }
 
     @Redirect(method = "setBlockState", at = @At(
@@ -454,7 +466,8 @@ public abstract class MixinChunk_Cubes implements IColumnInternal {
             args = "array=get"
     ))
     private ExtendedBlockStorage getLightFor_CubicChunks_EBSGetRedirect(ExtendedBlockStorage[] array, int index) {
-        return getEBS_CubicChunks(index);
+        processPendingLightChecks_CubicChunks(index);
+        return getEBS_CubicChunks(index, false);
     }
 
     // ==============================================
@@ -467,7 +480,7 @@ public abstract class MixinChunk_Cubes implements IColumnInternal {
             args = "array=get"
     ))
     private ExtendedBlockStorage setLightFor_CubicChunks_EBSGetRedirect(ExtendedBlockStorage[] array, int index) {
-        return getEBS_CubicChunks(index);
+        return getEBS_CubicChunks(index, true);
     }
 
     @Redirect(method = "setLightFor", at = @At(
@@ -498,7 +511,8 @@ public abstract class MixinChunk_Cubes implements IColumnInternal {
             args = "array=get"
     ))
     private ExtendedBlockStorage getLightSubtracted_CubicChunks_EBSGetRedirect(ExtendedBlockStorage[] array, int index) {
-        return getEBS_CubicChunks(index);
+        processPendingLightChecks_CubicChunks(index);
+        return getEBS_CubicChunks(index, false);
     }
 
     // ==============================================
@@ -818,7 +832,7 @@ public abstract class MixinChunk_Cubes implements IColumnInternal {
         }
 
         for (int i = startY; i <= endY; i += Cube.SIZE) {
-            ExtendedBlockStorage extendedblockstorage = getEBS_CubicChunks(blockToCube(i));
+            ExtendedBlockStorage extendedblockstorage = getEBS_CubicChunks(blockToCube(i), false);
 
             if (extendedblockstorage != NULL_BLOCK_STORAGE && !extendedblockstorage.isEmpty()) {
                 return false;
@@ -51,6 +51,7 @@ import io.github.opencubicchunks.cubicchunks.core.util.world.CubeSplitTickSet;
 import io.github.opencubicchunks.cubicchunks.core.world.CubeWorldEntitySpawner;
 import io.github.opencubicchunks.cubicchunks.core.world.IWorldEntitySpawner;
 import io.github.opencubicchunks.cubicchunks.core.world.chunkloader.CubicChunkManager;
+import io.github.opencubicchunks.cubicchunks.core.world.chunkloader.ForcedCubeIndex;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
 import io.github.opencubicchunks.cubicchunks.core.world.provider.ICubicWorldProvider;
 import mcp.MethodsReturnNonnullByDefault;
@@ -109,6 +110,7 @@ public abstract class MixinWorldServer extends MixinWorld implements ICubicWorld
     private Map<Chunk, Set<ICube>> forcedChunksCubes;
     private XYZMap<ICube> forcedCubes;
     private XZMap<IColumn> forcedColumns;
+    private ForcedCubeIndex forcedCubeIndex;
 
     private ChunkGc worldChunkGc;
     private SpawnCubes spawnArea;
@@ -146,6 +148,7 @@ public abstract class MixinWorldServer extends MixinWorld implements ICubicWorld
         this.forcedChunksCubes = new HashMap<>();
         this.forcedCubes = new XYZMap<>(0.75f, 64*1024);
         this.forcedColumns = new XZMap<>(0.75f, 2048);
+        this.forcedCubeIndex = new ForcedCubeIndex();
 
         this.pendingTickListEntriesHashSet = new CubeSplitTickSet();
         this.pendingTickListEntriesThisTick = new CubeSplitTickList();
@@ -228,6 +231,10 @@ public abstract class MixinWorldServer extends MixinWorld implements ICubicWorld
         return forcedColumns;
     }
 
+    @Override public ForcedCubeIndex getForcedCubeIndex() {
+        return forcedCubeIndex;
+    }
+
     @Override public void unloadOldCubes() {
         worldChunkGc.chunkGc();
     }
@@ -326,7 +333,7 @@ public abstract class MixinWorldServer extends MixinWorld implements ICubicWorld
         int chunkBlockZ = cubeToMinBlock(cube.getZ());
 
         this.profiler.startSection("tickBlocks");
-        ExtendedBlockStorage ebs = cube.getStorage();
+        ExtendedBlockStorage ebs = cube.getReadOnlyStorage();
         if (ebs != Chunk.NULL_BLOCK_STORAGE && ebs.needsRandomTick()) {
             for (int i = 0; i < tickSpeed; ++i) {
                 tickNextBlock(chunkBlockX, chunkBlockZ, ebs);
@@ -81,10 +81,12 @@ public abstract class MixinTicket implements ICubicTicketInternal {
     }
 
     @Override public void addRequestedCube(CubePos pos) {
+        forcedCubes.add(pos);
         cubePosMap.computeIfAbsent(pos.chunkPos(), chunkPos -> new IntOpenHashSet(32)).add(pos.getY());
     }
 
     @Override public void removeRequestedCube(CubePos pos) {
+        forcedCubes.remove(pos);
         IntSet set = cubePosMap.get(pos.chunkPos());
         if (set != null) {
             set.remove(pos.getY());
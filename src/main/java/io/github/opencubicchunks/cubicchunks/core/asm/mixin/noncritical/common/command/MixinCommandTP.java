@@ -28,20 +28,26 @@ import static net.minecraft.command.CommandBase.getCommandSenderAsPlayer;
 import static net.minecraft.command.CommandBase.getEntity;
 
 import io.github.opencubicchunks.cubicchunks.api.world.ICubicWorld;
+import io.github.opencubicchunks.cubicchunks.core.server.TeleportPrewarmer;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.command.CommandException;
 import net.minecraft.command.CommandTP;
 import net.minecraft.command.ICommandSender;
 import net.minecraft.command.PlayerNotFoundException;
+import net.minecraft.network.NetHandlerPlayServer;
+import net.minecraft.network.play.server.SPacketPlayerPosLook;
 import net.minecraft.server.MinecraftServer;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Constant;
 import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.ModifyConstant;
+import org.spongepowered.asm.mixin.injection.Redirect;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 
 import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.Set;
 
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
@@ -104,4 +110,19 @@ public class MixinCommandTP {
         }
         return world.getMaxHeight() + orig - 256;
     }
+
+    @Redirect(method = "execute",
+            at = @At(value = "INVOKE", target = "Lnet/minecraft/network/NetHandlerPlayServer;setPlayerLocation(DDDFF)V"),
+            require = 0)
+    private void setPlayerLocationToEntity(NetHandlerPlayServer connection, double x, double y, double z, float yaw, float pitch) {
+        TeleportPrewarmer.setPlayerLocationWhenReady(connection, x, y, z, yaw, pitch, Collections.emptySet());
+    }
+
+    @Redirect(method = "teleportEntityToCoordinates",
+            at = @At(value = "INVOKE", target = "Lnet/minecraft/network/NetHandlerPlayServer;setPlayerLocation(DDDFFLjava/util/Set;)V"),
+            require = 0)
+    private static void setPlayerLocationToCoordinates(NetHandlerPlayServer connection, double x, double y, double z, float yaw, float pitch,
+            Set<SPacketPlayerPosLook.EnumFlags> relativeSet) {
+        TeleportPrewarmer.setPlayerLocationWhenReady(connection, x, y, z, yaw, pitch, relativeSet);
+    }
 }
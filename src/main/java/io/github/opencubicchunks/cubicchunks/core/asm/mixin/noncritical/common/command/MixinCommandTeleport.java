@@ -27,19 +27,24 @@ package io.github.opencubicchunks.cubicchunks.core.asm.mixin.noncritical.common.
 import static net.minecraft.command.CommandBase.getEntity;
 
 import io.github.opencubicchunks.cubicchunks.api.world.ICubicWorld;
+import io.github.opencubicchunks.cubicchunks.core.server.TeleportPrewarmer;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.command.CommandException;
 import net.minecraft.command.ICommandSender;
 import net.minecraft.command.server.CommandTeleport;
+import net.minecraft.network.NetHandlerPlayServer;
+import net.minecraft.network.play.server.SPacketPlayerPosLook;
 import net.minecraft.server.MinecraftServer;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Constant;
 import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.ModifyConstant;
+import org.spongepowered.asm.mixin.injection.Redirect;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 
 import java.lang.ref.WeakReference;
+import java.util.Set;
 
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
@@ -87,4 +92,12 @@ public class MixinCommandTeleport {
         }
         return world.getMaxHeight() + original;
     }
+
+    @Redirect(method = "doTeleport",
+            at = @At(value = "INVOKE", target = "Lnet/minecraft/network/NetHandlerPlayServer;setPlayerLocation(DDDFFLjava/util/Set;)V"),
+            require = 0)
+    private static void setPlayerLocation(NetHandlerPlayServer connection, double x, double y, double z, float yaw, float pitch,
+            Set<SPacketPlayerPosLook.EnumFlags> relativeSet) {
+        TeleportPrewarmer.setPlayerLocationWhenReady(connection, x, y, z, yaw, pitch, relativeSet);
+    }
 }
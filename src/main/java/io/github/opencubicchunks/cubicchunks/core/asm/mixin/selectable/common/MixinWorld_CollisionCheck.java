@@ -81,7 +81,7 @@ public abstract class MixinWorld_CollisionCheck implements ICubicWorldInternal {
                         int maxBlockY = coords.getMaxBlockY();
                         int maxBlockZ = coords.getMaxBlockZ();
                         Cube loadedCube = this.getCubeCache().getLoadedCube(coords);
-                        if (loadedCube != null && loadedCube.getStorage() != null) {
+                        if (loadedCube != null && loadedCube.getReadOnlyStorage() != null) {
                             minBlockX = minBlockX > x1 ? minBlockX : x1;
                             minBlockY = minBlockY > y1 ? minBlockY : y1;
                             minBlockZ = minBlockZ > z1 ? minBlockZ : z1;
@@ -104,7 +104,7 @@ public abstract class MixinWorld_CollisionCheck implements ICubicWorldInternal {
                                         if (isOutsideBuildHeight(pooledmutableblockpos)) {
                                             continue;
                                         }
-                                        IBlockState bstate = loadedCube.getStorage().get(blockToLocal(x), blockToLocal(y), blockToLocal(z));
+                                        IBlockState bstate = loadedCube.getReadOnlyStorage().get(blockToLocal(x), blockToLocal(y), blockToLocal(z));
                                         bstate.addCollisionBoxToList((World) (Object) this, pooledmutableblockpos, aabb, aabbList, entity, false);
                                         net.minecraftforge.common.MinecraftForge.EVENT_BUS
                                                 .post(new net.minecraftforge.event.world.GetCollisionBoxesEvent((World) (Object) this, null, aabb,
@@ -0,0 +1,103 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.command;
+
+import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
+import io.github.opencubicchunks.cubicchunks.core.worldgen.WorldgenTimings;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.command.CommandBase;
+import net.minecraft.command.CommandException;
+import net.minecraft.command.ICommandSender;
+import net.minecraft.command.WrongUsageException;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.text.TextComponentString;
+
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Shows and controls worldgen populator timings collected by {@link WorldgenTimings}.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class CommandWorldgenTimings extends CommandBase {
+
+    @Override public String getName() {
+        return "cubicchunks_worldgen_timings";
+    }
+
+    @Override public String getUsage(ICommandSender sender) {
+        return "/cubicchunks_worldgen_timings <show [count]|reset|enable|disable>";
+    }
+
+    @Override public int getRequiredPermissionLevel() {
+        return 3;
+    }
+
+    @Override public void execute(MinecraftServer server, ICommandSender sender, String[] args) throws CommandException {
+        if (args.length < 1) {
+            throw new WrongUsageException(getUsage(sender));
+        }
+        switch (args[0]) {
+            case "show": {
+                int count = args.length > 1 ? parseInt(args[1], 1) : CubicChunksConfig.worldgenTimingsLogCount;
+                if (!WorldgenTimings.isEnabled()) {
+                    sender.sendMessage(new TextComponentString("Worldgen timings are disabled, showing previously collected data"));
+                }
+                List<String> lines = WorldgenTimings.instance().summary(count);
+                if (lines.isEmpty()) {
+                    sender.sendMessage(new TextComponentString("No worldgen timings collected"));
+                }
+                for (String line : lines) {
+                    sender.sendMessage(new TextComponentString(line));
+                }
+                break;
+            }
+            case "reset":
+                WorldgenTimings.instance().reset();
+                sender.sendMessage(new TextComponentString("Worldgen timings reset"));
+                break;
+            case "enable":
+            case "disable":
+                CubicChunksConfig.worldgenTimings = args[0].equals("enable");
+                WorldgenTimings.updateEnabled();
+                sender.sendMessage(new TextComponentString("Worldgen timings " + args[0] + "d"));
+                break;
+            default:
+                throw new WrongUsageException(getUsage(sender));
+        }
+    }
+
+    @Override public List<String> getTabCompletions(MinecraftServer server, ICommandSender sender, String[] args, @Nullable BlockPos targetPos) {
+        if (args.length == 1) {
+            return getListOfStringsMatchingLastWord(args, "show", "reset", "enable", "disable");
+        }
+        return Collections.emptyList();
+    }
+}
@@ -29,6 +29,7 @@ import static io.github.opencubicchunks.cubicchunks.api.util.Coords.blockToLocal
 import static io.github.opencubicchunks.cubicchunks.api.util.Coords.cubeToMaxBlock;
 import static io.github.opencubicchunks.cubicchunks.api.util.Coords.cubeToMinBlock;
 
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
 import io.github.opencubicchunks.cubicchunks.api.util.MathUtil;
 import io.github.opencubicchunks.cubicchunks.api.world.IColumn;
 import io.github.opencubicchunks.cubicchunks.api.world.ICube;
@@ -51,6 +52,7 @@ import org.apache.commons.lang3.tuple.Pair;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -114,12 +116,33 @@ public class FirstLightProcessor {
             return;
         }
         FastCubeBlockAccess access = new FastCubeBlockAccess(this.cache, cube, 2);
+        boolean hasSkyLight = cube.getWorld().provider.hasSkyLight();
+        propagateInitialLight(propagator, access, cube.getCoords(), cube.isEmpty(), hasSkyLight,
+                pos -> tracker.onUpdate(EnumSkyBlock.BLOCK, pos), pos -> tracker.onUpdate(EnumSkyBlock.SKY, pos));
+        if (hasSkyLight) {
+            diffuseSkylightInColumn(cube);
+        }
+    }
 
+    /**
+     * Propagates block light and sky light in the given cube and 1 block around it. This only needs access to cubes in
+     * radius of 2 cubes, so it can also be done on a snapshot of that area.
+     *
+     * @param propagator the light propagator to use
+     * @param access block access containing cubes within 2 cubes from the given cube
+     * @param cubePos position of the cube whose light is to be initialized
+     * @param isEmpty whether the cube is empty, in which case only edges need block light update
+     * @param hasSkyLight whether the world has sky light
+     * @param onBlockLightUpdate called for each position where block light has been changed
+     * @param onSkyLightUpdate called for each position where sky light has been changed
+     */
+    static void propagateInitialLight(LightPropagator propagator, ILightBlockAccess access, CubePos cubePos, boolean isEmpty,
+            boolean hasSkyLight, Consumer<BlockPos> onBlockLightUpdate, Consumer<BlockPos> onSkyLightUpdate) {
         Iterable<? extends BlockPos> allBlocks = BlockPos.getAllInBoxMutable(
-                cube.getCoords().getMinBlockPos().add(-1, -1, -1),
-                cube.getCoords().getMaxBlockPos().add(1, 1, 1)
+                cubePos.getMinBlockPos().add(-1, -1, -1),
+                cubePos.getMaxBlockPos().add(1, 1, 1)
         );
-        if (cube.isEmpty()) {
+        if (isEmpty) {
             List<BlockPos> positions = new ArrayList<>();
             for (BlockPos pos : allBlocks) {
                 int localX = blockToLocal(pos.getX());
@@ -130,20 +153,28 @@ public class FirstLightProcessor {
                     positions.add(pos.toImmutable());
                 }
             }
-            propagator.propagateLight(cube.getCoords().getCenterBlockPos(),
-                    positions, access, EnumSkyBlock.BLOCK, false, pos -> {});
+            propagator.propagateLight(cubePos.getCenterBlockPos(),
+                    positions, access, EnumSkyBlock.BLOCK, false, onBlockLightUpdate);
         } else {
-            propagator.propagateLight(cube.getCoords().getCenterBlockPos(),
-                    allBlocks, access, EnumSkyBlock.BLOCK, false, pos -> {});
+            propagator.propagateLight(cubePos.getCenterBlockPos(),
+                    allBlocks, access, EnumSkyBlock.BLOCK, false, onBlockLightUpdate);
         }
 
 
-        if (!cube.getWorld().provider.hasSkyLight()) {
+        if (!hasSkyLight) {
             return;
         }
-        propagator.propagateLight(cube.getCoords().getCenterBlockPos(),
-                allBlocks, access, EnumSkyBlock.SKY, false, tracker::onUpdate);
+        propagator.propagateLight(cubePos.getCenterBlockPos(),
+                allBlocks, access, EnumSkyBlock.SKY, false, onSkyLightUpdate);
+    }
 
+    /**
+     * Diffuses skylight in cubes of the given cube's column affected by the height changes from the given cube.
+     * Must be done after {@link #propagateInitialLight(LightPropagator, ILightBlockAccess, CubePos, boolean, boolean, Consumer, Consumer)}.
+     *
+     * @param cube the cube whose skylight is being initialized
+     */
+    void diffuseSkylightInColumn(Cube cube) {
         // Cache min/max Y, generating them may be expensive
         int[][] minBlockYArr = new int[Cube.SIZE][Cube.SIZE];
         int[][] maxBlockYArr = new int[Cube.SIZE][Cube.SIZE];
@@ -210,7 +241,8 @@ public class FirstLightProcessor {
             }
             if (!toUpdate.isEmpty()) {
                 propagator.propagateLight(otherCube.getCoords().getCenterBlockPos(), toUpdate,
-                        blockAccessMap.get(otherCube.getY()), EnumSkyBlock.SKY, tracker::onUpdate);
+                        blockAccessMap.get(otherCube.getY()), EnumSkyBlock.SKY,
+                        pos -> tracker.onUpdate(EnumSkyBlock.SKY, pos));
                 toUpdate.clear();
             }
         }
@@ -0,0 +1,259 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.lighting;
+
+import io.github.opencubicchunks.cubicchunks.api.util.Coords;
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
+import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldInternal;
+import io.github.opencubicchunks.cubicchunks.core.world.ICubeProviderInternal;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.WorldServer;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Computes initial lighting of new cubes on worker threads.
+ * <p>
+ * The part of {@link FirstLightProcessor#diffuseSkylight(Cube)} that only touches cubes within {@link FirstLightSnapshot#RADIUS}
+ * cubes is done on a {@link FirstLightSnapshot}. Cubes whose snapshot areas overlap are never processed at the same time. The results
+ * are applied, and the rest of initial lighting is done, on the server thread in {@link #tick()}.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class FirstLightScheduler {
+
+    @Nullable private static ExecutorService executor;
+    private static final ThreadLocal<LightPropagator> PROPAGATOR = ThreadLocal.withInitial(LightPropagator::new);
+
+    private final WorldServer world;
+    private final ICubeProviderInternal cubeProvider;
+    private final Consumer<Cube> onLightingDone;
+
+    private final Map<CubePos, Job> waiting = new LinkedHashMap<>();
+    private final Map<CubePos, Job> running = new LinkedHashMap<>();
+
+    /**
+     * @param world the world
+     * @param cubeProvider cube provider of the world
+     * @param onLightingDone called on the server thread after initial lighting of a cube is done
+     */
+    public FirstLightScheduler(WorldServer world, ICubeProviderInternal cubeProvider, Consumer<Cube> onLightingDone) {
+        this.world = world;
+        this.cubeProvider = cubeProvider;
+        this.onLightingDone = onLightingDone;
+    }
+
+    public static boolean isEnabled() {
+        return CubicChunksConfig.firstLightThreads > 0 && !LightingManager.NO_SUNLIGHT_PROPAGATION;
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(CubicChunksConfig.firstLightThreads, task -> {
+                Thread thread = new Thread(task, "Cubic Chunks first light thread");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * Queues initial lighting of the cube. The cube's neighbors should already be generated.
+     */
+    public void schedule(Cube cube) {
+        waiting.computeIfAbsent(cube.getCoords(), pos -> new Job(cube));
+    }
+
+    /**
+     * @return true if initial lighting for the cube is queued or being computed
+     */
+    public boolean isScheduled(CubePos pos) {
+        return waiting.containsKey(pos) || running.containsKey(pos);
+    }
+
+    /**
+     * Cancels initial lighting of the cube, so that it can be done synchronously. Results of already running computation are
+     * discarded.
+     */
+    public void cancel(CubePos pos) {
+        waiting.remove(pos);
+        Job job = running.get(pos);
+        if (job != null) {
+            job.cancelled = true;
+        }
+    }
+
+    /**
+     * Marks computation of cubes whose snapshot contains the block as stale, so that it's redone from a new snapshot instead of
+     * applying outdated results. Must be called from the server thread whenever a block changes.
+     */
+    public void onBlockChanged(BlockPos pos) {
+        if (running.isEmpty()) {
+            return;
+        }
+        int cubeX = Coords.blockToCube(pos.getX());
+        int cubeY = Coords.blockToCube(pos.getY());
+        int cubeZ = Coords.blockToCube(pos.getZ());
+        for (Job job : running.values()) {
+            if (Math.abs(job.cube.getX() - cubeX) <= FirstLightSnapshot.RADIUS
+                    && Math.abs(job.cube.getY() - cubeY) <= FirstLightSnapshot.RADIUS
+                    && Math.abs(job.cube.getZ() - cubeZ) <= FirstLightSnapshot.RADIUS) {
+                job.stale = true;
+            }
+        }
+    }
+
+    /**
+     * Applies finished results and starts computing initial lighting for waiting cubes that don't overlap with running ones.
+     */
+    public void tick() {
+        if (waiting.isEmpty() && running.isEmpty()) {
+            return;
+        }
+        for (Iterator<Job> it = running.values().iterator(); it.hasNext(); ) {
+            Job job = it.next();
+            if (job.future.isDone()) {
+                it.remove();
+                finish(job);
+            }
+        }
+        if (!isEnabled()) {
+            // disabled in config, finish everything synchronously
+            List<Job> jobs = new ArrayList<>(waiting.values());
+            waiting.clear();
+            for (Job job : jobs) {
+                finishSync(job);
+            }
+            return;
+        }
+        int maxRunning = CubicChunksConfig.firstLightThreads * 2;
+        for (Iterator<Job> it = waiting.values().iterator(); it.hasNext() && running.size() < maxRunning; ) {
+            Job job = it.next();
+            if (cubeProvider.getLoadedCube(job.cube.getCoords()) != job.cube) {
+                it.remove();
+                continue;
+            }
+            if (overlapsRunning(job.cube.getCoords())) {
+                continue;
+            }
+            it.remove();
+            job.start(cubeProvider);
+            running.put(job.cube.getCoords(), job);
+        }
+    }
+
+    private boolean overlapsRunning(CubePos pos) {
+        final int distance = FirstLightSnapshot.RADIUS * 2;
+        for (CubePos other : running.keySet()) {
+            if (Math.abs(other.getX() - pos.getX()) <= distance
+                    && Math.abs(other.getY() - pos.getY()) <= distance
+                    && Math.abs(other.getZ() - pos.getZ()) <= distance) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void finish(Job job) {
+        if (job.cancelled || cubeProvider.getLoadedCube(job.cube.getCoords()) != job.cube) {
+            return;
+        }
+        try {
+            job.future.get();
+        } catch (InterruptedException | ExecutionException e) {
+            CubicChunks.LOGGER.error("Computing initial lighting of cube " + job.cube.getCoords() + " failed, retrying on server thread", e);
+            finishSync(job);
+            return;
+        }
+        if (job.stale) {
+            // blocks changed while computing, the result may be wrong. Compute it again from a new snapshot
+            job.reset();
+            waiting.put(job.cube.getCoords(), job);
+            return;
+        }
+        LightingManager lightingManager = ((ICubicWorldInternal) world).getLightingManager();
+        job.snapshot.apply(cubeProvider, lightingManager, lightingManager.getTracker());
+        if (world.provider.hasSkyLight()) {
+            ((ICubicWorldInternal.Server) world).getFirstLightProcessor().diffuseSkylightInColumn(job.cube);
+        }
+        job.cube.setInitialLightingDone(true);
+        onLightingDone.accept(job.cube);
+    }
+
+    private void finishSync(Job job) {
+        if (cubeProvider.getLoadedCube(job.cube.getCoords()) != job.cube) {
+            return;
+        }
+        ((ICubicWorldInternal.Server) world).getFirstLightProcessor().diffuseSkylight(job.cube);
+        job.cube.setInitialLightingDone(true);
+        onLightingDone.accept(job.cube);
+    }
+
+    private static class Job {
+
+        final Cube cube;
+        FirstLightSnapshot snapshot;
+        Future<?> future;
+        boolean cancelled;
+        boolean stale;
+
+        Job(Cube cube) {
+            this.cube = cube;
+        }
+
+        void start(ICubeProviderInternal cubeProvider) {
+            FirstLightSnapshot snapshot = new FirstLightSnapshot(cubeProvider, cube);
+            CubePos pos = cube.getCoords();
+            boolean isEmpty = cube.isEmpty();
+            boolean hasSkyLight = cube.getWorld().provider.hasSkyLight();
+            this.snapshot = snapshot;
+            this.future = getExecutor().submit(() ->
+                    FirstLightProcessor.propagateInitialLight(PROPAGATOR.get(), snapshot, pos, isEmpty, hasSkyLight, p -> {}, p -> {}));
+        }
+
+        void reset() {
+            this.snapshot = null;
+            this.future = null;
+            this.stale = false;
+        }
+    }
+}
@@ -0,0 +1,334 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.lighting;
+
+import static io.github.opencubicchunks.cubicchunks.api.util.Coords.blockToCube;
+import static io.github.opencubicchunks.cubicchunks.api.util.Coords.blockToLocal;
+
+import io.github.opencubicchunks.cubicchunks.api.util.Coords;
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.core.util.FastCubeBlockAccess;
+import io.github.opencubicchunks.cubicchunks.core.world.IColumnInternal;
+import io.github.opencubicchunks.cubicchunks.core.world.ICubeProviderInternal;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.EnumSkyBlock;
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.NibbleArray;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Light values, light opacity and emitted block light of cubes within {@link #RADIUS} cubes of a cube, copied so that initial lighting
+ * of that cube can be computed off the server thread without touching the live cubes or the world.
+ * <p>
+ * Changed light values are written back by {@link #apply(ICubeProviderInternal, LightingManager, LightUpdateTracker)} on the server
+ * thread. Values that have been changed by the server thread since the snapshot was made are not overwritten, and get rechecked
+ * instead. The snapshot doesn't see block changes made after it was created, so results computed from it must be discarded if a
+ * block within its area changes (see {@link FirstLightScheduler#onBlockChanged(BlockPos)}).
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+class FirstLightSnapshot implements ILightBlockAccess {
+
+    static final int RADIUS = 2;
+    private static final int SIZE = RADIUS * 2 + 1;
+
+    private final int originX, originY, originZ;
+    private final boolean hasSkyLight;
+
+    private final Cube[] cubes = new Cube[SIZE * SIZE * SIZE];
+    // light opacity (one byte per block) and emitted block light (nibbles) of each cube, null if the cube has no blocks
+    @Nullable private final byte[][] opacity = new byte[SIZE * SIZE * SIZE][];
+    @Nullable private final byte[][] emission = new byte[SIZE * SIZE * SIZE][];
+    // light values at the time of the snapshot, and copies modified by light propagation, created when first modified
+    @Nullable private final byte[][] skyLight;
+    private final byte[][] blockLight;
+    @Nullable private final byte[][] newSkyLight;
+    private final byte[][] newBlockLight;
+    private final int[][] heights = new int[SIZE * SIZE][];
+
+    private final List<BlockPos> edgesNeedingUpdate = new ArrayList<>();
+
+    /**
+     * Creates the snapshot. Must be called from the server thread.
+     */
+    FirstLightSnapshot(ICubeProviderInternal prov, Cube center) {
+        World world = center.getWorld();
+        this.hasSkyLight = world.provider.hasSkyLight();
+        this.originX = center.getX() - RADIUS;
+        this.originY = center.getY() - RADIUS;
+        this.originZ = center.getZ() - RADIUS;
+        this.skyLight = hasSkyLight ? new byte[SIZE * SIZE * SIZE][] : null;
+        this.newSkyLight = hasSkyLight ? new byte[SIZE * SIZE * SIZE][] : null;
+        this.blockLight = new byte[SIZE * SIZE * SIZE][];
+        this.newBlockLight = new byte[SIZE * SIZE * SIZE][];
+
+        for (int dx = 0; dx < SIZE; dx++) {
+            for (int dz = 0; dz < SIZE; dz++) {
+                Chunk column = prov.getLoadedColumn(originX + dx, originZ + dz);
+                if (column != null) {
+                    int[] columnHeights = new int[Cube.SIZE * Cube.SIZE];
+                    for (int i = 0; i < columnHeights.length; i++) {
+                        columnHeights[i] = ((IColumnInternal) column).getHeightWithStaging(i & 15, i >> 4);
+                    }
+                    heights[dx * SIZE + dz] = columnHeights;
+                }
+                for (int dy = 0; dy < SIZE; dy++) {
+                    Cube cube = prov.getLoadedCube(originX + dx, originY + dy, originZ + dz);
+                    if (cube == null) {
+                        continue;
+                    }
+                    int idx = index(dx, dy, dz);
+                    ExtendedBlockStorage storage = cube.getReadOnlyStorage();
+                    cubes[idx] = cube;
+                    if (storage != null && !storage.isEmpty()) {
+                        copyBlockProperties(world, cube, storage, idx);
+                    }
+                    blockLight[idx] = copyOrEmpty(storage == null ? null : storage.getBlockLight());
+                    if (hasSkyLight) {
+                        skyLight[idx] = copyOrEmpty(storage == null ? null : storage.getSkyLight());
+                    }
+                }
+            }
+        }
+    }
+
+    private void copyBlockProperties(World world, Cube cube, ExtendedBlockStorage storage, int idx) {
+        byte[] cubeOpacity = new byte[Cube.SIZE * Cube.SIZE * Cube.SIZE];
+        byte[] cubeEmission = new byte[cubeOpacity.length / 2];
+        BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+        for (int i = 0; i < cubeOpacity.length; i++) {
+            int localX = i & 15, localY = i >> 8 & 15, localZ = i >> 4 & 15;
+            IBlockState state = storage.get(localX, localY, localZ);
+            if (state == Blocks.AIR.getDefaultState()) {
+                continue;
+            }
+            pos.setPos(Coords.localToBlock(cube.getX(), localX), Coords.localToBlock(cube.getY(), localY),
+                    Coords.localToBlock(cube.getZ(), localZ));
+            cubeOpacity[i] = (byte) Math.min(state.getLightOpacity(world, pos), 255);
+            setNibble(cubeEmission, i, state.getLightValue(world, pos));
+        }
+        opacity[idx] = cubeOpacity;
+        emission[idx] = cubeEmission;
+    }
+
+    private static byte[] copyOrEmpty(@Nullable NibbleArray array) {
+        return array == null ? new byte[2048] : array.getData().clone();
+    }
+
+    private static int index(int dx, int dy, int dz) {
+        return (dx * SIZE + dy) * SIZE + dz;
+    }
+
+    private int index(BlockPos pos) {
+        int dx = blockToCube(pos.getX()) - originX;
+        int dy = blockToCube(pos.getY()) - originY;
+        int dz = blockToCube(pos.getZ()) - originZ;
+        if (dx < 0 || dy < 0 || dz < 0 || dx >= SIZE || dy >= SIZE || dz >= SIZE) {
+            return -1;
+        }
+        return index(dx, dy, dz);
+    }
+
+    private static int nibbleIndex(BlockPos pos) {
+        return blockToLocal(pos.getY()) << 8 | blockToLocal(pos.getZ()) << 4 | blockToLocal(pos.getX());
+    }
+
+    private static int getNibble(byte[] data, int index) {
+        return data[index >> 1] >> ((index & 1) << 2) & 0xF;
+    }
+
+    private static void setNibble(byte[] data, int index, int value) {
+        int shift = (index & 1) << 2;
+        data[index >> 1] = (byte) (data[index >> 1] & ~(0xF << shift) | (value & 0xF) << shift);
+    }
+
+    @Override public int getBlockLightOpacity(BlockPos pos) {
+        int idx = index(pos);
+        byte[] data = idx < 0 ? null : opacity[idx];
+        return data == null ? 0 : data[nibbleIndex(pos)] & 0xFF;
+    }
+
+    @Override public int getLightFor(EnumSkyBlock lightType, BlockPos pos) {
+        int idx = index(pos);
+        if (idx < 0 || cubes[idx] == null) {
+            return 0;
+        }
+        if (lightType == EnumSkyBlock.SKY) {
+            if (!hasSkyLight) {
+                return 0;
+            }
+            byte[] data = newSkyLight[idx] != null ? newSkyLight[idx] : skyLight[idx];
+            return getNibble(data, nibbleIndex(pos));
+        }
+        byte[] data = newBlockLight[idx] != null ? newBlockLight[idx] : blockLight[idx];
+        return getNibble(data, nibbleIndex(pos));
+    }
+
+    @Override public boolean setLightFor(EnumSkyBlock lightType, BlockPos pos, int val) {
+        int idx = index(pos);
+        if (idx < 0 || cubes[idx] == null) {
+            return false;
+        }
+        if (lightType == EnumSkyBlock.SKY && !hasSkyLight) {
+            return true;
+        }
+        byte[][] original = lightType == EnumSkyBlock.SKY ? skyLight : blockLight;
+        byte[][] modified = lightType == EnumSkyBlock.SKY ? newSkyLight : newBlockLight;
+        int nibble = nibbleIndex(pos);
+        byte[] data = modified[idx];
+        if (data == null) {
+            if (getNibble(original[idx], nibble) == val) {
+                return true;
+            }
+            data = modified[idx] = original[idx].clone();
+        }
+        setNibble(data, nibble, val);
+        return true;
+    }
+
+    @Override public boolean canSeeSky(BlockPos pos) {
+        int dx = blockToCube(pos.getX()) - originX;
+        int dz = blockToCube(pos.getZ()) - originZ;
+        if (dx < 0 || dz < 0 || dx >= SIZE || dz >= SIZE) {
+            return false;
+        }
+        int[] columnHeights = heights[dx * SIZE + dz];
+        if (columnHeights == null) {
+            return false;
+        }
+        return columnHeights[blockToLocal(pos.getZ()) << 4 | blockToLocal(pos.getX())] <= pos.getY();
+    }
+
+    @Override public int getEmittedLight(BlockPos pos, EnumSkyBlock type) {
+        switch (type) {
+            case BLOCK: {
+                int idx = index(pos);
+                byte[] data = idx < 0 ? null : emission[idx];
+                return data == null ? 0 : getNibble(data, nibbleIndex(pos));
+            }
+            case SKY:
+                return canSeeSky(pos) ? 15 : 0;
+            default:
+                throw new AssertionError();
+        }
+    }
+
+    @Override public void markEdgeNeedLightUpdate(BlockPos pos, EnumSkyBlock type) {
+        if (type == EnumSkyBlock.BLOCK) {
+            return;
+        }
+        int idx = index(pos);
+        if (idx >= 0 && cubes[idx] != null) {
+            edgesNeedingUpdate.add(pos.toImmutable());
+        }
+    }
+
+    /**
+     * Writes changed light values back into the cubes. Must be called from the server thread.
+     */
+    void apply(ICubeProviderInternal prov, LightingManager lightingManager, @Nullable LightUpdateTracker tracker) {
+        BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+        for (int dx = 0; dx < SIZE; dx++) {
+            for (int dy = 0; dy < SIZE; dy++) {
+                for (int dz = 0; dz < SIZE; dz++) {
+                    int idx = index(dx, dy, dz);
+                    Cube cube = cubes[idx];
+                    if (cube == null || (newBlockLight[idx] == null && (!hasSkyLight || newSkyLight[idx] == null))) {
+                        continue;
+                    }
+                    // the cube may have been unloaded and loaded again in the meantime
+                    if (prov.getLoadedCube(cube.getCoords()) != cube) {
+                        continue;
+                    }
+                    ExtendedBlockStorage storage = cube.getStorage();
+                    if (storage == null) {
+                        storage = cube.setStorage(new ExtendedBlockStorage(Coords.cubeToMinBlock(cube.getY()), hasSkyLight));
+                    }
+                    boolean changed = apply(EnumSkyBlock.BLOCK, cube, blockLight[idx], newBlockLight[idx], storage.getBlockLight(),
+                            pos, lightingManager, tracker);
+                    if (hasSkyLight) {
+                        changed |= apply(EnumSkyBlock.SKY, cube, skyLight[idx], newSkyLight[idx], storage.getSkyLight(),
+                                pos, lightingManager, tracker);
+                    }
+                    if (changed) {
+                        cube.markDirty();
+                    }
+                }
+            }
+        }
+        for (BlockPos edgePos : edgesNeedingUpdate) {
+            Cube cube = cubes[index(edgePos)];
+            if (cube != null && prov.getLoadedCube(cube.getCoords()) == cube) {
+                FastCubeBlockAccess.markEdgeNeedSkyLightUpdate(cube, edgePos.getX(), edgePos.getY(), edgePos.getZ());
+            }
+        }
+    }
+
+    private static boolean apply(EnumSkyBlock type, Cube cube, byte[] original, @Nullable byte[] modified, NibbleArray current,
+            BlockPos.MutableBlockPos pos, LightingManager lightingManager, @Nullable LightUpdateTracker tracker) {
+        if (modified == null) {
+            return false;
+        }
+        byte[] currentData = current.getData();
+        boolean changed = false;
+        for (int i = 0; i < original.length; i++) {
+            if (original[i] == modified[i]) {
+                continue;
+            }
+            for (int nibble = i << 1; nibble <= (i << 1 | 1); nibble++) {
+                int newValue = getNibble(modified, nibble);
+                if (getNibble(original, nibble) == newValue) {
+                    continue;
+                }
+                pos.setPos(
+                        Coords.localToBlock(cube.getX(), nibble & 15),
+                        Coords.localToBlock(cube.getY(), nibble >> 8 & 15),
+                        Coords.localToBlock(cube.getZ(), nibble >> 4 & 15));
+                if (getNibble(currentData, nibble) != getNibble(original, nibble)) {
+                    // changed on the server thread since the snapshot, the computed value may no longer be correct
+                    lightingManager.checkLightFor(type, pos);
+                    continue;
+                }
+                setNibble(currentData, nibble, newValue);
+                changed = true;
+                if (tracker != null) {
+                    tracker.onUpdate(type, pos);
+                }
+            }
+        }
+        return changed;
+    }
+}
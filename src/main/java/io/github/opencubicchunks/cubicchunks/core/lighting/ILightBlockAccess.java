@@ -116,4 +116,31 @@ public interface ILightBlockAccess {
     }
 
     void markEdgeNeedLightUpdate(BlockPos offset, EnumSkyBlock type);
+
+    // Variants of the methods above taking block coordinates instead of BlockPos, used by PackedLightPropagator.
+    // Implementations that are used on hot paths should override these to avoid creating BlockPos objects.
+
+    default int getBlockLightOpacity(int blockX, int blockY, int blockZ) {
+        return getBlockLightOpacity(new BlockPos(blockX, blockY, blockZ));
+    }
+
+    default int getLightFor(EnumSkyBlock lightType, int blockX, int blockY, int blockZ) {
+        return getLightFor(lightType, new BlockPos(blockX, blockY, blockZ));
+    }
+
+    default boolean setLightFor(EnumSkyBlock lightType, int blockX, int blockY, int blockZ, int val) {
+        return setLightFor(lightType, new BlockPos(blockX, blockY, blockZ), val);
+    }
+
+    default int getEmittedLight(int blockX, int blockY, int blockZ, EnumSkyBlock type) {
+        return getEmittedLight(new BlockPos(blockX, blockY, blockZ), type);
+    }
+
+    default boolean hasNeighborsAccessible(int blockX, int blockY, int blockZ) {
+        return hasNeighborsAccessible(new BlockPos(blockX, blockY, blockZ));
+    }
+
+    default void markEdgeNeedLightUpdate(int blockX, int blockY, int blockZ, EnumSkyBlock type) {
+        markEdgeNeedLightUpdate(new BlockPos(blockX, blockY, blockZ), type);
+    }
 }
@@ -27,6 +27,7 @@ package io.github.opencubicchunks.cubicchunks.core.lighting;
 import static net.minecraft.crash.CrashReportCategory.getCoordinateInfo;
 
 import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
+import io.github.opencubicchunks.cubicchunks.core.util.FastCubeBlockAccess;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.crash.CrashReport;
 import net.minecraft.crash.CrashReportCategory;
@@ -48,6 +49,7 @@ import javax.annotation.ParametersAreNonnullByDefault;
 public class LightPropagator {
 
     @Nonnull private LightUpdateQueue internalRelightQueue = new LightUpdateQueue();
+    @Nonnull private final PackedLightPropagator packedPropagator = new PackedLightPropagator();
 
     public void propagateLight(BlockPos centerPos, Iterable<? extends BlockPos> coords, ILightBlockAccess blocks, EnumSkyBlock type,
             Consumer<BlockPos> setLightCallback) {
@@ -82,6 +84,10 @@ public class LightPropagator {
         if (type == EnumSkyBlock.SKY && LightingManager.NO_SUNLIGHT_PROPAGATION) {
             return;
         }
+        if (blocks instanceof FastCubeBlockAccess && !(CubicChunksConfig.fastSimplifiedSkyLight && type == EnumSkyBlock.SKY)) {
+            packedPropagator.propagateLight(centerPos, coords, blocks, type, handleDecreased, setLightCallback);
+            return;
+        }
         internalRelightQueue.begin(centerPos);
         try {
             if (CubicChunksConfig.fastSimplifiedSkyLight && type == EnumSkyBlock.SKY) {
@@ -97,20 +103,24 @@ public class LightPropagator {
             queueIncreasedLights(coords, blocks, type, setLightCallback);
             handleLightSpread(blocks, type, setLightCallback);
         } catch (Throwable t) {
-            CrashReport report = CrashReport.makeCrashReport(t, "Updating skylight");
-            CrashReportCategory category = report.makeCategory("Skylight update");
-            category.addDetail("CenterLocation", () -> getCoordinateInfo(centerPos));
-            int i = 0;
-            for (BlockPos pos : coords) {
-                category.addDetail("UpdateLocation" + i, () -> getCoordinateInfo(pos));
-                i++;
-            }
-            throw new ReportedException(report);
+            throw reportCrash(t, centerPos, coords);
         } finally {
             internalRelightQueue.end();
         }
     }
 
+    static ReportedException reportCrash(Throwable t, BlockPos centerPos, Iterable<? extends BlockPos> coords) {
+        CrashReport report = CrashReport.makeCrashReport(t, "Updating skylight");
+        CrashReportCategory category = report.makeCategory("Skylight update");
+        category.addDetail("CenterLocation", () -> getCoordinateInfo(centerPos));
+        int i = 0;
+        for (BlockPos pos : coords) {
+            category.addDetail("UpdateLocation" + i, () -> getCoordinateInfo(pos));
+            i++;
+        }
+        return new ReportedException(report);
+    }
+
     private void queueDecreasedLights(Iterable<? extends BlockPos> coords, ILightBlockAccess blocks, EnumSkyBlock type) {
         for (BlockPos coord : coords) {
             int emitted = blocks.getEmittedLight(coord, type);
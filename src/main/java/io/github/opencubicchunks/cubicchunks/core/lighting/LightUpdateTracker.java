@@ -26,20 +26,20 @@ package io.github.opencubicchunks.cubicchunks.core.lighting;
 
 import static io.github.opencubicchunks.cubicchunks.api.util.Coords.blockToCube;
 
-import gnu.trove.list.TShortList;
-import gnu.trove.list.array.TShortArrayList;
 import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
 import io.github.opencubicchunks.cubicchunks.api.util.XYZAddressable;
 import io.github.opencubicchunks.cubicchunks.api.util.XYZMap;
+import io.github.opencubicchunks.cubicchunks.core.network.PacketCubeLightUpdates;
 import io.github.opencubicchunks.cubicchunks.core.network.PacketCubeSkyLightUpdates;
 import io.github.opencubicchunks.cubicchunks.core.server.CubeWatcher;
 import io.github.opencubicchunks.cubicchunks.core.server.PlayerCubeMap;
 import io.github.opencubicchunks.cubicchunks.core.util.AddressTools;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
 import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.EnumSkyBlock;
 
 /**
- * Tracks FirstLightProcessor lighting updates and sends them to client
+ * Tracks sky light and block light updates and sends them to client
  */
 class LightUpdateTracker {
 
@@ -50,7 +50,7 @@ class LightUpdateTracker {
         this.cubeMap = cubeMap;
     }
 
-    void onUpdate(BlockPos blockPos) {
+    void onUpdate(EnumSkyBlock type, BlockPos blockPos) {
         CubeUpdateList list = cubes.get(
                 blockToCube(blockPos.getX()),
                 blockToCube(blockPos.getY()),
@@ -60,7 +60,7 @@ class LightUpdateTracker {
             list = new CubeUpdateList(CubePos.fromBlockCoords(blockPos));
             cubes.put(list);
         }
-        list.add(blockPos);
+        list.add(type, blockPos);
     }
 
     void sendAll() {
@@ -70,19 +70,29 @@ class LightUpdateTracker {
 
     private class CubeUpdateList implements XYZAddressable {
 
-        private static final int MAX_COUNT = 64;
         private final CubePos pos;
-        private final TShortList updates = new TShortArrayList(MAX_COUNT);
+        // bit masks of changed positions, indexed by local address
+        private final long[] changedSky = new long[Cube.SIZE * Cube.SIZE * Cube.SIZE / Long.SIZE];
+        private final long[] changedBlock = new long[Cube.SIZE * Cube.SIZE * Cube.SIZE / Long.SIZE];
+        private int changedSkyCount;
+        private int changedBlockCount;
 
         CubeUpdateList(CubePos pos) {
             this.pos = pos;
         }
 
-        void add(BlockPos pos) {
-            if (updates.size() >= MAX_COUNT) {
-                return;
+        void add(EnumSkyBlock type, BlockPos pos) {
+            long[] changed = type == EnumSkyBlock.SKY ? changedSky : changedBlock;
+            int address = AddressTools.getLocalAddress(pos);
+            long bit = 1L << address;
+            if ((changed[address >>> 6] & bit) == 0) {
+                changed[address >>> 6] |= bit;
+                if (type == EnumSkyBlock.SKY) {
+                    changedSkyCount++;
+                } else {
+                    changedBlockCount++;
+                }
             }
-            updates.add((short) AddressTools.getLocalAddress(pos));
         }
 
         void send() {
@@ -90,13 +100,16 @@ class LightUpdateTracker {
             if (watcher != null && watcher.isSentToPlayers()) {
                 Cube cube = watcher.getCube();
                 assert cube != null;
-                if (updates.size() >= MAX_COUNT) {
-                    watcher.sendPacketToAllPlayers(new PacketCubeSkyLightUpdates(cube));
-                } else {
-                    watcher.sendPacketToAllPlayers(new PacketCubeSkyLightUpdates(cube, this.updates));
+                // encoded once and shared by all players watching the cube, older clients get only sky light in the old format
+                if (changedSkyCount > 0) {
+                    watcher.sendPacketToAllPlayers(new PacketCubeLightUpdates(cube, EnumSkyBlock.SKY, changedSky, changedSkyCount),
+                            PacketCubeLightUpdates::isSupported, () -> new PacketCubeSkyLightUpdates(cube, changedSky, changedSkyCount));
+                }
+                if (changedBlockCount > 0) {
+                    watcher.sendPacketToAllPlayers(new PacketCubeLightUpdates(cube, EnumSkyBlock.BLOCK, changedBlock, changedBlockCount),
+                            PacketCubeLightUpdates::isSupported, () -> null);
                 }
             }
-            updates.clear();
         }
 
         @Override public int getX() {
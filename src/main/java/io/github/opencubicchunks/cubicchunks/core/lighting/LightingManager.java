@@ -35,12 +35,15 @@ import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
 import io.github.opencubicchunks.cubicchunks.api.world.IColumn;
 import io.github.opencubicchunks.cubicchunks.api.world.ICube;
 import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
 import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldInternal;
 import io.github.opencubicchunks.cubicchunks.core.server.PlayerCubeMap;
 import io.github.opencubicchunks.cubicchunks.core.util.FastCubeBlockAccess;
 import io.github.opencubicchunks.cubicchunks.core.world.ICubeProviderInternal;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
 import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.profiler.Profiler;
 import net.minecraft.util.EnumFacing;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.MathHelper;
@@ -50,12 +53,11 @@ import net.minecraft.world.WorldServer;
 import net.minecraft.world.chunk.Chunk;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Comparator;
 import java.util.EnumSet;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
+import java.util.NavigableSet;
+import java.util.TreeSet;
 import java.util.function.Consumer;
 
 import javax.annotation.Nonnull;
@@ -74,7 +76,21 @@ public class LightingManager implements ILightingManager {
     @Nonnull private LightPropagator lightPropagator = new LightPropagator();
     @Nonnull private final List<IHeightChangeListener> heightUpdateListeners = new ArrayList<>();
     @Nullable private LightUpdateTracker tracker;
-    @Nonnull private final Set<CubeLightUpdateInfo> toUpdate = new HashSet<>();
+    // cubes with pending updates, ordered by squared cube distance to the nearest player at the time they were last prioritized
+    @Nonnull private final NavigableSet<CubeLightUpdateInfo> toUpdate = new TreeSet<>(Comparator
+            .<CubeLightUpdateInfo>comparingLong(info -> info.priority)
+            .thenComparingInt(info -> info.cube.getX())
+            .thenComparingInt(info -> info.cube.getY())
+            .thenComparingInt(info -> info.cube.getZ()));
+    // cube positions of players used to compute priorities, updates are reprioritized when they change
+    @Nonnull private final List<CubePos> playerCubePositions = new ArrayList<>();
+    @Nonnull private final PendingLightChecks pendingLightChecks = new PendingLightChecks();
+
+    // statistics since the last time they have been logged
+    private int tickedCubeUpdates;
+    private long lightUpdateNanos;
+    private int budgetExceededTicks;
+    private int reprioritizations;
 
     public LightingManager(World world) {
         this.world = world;
@@ -86,7 +102,7 @@ public class LightingManager implements ILightingManager {
             return null;
         }
         if (tracker == null) {
-            if (!world.isRemote && world.provider.hasSkyLight()) {
+            if (!world.isRemote) {
                 tracker = new LightUpdateTracker((PlayerCubeMap) ((WorldServer) world).getPlayerChunkMap());
             }
         }
@@ -162,7 +178,7 @@ public class LightingManager implements ILightingManager {
                     world.notifyLightSet(pos);
                     LightUpdateTracker tracker = getTracker();
                     if (tracker != null) {
-                        tracker.onUpdate(pos);
+                        tracker.onUpdate(EnumSkyBlock.SKY, pos);
                     }
                 });
     }
@@ -172,30 +188,132 @@ public class LightingManager implements ILightingManager {
     }
 
     @Override public void onTick() {
-        // make a copy to prevent CME
-        Set<CubeLightUpdateInfo> updateSet = new HashSet<>(this.toUpdate);
-        this.toUpdate.clear();
-        int total = updateSet.size();
-        long ms = -System.currentTimeMillis();
-        for (Iterator<CubeLightUpdateInfo> iterator = updateSet.iterator(); iterator.hasNext(); ) {
-            CubeLightUpdateInfo cubeLightUpdateInfo = iterator.next();
-            cubeLightUpdateInfo.tick();
-            if (!cubeLightUpdateInfo.hasUpdates()) {
-                iterator.remove();
-            }
-        }
-        ms += System.currentTimeMillis();
-        int updated = total - updateSet.size();
-        if (ms > 50) {
-            CubicChunks.LOGGER.debug("Light tick: " + total + " cubes, " + updated + " updated in " + ms + "ms, " + (ms/(double)updated) + "ms/cube");
-        }
-        this.toUpdate.addAll(updateSet);
+        Profiler profiler = world.profiler;
+        profiler.startSection("lighting");
+        profiler.startSection("pendingChecks");
+        processPendingLightChecks();
 
+        profiler.endStartSection("cubeUpdates");
+        tickCubeLightUpdates();
 
+        profiler.endStartSection("sendUpdates");
         LightUpdateTracker tracker = getTracker();
         if (tracker != null) {
             tracker.sendAll();
         }
+        profiler.endSection();
+        profiler.endSection();
+
+        if (world.getTotalWorldTime() % 200 == 0) {
+            logStats();
+        }
+    }
+
+    /**
+     * Ticks cubes with pending light updates, starting with the ones closest to players, until the time budget for this tick
+     * is used up. The remaining cubes are left for the next tick.
+     */
+    private void tickCubeLightUpdates() {
+        if (toUpdate.isEmpty()) {
+            return;
+        }
+        Profiler profiler = world.profiler;
+        long budget = CubicChunksConfig.lightingTickBudgetNanos;
+        long start = System.nanoTime();
+
+        profiler.startSection("prioritize");
+        if (updatePlayerCubePositions()) {
+            reprioritize();
+        }
+
+        profiler.endStartSection("tick");
+        // cubes marked for update while ticking are left for the next tick
+        List<CubeLightUpdateInfo> notDone = new ArrayList<>();
+        int toTick = toUpdate.size();
+        int ticked = 0;
+        while (ticked < toTick && !toUpdate.isEmpty()) {
+            // always make some progress, even if the budget is too small
+            if (ticked > 0 && budget > 0 && System.nanoTime() - start >= budget) {
+                budgetExceededTicks++;
+                break;
+            }
+            CubeLightUpdateInfo info = toUpdate.pollFirst();
+            info.queued = false;
+            info.tick();
+            ticked++;
+            if (info.hasUpdates() && !info.queued) {
+                notDone.add(info);
+            }
+        }
+        for (CubeLightUpdateInfo info : notDone) {
+            markToUpdate(info);
+        }
+        profiler.endSection();
+        tickedCubeUpdates += ticked;
+        lightUpdateNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * @return true if any player has moved to a different cube, or players have been added or removed since the last call
+     */
+    private boolean updatePlayerCubePositions() {
+        List<EntityPlayer> players = world.playerEntities;
+        boolean changed = players.size() != playerCubePositions.size();
+        for (int i = 0; i < players.size() && !changed; i++) {
+            EntityPlayer player = players.get(i);
+            CubePos pos = playerCubePositions.get(i);
+            changed = pos.getX() != Coords.getCubeXForEntity(player)
+                    || pos.getY() != Coords.getCubeYForEntity(player)
+                    || pos.getZ() != Coords.getCubeZForEntity(player);
+        }
+        if (changed) {
+            playerCubePositions.clear();
+            for (EntityPlayer player : players) {
+                playerCubePositions.add(CubePos.fromEntity(player));
+            }
+        }
+        return changed;
+    }
+
+    private void reprioritize() {
+        List<CubeLightUpdateInfo> infos = new ArrayList<>(toUpdate);
+        toUpdate.clear();
+        for (CubeLightUpdateInfo info : infos) {
+            info.priority = getPriority(info.cube.getCoords());
+        }
+        toUpdate.addAll(infos);
+        reprioritizations++;
+    }
+
+    /**
+     * @return squared cube distance to the nearest player
+     */
+    private long getPriority(CubePos pos) {
+        long minDistance = playerCubePositions.isEmpty() ? 0 : Long.MAX_VALUE;
+        for (CubePos playerPos : playerCubePositions) {
+            long dx = pos.getX() - playerPos.getX();
+            long dy = pos.getY() - playerPos.getY();
+            long dz = pos.getZ() - playerPos.getZ();
+            minDistance = Math.min(minDistance, dx * dx + dy * dy + dz * dz);
+        }
+        return minDistance;
+    }
+
+    private void logStats() {
+        if (pendingLightChecks.getRequestedCount() > 0) {
+            CubicChunks.LOGGER.debug("Light checks: " + pendingLightChecks.getRequestedCount() + " requested, "
+                    + pendingLightChecks.getMergedCount() + " merged with already pending checks");
+            pendingLightChecks.resetStats();
+        }
+        if (tickedCubeUpdates > 0 || !toUpdate.isEmpty()) {
+            CubicChunks.LOGGER.debug("Light updates: " + tickedCubeUpdates + " cube updates in " + lightUpdateNanos / 1000000 + "ms, "
+                    + toUpdate.size() + " cubes waiting, time budget exceeded in " + budgetExceededTicks + " ticks, reprioritized "
+                    + reprioritizations + " times");
+            tickedCubeUpdates = 0;
+            lightUpdateNanos = 0;
+            budgetExceededTicks = 0;
+            reprioritizations = 0;
+        }
     }
 
     //TODO: make it private
@@ -210,21 +328,54 @@ public class LightingManager implements ILightingManager {
         if (!world.isBlockLoaded(pos)) {
             return false;
         }
-        ILightBlockAccess blocks = FastCubeBlockAccess.forBlockRegion(
-                (ICubeProviderInternal) world.getChunkProvider(),
-                pos.add(-17, -17, -17),
-                pos.add(17, 17, 17));
-        LightUpdateTracker tracker = getTracker();
-        lightPropagator.propagateLight(pos, Collections.singleton(pos), blocks, lightType, (updated) -> {
-            world.notifyLightSet(updated);
-            if (tracker != null) {
-                tracker.onUpdate(updated);
+        if (CubicChunksConfig.deferredLightingDistance > 0 && !world.isRemote) {
+            ICubeProviderInternal.Server cache = (ICubeProviderInternal.Server) ((ICubicWorldInternal) world).getCubeCache();
+            Cube cube = cache.getLoadedCube(CubePos.fromBlockCoords(pos));
+            if (cube != null && cube.isLightingDeferred()) {
+                // the cube has been assumed to be dark, it needs real light values before they can change
+                cache.computeDeferredLighting(cube);
             }
-        });
+        }
+        // done at the end of the tick, or earlier when light is read near the changed block
+        pendingLightChecks.add(lightType, pos.toImmutable());
         return true;
     }
 
+    /**
+     * Processes pending light checks if any of them can change light values in the given cube. Called before reading
+     * light so that changes made earlier in the same tick are visible.
+     */
+    public void processPendingLightChecks(int cubeX, int cubeY, int cubeZ) {
+        if (pendingLightChecks.mayAffect(cubeX, cubeY, cubeZ)) {
+            processPendingLightChecks();
+        }
+    }
+
+    private void processPendingLightChecks() {
+        if (pendingLightChecks.isEmpty()) {
+            return;
+        }
+        LightUpdateTracker tracker = getTracker();
+        pendingLightChecks.process((lightType, cubePos, positions) -> {
+            ILightBlockAccess blocks = FastCubeBlockAccess.forBlockRegion(
+                    (ICubeProviderInternal) world.getChunkProvider(),
+                    cubePos.getMinBlockPos().add(-17, -17, -17),
+                    cubePos.getMaxBlockPos().add(17, 17, 17));
+            lightPropagator.propagateLight(cubePos.getCenterBlockPos(), positions, blocks, lightType, (updated) -> {
+                world.notifyLightSet(updated);
+                if (tracker != null) {
+                    tracker.onUpdate(lightType, updated);
+                }
+            });
+        });
+    }
+
     private void markToUpdate(CubeLightUpdateInfo cubeLightUpdateInfo) {
+        if (cubeLightUpdateInfo.queued) {
+            return;
+        }
+        cubeLightUpdateInfo.priority = getPriority(cubeLightUpdateInfo.cube.getCoords());
+        cubeLightUpdateInfo.queued = true;
         this.toUpdate.add(cubeLightUpdateInfo);
     }
 
@@ -240,6 +391,22 @@ public class LightingManager implements ILightingManager {
      * changed.
      */
     boolean relightMultiBlock(BlockPos startPos, BlockPos endPos, EnumSkyBlock type, Consumer<BlockPos> notify) {
+        return relightMultiBlock(startPos, endPos, BlockPos.getAllInBox(startPos, endPos), type, notify);
+    }
+
+    /**
+     * Updates light for the given positions, all of which must be within the given bounding box. Cheaper than relighting
+     * multiple smaller regions separately, as blocks are accessed and light is propagated only once.
+     *
+     * @param startPos the minimum block coordinates of the positions (inclusive)
+     * @param endPos the maximum block coordinates of the positions (inclusive)
+     * @param positions the positions to update
+     * @param type the light type to update
+     *
+     * @return true if update was successful, false if it failed. If the method returns false, no light values are
+     * changed.
+     */
+    boolean relightMultiBlock(BlockPos startPos, BlockPos endPos, Iterable<BlockPos> positions, EnumSkyBlock type, Consumer<BlockPos> notify) {
         if (NO_SUNLIGHT_PROPAGATION) {
             return true;
         }
@@ -250,14 +417,18 @@ public class LightingManager implements ILightingManager {
         BlockPos minLoad = startPos.add(-LOAD_RADIUS, -LOAD_RADIUS, -LOAD_RADIUS);
         BlockPos maxLoad = endPos.add(LOAD_RADIUS, LOAD_RADIUS, LOAD_RADIUS);
         ILightBlockAccess blocks = FastCubeBlockAccess.forBlockRegion((ICubeProviderInternal) world.getChunkProvider(), minLoad, maxLoad);
-        this.lightPropagator.propagateLight(midPos, BlockPos.getAllInBox(startPos, endPos), blocks, type, notify);
+        this.lightPropagator.propagateLight(midPos, positions, blocks, type, notify);
         return true;
     }
 
     public void sendHeightMapUpdate(BlockPos pos) {
+        sendHeightMapUpdate(pos.getX(), pos.getZ());
+    }
+
+    public void sendHeightMapUpdate(int blockX, int blockZ) {
         int size = heightUpdateListeners.size();
         for (int i = 0; i < size; i++) {
-            heightUpdateListeners.get(i).heightUpdated(pos.getX(), pos.getZ());
+            heightUpdateListeners.get(i).heightUpdated(blockX, blockZ);
         }
     }
 
@@ -271,6 +442,9 @@ public class LightingManager implements ILightingManager {
         private final boolean[] toUpdateColumns = new boolean[Cube.SIZE * Cube.SIZE];
         private final LightingManager lightingManager;
         private boolean hasUpdates;
+        // the priority must not change while queued, as it's used to find the entry in toUpdate
+        private long priority;
+        private boolean queued;
         /**
          * Do neighbor need a sky light update when it is loaded?
          */
@@ -303,9 +477,13 @@ public class LightingManager implements ILightingManager {
 
             if (!edgeNeedSkyLightUpdate.isEmpty() && cube.getWorld().isAreaLoaded(cube.getCoords().getCenterBlockPos(), 16)) {
                 EnumSet<EnumFacing> removed = EnumSet.noneOf(EnumFacing.class);
+                CubePos cpos = cube.getCoords();
+                // all ready faces are relit together, with one block access and one propagation
+                List<BlockPos> edgePositions = new ArrayList<>();
+                int minX = cpos.getMinBlockX(), minY = cpos.getMinBlockY(), minZ = cpos.getMinBlockZ();
+                int maxX = cpos.getMaxBlockX(), maxY = cpos.getMaxBlockY(), maxZ = cpos.getMaxBlockZ();
                 for (EnumFacing dir : EnumFacing.values()) {
                     if (this.edgeNeedSkyLightUpdate.contains(dir)) {
-                        CubePos cpos = cube.getCoords();
                         Cube loadedCube = cache.getLoadedCube(
                                 cpos.getX() + dir.getXOffset(),
                                 cpos.getY() + dir.getYOffset(),
@@ -313,54 +491,30 @@ public class LightingManager implements ILightingManager {
                         if (loadedCube == null || !loadedCube.isInitialLightingDone()) {
                             continue;
                         }
-
-                        int minX = cpos.getMinBlockX();
-                        int minY = cpos.getMinBlockY();
-                        int minZ = cpos.getMinBlockZ();
-                        int maxX = cpos.getMaxBlockX();
-                        int maxY = cpos.getMaxBlockY();
-                        int maxZ = cpos.getMaxBlockZ();
-                        switch (dir) {
-                            case DOWN:
-                                minY = minY - 1;
-                                maxY = minY + 1;
-                                break;
-                            case UP:
-                                maxY = maxY + 1;
-                                minY = maxY - 1;
-                                break;
-                            case NORTH:
-                                minZ = minZ - 1;
-                                maxZ = minZ + 1;
-                                break;
-                            case SOUTH:
-                                maxZ = maxZ + 1;
-                                minZ = maxZ - 1;
-                                break;
-                            case WEST:
-                                minX = minX - 1;
-                                maxX = minX + 1;
-                                break;
-                            case EAST:
-                                maxX = maxX + 1;
-                                minX = maxX - 1;
-                                break;
-                        }
-                        manager.relightMultiBlock(
-                                new BlockPos(minX, minY, minZ),
-                                new BlockPos(maxX, maxY, maxZ),
-                                EnumSkyBlock.SKY, pos -> {
-                                    cube.getWorld().notifyLightSet(pos);
-                                    if (tracker != null) {
-                                        tracker.onUpdate(pos);
-                                    }
-                                });
+                        addEdgePositions(edgePositions, cpos, dir);
+                        minX = Math.min(minX, cpos.getMinBlockX() + dir.getXOffset());
+                        minY = Math.min(minY, cpos.getMinBlockY() + dir.getYOffset());
+                        minZ = Math.min(minZ, cpos.getMinBlockZ() + dir.getZOffset());
+                        maxX = Math.max(maxX, cpos.getMaxBlockX() + dir.getXOffset());
+                        maxY = Math.max(maxY, cpos.getMaxBlockY() + dir.getYOffset());
+                        maxZ = Math.max(maxZ, cpos.getMaxBlockZ() + dir.getZOffset());
                         removed.add(dir);
                     }
                 }
+                if (!edgePositions.isEmpty()) {
+                    manager.relightMultiBlock(
+                            new BlockPos(minX, minY, minZ),
+                            new BlockPos(maxX, maxY, maxZ),
+                            edgePositions,
+                            EnumSkyBlock.SKY, pos -> {
+                                cube.getWorld().notifyLightSet(pos);
+                                if (tracker != null) {
+                                    tracker.onUpdate(EnumSkyBlock.SKY, pos);
+                                }
+                            });
+                }
                 for (EnumFacing dir : removed) {
                     this.edgeNeedSkyLightUpdate.remove(dir);
-                    CubePos cpos = cube.getCoords();
                     Cube loadedCube = cache.getLoadedCube(
                             cpos.getX() + dir.getXOffset(),
                             cpos.getY() + dir.getYOffset(),
@@ -386,7 +540,7 @@ public class LightingManager implements ILightingManager {
                             EnumSkyBlock.SKY, pos -> {
                                 cube.getWorld().notifyLightSet(pos);
                                 if (tracker != null) {
-                                    tracker.onUpdate(pos);
+                                    tracker.onUpdate(EnumSkyBlock.SKY, pos);
                                 }
                             }
                     );
@@ -396,6 +550,48 @@ public class LightingManager implements ILightingManager {
             this.hasUpdates = false;
         }
 
+        /**
+         * Adds the two block layers on both sides of the given face of the cube: the outermost layer of this cube
+         * and the adjacent layer of the neighbor.
+         */
+        private static void addEdgePositions(List<BlockPos> positions, CubePos cpos, EnumFacing dir) {
+            int minX = cpos.getMinBlockX();
+            int minY = cpos.getMinBlockY();
+            int minZ = cpos.getMinBlockZ();
+            int maxX = cpos.getMaxBlockX();
+            int maxY = cpos.getMaxBlockY();
+            int maxZ = cpos.getMaxBlockZ();
+            switch (dir) {
+                case DOWN:
+                    minY = minY - 1;
+                    maxY = minY + 1;
+                    break;
+                case UP:
+                    maxY = maxY + 1;
+                    minY = maxY - 1;
+                    break;
+                case NORTH:
+                    minZ = minZ - 1;
+                    maxZ = minZ + 1;
+                    break;
+                case SOUTH:
+                    maxZ = maxZ + 1;
+                    minZ = maxZ - 1;
+                    break;
+                case WEST:
+                    minX = minX - 1;
+                    maxX = minX + 1;
+                    break;
+                case EAST:
+                    maxX = maxX + 1;
+                    minX = maxX - 1;
+                    break;
+            }
+            for (BlockPos pos : BlockPos.getAllInBox(minX, minY, minZ, maxX, maxY, maxZ)) {
+                positions.add(pos);
+            }
+        }
+
         private int index(int x, int z) {
             return x << 4 | z;
         }
@@ -413,7 +609,10 @@ public class LightingManager implements ILightingManager {
         }
 
         public void onUnload() {
-            lightingManager.toUpdate.remove(this);
+            if (queued) {
+                lightingManager.toUpdate.remove(this);
+                queued = false;
+            }
         }
     }
 
@@ -0,0 +1,232 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.lighting;
+
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.util.EnumFacing;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.EnumSkyBlock;
+
+import java.util.function.Consumer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Implementation of the {@link LightPropagator} algorithm that works on block coordinates instead of {@link BlockPos} objects, using the
+ * coordinate variants of {@link ILightBlockAccess} methods. It doesn't allocate anything while propagating light, and gives exactly the
+ * same results as {@link LightPropagator}, given that the block access doesn't override
+ * {@link ILightBlockAccess#getLightFromNeighbors(EnumSkyBlock, BlockPos, BlockPos.MutableBlockPos)}.
+ * <p>
+ * Doesn't support {@link io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig#fastSimplifiedSkyLight}.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+public class PackedLightPropagator {
+
+    private static final EnumFacing[] DIRECTIONS = EnumFacing.VALUES;
+    private static final int[] OFFSET_X = new int[DIRECTIONS.length];
+    private static final int[] OFFSET_Y = new int[DIRECTIONS.length];
+    private static final int[] OFFSET_Z = new int[DIRECTIONS.length];
+
+    static {
+        for (int i = 0; i < DIRECTIONS.length; i++) {
+            OFFSET_X[i] = DIRECTIONS[i].getXOffset();
+            OFFSET_Y[i] = DIRECTIONS[i].getYOffset();
+            OFFSET_Z[i] = DIRECTIONS[i].getZOffset();
+        }
+    }
+
+    @Nonnull private final LightUpdateQueue internalRelightQueue = new LightUpdateQueue();
+    // passed to the light set callback, which must not keep a reference to it
+    @Nonnull private final BlockPos.MutableBlockPos callbackPos = new BlockPos.MutableBlockPos();
+
+    /**
+     * Updates light at all BlockPos in given iterable.
+     *
+     * @see LightPropagator#propagateLight(BlockPos, Iterable, ILightBlockAccess, EnumSkyBlock, boolean, Consumer)
+     */
+    public void propagateLight(BlockPos centerPos, Iterable<? extends BlockPos> coords, ILightBlockAccess blocks, EnumSkyBlock type,
+            boolean handleDecreased, Consumer<BlockPos> setLightCallback) {
+        internalRelightQueue.begin(centerPos);
+        try {
+            if (handleDecreased) {
+                queueDecreasedLights(coords, blocks, type);
+                handleDecreasedLights(blocks, type, setLightCallback);
+
+                internalRelightQueue.resetIndex();
+            }
+            queueIncreasedLights(coords, blocks, type, setLightCallback);
+            handleLightSpread(blocks, type, setLightCallback);
+        } catch (Throwable t) {
+            throw LightPropagator.reportCrash(t, centerPos, coords);
+        } finally {
+            internalRelightQueue.end();
+        }
+    }
+
+    private void queueDecreasedLights(Iterable<? extends BlockPos> coords, ILightBlockAccess blocks, EnumSkyBlock type) {
+        for (BlockPos coord : coords) {
+            int x = coord.getX();
+            int y = coord.getY();
+            int z = coord.getZ();
+            int emitted = blocks.getEmittedLight(x, y, z, type);
+            if (blocks.getLightFor(type, x, y, z) > emitted) {
+                //add the emitted value even if it's not used here - it will be used when relighting that area
+                internalRelightQueue.put(x, y, z, emitted, LightUpdateQueue.MAX_DISTANCE);
+            }
+        }
+    }
+
+    private void handleDecreasedLights(ILightBlockAccess blocks, EnumSkyBlock type, Consumer<BlockPos> setLightCallback) {
+        // follow decreasing light values until it stops decreasing,
+        // setting each encountered value to 0 for easy spreading
+        while (internalRelightQueue.next()) {
+            int x = internalRelightQueue.getX();
+            int y = internalRelightQueue.getY();
+            int z = internalRelightQueue.getZ();
+            int distance = internalRelightQueue.getDistance();
+
+            int currentValue = blocks.getLightFor(type, x, y, z);
+            int lightFromNeighbors = getExpectedLight(blocks, type, x, y, z);
+            // see LightPropagator.handleDecreasedLights
+            if (lightFromNeighbors <= currentValue - 1) {
+                // set it to 0 and add neighbors to the queue
+                if (!blocks.setLightFor(type, x, y, z, 0)) {
+                    this.markNeighborEdgeNeedLightUpdate(x, y, z, blocks, type);
+                    continue;
+                }
+                setLightCallback.accept(callbackPos.setPos(x, y, z));
+                for (int i = 0; i < DIRECTIONS.length; i++) {
+                    int nextX = x + OFFSET_X[i];
+                    int nextY = y + OFFSET_Y[i];
+                    int nextZ = z + OFFSET_Z[i];
+                    if (!blocks.hasNeighborsAccessible(nextX, nextY, nextZ)) {
+                        this.markNeighborEdgeNeedLightUpdate(x, y, z, blocks, type);
+                        continue;
+                    }
+                    //add the emitted value even if it's not used here - it will be used when relighting that area
+                    internalRelightQueue.put(nextX, nextY, nextZ, blocks.getEmittedLight(nextX, nextY, nextZ, type), distance - 1);
+                }
+            }
+        }
+    }
+
+    private void queueIncreasedLights(Iterable<? extends BlockPos> coords, ILightBlockAccess blocks, EnumSkyBlock type,
+            Consumer<BlockPos> setLightCallback) {
+        for (BlockPos coord : coords) {
+            int x = coord.getX();
+            int y = coord.getY();
+            int z = coord.getZ();
+            int emitted = getExpectedLight(blocks, type, x, y, z);
+            // blocks where light decreased are already added (previous run over the queue)
+            if (emitted > blocks.getLightFor(type, x, y, z)) {
+                internalRelightQueue.put(x, y, z, emitted, LightUpdateQueue.MAX_DISTANCE);
+                if (blocks.setLightFor(type, x, y, z, emitted)) {
+                    setLightCallback.accept(callbackPos.setPos(x, y, z));
+                } else {
+                    this.markNeighborEdgeNeedLightUpdate(x, y, z, blocks, type);
+                }
+            }
+        }
+    }
+
+    private void handleLightSpread(ILightBlockAccess blocks, EnumSkyBlock type, Consumer<BlockPos> setLightCallback) {
+        // spread out light values
+        while (internalRelightQueue.next()) {
+            int x = internalRelightQueue.getX();
+            int y = internalRelightQueue.getY();
+            int z = internalRelightQueue.getZ();
+            int distance = internalRelightQueue.isBeforeReset() ? LightUpdateQueue.MAX_DISTANCE : internalRelightQueue.getDistance();
+
+            for (int i = 0; i < DIRECTIONS.length; i++) {
+                int nextX = x + OFFSET_X[i];
+                int nextY = y + OFFSET_Y[i];
+                int nextZ = z + OFFSET_Z[i];
+                if (!blocks.hasNeighborsAccessible(nextX, nextY, nextZ)) {
+                    this.markNeighborEdgeNeedLightUpdate(x, y, z, blocks, type);
+                    continue;
+                }
+                int newLight = getExpectedLight(blocks, type, nextX, nextY, nextZ);
+                if (newLight <= blocks.getLightFor(type, nextX, nextY, nextZ)) {
+                    // can't go further, the next block already has the same or higher light value
+                    continue;
+                }
+                if (blocks.getEmittedLight(nextX, nextY, nextZ, type) >= newLight) {
+                    // this next block is not yet updated source, it will be updated later anyway
+                    continue;
+                }
+                if (blocks.setLightFor(type, nextX, nextY, nextZ, newLight)) {
+                    setLightCallback.accept(callbackPos.setPos(nextX, nextY, nextZ));
+                } else {
+                    // If cube is not loaded we will notify neighbors so cube will update light when it loads.
+                    this.markNeighborEdgeNeedLightUpdate(x, y, z, blocks, type);
+                    continue;
+                }
+
+                // if no distance left - stop spreading, so that it won't run into problems when updating too much
+                if (distance - 1 <= LightUpdateQueue.MIN_DISTANCE) {
+                    continue;
+                }
+                internalRelightQueue.put(nextX, nextY, nextZ, newLight, distance - 1);
+            }
+        }
+    }
+
+    private static int getExpectedLight(ILightBlockAccess blocks, EnumSkyBlock type, int x, int y, int z) {
+        int emittedLight = blocks.getEmittedLight(x, y, z, type);
+        if (emittedLight >= 15) {
+            return 15;
+        }
+        return Math.max(emittedLight, getLightFromNeighbors(blocks, type, x, y, z));
+    }
+
+    // same as ILightBlockAccess.getLightFromNeighbors
+    private static int getLightFromNeighbors(ILightBlockAccess blocks, EnumSkyBlock type, int x, int y, int z) {
+        int blockLightOpacity = blocks.getBlockLightOpacity(x, y, z);
+        if (blockLightOpacity > 15) {
+            return 0;
+        }
+        int max = 0;
+        for (int i = 0; i < DIRECTIONS.length; i++) {
+            int light = blocks.getLightFor(type, x + OFFSET_X[i], y + OFFSET_Y[i], z + OFFSET_Z[i]);
+            if (light > max) {
+                max = light;
+                if (max >= 15) {
+                    break;
+                }
+            }
+        }
+        int decrease = Math.max(1, blockLightOpacity);
+        return Math.max(0, max - decrease);
+    }
+
+    private void markNeighborEdgeNeedLightUpdate(int x, int y, int z, ILightBlockAccess blocks, EnumSkyBlock type) {
+        // If cube is not loaded we will notify neighbors so cube will update light when it loads.
+        for (int i = 0; i < DIRECTIONS.length; i++) {
+            blocks.markEdgeNeedLightUpdate(x + OFFSET_X[i], y + OFFSET_Y[i], z + OFFSET_Z[i], type);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.lighting;
+
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.EnumSkyBlock;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Collects light checks requested during a tick, grouped by cube, so that they can be done with one light propagation
+ * per cube instead of one for each changed block.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+class PendingLightChecks {
+
+    private Map<CubePos, LongSet> skyLight = new HashMap<>();
+    private Map<CubePos, LongSet> blockLight = new HashMap<>();
+
+    // bounds of cubes with pending checks, used to quickly reject light reads far from all of them
+    private int minCubeX, minCubeY, minCubeZ;
+    private int maxCubeX, maxCubeY, maxCubeZ;
+    private boolean empty = true;
+
+    private int requested;
+    private int merged;
+
+    void add(EnumSkyBlock type, BlockPos pos) {
+        CubePos cubePos = CubePos.fromBlockCoords(pos);
+        Map<CubePos, LongSet> map = type == EnumSkyBlock.SKY ? skyLight : blockLight;
+        requested++;
+        if (!map.computeIfAbsent(cubePos, p -> new LongOpenHashSet()).add(pos.toLong())) {
+            merged++;
+        }
+        int cubeX = cubePos.getX();
+        int cubeY = cubePos.getY();
+        int cubeZ = cubePos.getZ();
+        if (empty) {
+            minCubeX = maxCubeX = cubeX;
+            minCubeY = maxCubeY = cubeY;
+            minCubeZ = maxCubeZ = cubeZ;
+            empty = false;
+        } else {
+            minCubeX = Math.min(minCubeX, cubeX);
+            minCubeY = Math.min(minCubeY, cubeY);
+            minCubeZ = Math.min(minCubeZ, cubeZ);
+            maxCubeX = Math.max(maxCubeX, cubeX);
+            maxCubeY = Math.max(maxCubeY, cubeY);
+            maxCubeZ = Math.max(maxCubeZ, cubeZ);
+        }
+    }
+
+    boolean isEmpty() {
+        return empty;
+    }
+
+    /**
+     * @return true if there may be pending light checks that affect light values in the given cube
+     */
+    boolean mayAffect(int cubeX, int cubeY, int cubeZ) {
+        // light changes don't spread further than 15 blocks, so only direct neighbors can be affected
+        if (empty
+                || cubeX < minCubeX - 1 || cubeX > maxCubeX + 1
+                || cubeY < minCubeY - 1 || cubeY > maxCubeY + 1
+                || cubeZ < minCubeZ - 1 || cubeZ > maxCubeZ + 1) {
+            return false;
+        }
+        // the bounds can span a large area between far apart checks, look at the cube and its neighbors
+        for (int dx = -1; dx <= 1; dx++) {
+            for (int dy = -1; dy <= 1; dy++) {
+                for (int dz = -1; dz <= 1; dz++) {
+                    CubePos pos = new CubePos(cubeX + dx, cubeY + dy, cubeZ + dz);
+                    if (skyLight.containsKey(pos) || blockLight.containsKey(pos)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes all pending light checks and passes them to the given consumer, one call for each cube and light type.
+     * Checks added while processing are kept for the next call.
+     */
+    void process(BatchConsumer consumer) {
+        if (empty) {
+            return;
+        }
+        Map<CubePos, LongSet> sky = this.skyLight;
+        Map<CubePos, LongSet> block = this.blockLight;
+        this.skyLight = new HashMap<>();
+        this.blockLight = new HashMap<>();
+        this.empty = true;
+        process(EnumSkyBlock.SKY, sky, consumer);
+        process(EnumSkyBlock.BLOCK, block, consumer);
+    }
+
+    private static void process(EnumSkyBlock type, Map<CubePos, LongSet> checks, BatchConsumer consumer) {
+        for (Map.Entry<CubePos, LongSet> entry : checks.entrySet()) {
+            List<BlockPos> positions = new ArrayList<>(entry.getValue().size());
+            for (LongIterator it = entry.getValue().iterator(); it.hasNext(); ) {
+                positions.add(BlockPos.fromLong(it.nextLong()));
+            }
+            consumer.accept(type, entry.getKey(), positions);
+        }
+    }
+
+    /**
+     * @return amount of light checks requested since the last {@link #resetStats()}
+     */
+    int getRequestedCount() {
+        return requested;
+    }
+
+    /**
+     * @return amount of light checks since the last {@link #resetStats()} that were merged with an already pending check of
+     * the same block
+     */
+    int getMergedCount() {
+        return merged;
+    }
+
+    void resetStats() {
+        requested = 0;
+        merged = 0;
+    }
+
+    @FunctionalInterface
+    interface BatchConsumer {
+
+        void accept(EnumSkyBlock type, CubePos cube, List<BlockPos> positions);
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.network;
+
+import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.entity.player.EntityPlayerMP;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Creates {@link PacketCubes} on {@link CubicChunksConfig#cubePacketThreads} worker threads. Only copying the cube data
+ * and getting tile entity update tags is done on the server thread.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+public class CubePacketEncoder {
+
+    @Nullable private static ExecutorService executor;
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(CubicChunksConfig.cubePacketThreads, task -> {
+                Thread thread = new Thread(task, "Cubic Chunks cube packet thread");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * Copies the data of the cubes and encodes it for the player, split into packets of about targetSize bytes.
+     * Must be called on the server thread. The packets should be sent with
+     * {@link PacketDispatcher#sendWhenDone(CompletableFuture, EntityPlayerMP, Runnable)} to keep them ordered with other packets.
+     *
+     * @param cubes the cubes to send
+     * @param player the player the packets will be sent to
+     * @param targetSize the target size of encoded cube data in one packet
+     * @param snapshots copies of cube data already made in this tick, shared with packets for other players
+     * @return future completed with the packets, already completed if encoding on the server thread
+     */
+    public static CompletableFuture<List<PacketCubes>> encode(Collection<Cube> cubes, EntityPlayerMP player, int targetSize,
+            SnapshotCache snapshots) {
+        int encoding = PacketCubeEncoding.getCubeEncoding(player);
+        List<CubeSnapshot> cubeSnapshots = new ArrayList<>(cubes.size());
+        for (Cube cube : cubes) {
+            CubeSnapshot snapshot = snapshots.get(cube);
+            if (encoding < WorldEncoder.ENCODING_COLUMN_HEIGHTMAPS) {
+                snapshot.copyHeightMap(cube);
+            }
+            cubeSnapshots.add(snapshot);
+        }
+        if (CubicChunksConfig.cubePacketThreads == 0) {
+            return CompletableFuture.completedFuture(createPackets(cubeSnapshots, encoding, targetSize));
+        }
+        return CompletableFuture.supplyAsync(() -> createPackets(cubeSnapshots, encoding, targetSize), getExecutor());
+    }
+
+    private static List<PacketCubes> createPackets(List<CubeSnapshot> cubes, int encoding, int targetSize) {
+        cubes.sort(Comparator.<CubeSnapshot>comparingInt(c -> c.pos.getY())
+                .thenComparingInt(c -> c.pos.getX())
+                .thenComparingInt(c -> c.pos.getZ()));
+        List<PacketCubes> packets = new ArrayList<>();
+        List<CubeSnapshot> packetCubes = new ArrayList<>();
+        byte[] flags = new byte[cubes.size()];
+        int packetSize = 0;
+        for (CubeSnapshot cube : cubes) {
+            byte cubeFlags = WorldEncoder.computeFlags(cube, encoding);
+            int size = WorldEncoder.getEncodedSize(cube, cubeFlags);
+            if (!packetCubes.isEmpty() && packetSize + size > targetSize) {
+                packets.add(new PacketCubes(packetCubes, flags, packetSize));
+                packetCubes = new ArrayList<>();
+                packetSize = 0;
+            }
+            flags[packetCubes.size()] = cubeFlags;
+            packetCubes.add(cube);
+            packetSize += size;
+        }
+        if (!packetCubes.isEmpty()) {
+            packets.add(new PacketCubes(packetCubes, flags, packetSize));
+        }
+        return packets;
+    }
+
+    /**
+     * Copies of cube data made while sending cubes to players in one tick, so that a cube sent to multiple players is only
+     * copied once. Must only be used on the server thread, and only within one tick.
+     */
+    public static final class SnapshotCache {
+
+        private final Map<Cube, CubeSnapshot> snapshots = new IdentityHashMap<>();
+
+        CubeSnapshot get(Cube cube) {
+            return snapshots.computeIfAbsent(cube, CubeSnapshot::new);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.network;
+
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import io.netty.buffer.Unpooled;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.network.PacketBuffer;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.world.chunk.BlockStateContainer;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * A copy of the data of a cube that is sent to clients, taken on the server thread so that it can be encoded on
+ * another thread.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+final class CubeSnapshot {
+
+    final CubePos pos;
+    final boolean isEmpty;
+    final boolean hasSkyLight;
+    /**
+     * Block data serialized by {@link BlockStateContainer#write(PacketBuffer)}, null if the cube is empty
+     */
+    @Nullable final byte[] blocks;
+    @Nullable final byte[] blockLight;
+    @Nullable final byte[] skyLight;
+    @Nullable final byte[] biomes;
+    final List<NBTTagCompound> tileEntityTags;
+    /**
+     * Column heightmap for clients that get it with every non-empty cube, copied by {@link #copyHeightMap(Cube)}
+     */
+    @Nullable byte[] heightMap;
+
+    private int uniformStateId = -2;
+
+    CubeSnapshot(Cube cube) {
+        ExtendedBlockStorage storage = cube.getReadOnlyStorage();
+        this.pos = cube.getCoords();
+        this.isEmpty = cube.isEmpty();
+        this.hasSkyLight = cube.getWorld().provider.hasSkyLight();
+        if (!isEmpty) {
+            //noinspection ConstantConditions
+            BlockStateContainer data = storage.getData();
+            this.blocks = new byte[data.getSerializedSize()];
+            PacketBuffer out = new PacketBuffer(Unpooled.wrappedBuffer(this.blocks));
+            out.writerIndex(0);
+            data.write(out);
+        } else {
+            this.blocks = null;
+        }
+        this.blockLight = storage == null ? null : storage.getBlockLight().getData().clone();
+        this.skyLight = storage == null || !hasSkyLight ? null : storage.getSkyLight().getData().clone();
+        this.biomes = cube.getBiomeArray() == null ? null : cube.getBiomeArray().clone();
+
+        this.tileEntityTags = new ArrayList<>(cube.getTileEntityMap().size());
+        for (TileEntity te : cube.getTileEntityMap().values()) {
+            tileEntityTags.add(te.getUpdateTag());
+        }
+    }
+
+    /**
+     * Copies the column heightmap if it's needed and not copied yet. Must be called on the server thread, before the
+     * snapshot is passed to the thread encoding it.
+     */
+    void copyHeightMap(Cube cube) {
+        if (heightMap == null && !isEmpty) {
+            heightMap = WorldEncoder.getHeightMapData(cube.getColumn());
+        }
+    }
+
+    boolean hasStorage() {
+        return blockLight != null;
+    }
+
+    /**
+     * @return the block state ID all blocks of the cube are set to, or -1 if there is more than one
+     */
+    int getUniformStateId() {
+        if (uniformStateId == -2) {
+            uniformStateId = blocks == null ? -1 : WorldEncoder.getUniformStateId(blocks);
+        }
+        return uniformStateId;
+    }
+}
@@ -29,6 +29,7 @@ import io.github.opencubicchunks.cubicchunks.core.client.CubeProviderClient;
 import io.netty.buffer.ByteBuf;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.entity.player.EntityPlayerMP;
 import net.minecraft.network.PacketBuffer;
 import net.minecraft.util.math.ChunkPos;
 import net.minecraft.world.World;
@@ -49,12 +50,23 @@ public class PacketColumn implements IMessage {
     public PacketColumn() {
     }
 
-    public PacketColumn(Chunk column) {
+    /**
+     * @param withHeightMap whether to include the column heightmap, see {@link #isHeightMapIncluded(EntityPlayerMP)}
+     */
+    public PacketColumn(Chunk column, boolean withHeightMap) {
         this.chunkPos = column.getPos();
-        this.data = new byte[WorldEncoder.getEncodedSize(column)];
+        this.data = new byte[WorldEncoder.getEncodedSize(column, withHeightMap)];
         PacketBuffer out = new PacketBuffer(WorldEncoder.createByteBufForWrite(this.data));
 
-        WorldEncoder.encodeColumn(out, column);
+        WorldEncoder.encodeColumn(out, column, withHeightMap);
+    }
+
+    /**
+     * @return true if the player's client gets the column heightmap with this packet. Other clients get it with every
+     * non-empty cube.
+     */
+    public static boolean isHeightMapIncluded(EntityPlayerMP player) {
+        return PacketCubeEncoding.getCubeEncoding(player) >= WorldEncoder.ENCODING_COLUMN_HEIGHTMAPS;
     }
 
     @Override
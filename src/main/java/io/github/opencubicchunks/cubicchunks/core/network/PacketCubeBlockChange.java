@@ -129,35 +129,38 @@ public class PacketCubeBlockChange implements IMessage {
         }
     }
 
+    void apply(WorldClient worldClient) {
+        CubeProviderClient cubeCache = (CubeProviderClient) worldClient.getChunkProvider();
+
+        // get the cube
+        Cube cube = cubeCache.getCube(this.cubePos);
+        if (cube instanceof BlankCube) {
+            CubicChunks.LOGGER.error("Ignored block update to blank cube {}", this.cubePos);
+            return;
+        }
+
+        ClientHeightMap index = (ClientHeightMap) cube.getColumn().getOpacityIndex();
+        for (int hmapUpdate : this.heightValues) {
+            int x = hmapUpdate & 0xF;
+            int z = (hmapUpdate >> 4) & 0xF;
+            //height is signed, so don't use unsigned shift
+            int height = hmapUpdate >> 8;
+            index.setHeight(x, z, height);
+        }
+        // apply the update
+        for (int i = 0; i < this.localAddresses.length; i++) {
+            BlockPos pos = cube.localAddressToBlockPos(this.localAddresses[i]);
+            worldClient.invalidateBlockReceiveRegion(pos.getX(), pos.getY(), pos.getZ(), pos.getX(), pos.getY(), pos.getZ());
+            worldClient.setBlockState(pos, this.blockStates[i], 3);
+        }
+        cube.getTileEntityMap().values().forEach(TileEntity::updateContainingBlockInfo);
+    }
+
     public static class Handler extends AbstractClientMessageHandler<PacketCubeBlockChange> {
 
         @Nullable @Override
         public void handleClientMessage(World world, EntityPlayer player, PacketCubeBlockChange packet, MessageContext ctx) {
-            WorldClient worldClient = (WorldClient) world;
-            CubeProviderClient cubeCache = (CubeProviderClient) worldClient.getChunkProvider();
-
-            // get the cube
-            Cube cube = cubeCache.getCube(packet.cubePos);
-            if (cube instanceof BlankCube) {
-                CubicChunks.LOGGER.error("Ignored block update to blank cube {}", packet.cubePos);
-                return;
-            }
-
-            ClientHeightMap index = (ClientHeightMap) cube.getColumn().getOpacityIndex();
-            for (int hmapUpdate : packet.heightValues) {
-                int x = hmapUpdate & 0xF;
-                int z = (hmapUpdate >> 4) & 0xF;
-                //height is signed, so don't use unsigned shift
-                int height = hmapUpdate >> 8;
-                index.setHeight(x, z, height);
-            }
-            // apply the update
-            for (int i = 0; i < packet.localAddresses.length; i++) {
-                BlockPos pos = cube.localAddressToBlockPos(packet.localAddresses[i]);
-                worldClient.invalidateBlockReceiveRegion(pos.getX(), pos.getY(), pos.getZ(), pos.getX(), pos.getY(), pos.getZ());
-                worldClient.setBlockState(pos, packet.blockStates[i], 3);
-            }
-            cube.getTileEntityMap().values().forEach(TileEntity::updateContainingBlockInfo);
+            packet.apply((WorldClient) world);
         }
     }
 }
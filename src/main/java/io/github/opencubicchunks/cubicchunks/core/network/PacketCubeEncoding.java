@@ -0,0 +1,109 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.network;
+
+import io.github.opencubicchunks.cubicchunks.api.world.ICubicWorld;
+import io.github.opencubicchunks.cubicchunks.core.server.PlayerCubeMap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.network.NetHandlerPlayServer;
+import net.minecraft.network.NetworkManager;
+import net.minecraft.world.WorldServer;
+import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
+import net.minecraftforge.fml.common.network.simpleimpl.MessageContext;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Sent by the client in response to {@link PacketCubicWorldData} to tell the server the newest cube encoding it
+ * understands. Only sent if the server advertised one, so older servers never get it.
+ * <p>
+ * Every wire format change since the legacy encoding is negotiated with it, each level including the ones before:
+ * uniform block and light data in {@link PacketCubes}, {@link PacketMultiCubeBlockChange},
+ * {@link PacketCubeLightUpdates} and heightmaps sent with {@link PacketColumn}. See the encodings in
+ * {@link WorldEncoder}. Clients that never send it are sent everything the way older servers send it.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+public class PacketCubeEncoding implements IMessage {
+
+    private static final AttributeKey<Integer> CUBE_ENCODING = AttributeKey.valueOf("cubicchunks:cube_encoding");
+
+    private int encoding;
+
+    public PacketCubeEncoding() {
+    }
+
+    PacketCubeEncoding(int encoding) {
+        this.encoding = encoding;
+    }
+
+    @Override
+    public void fromBytes(ByteBuf in) {
+        this.encoding = in.readUnsignedByte();
+    }
+
+    @Override
+    public void toBytes(ByteBuf out) {
+        out.writeByte(this.encoding);
+    }
+
+    /**
+     * @return the newest cube encoding both the server and the player's client understand
+     */
+    static int getCubeEncoding(EntityPlayerMP player) {
+        NetHandlerPlayServer connection = player.connection;
+        if (connection == null) {
+            return WorldEncoder.ENCODING_LEGACY;
+        }
+        NetworkManager netManager = connection.netManager;
+        if (netManager == null) {
+            return WorldEncoder.ENCODING_LEGACY;
+        }
+        Integer encoding = netManager.channel().attr(CUBE_ENCODING).get();
+        return encoding == null ? WorldEncoder.ENCODING_LEGACY : encoding;
+    }
+
+    public static class Handler extends AbstractServerMessageHandler<PacketCubeEncoding> {
+
+        @Override
+        public void handleServerMessage(EntityPlayer player, PacketCubeEncoding message, MessageContext ctx) {
+            EntityPlayerMP playerMP = (EntityPlayerMP) player;
+            int previous = getCubeEncoding(playerMP);
+            int encoding = Math.min(message.encoding, WorldEncoder.CURRENT_ENCODING);
+            Channel channel = ctx.getServerHandler().netManager.channel();
+            channel.attr(CUBE_ENCODING).set(encoding);
+            // columns sent before this arrived had no heightmap, and cubes sent from now on won't have one either
+            if (previous < WorldEncoder.ENCODING_COLUMN_HEIGHTMAPS && encoding >= WorldEncoder.ENCODING_COLUMN_HEIGHTMAPS
+                    && ((ICubicWorld) playerMP.world).isCubicWorld()) {
+                ((PlayerCubeMap) ((WorldServer) playerMP.world).getPlayerChunkMap()).resendHeightMaps(playerMP);
+            }
+        }
+    }
+}
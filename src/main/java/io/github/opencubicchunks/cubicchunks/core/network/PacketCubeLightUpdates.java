@@ -0,0 +1,298 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.network;
+
+import static io.github.opencubicchunks.cubicchunks.api.util.Coords.cubeToMinBlock;
+
+import io.github.opencubicchunks.cubicchunks.api.util.Bits;
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.core.client.CubeProviderClient;
+import io.github.opencubicchunks.cubicchunks.core.lighting.LightingManager;
+import io.github.opencubicchunks.cubicchunks.core.util.AddressTools;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import io.netty.buffer.ByteBuf;
+import net.minecraft.client.multiplayer.WorldClient;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.world.EnumSkyBlock;
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.NibbleArray;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+import net.minecraftforge.fml.common.network.ByteBufUtils;
+import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
+import net.minecraftforge.fml.common.network.simpleimpl.MessageContext;
+
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
+
+/**
+ * Changed sky light or block light values of a cube. Only sent to clients that have announced support for it with
+ * {@link PacketCubeEncoding}, others get {@link PacketCubeSkyLightUpdates}.
+ */
+public class PacketCubeLightUpdates implements IMessage {
+
+    /**
+     * 2 bytes per changed position, containing the position and the new value
+     */
+    static final byte FORMAT_LIST = 0;
+    /**
+     * A bit for every position in the cube, followed by packed new values of the changed positions
+     */
+    static final byte FORMAT_MASK = 1;
+    /**
+     * The whole light array
+     */
+    static final byte FORMAT_FULL = 2;
+
+    private static final int CUBE_VOLUME = Cube.SIZE * Cube.SIZE * Cube.SIZE;
+    private static final int MASK_BYTES = CUBE_VOLUME / 8;
+
+    private CubePos cube;
+    private EnumSkyBlock type;
+    private byte format;
+    private byte[] data;
+
+    public PacketCubeLightUpdates() {
+    }
+
+    /**
+     * Creates a packet with the current light values of the changed positions, using the smallest encoding for the
+     * amount of changes.
+     *
+     * @param cube the cube
+     * @param type the type of light that has changed
+     * @param changed bit mask of changed positions, indexed by local address
+     * @param changedCount amount of bits set in the mask
+     */
+    public PacketCubeLightUpdates(Cube cube, EnumSkyBlock type, long[] changed, int changedCount) {
+        this(cube.getCoords(), type,
+                cube.getReadOnlyStorage() == null ? null : getLight(cube.getReadOnlyStorage(), type), changed, changedCount);
+    }
+
+    /**
+     * @param light the light array of the cube, or null if the cube has no block storage
+     */
+    PacketCubeLightUpdates(CubePos cube, EnumSkyBlock type, @Nullable NibbleArray light, long[] changed, int changedCount) {
+        this.cube = cube;
+        this.type = type;
+        if (light == null) {
+            // no light
+            this.format = FORMAT_FULL;
+            this.data = null;
+            return;
+        }
+        int listSize = changedCount * 2;
+        int maskSize = MASK_BYTES + (changedCount + 1) / 2;
+        int fullSize = CUBE_VOLUME / 2;
+        if (fullSize <= listSize && fullSize <= maskSize) {
+            this.format = FORMAT_FULL;
+            this.data = Arrays.copyOf(light.getData(), fullSize);
+        } else if (listSize <= maskSize) {
+            this.format = FORMAT_LIST;
+            this.data = new byte[listSize];
+            int i = 0;
+            for (int address = nextSetBit(changed, 0); address >= 0; address = nextSetBit(changed, address + 1)) {
+                int localX = AddressTools.getLocalX(address);
+                int localY = AddressTools.getLocalY(address);
+                int localZ = AddressTools.getLocalZ(address);
+                int value = light.get(localX, localY, localZ);
+                this.data[i * 2] = (byte) (Bits.packUnsignedToInt(localX, 4, 0) | Bits.packUnsignedToInt(localY, 4, 4));
+                this.data[i * 2 + 1] = (byte) (Bits.packUnsignedToInt(localZ, 4, 0) | Bits.packUnsignedToInt(value, 4, 4));
+                i++;
+            }
+        } else {
+            this.format = FORMAT_MASK;
+            this.data = new byte[maskSize];
+            for (int i = 0; i < MASK_BYTES; i++) {
+                this.data[i] = (byte) (changed[i >> 3] >>> ((i & 7) << 3));
+            }
+            int i = 0;
+            for (int address = nextSetBit(changed, 0); address >= 0; address = nextSetBit(changed, address + 1)) {
+                int value = light.get(
+                        AddressTools.getLocalX(address), AddressTools.getLocalY(address), AddressTools.getLocalZ(address));
+                this.data[MASK_BYTES + (i >> 1)] |= value << ((i & 1) << 2);
+                i++;
+            }
+        }
+    }
+
+    public PacketCubeLightUpdates(Cube cube) {
+        this.cube = cube.getCoords();
+        this.type = EnumSkyBlock.SKY;
+        this.format = FORMAT_FULL;
+        if (cube.getReadOnlyStorage() == null) {
+            // no light
+            this.data = null;
+            return;
+        }
+        this.data = Arrays.copyOf(cube.getReadOnlyStorage().getSkyLight().getData(), CUBE_VOLUME / 2);
+    }
+
+    /**
+     * @return true if the player's client can handle this packet. Other clients only get sky light updates, as
+     * {@link PacketCubeSkyLightUpdates}
+     */
+    public static boolean isSupported(EntityPlayerMP player) {
+        return PacketCubeEncoding.getCubeEncoding(player) >= WorldEncoder.ENCODING_LIGHT_UPDATES;
+    }
+
+    private static NibbleArray getLight(ExtendedBlockStorage storage, EnumSkyBlock type) {
+        return type == EnumSkyBlock.SKY ? storage.getSkyLight() : storage.getBlockLight();
+    }
+
+    static int nextSetBit(long[] bits, int fromIndex) {
+        int word = fromIndex >> 6;
+        if (word >= bits.length) {
+            return -1;
+        }
+        long w = bits[word] & (-1L << fromIndex);
+        while (w == 0) {
+            if (++word >= bits.length) {
+                return -1;
+            }
+            w = bits[word];
+        }
+        return (word << 6) + Long.numberOfTrailingZeros(w);
+    }
+
+    @Override
+    public void fromBytes(ByteBuf buf) {
+        this.cube = new CubePos(buf.readInt(), buf.readInt(), buf.readInt());
+        this.type = buf.readBoolean() ? EnumSkyBlock.SKY : EnumSkyBlock.BLOCK;
+        this.format = buf.readByte();
+        boolean hasData = buf.readBoolean();
+        if (hasData) {
+            int size = ByteBufUtils.readVarInt(buf, 3);
+            this.data = new byte[size];
+            buf.readBytes(this.data);
+        }
+    }
+
+    @Override
+    public void toBytes(ByteBuf buf) {
+        buf.writeInt(this.cube.getX());
+        buf.writeInt(this.cube.getY());
+        buf.writeInt(this.cube.getZ());
+
+        buf.writeBoolean(this.type == EnumSkyBlock.SKY);
+        buf.writeByte(this.format);
+        buf.writeBoolean(this.data != null);
+
+        if (this.data != null) {
+            ByteBufUtils.writeVarInt(buf, this.data.length, 3);
+            buf.writeBytes(this.data);
+        }
+    }
+
+    CubePos getCubePos() {
+        return cube;
+    }
+
+    EnumSkyBlock getType() {
+        return type;
+    }
+
+    byte getFormat() {
+        return format;
+    }
+
+    byte[] getData() {
+        return data;
+    }
+
+    /**
+     * Applies the light values from this packet to the given storage
+     */
+    void apply(ExtendedBlockStorage storage) {
+        if (format == FORMAT_FULL) {
+            if (type == EnumSkyBlock.SKY) {
+                storage.setSkyLight(new NibbleArray(data));
+            } else {
+                storage.setBlockLight(new NibbleArray(data));
+            }
+            return;
+        }
+        applyChanges(getLight(storage, type));
+    }
+
+    /**
+     * Sets the changed light values from a packet in {@link #FORMAT_LIST} or {@link #FORMAT_MASK} format
+     */
+    void applyChanges(NibbleArray light) {
+        switch (format) {
+            case FORMAT_LIST:
+                for (int i = 0; i < data.length / 2; i++) {
+                    int packed1 = data[i * 2] & 0xFF;
+                    int packed2 = data[i * 2 + 1] & 0xFF;
+                    light.set(Bits.unpackUnsigned(packed1, 4, 0), Bits.unpackUnsigned(packed1, 4, 4),
+                            Bits.unpackUnsigned(packed2, 4, 0), Bits.unpackUnsigned(packed2, 4, 4));
+                }
+                break;
+            case FORMAT_MASK:
+                int i = 0;
+                for (int address = 0; address < CUBE_VOLUME; address++) {
+                    if ((data[address >> 3] & (1 << (address & 7))) == 0) {
+                        continue;
+                    }
+                    int value = (data[MASK_BYTES + (i >> 1)] >> ((i & 1) << 2)) & 0xF;
+                    light.set(AddressTools.getLocalX(address), AddressTools.getLocalY(address), AddressTools.getLocalZ(address), value);
+                    i++;
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unknown light update format " + format);
+        }
+    }
+
+    public static class Handler extends AbstractClientMessageHandler<PacketCubeLightUpdates> {
+
+        @Nullable @Override
+        public void handleClientMessage(World world, EntityPlayer player, PacketCubeLightUpdates message, MessageContext ctx) {
+            WorldClient worldClient = (WorldClient) world;
+            CubeProviderClient cubeCache = (CubeProviderClient) worldClient.getChunkProvider();
+
+            // get the cube
+            Cube cube = cubeCache.getCube(message.getCubePos());
+            if (message.getData() == null) {
+                // this means the EBS was null serverside. So it needs to be null clientside
+                cube.setStorage(Chunk.NULL_BLOCK_STORAGE);
+                return;
+            }
+            ExtendedBlockStorage storage = cube.getStorage();
+            if (cube.getStorage() == null) {
+                cube.setStorage(storage = new ExtendedBlockStorage(cubeToMinBlock(cube.getY()), worldClient.provider.hasSkyLight()));
+            }
+            assert storage != null;
+            message.apply(storage);
+            LightingManager.CubeLightUpdateInfo info = cube.getCubeLightUpdateInfo();
+            if (info != null && message.getType() == EnumSkyBlock.SKY) {
+                info.clear();
+            }
+            cube.markForRenderUpdate();
+        }
+    }
+}
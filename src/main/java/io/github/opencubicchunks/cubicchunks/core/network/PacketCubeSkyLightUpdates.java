@@ -26,7 +26,6 @@ package io.github.opencubicchunks.cubicchunks.core.network;
 
 import static io.github.opencubicchunks.cubicchunks.api.util.Coords.cubeToMinBlock;
 
-import gnu.trove.list.TShortList;
 import io.github.opencubicchunks.cubicchunks.api.util.Bits;
 import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
 import io.github.opencubicchunks.cubicchunks.core.client.CubeProviderClient;
@@ -48,8 +47,14 @@ import java.util.Arrays;
 
 import javax.annotation.Nullable;
 
+/**
+ * Changed sky light values of a cube, for clients that can't read {@link PacketCubeLightUpdates}
+ */
 public class PacketCubeSkyLightUpdates implements IMessage {
 
+    // more changes than this are sent as the whole light array
+    private static final int MAX_COUNT = 64;
+
     private CubePos cube;
     private boolean isFullRelight;
     private byte[] data;
@@ -57,39 +62,44 @@ public class PacketCubeSkyLightUpdates implements IMessage {
     public PacketCubeSkyLightUpdates() {
     }
 
-    public PacketCubeSkyLightUpdates(Cube cube, TShortList updates) {
-        if (cube.getStorage() == null) {
+    /**
+     * Creates a packet with the current sky light values of the changed positions, or the whole sky light array if there
+     * are many of them.
+     *
+     * @param cube the cube
+     * @param changed bit mask of changed positions, indexed by local address
+     * @param changedCount amount of bits set in the mask
+     */
+    public PacketCubeSkyLightUpdates(Cube cube, long[] changed, int changedCount) {
+        this.cube = cube.getCoords();
+        ExtendedBlockStorage storage = cube.getReadOnlyStorage();
+        if (storage == null) {
             // no light
             this.isFullRelight = true;
             this.data = null;
             return;
         }
-        this.cube = cube.getCoords();
-        this.data = new byte[updates.size() * 2];
-        for (int i = 0; i < updates.size(); i++) {
-            short packed = updates.get(i);
-            int localX = AddressTools.getLocalX(packed);
-            int localY = AddressTools.getLocalY(packed);
-            int localZ = AddressTools.getLocalZ(packed);
-            int value = cube.getStorage().getSkyLight(localX, localY, localZ);
+        if (changedCount >= MAX_COUNT) {
+            this.isFullRelight = true;
+            this.data = Arrays.copyOf(storage.getSkyLight().getData(), Cube.SIZE * Cube.SIZE * Cube.SIZE / 2);
+            return;
+        }
+        this.data = new byte[changedCount * 2];
+        int i = 0;
+        for (int address = PacketCubeLightUpdates.nextSetBit(changed, 0); address >= 0;
+                address = PacketCubeLightUpdates.nextSetBit(changed, address + 1)) {
+            int localX = AddressTools.getLocalX(address);
+            int localY = AddressTools.getLocalY(address);
+            int localZ = AddressTools.getLocalZ(address);
+            int value = storage.getSkyLight(localX, localY, localZ);
             byte byte1 = (byte) (Bits.packUnsignedToInt(localX, 4, 0) | Bits.packUnsignedToInt(localY, 4, 4));
             byte byte2 = (byte) (Bits.packUnsignedToInt(localZ, 4, 0) | Bits.packUnsignedToInt(value, 4, 4));
             this.data[i * 2] = byte1;
             this.data[i * 2 + 1] = byte2;
+            i++;
         }
     }
 
-    public PacketCubeSkyLightUpdates(Cube cube) {
-        this.isFullRelight = true;
-        if (cube.getStorage() == null) {
-            // no light
-            this.data = null;
-            return;
-        }
-        this.cube = cube.getCoords();
-        this.data = Arrays.copyOf(cube.getStorage().getSkyLight().getData(), Cube.SIZE * Cube.SIZE * Cube.SIZE / 2);
-    }
-
     @Override
     public void fromBytes(ByteBuf buf) {
         this.cube = new CubePos(buf.readInt(), buf.readInt(), buf.readInt());
@@ -43,10 +43,9 @@ import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
 import net.minecraftforge.fml.common.network.simpleimpl.MessageContext;
 
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
-import java.util.stream.Collectors;
 
 import javax.annotation.ParametersAreNonnullByDefault;
 
@@ -61,24 +60,37 @@ public class PacketCubes implements IMessage {
     public PacketCubes() {
     }
 
-    public PacketCubes(List<Cube> cubes) {
-        cubes.sort(Comparator.<Cube>comparingInt(c -> c.getCoords().getY())
-                .thenComparingInt(c -> c.getCoords().getX())
-                .thenComparingInt(c -> c.getCoords().getZ()));
+    /**
+     * @param cubes the cubes to send, in the order they are encoded
+     * @param flags flags computed by {@link WorldEncoder#computeFlags(CubeSnapshot, int)} for each cube, may be longer than cubes
+     * @param size the encoded size of the cubes
+     */
+    PacketCubes(List<CubeSnapshot> cubes, byte[] flags, int size) {
         this.cubePos = new CubePos[cubes.size()];
         for (int i = 0; i < cubes.size(); i++) {
-            cubePos[i] = cubes.get(i).getCoords();
+            cubePos[i] = cubes.get(i).pos;
         }
-        this.data = new byte[WorldEncoder.getEncodedSize(cubes)];
+        this.data = new byte[size];
         PacketBuffer out = new PacketBuffer(WorldEncoder.createByteBufForWrite(this.data));
 
-        WorldEncoder.encodeCubes(out, cubes);
+        WorldEncoder.encodeCubes(out, cubes, Arrays.copyOf(flags, cubes.size()));
 
         this.tileEntityTags = new ArrayList<>();
+        cubes.forEach(cube -> tileEntityTags.add(cube.tileEntityTags));
+    }
+
+    /**
+     * @return amount of cubes in this packet
+     */
+    public int getCubeCount() {
+        return cubePos.length;
+    }
 
-        cubes.forEach(cube ->
-                tileEntityTags.add(cube.getTileEntityMap().values().stream().map(TileEntity::getUpdateTag).collect(Collectors.toList()))
-        );
+    /**
+     * @return size of the encoded block, light and biome data of the cubes in this packet
+     */
+    public int getEncodedSize() {
+        return data.length;
     }
 
     @Override
@@ -52,6 +52,7 @@ public class PacketCubicWorldData implements IMessage {
     private int maxHeight;
     private int minGenerationHeight;
     private int maxGenerationHeight;
+    private int cubeEncoding;
 
     public PacketCubicWorldData() {
     }
@@ -73,6 +74,7 @@ public class PacketCubicWorldData implements IMessage {
                 this.maxGenerationHeight = 256;
             }
         }
+        this.cubeEncoding = WorldEncoder.CURRENT_ENCODING;
     }
 
     @Override
@@ -82,6 +84,8 @@ public class PacketCubicWorldData implements IMessage {
         this.maxHeight = buf.readInt();
         this.minGenerationHeight = buf.readInt();
         this.maxGenerationHeight = buf.readInt();
+        // older servers don't send it
+        this.cubeEncoding = buf.isReadable() ? buf.readUnsignedByte() : WorldEncoder.ENCODING_LEGACY;
     }
 
     @Override
@@ -91,6 +95,7 @@ public class PacketCubicWorldData implements IMessage {
         buf.writeInt(this.maxHeight);
         buf.writeInt(this.minGenerationHeight);
         buf.writeInt(this.maxGenerationHeight);
+        buf.writeByte(this.cubeEncoding);
     }
 
     public boolean isCubicWorld() {
@@ -113,6 +118,10 @@ public class PacketCubicWorldData implements IMessage {
         return maxGenerationHeight;
     }
 
+    public int getCubeEncoding() {
+        return cubeEncoding;
+    }
+
     public static class Handler extends AbstractClientMessageHandler<PacketCubicWorldData> {
 
         @Nullable @Override
@@ -132,6 +141,10 @@ public class PacketCubicWorldData implements IMessage {
                     Minecraft.getMinecraft().renderGlobal.setWorldAndLoadRenderers((WorldClient) world);
                 }
             }
+            // only reply to servers that know about the packet, older servers would disconnect on an unknown packet
+            if (message.getCubeEncoding() > WorldEncoder.ENCODING_LEGACY) {
+                PacketDispatcher.sendToServer(new PacketCubeEncoding(Math.min(message.getCubeEncoding(), WorldEncoder.CURRENT_ENCODING)));
+            }
 
         }
     }
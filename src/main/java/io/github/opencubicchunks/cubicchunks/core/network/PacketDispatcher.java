@@ -27,13 +27,27 @@ package io.github.opencubicchunks.cubicchunks.core.network;
 import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.network.NetHandlerPlayServer;
+import net.minecraft.network.Packet;
+import net.minecraft.world.World;
 import net.minecraftforge.fml.common.network.NetworkRegistry;
 import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
 import net.minecraftforge.fml.common.network.simpleimpl.IMessageHandler;
 import net.minecraftforge.fml.common.network.simpleimpl.SimpleNetworkWrapper;
 import net.minecraftforge.fml.relauncher.Side;
 
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
 /**
@@ -53,6 +67,12 @@ public class PacketDispatcher {
      */
     private static final SimpleNetworkWrapper dispatcher = NetworkRegistry.INSTANCE.newSimpleChannel(CubicChunks.MODID);
 
+    /**
+     * Messages waiting for a message that is still being created to be sent first, for each connection.
+     * Only accessed from the server thread.
+     */
+    private static final Map<NetHandlerPlayServer, Queue<PendingMessages>> pendingMessages = new HashMap<>();
+
     /**
      * Registers all packets. Side of a packet is the side on which the packet is handled.
      */
@@ -68,6 +88,10 @@ public class PacketDispatcher {
         registerMessage(PacketCubicWorldData.Handler.class, PacketCubicWorldData.class);
         registerMessage(PacketHeightMapUpdate.Handler.class, PacketHeightMapUpdate.class);
         registerMessage(PacketCubeSkyLightUpdates.Handler.class, PacketCubeSkyLightUpdates.class);
+        // packets below are sent only to clients that announced support for them with PacketCubeEncoding
+        registerMessage(PacketCubeEncoding.Handler.class, PacketCubeEncoding.class);
+        registerMessage(PacketMultiCubeBlockChange.Handler.class, PacketMultiCubeBlockChange.class);
+        registerMessage(PacketCubeLightUpdates.Handler.class, PacketCubeLightUpdates.class);
 
     }
 
@@ -81,13 +105,185 @@ public class PacketDispatcher {
     }
 
     /**
-     * Send this message to the specified player.
+     * Send this message to the specified player, after messages to that player still waiting in
+     * {@link #sendWhenDone(CompletableFuture, EntityPlayerMP, Runnable, Runnable)}.
      * See {@link SimpleNetworkWrapper#sendTo(IMessage, EntityPlayerMP)}
      *
      * @param message message to send
      * @param player to send the packet to
      */
     public static void sendTo(IMessage message, EntityPlayerMP player) {
+        Queue<PendingMessages> pending = pendingMessages.get(player.connection);
+        if (pending != null) {
+            pending.add(new PendingMessages(player.world, CompletableFuture.completedFuture(Collections.singletonList(message)),
+                    null, null));
+            return;
+        }
         PacketDispatcher.dispatcher.sendTo(message, player);
     }
+
+    /**
+     * Send this vanilla packet to the specified player, after messages to that player still waiting in
+     * {@link #sendWhenDone(CompletableFuture, EntityPlayerMP, Runnable, Runnable)}.
+     *
+     * @param packet packet to send
+     * @param player to send the packet to
+     */
+    public static void sendPacket(Packet<?> packet, EntityPlayerMP player) {
+        Queue<PendingMessages> pending = pendingMessages.get(player.connection);
+        if (pending != null) {
+            pending.add(new PendingMessages(player.world, packet));
+            return;
+        }
+        player.connection.sendPacket(packet);
+    }
+
+    /**
+     * Send the messages to the specified player once they are created. Messages sent to the player later with any
+     * method of this class are sent after these. The messages are dropped if the player is removed from the world
+     * before they are sent, see {@link #dropPendingMessages(EntityPlayerMP, World)}. Must be called on the server thread.
+     *
+     * @param messages future completed with the messages to send
+     * @param player to send the packets to
+     * @param onSent called on the server thread after the messages are sent, not called if creating them failed
+     * @param onFailed called on the server thread instead of onSent if creating the messages failed
+     */
+    public static void sendWhenDone(CompletableFuture<? extends List<? extends IMessage>> messages, EntityPlayerMP player,
+            @Nullable Runnable onSent, @Nullable Runnable onFailed) {
+        Queue<PendingMessages> pending = pendingMessages.get(player.connection);
+        if (pending == null && messages.isDone()) {
+            PendingMessages ready = new PendingMessages(player.world, messages, onSent, onFailed);
+            ready.send(player.connection);
+            return;
+        }
+        if (pending == null) {
+            pending = new ArrayDeque<>();
+            pendingMessages.put(player.connection, pending);
+        }
+        pending.add(new PendingMessages(player.world, messages, onSent, onFailed));
+    }
+
+    /**
+     * Sends all messages that were waiting only for messages that are now created. Must be called on the server thread.
+     */
+    public static void sendDoneMessages() {
+        for (Iterator<Map.Entry<NetHandlerPlayServer, Queue<PendingMessages>>> it = pendingMessages.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<NetHandlerPlayServer, Queue<PendingMessages>> entry = it.next();
+            NetHandlerPlayServer connection = entry.getKey();
+            if (!connection.netManager.isChannelOpen()) {
+                it.remove();
+                continue;
+            }
+            Queue<PendingMessages> pending = entry.getValue();
+            while (!pending.isEmpty() && pending.peek().messages.isDone()) {
+                pending.poll().send(connection);
+            }
+            if (pending.isEmpty()) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Drops messages that are still waiting to be sent to the player.
+     */
+    public static void dropPendingMessages(EntityPlayerMP player) {
+        pendingMessages.remove(player.connection);
+    }
+
+    /**
+     * Drops messages still waiting to be sent to the player that were queued while the player was in the given world,
+     * so that they don't arrive after the player has left it. Must be called on the server thread.
+     */
+    public static void dropPendingMessages(EntityPlayerMP player, World world) {
+        Queue<PendingMessages> pending = pendingMessages.get(player.connection);
+        if (pending == null) {
+            return;
+        }
+        pending.removeIf(messages -> messages.world == world);
+        if (pending.isEmpty()) {
+            pendingMessages.remove(player.connection);
+        }
+    }
+
+    /**
+     * Send this message to the server.
+     * See {@link SimpleNetworkWrapper#sendToServer(IMessage)}
+     *
+     * @param message message to send
+     */
+    public static void sendToServer(IMessage message) {
+        PacketDispatcher.dispatcher.sendToServer(message);
+    }
+
+    /**
+     * Send this message to all of the specified players. The message is serialized only once, so it must not be
+     * modified until it's sent.
+     *
+     * @param message message to send
+     * @param players players to send the packet to
+     */
+    public static void sendToAll(IMessage message, Iterable<EntityPlayerMP> players) {
+        Packet<?> packet = null;
+        for (EntityPlayerMP player : players) {
+            if (pendingMessages.containsKey(player.connection)) {
+                sendTo(message, player);
+                continue;
+            }
+            if (packet == null) { // create packet lazily
+                packet = PacketDispatcher.dispatcher.getPacketFrom(message);
+            }
+            player.connection.sendPacket(packet);
+        }
+    }
+
+    private static final class PendingMessages {
+
+        // the world of the player when the messages were queued
+        final World world;
+        final CompletableFuture<? extends List<? extends IMessage>> messages;
+        @Nullable final Packet<?> packet;
+        @Nullable final Runnable onSent;
+        @Nullable final Runnable onFailed;
+
+        PendingMessages(World world, CompletableFuture<? extends List<? extends IMessage>> messages, @Nullable Runnable onSent,
+                @Nullable Runnable onFailed) {
+            this.world = world;
+            this.messages = messages;
+            this.packet = null;
+            this.onSent = onSent;
+            this.onFailed = onFailed;
+        }
+
+        PendingMessages(World world, Packet<?> packet) {
+            this.world = world;
+            this.messages = CompletableFuture.completedFuture(Collections.emptyList());
+            this.packet = packet;
+            this.onSent = null;
+            this.onFailed = null;
+        }
+
+        void send(NetHandlerPlayServer connection) {
+            if (packet != null) {
+                connection.sendPacket(packet);
+                return;
+            }
+            List<? extends IMessage> toSend;
+            try {
+                toSend = messages.join();
+            } catch (CompletionException e) {
+                CubicChunks.LOGGER.error("Failed to create packets for player " + connection.player.getName(), e.getCause());
+                if (onFailed != null) {
+                    onFailed.run();
+                }
+                return;
+            }
+            for (IMessage message : toSend) {
+                connection.sendPacket(PacketDispatcher.dispatcher.getPacketFrom(message));
+            }
+            if (onSent != null) {
+                onSent.run();
+            }
+        }
+    }
 }
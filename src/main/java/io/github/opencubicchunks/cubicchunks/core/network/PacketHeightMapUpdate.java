@@ -37,6 +37,7 @@ import gnu.trove.list.TIntList;
 import gnu.trove.list.array.TByteArrayList;
 import gnu.trove.list.array.TIntArrayList;
 import io.github.opencubicchunks.cubicchunks.core.world.ClientHeightMap;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
 import io.netty.buffer.ByteBuf;
 import net.minecraft.entity.player.EntityPlayer;
 import net.minecraft.util.math.ChunkPos;
@@ -72,11 +73,30 @@ public class PacketHeightMapUpdate implements IMessage {
         }
     }
 
+    /**
+     * Creates an update of all heights in the column
+     */
+    public PacketHeightMapUpdate(ChunkPos chunk, IHeightMap heightMap) {
+        this.chunk = chunk;
+        this.updates = new TByteArrayList(Cube.SIZE * Cube.SIZE);
+        this.heights = new TIntArrayList(Cube.SIZE * Cube.SIZE);
+        for (int z = 0; z < Cube.SIZE; z++) {
+            for (int x = 0; x < Cube.SIZE; x++) {
+                this.updates.add((byte) AddressTools.getLocalAddress(x, z));
+                this.heights.add(heightMap.getTopBlockY(x, z));
+            }
+        }
+    }
+
     @Override
     public void fromBytes(ByteBuf buf) {
         this.chunk = new ChunkPos(buf.readInt(), buf.readInt());
 
         int size = buf.readUnsignedByte();
+        if (size == 0) {
+            // 256 doesn't fit in a byte, and empty updates are never sent
+            size = Cube.SIZE * Cube.SIZE;
+        }
         this.updates = new TByteArrayList(size);
         this.heights = new TIntArrayList(size);
 
@@ -91,6 +111,7 @@ public class PacketHeightMapUpdate implements IMessage {
         buf.writeInt(this.chunk.x);
         buf.writeInt(this.chunk.z);
 
+        // 256 is written as 0. Older clients read that as an empty update, like they always did.
         buf.writeByte(this.updates.size());
 
         for (int i = 0; i < this.updates.size(); i++) {
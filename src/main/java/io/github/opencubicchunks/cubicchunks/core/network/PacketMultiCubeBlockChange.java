@@ -0,0 +1,149 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.network;
+
+import static net.minecraftforge.fml.common.network.ByteBufUtils.readVarInt;
+import static net.minecraftforge.fml.common.network.ByteBufUtils.writeVarInt;
+
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.core.util.PacketUtils;
+import io.netty.buffer.ByteBuf;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.Block;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.client.multiplayer.WorldClient;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.world.World;
+import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
+import net.minecraftforge.fml.common.network.simpleimpl.MessageContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Block changes in any amount of cubes, sent once per tick instead of a {@link PacketCubeBlockChange} for each cube.
+ * Cube positions are written relative to the previous cube and all numbers as variable length integers.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+public class PacketMultiCubeBlockChange implements IMessage {
+
+    private List<PacketCubeBlockChange> changes;
+
+    public PacketMultiCubeBlockChange() {
+    }
+
+    public PacketMultiCubeBlockChange(List<PacketCubeBlockChange> changes) {
+        this.changes = changes;
+    }
+
+    List<PacketCubeBlockChange> getChanges() {
+        return changes;
+    }
+
+    /**
+     * @return true if the player's client can handle this packet
+     */
+    public static boolean isSupported(EntityPlayerMP player) {
+        return PacketCubeEncoding.getCubeEncoding(player) >= WorldEncoder.ENCODING_BATCHED_BLOCK_CHANGES;
+    }
+
+    @SuppressWarnings("deprecation")
+    @Override
+    public void fromBytes(ByteBuf in) {
+        read(in, Block.BLOCK_STATE_IDS::getByValue);
+    }
+
+    void read(ByteBuf in, IntFunction<IBlockState> stateById) {
+        int count = readVarInt(in, 4);
+        this.changes = new ArrayList<>(count);
+        int x = 0, y = 0, z = 0;
+        for (int i = 0; i < count; i++) {
+            PacketCubeBlockChange change = new PacketCubeBlockChange();
+            x += PacketUtils.readSignedVarInt(in);
+            y += PacketUtils.readSignedVarInt(in);
+            z += PacketUtils.readSignedVarInt(in);
+            change.cubePos = new CubePos(x, y, z);
+
+            int numBlocks = readVarInt(in, 3);
+            change.localAddresses = new short[numBlocks];
+            change.blockStates = new IBlockState[numBlocks];
+            for (int j = 0; j < numBlocks; j++) {
+                change.localAddresses[j] = in.readShort();
+                change.blockStates[j] = stateById.apply(readVarInt(in, 4));
+            }
+            int numHmapChanges = readVarInt(in, 2);
+            change.heightValues = new int[numHmapChanges];
+            for (int j = 0; j < numHmapChanges; j++) {
+                change.heightValues[j] = PacketUtils.readSignedVarInt(in);
+            }
+            changes.add(change);
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    @Override
+    public void toBytes(ByteBuf out) {
+        write(out, Block.BLOCK_STATE_IDS::get);
+    }
+
+    void write(ByteBuf out, ToIntFunction<IBlockState> stateIds) {
+        writeVarInt(out, changes.size(), 4);
+        int x = 0, y = 0, z = 0;
+        for (PacketCubeBlockChange change : changes) {
+            PacketUtils.writeSignedVarInt(out, change.cubePos.getX() - x);
+            PacketUtils.writeSignedVarInt(out, change.cubePos.getY() - y);
+            PacketUtils.writeSignedVarInt(out, change.cubePos.getZ() - z);
+            x = change.cubePos.getX();
+            y = change.cubePos.getY();
+            z = change.cubePos.getZ();
+
+            writeVarInt(out, change.localAddresses.length, 3);
+            for (int i = 0; i < change.localAddresses.length; i++) {
+                out.writeShort(change.localAddresses[i]);
+                writeVarInt(out, stateIds.applyAsInt(change.blockStates[i]), 4);
+            }
+            writeVarInt(out, change.heightValues.length, 2);
+            for (int v : change.heightValues) {
+                PacketUtils.writeSignedVarInt(out, v);
+            }
+        }
+    }
+
+    public static class Handler extends AbstractClientMessageHandler<PacketMultiCubeBlockChange> {
+
+        @Override
+        public void handleClientMessage(World world, EntityPlayer player, PacketMultiCubeBlockChange packet, MessageContext ctx) {
+            for (PacketCubeBlockChange change : packet.changes) {
+                change.apply((WorldClient) world);
+            }
+        }
+    }
+}
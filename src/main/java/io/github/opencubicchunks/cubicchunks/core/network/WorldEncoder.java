@@ -25,17 +25,23 @@
 package io.github.opencubicchunks.cubicchunks.core.network;
 
 import io.github.opencubicchunks.cubicchunks.api.util.Coords;
+import io.github.opencubicchunks.cubicchunks.api.world.IColumn;
 import io.github.opencubicchunks.cubicchunks.core.world.ClientHeightMap;
-import io.github.opencubicchunks.cubicchunks.core.world.ServerHeightMap;
+import io.github.opencubicchunks.cubicchunks.core.world.IServerHeightMap;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.Block;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
 import net.minecraft.network.PacketBuffer;
+import net.minecraft.world.chunk.BlockStateContainer;
 import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.NibbleArray;
 import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
 
@@ -45,70 +51,223 @@ import javax.annotation.ParametersAreNonnullByDefault;
 @ParametersAreNonnullByDefault
 class WorldEncoder {
 
-    static void encodeCubes(PacketBuffer out, Collection<Cube> cubes) {
+    /**
+     * Cube encoding that sends all block and light data as-is. Understood by all clients.
+     */
+    static final int ENCODING_LEGACY = 0;
+    /**
+     * Cube encoding where block data of cubes made of a single block state is sent as one state ID, and light arrays
+     * with a single value are sent as that value.
+     */
+    static final int ENCODING_UNIFORM = 1;
+    /**
+     * Cube data encoded like {@link #ENCODING_UNIFORM}, and the client can handle {@link PacketMultiCubeBlockChange}
+     */
+    static final int ENCODING_BATCHED_BLOCK_CHANGES = 2;
+    /**
+     * Like {@link #ENCODING_BATCHED_BLOCK_CHANGES}, and the client can handle {@link PacketCubeLightUpdates}
+     */
+    static final int ENCODING_LIGHT_UPDATES = 3;
+    /**
+     * Like {@link #ENCODING_LIGHT_UPDATES}, and column heightmaps are sent with {@link PacketColumn} instead of with every
+     * non-empty cube
+     */
+    static final int ENCODING_COLUMN_HEIGHTMAPS = 4;
+    /**
+     * The newest cube encoding this version can read and write
+     */
+    static final int CURRENT_ENCODING = ENCODING_COLUMN_HEIGHTMAPS;
+
+    static final int HEIGHTMAP_SIZE = Cube.SIZE * Cube.SIZE * Integer.BYTES;
+
+    private static final int FLAG_EMPTY = 1;
+    private static final int FLAG_HAS_STORAGE = 2;
+    private static final int FLAG_HAS_BIOMES = 4;
+    private static final int FLAG_UNIFORM_BLOCKS = 8;
+    private static final int FLAG_UNIFORM_BLOCK_LIGHT = 16;
+    private static final int FLAG_UNIFORM_SKY_LIGHT = 32;
+    private static final int FLAG_HEIGHTMAP_IN_COLUMN = 64;
+
+    /**
+     * Computes the flags byte of a cube. The flags decide what is written by
+     * {@link #encodeCubes(PacketBuffer, List, byte[])}, so they have to be computed only once per cube.
+     *
+     * @param cube the cube to encode
+     * @param encoding one of the ENCODING_* constants, the newest encoding the receiving client understands
+     */
+    static byte computeFlags(CubeSnapshot cube, int encoding) {
+        int flags = 0;
+        if (cube.isEmpty)
+            flags |= FLAG_EMPTY;
+        if (cube.hasStorage())
+            flags |= FLAG_HAS_STORAGE;
+        if (cube.biomes != null)
+            flags |= FLAG_HAS_BIOMES;
+        // the flags below are never set by the legacy encoding, so the decoder can tell the two apart
+        if (encoding >= ENCODING_COLUMN_HEIGHTMAPS)
+            flags |= FLAG_HEIGHTMAP_IN_COLUMN;
+        if (encoding >= ENCODING_UNIFORM && cube.hasStorage()) {
+            if (!cube.isEmpty && cube.getUniformStateId() >= 0)
+                flags |= FLAG_UNIFORM_BLOCKS;
+            //noinspection ConstantConditions
+            if (getUniformLight(cube.blockLight) >= 0)
+                flags |= FLAG_UNIFORM_BLOCK_LIGHT;
+            if (cube.skyLight != null && getUniformLight(cube.skyLight) >= 0)
+                flags |= FLAG_UNIFORM_SKY_LIGHT;
+        }
+        return (byte) flags;
+    }
+
+    static void encodeCubes(PacketBuffer out, List<CubeSnapshot> cubes, byte[] flags) {
         // write first all the flags, then all the block data, then all the light data etc for better compression
 
         // 1. emptiness
-        cubes.forEach(cube -> {
-            byte flags = 0;
-            if(cube.isEmpty())
-                flags |= 1;
-            if(cube.getStorage() != null)
-                flags |= 2;
-            if(cube.getBiomeArray() != null)
-                flags |= 4;
-            out.writeByte(flags);
-        });
+        out.writeBytes(flags);
 
         // 2. block IDs and metadata
-        cubes.forEach(cube -> {
-            if (!cube.isEmpty()) {
+        for (int i = 0; i < cubes.size(); i++) {
+            if ((flags[i] & FLAG_EMPTY) != 0) {
+                continue;
+            }
+            CubeSnapshot cube = cubes.get(i);
+            if ((flags[i] & FLAG_UNIFORM_BLOCKS) != 0) {
+                out.writeVarInt(cube.getUniformStateId());
+            } else {
                 //noinspection ConstantConditions
-                cube.getStorage().getData().write(out);
+                out.writeBytes(cube.blocks);
             }
-        });
+        }
 
         // 3. block light
-        cubes.forEach(cube -> {
-            if (cube.getStorage() != null) {
-                out.writeBytes(cube.getStorage().getBlockLight().getData());
+        for (int i = 0; i < cubes.size(); i++) {
+            if ((flags[i] & FLAG_HAS_STORAGE) != 0) {
+                //noinspection ConstantConditions
+                writeLight(out, cubes.get(i).blockLight, (flags[i] & FLAG_UNIFORM_BLOCK_LIGHT) != 0);
             }
-        });
+        }
 
         // 4. sky light
-        cubes.forEach(cube -> {
-            if (cube.getStorage() != null && cube.getWorld().provider.hasSkyLight()) {
-                out.writeBytes(cube.getStorage().getSkyLight().getData());
+        for (int i = 0; i < cubes.size(); i++) {
+            byte[] skyLight = cubes.get(i).skyLight;
+            if ((flags[i] & FLAG_HAS_STORAGE) != 0 && skyLight != null) {
+                writeLight(out, skyLight, (flags[i] & FLAG_UNIFORM_SKY_LIGHT) != 0);
             }
-        });
+        }
 
-        // 5. heightmap and bottom-block-y. Each non-empty cube has a chance
-        // to update this data.
-        // trying to keep track of when it changes would be complex, so send
-        // it wil all cubes
-        cubes.forEach(cube -> {
-            if (!cube.isEmpty()) {
-                byte[] heightmaps = ((ServerHeightMap) cube.getColumn().getOpacityIndex()).getDataForClient();
-                assert heightmaps.length == Cube.SIZE * Cube.SIZE * Integer.BYTES;
-                out.writeBytes(heightmaps);
+        // 5. heightmaps, for clients that don't get them with the column and PacketHeightMapUpdate
+        for (int i = 0; i < cubes.size(); i++) {
+            if ((flags[i] & (FLAG_EMPTY | FLAG_HEIGHTMAP_IN_COLUMN)) == 0) {
+                //noinspection ConstantConditions
+                out.writeBytes(cubes.get(i).heightMap);
             }
-        });
-        
+        }
+
         // 6. biomes
         cubes.forEach(cube -> {
-            if (cube.getBiomeArray() != null)
-                out.writeBytes(cube.getBiomeArray());
+            if (cube.biomes != null)
+                out.writeBytes(cube.biomes);
         });
     }
 
-    static void encodeColumn(PacketBuffer out, Chunk column) {
+    private static void writeLight(PacketBuffer out, byte[] light, boolean uniform) {
+        if (uniform) {
+            out.writeByte(light[0] & 0xF);
+        } else {
+            out.writeBytes(light);
+        }
+    }
+
+    private static void readLight(PacketBuffer in, NibbleArray light, boolean uniform) {
+        if (uniform) {
+            int value = in.readUnsignedByte() & 0xF;
+            Arrays.fill(light.getData(), (byte) (value | value << 4));
+        } else {
+            in.readBytes(light.getData());
+        }
+    }
+
+    /**
+     * Finds the block state ID of a cube made of a single block state, from block data serialized by
+     * {@link BlockStateContainer#write(PacketBuffer)}. This reads the palette and the packed entries the same way
+     * BlockStateContainer and BitArray do, as BlockStateContainer can't be read on the server.
+     *
+     * @return the block state ID all blocks are set to, or -1 if there is more than one
+     */
+    static int getUniformStateId(byte[] blocks) {
+        PacketBuffer in = new PacketBuffer(createByteBufForRead(blocks));
+        int bits = in.readUnsignedByte();
+        int[] palette = new int[in.readVarInt()];
+        for (int i = 0; i < palette.length; i++) {
+            palette[i] = in.readVarInt();
+        }
+        long[] entries = new long[in.readVarInt()];
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = in.readLong();
+        }
+        long mask = (1L << bits) - 1;
+        int first = (int) (entries[0] & mask);
+        for (int i = 1; i < Cube.SIZE * Cube.SIZE * Cube.SIZE; i++) {
+            long bitIndex = (long) i * bits;
+            int startLong = (int) (bitIndex >> 6);
+            int endLong = (int) (((long) (i + 1) * bits - 1L) >> 6);
+            int shift = (int) (bitIndex & 63);
+            long value = entries[startLong] >>> shift;
+            if (startLong != endLong) {
+                value |= entries[endLong] << (64 - shift);
+            }
+            if ((int) (value & mask) != first) {
+                return -1;
+            }
+        }
+        // the global palette is written as an empty palette, then entries are the state IDs
+        return palette.length == 0 ? first : palette[first];
+    }
+
+    /**
+     * @return the light value all entries in the array are set to, or -1 if there is more than one
+     */
+    static int getUniformLight(byte[] data) {
+        byte first = data[0];
+        if ((first & 0xF) != ((first >> 4) & 0xF)) {
+            return -1;
+        }
+        for (int i = 1; i < data.length; i++) {
+            if (data[i] != first) {
+                return -1;
+            }
+        }
+        return first & 0xF;
+    }
+
+    /**
+     * @param withHeightMap whether to include the heightmap, see {@link #ENCODING_COLUMN_HEIGHTMAPS}
+     */
+    static void encodeColumn(PacketBuffer out, Chunk column, boolean withHeightMap) {
         // 1. biomes
         out.writeBytes(column.getBiomeArray());
+
+        // 2. heightmap
+        if (withHeightMap) {
+            byte[] heightmap = getHeightMapData(column);
+            assert heightmap.length == HEIGHTMAP_SIZE;
+            out.writeBytes(heightmap);
+        }
     }
 
     static void decodeColumn(PacketBuffer in, Chunk column) {
         // 1. biomes
         in.readBytes(column.getBiomeArray());
+
+        // 2. heightmap, older servers and older encodings send it with cubes instead
+        if (in.isReadable()) {
+            byte[] heightmap = new byte[HEIGHTMAP_SIZE];
+            in.readBytes(heightmap);
+            ((ClientHeightMap) ((IColumn) column).getOpacityIndex()).setData(heightmap);
+        }
+    }
+
+    static byte[] getHeightMapData(Chunk column) {
+        return ((IServerHeightMap) ((IColumn) column).getOpacityIndex()).getDataForClient();
     }
 
     static void decodeCube(PacketBuffer in, List<Cube> cubes) {
@@ -118,12 +277,15 @@ class WorldEncoder {
         boolean[] isEmpty = new boolean[cubes.size()];
         boolean[] hasStorage = new boolean[cubes.size()];
         boolean[] hasCustomBiomeMap = new boolean[cubes.size()];
+        boolean[] hasHeightMap = new boolean[cubes.size()];
 
+        byte[] flags = new byte[cubes.size()];
+        in.readBytes(flags);
         for (int i = 0; i < cubes.size(); i++) {
-            byte flags = in.readByte();
-            isEmpty[i] = (flags & 1) != 0 || cubes.get(i) == null;
-            hasStorage[i] = (flags & 2) != 0 && cubes.get(i) != null;
-            hasCustomBiomeMap[i] = (flags & 4) != 0 && cubes.get(i) != null;
+            isEmpty[i] = (flags[i] & FLAG_EMPTY) != 0 || cubes.get(i) == null;
+            hasStorage[i] = (flags[i] & FLAG_HAS_STORAGE) != 0 && cubes.get(i) != null;
+            hasCustomBiomeMap[i] = (flags[i] & FLAG_HAS_BIOMES) != 0 && cubes.get(i) != null;
+            hasHeightMap[i] = (flags[i] & (FLAG_EMPTY | FLAG_HEIGHTMAP_IN_COLUMN)) == 0;
         }
 
         for (int i = 0; i < cubes.size(); i++) {
@@ -137,9 +299,25 @@ class WorldEncoder {
 
         // 2. Block IDs and metadata
         for (int i = 0; i < cubes.size(); i++) {
-            if (!isEmpty[i]) {
-                //noinspection ConstantConditions
-                cubes.get(i).getStorage().getData().read(in);
+            if (isEmpty[i]) {
+                continue;
+            }
+            //noinspection ConstantConditions
+            BlockStateContainer data = cubes.get(i).getStorage().getData();
+            if ((flags[i] & FLAG_UNIFORM_BLOCKS) != 0) {
+                IBlockState state = Block.BLOCK_STATE_IDS.getByValue(in.readVarInt());
+                if (state == null) {
+                    state = Blocks.AIR.getDefaultState();
+                }
+                for (int y = 0; y < Cube.SIZE; y++) {
+                    for (int z = 0; z < Cube.SIZE; z++) {
+                        for (int x = 0; x < Cube.SIZE; x++) {
+                            data.set(x, y, z, state);
+                        }
+                    }
+                }
+            } else {
+                data.read(in);
             }
         }
 
@@ -147,8 +325,7 @@ class WorldEncoder {
         for (int i = 0; i < cubes.size(); i++) {
             if (hasStorage[i]) {
                 //noinspection ConstantConditions
-                byte[] data = cubes.get(i).getStorage().getBlockLight().getData();
-                in.readBytes(data);
+                readLight(in, cubes.get(i).getStorage().getBlockLight(), (flags[i] & FLAG_UNIFORM_BLOCK_LIGHT) != 0);
             }
         }
 
@@ -156,25 +333,31 @@ class WorldEncoder {
         for (int i = 0; i < cubes.size(); i++) {
             if (hasStorage[i] && cubes.get(i).getWorld().provider.hasSkyLight()) {
                 //noinspection ConstantConditions
-                byte[] data = cubes.get(i).getStorage().getSkyLight().getData();
-                in.readBytes(data);
+                readLight(in, cubes.get(i).getStorage().getSkyLight(), (flags[i] & FLAG_UNIFORM_SKY_LIGHT) != 0);
             }
         }
 
-        // 5. heightmaps and after all that - update ref counts
+        // after all that - update ref counts
         for (int i = 0; i < cubes.size(); i++) {
             if (!isEmpty[i]) {
-                Cube cube = cubes.get(i);
-                byte[] heightmaps = new byte[Cube.SIZE * Cube.SIZE * Integer.BYTES];
-                in.readBytes(heightmaps);
-                ClientHeightMap coi = ((ClientHeightMap) cube.getColumn().getOpacityIndex());
-                coi.setData(heightmaps);
-
                 //noinspection ConstantConditions
-                cube.getStorage().recalculateRefCounts();
+                cubes.get(i).getStorage().recalculateRefCounts();
+            }
+        }
+
+        // 5. heightmaps
+        for (int i = 0; i < cubes.size(); i++) {
+            if (!hasHeightMap[i]) {
+                continue;
+            }
+            byte[] heightmap = new byte[HEIGHTMAP_SIZE];
+            in.readBytes(heightmap);
+            Cube cube = cubes.get(i);
+            if (cube != null) {
+                ((ClientHeightMap) cube.getColumn().getOpacityIndex()).setData(heightmap);
             }
         }
-        
+
         // 6. biomes
         for (int i = 0; i < cubes.size(); i++) {
             if (!hasCustomBiomeMap[i])
@@ -186,38 +369,36 @@ class WorldEncoder {
         }
     }
 
-    static int getEncodedSize(Chunk column) {
-        return column.getBiomeArray().length;
+    static int getEncodedSize(Chunk column, boolean withHeightMap) {
+        return column.getBiomeArray().length + (withHeightMap ? HEIGHTMAP_SIZE : 0);
     }
 
-    static int getEncodedSize(Collection<Cube> cubes) {
-        int size = 0;
-
-        // 1. isEmpty, hasStorage and hasBiomeArray flags packed in one byte
-        size += cubes.size();
+    /**
+     * @return size of the encoded block, light and biome data of the cube, including the flags byte
+     */
+    static int getEncodedSize(CubeSnapshot cube, byte flags) {
+        // 1. isEmpty, hasStorage, hasBiomeArray and uniform data flags packed in one byte
+        int size = 1;
 
         // 2. block IDs and metadata
-        for (Cube cube : cubes) {
-            if (!cube.isEmpty()) {
-                //noinspection ConstantConditions
-                size += cube.getStorage().getData().getSerializedSize();
-            }
-            if (cube.getStorage() != null) {
-                size += cube.getStorage().getBlockLight().getData().length;
-                if (cube.getWorld().provider.hasSkyLight()) {
-                    size += cube.getStorage().getSkyLight().getData().length;
-                }
-            }
+        if ((flags & FLAG_EMPTY) == 0) {
+            //noinspection ConstantConditions
+            size += (flags & FLAG_UNIFORM_BLOCKS) != 0 ? PacketBuffer.getVarIntSize(cube.getUniformStateId()) : cube.blocks.length;
         }
-
-        // heightmaps
-        size += 256 * Integer.BYTES * cubes.size();
-        // biomes
-        for (Cube cube : cubes) {
-            byte[] biomeArray = cube.getBiomeArray();
-            if (biomeArray == null)
-                continue;
-            size += biomeArray.length;
+        // 3. and 4. light
+        if (cube.blockLight != null) {
+            size += (flags & FLAG_UNIFORM_BLOCK_LIGHT) != 0 ? 1 : cube.blockLight.length;
+        }
+        if (cube.skyLight != null) {
+            size += (flags & FLAG_UNIFORM_SKY_LIGHT) != 0 ? 1 : cube.skyLight.length;
+        }
+        // 5. heightmap
+        if ((flags & (FLAG_EMPTY | FLAG_HEIGHTMAP_IN_COLUMN)) == 0) {
+            size += HEIGHTMAP_SIZE;
+        }
+        // 6. biomes
+        if (cube.biomes != null) {
+            size += cube.biomes.length;
         }
         return size;
     }
@@ -103,12 +103,13 @@ public class ColumnWatcher extends PlayerChunkMapEntry implements XZAddressable
         }
 
         self().getPlayerList().add(player);
+        playerCubeMap.updateTickRange(this);
 
         //always sent to players, no need to check it
 
         if (this.isSentToPlayers()) {
             if (playerCubeMap.vanillaNetworkHandler.hasCubicChunks(player)) {
-                PacketColumn message = new PacketColumn(this.getChunk());
+                PacketColumn message = new PacketColumn(this.getChunk(), PacketColumn.isHeightMapIncluded(player));
                 PacketDispatcher.sendTo(message, player);
             } else {
                 playerCubeMap.vanillaNetworkHandler.sendColumnLoadPacket(this.getChunk(), player);
@@ -127,6 +128,7 @@ public class ColumnWatcher extends PlayerChunkMapEntry implements XZAddressable
         }
         if (this.getChunk() == null) {
             self().getPlayerList().remove(player);
+            playerCubeMap.updateTickRange(this);
             if (self().getPlayerList().isEmpty()) {
                 if (self().isLoading()) {
                     AsyncWorldIOExecutor.dropQueuedColumnLoad(
@@ -146,6 +148,7 @@ public class ColumnWatcher extends PlayerChunkMapEntry implements XZAddressable
         }
 
         self().getPlayerList().remove(player);
+        playerCubeMap.updateTickRange(this);
 
         MinecraftForge.EVENT_BUS.post(new ChunkWatchEvent.UnWatch(this.getChunk(), player));
 
@@ -168,10 +171,22 @@ public class ColumnWatcher extends PlayerChunkMapEntry implements XZAddressable
         assert this.getChunk() == playerCubeMap.getWorldServer().getChunkProvider().getLoadedChunk(getX(), getZ());
         try {
 
-            PacketColumn message = new PacketColumn(this.getChunk());
+            PacketColumn message = null;
+            PacketColumn messageWithHeightMap = null;
             for (EntityPlayerMP player : self().getPlayerList()) {
                 if (playerCubeMap.vanillaNetworkHandler.hasCubicChunks(player)) {
-                    PacketDispatcher.sendTo(message, player);
+                    // create packets lazily
+                    if (PacketColumn.isHeightMapIncluded(player)) {
+                        if (messageWithHeightMap == null) {
+                            messageWithHeightMap = new PacketColumn(this.getChunk(), true);
+                        }
+                        PacketDispatcher.sendTo(messageWithHeightMap, player);
+                    } else {
+                        if (message == null) {
+                            message = new PacketColumn(this.getChunk(), false);
+                        }
+                        PacketDispatcher.sendTo(message, player);
+                    }
                 } else {
                     playerCubeMap.vanillaNetworkHandler.sendColumnLoadPacket(this.getChunk(), player);
                 }
@@ -26,6 +26,7 @@ package io.github.opencubicchunks.cubicchunks.core.server;
 
 import io.github.opencubicchunks.cubicchunks.api.world.storage.StorageFormatProviderBase;
 import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
+import io.github.opencubicchunks.cubicchunks.core.lighting.FirstLightScheduler;
 import io.github.opencubicchunks.cubicchunks.core.lighting.LightingManager;
 import io.github.opencubicchunks.cubicchunks.core.server.chunkio.AsyncBatchingCubeIO;
 import io.github.opencubicchunks.cubicchunks.core.server.chunkio.ICubeIO;
@@ -35,6 +36,7 @@ import io.github.opencubicchunks.cubicchunks.api.world.ICube;
 import io.github.opencubicchunks.cubicchunks.api.worldgen.ICubeGenerator;
 import io.github.opencubicchunks.cubicchunks.api.world.ICubeProviderServer;
 import io.github.opencubicchunks.cubicchunks.api.util.Box;
+import io.github.opencubicchunks.cubicchunks.api.util.Coords;
 import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
 import io.github.opencubicchunks.cubicchunks.api.util.XYZMap;
 import io.github.opencubicchunks.cubicchunks.core.world.ICubeProviderInternal;
@@ -45,6 +47,7 @@ import io.github.opencubicchunks.cubicchunks.core.world.cube.BlankCube;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.entity.EnumCreatureType;
+import net.minecraft.entity.player.EntityPlayer;
 import net.minecraft.profiler.Profiler;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.ChunkPos;
@@ -61,8 +64,11 @@ import net.minecraftforge.fml.common.registry.GameRegistry;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Random;
 import java.util.function.BooleanSupplier;
@@ -98,6 +104,11 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
     @Nonnull private final CubePrimer cubePrimer;
     @Nonnull private final ICubeGenerator cubeGen;
     @Nonnull private final Profiler profiler;
+    @Nonnull private final FirstLightScheduler firstLightScheduler;
+    // loaded cubes assumed to be fully dark, see CubicChunksConfig.deferredLightingDistance
+    @Nonnull private final XYZMap<Cube> deferredLightingCubes = new XYZMap<>(0.5f, 1000);
+    // cube positions of players when deferred lighting near them was last computed
+    @Nonnull private Map<EntityPlayer, CubePos> deferredLightingPlayerPositions = new IdentityHashMap<>();
     // some mods will try to access blocks in ChunkDataEvent.Load
     // this needs the column to be already known by the chunk provider so that it can load cubes without trying to load the column again
     private Chunk currentlyLoadingColumn;
@@ -111,6 +122,7 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
         this.cubeGen = cubeGen;
         this.worldServer = worldServer;
         this.profiler = worldServer.profiler;
+        this.firstLightScheduler = new FirstLightScheduler(worldServer, this, this::onInitialLightingDone);
         try {
             Path path = worldServer.getSaveHandler().getWorldDirectory().toPath();
             if (worldServer.provider.getSaveFolder() != null) {
@@ -227,6 +239,13 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
     public boolean tick() {
         // NOTE: the return value is completely ignored
         profiler.startSection("providerTick");
+        profiler.startSection("firstLight");
+        firstLightScheduler.tick();
+        profiler.endStartSection("deferredLight");
+        if (deferredLightingCubes.getSize() > 0 && worldServer.getTotalWorldTime() % 20 == 0) {
+            computeDeferredLightingNearPlayers();
+        }
+        profiler.endSection();
         long i = System.currentTimeMillis();
         Random rand = this.world.rand;
         PlayerCubeMap playerCubeMap = ((PlayerCubeMap) this.world.getPlayerChunkMap());
@@ -445,14 +464,43 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
             }
         }
 
+        if (forceNow && cube.isLightingDeferred()) {
+            computeDeferredLighting(cube);
+        }
         if (!cube.isInitialLightingDone() || !cube.isSurfaceTracked()) {
-            calculateDiffuseSkylight(cube);
+            if (!calculateDiffuseSkylight(cube, forceNow)) {
+                // being computed asynchronously, finished in onInitialLightingDone
+                return cube;
+            }
         }
+        onInitialLightingDone(cube);
+
+        return cube;
+    }
+
+    private void onInitialLightingDone(Cube cube) {
+        // initial lighting is the last bulk change to a new cube, uniform cubes can share storage from now on
+        cube.shareStorageIfUniform();
         if (!cube.isSurfaceTracked()) {
             cube.trackSurface();
         }
+    }
 
-        return cube;
+    /**
+     * Called on the server thread after a block in a loaded cube changes.
+     *
+     * @param pos position of the changed block
+     */
+    public void onBlockChanged(BlockPos pos) {
+        firstLightScheduler.onBlockChanged(pos);
+    }
+
+    /**
+     * @param cube the cube to check
+     * @return true if initial lighting of the cube is being computed asynchronously
+     */
+    boolean isWaitingForInitialLighting(Cube cube) {
+        return firstLightScheduler.isScheduled(cube.getCoords());
     }
 
 
@@ -481,6 +529,37 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
                 });
     }
 
+    /**
+     * Add a cube generated from a primer created outside of the server thread. This is used for generators that
+     * {@link ICubeGenerator#supportsConcurrentCubeGeneration() support concurrent cube generation}.
+     * If the cube has been loaded or generated in the meantime, the primer is discarded.
+     *
+     * @param cubeX Cube x position
+     * @param cubeY Cube y position
+     * @param cubeZ Cube z position
+     * @param primer the generated primer
+     *
+     * @return The cube at the given position
+     */
+    Cube addGeneratedCube(int cubeX, int cubeY, int cubeZ, CubePrimer primer) {
+        Cube cube = getLoadedCube(cubeX, cubeY, cubeZ);
+        if (cube != null) {
+            return cube;
+        }
+        Chunk column = getColumn(cubeX, cubeZ, Requirement.GENERATE, true);
+        if (column == null || column.isEmpty()) {
+            return emptyCube;
+        }
+        // the column may have loaded the cube
+        cube = getLoadedCube(cubeX, cubeY, cubeZ);
+        if (cube != null) {
+            return cube;
+        }
+        cube = new Cube(column, cubeY, primer);
+        onCubeLoaded(cube, column);
+        return cube;
+    }
+
     /**
      * Populate a cube at the specified position, generating surrounding cubes as necessary
      *
@@ -548,11 +627,17 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
      * Initialize skylight for the cube at the specified position, generating surrounding cubes as needed.
      *
      * @param cube The cube to light up
+     * @param forceNow Whether the lighting must be done immediately
+     *
+     * @return true if lighting is done, false if it will be done asynchronously
      */
-    private void calculateDiffuseSkylight(Cube cube) {
+    private boolean calculateDiffuseSkylight(Cube cube, boolean forceNow) {
         if (LightingManager.NO_SUNLIGHT_PROPAGATION) {
             cube.setInitialLightingDone(true);
-            return;
+            return true;
+        }
+        if (!forceNow && firstLightScheduler.isScheduled(cube.getCoords())) {
+            return false;
         }
         int cubeX = cube.getX();
         int cubeY = cube.getY();
@@ -568,10 +653,117 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
                 }
             }
         }
+        if (!forceNow && canDeferLighting(cube)) {
+            cube.setLightingDeferred(true);
+            cube.setInitialLightingDone(true);
+            deferredLightingCubes.put(cube);
+            return true;
+        }
+        if (!forceNow && FirstLightScheduler.isEnabled()) {
+            firstLightScheduler.schedule(cube);
+            return false;
+        }
+        firstLightScheduler.cancel(cube.getCoords());
         ((ICubicWorldInternal.Server) this.worldServer).getFirstLightProcessor().diffuseSkylight(cube);
         cube.setInitialLightingDone(true);
+        return true;
+    }
+
+
+    /**
+     * Checks whether the cube can be assumed to be fully dark: it's far enough from players, sky light can't reach it from
+     * above, and there are no light sources in it.
+     *
+     * @param cube the cube to check
+     * @return true if initial lighting of the cube can be deferred
+     */
+    private boolean canDeferLighting(Cube cube) {
+        int distance = CubicChunksConfig.deferredLightingDistance;
+        if (distance <= 0 || isNearPlayer(cube.getCoords(), distance)) {
+            return false;
+        }
+        // sky light can also come from the sides, so check neighbor columns too
+        int maxBlockY = cube.getCoords().getMaxBlockY();
+        for (int dx = -1; dx <= 1; dx++) {
+            for (int dz = -1; dz <= 1; dz++) {
+                Chunk column = getLoadedColumn(cube.getX() + dx, cube.getZ() + dz);
+                if (column == null || ((IColumn) column).getOpacityIndex().getLowestTopBlockY() <= maxBlockY) {
+                    return false;
+                }
+            }
+        }
+        if (cube.isEmpty()) {
+            return true;
+        }
+        BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+        for (int localX = 0; localX < Cube.SIZE; localX++) {
+            for (int localY = 0; localY < Cube.SIZE; localY++) {
+                for (int localZ = 0; localZ < Cube.SIZE; localZ++) {
+                    pos.setPos(Coords.localToBlock(cube.getX(), localX), Coords.localToBlock(cube.getY(), localY),
+                            Coords.localToBlock(cube.getZ(), localZ));
+                    if (cube.getBlockState(pos).getLightValue(worldServer, pos) > 0) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void computeDeferredLighting(Cube cube) {
+        if (!cube.isLightingDeferred()) {
+            return;
+        }
+        cube.setLightingDeferred(false);
+        deferredLightingCubes.remove(cube);
+        ((ICubicWorldInternal.Server) this.worldServer).getFirstLightProcessor().diffuseSkylight(cube);
+    }
+
+    /**
+     * Computes lighting of deferred cubes within the deferred lighting distance of players that moved to another cube since the
+     * last call. Cubes can only be deferred away from players, so other cubes can't have come into that distance.
+     */
+    private void computeDeferredLightingNearPlayers() {
+        int distance = CubicChunksConfig.deferredLightingDistance;
+        if (distance <= 0) {
+            // disabled in config, compute everything
+            List<Cube> cubes = new ArrayList<>();
+            deferredLightingCubes.forEach(cubes::add);
+            cubes.forEach(this::computeDeferredLighting);
+            return;
+        }
+        Map<EntityPlayer, CubePos> playerPositions = new IdentityHashMap<>();
+        for (EntityPlayer player : worldServer.playerEntities) {
+            CubePos pos = CubePos.fromEntity(player);
+            playerPositions.put(player, pos);
+            if (pos.equals(deferredLightingPlayerPositions.get(player))) {
+                continue;
+            }
+            for (int dx = -distance; dx <= distance; dx++) {
+                for (int dy = -distance; dy <= distance; dy++) {
+                    for (int dz = -distance; dz <= distance; dz++) {
+                        Cube cube = deferredLightingCubes.get(pos.getX() + dx, pos.getY() + dy, pos.getZ() + dz);
+                        if (cube != null) {
+                            computeDeferredLighting(cube);
+                        }
+                    }
+                }
+            }
+        }
+        deferredLightingPlayerPositions = playerPositions;
     }
 
+    private boolean isNearPlayer(CubePos pos, int distance) {
+        for (EntityPlayer player : worldServer.playerEntities) {
+            if (Math.abs(Coords.getCubeXForEntity(player) - pos.getX()) <= distance
+                    && Math.abs(Coords.getCubeYForEntity(player) - pos.getY()) <= distance
+                    && Math.abs(Coords.getCubeZForEntity(player) - pos.getZ()) <= distance) {
+                return true;
+            }
+        }
+        return false;
+    }
 
     /**
      * Retrieve a column, asynchronously. The work done to retrieve the column is specified by the
@@ -707,6 +899,9 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
 
         // unload the Cube!
         cube.onUnload();
+        if (cube.isLightingDeferred()) {
+            deferredLightingCubes.remove(cube);
+        }
 
         if (cube.needsSaving()) { // save the Cube, if it needs saving
             this.cubeIO.saveCube(cube);
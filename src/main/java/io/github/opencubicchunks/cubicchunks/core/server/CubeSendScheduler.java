@@ -0,0 +1,149 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.server;
+
+import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelOutboundBuffer;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.network.NetHandlerPlayServer;
+import net.minecraft.network.NetworkManager;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Decides how many cubes can be sent to a single player each tick, based on how fast that player's connection
+ * actually drains.
+ * <p>
+ * The send rate (in bytes per tick) grows while the connection keeps up with it and is halved when the channel becomes
+ * unwritable or more data is waiting in netty's outbound buffer than the connection can deliver in one round trip
+ * (estimated from the player's ping). The byte allowance is converted to cubes using the average encoded size of
+ * recently sent cubes.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+class CubeSendScheduler {
+
+    private static final int MIN_RATE = 16 * 1024;
+    private static final int INITIAL_RATE = 128 * 1024;
+    private static final int MAX_RATE = 64 * 1024 * 1024;
+    private static final int MAX_RTT_TICKS = 40;
+
+    private final EntityPlayerMP player;
+
+    /** Bytes per tick the connection is assumed to be able to handle */
+    private int rate = INITIAL_RATE;
+    /** Average encoded size of a cube, updated as cubes are sent */
+    private double averageCubeSize = 8 * 1024;
+
+    private int cubesAllowed;
+    private int cubesScheduled;
+
+    CubeSendScheduler(EntityPlayerMP player) {
+        this.player = player;
+    }
+
+    /**
+     * Updates the send rate from the current state of the connection and computes the amount of cubes allowed this tick.
+     */
+    void tick() {
+        int maxCubes = CubicChunksConfig.cubesToSendPerTick;
+        // nothing could be sent if nothing was allowed, that doesn't show the connection can take more
+        boolean saturated = cubesAllowed > 0 && cubesScheduled >= cubesAllowed;
+        cubesScheduled = 0;
+        if (!CubicChunksConfig.adaptiveCubeSendRate) {
+            cubesAllowed = maxCubes;
+            return;
+        }
+        Channel channel = getChannel();
+        if (channel == null) {
+            cubesAllowed = 0;
+            return;
+        }
+        long pending = getPendingBytes(channel);
+        int rttTicks = Math.max(1, Math.min(MAX_RTT_TICKS, player.ping / 50));
+        // allow at most about one round trip worth of data waiting to be written
+        long maxPending = (long) rate * rttTicks;
+
+        long allowance;
+        if (!channel.isWritable() || pending > maxPending) {
+            rate = Math.max(MIN_RATE, rate / 2);
+            allowance = 0;
+        } else {
+            // only increase the rate if it was actually the limit last tick
+            if (saturated) {
+                rate = Math.min(MAX_RATE, rate + Math.max(MIN_RATE, rate / 8));
+            }
+            allowance = Math.min(rate, maxPending - pending);
+        }
+        int cubes = (int) (allowance / averageCubeSize);
+        if (cubes == 0 && allowance > 0 && pending == 0) {
+            // always allow progress on an empty connection, even if one cube is bigger than the whole allowance
+            cubes = 1;
+        }
+        cubesAllowed = Math.min(cubes, maxCubes);
+    }
+
+    /**
+     * @return amount of cubes that can still be scheduled for sending this tick
+     */
+    int getCubesRemaining() {
+        return Math.max(0, cubesAllowed - cubesScheduled);
+    }
+
+    void onCubeScheduled() {
+        cubesScheduled++;
+    }
+
+    /**
+     * Updates the average cube size estimate with the actual size of sent cubes
+     */
+    void onCubesSent(int count, int bytes) {
+        if (count == 0) {
+            return;
+        }
+        averageCubeSize += ((double) bytes / count - averageCubeSize) * 0.1;
+    }
+
+    @Nullable private Channel getChannel() {
+        NetHandlerPlayServer connection = player.connection;
+        if (connection == null) {
+            return null;
+        }
+        NetworkManager netManager = connection.netManager;
+        if (netManager == null) {
+            return null;
+        }
+        Channel channel = netManager.channel();
+        return channel != null && channel.isOpen() ? channel : null;
+    }
+
+    private static long getPendingBytes(Channel channel) {
+        ChannelOutboundBuffer buffer = channel.unsafe().outboundBuffer();
+        return buffer == null ? 0 : buffer.totalPendingWriteBytes();
+    }
+}
@@ -34,7 +34,6 @@ import io.github.opencubicchunks.cubicchunks.api.world.ICubeWatcher;
 import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
 import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
 import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldInternal;
-import io.github.opencubicchunks.cubicchunks.core.entity.ICubicEntityTracker;
 import io.github.opencubicchunks.cubicchunks.core.lighting.LightingManager;
 import io.github.opencubicchunks.cubicchunks.core.network.PacketCubeBlockChange;
 import io.github.opencubicchunks.cubicchunks.core.network.PacketDispatcher;
@@ -57,7 +56,10 @@ import net.minecraftforge.common.ForgeModContainer;
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
@@ -72,6 +74,10 @@ public class CubeWatcher implements ITicket, ICubeWatcher {
     private PlayerCubeMap playerCubeMap;
     @Nullable private Cube cube;
     private final ObjectArrayList<EntityPlayerMP> players = ObjectArrayList.wrap(new EntityPlayerMP[0]);
+    // players the cube hasn't been sent to yet because they already got all cubes their connection can take this tick
+    private final ObjectArrayList<EntityPlayerMP> playersWaitingForSend = new ObjectArrayList<>();
+    // players the cube is scheduled to be sent to, but whose packets haven't been sent yet
+    private final ObjectArrayList<EntityPlayerMP> playersReceiving = new ObjectArrayList<>();
     private final TShortList dirtyBlocks = new TShortArrayList(64);
     private final CubePos cubePos;
     private long previousWorldTime = 0;
@@ -111,11 +117,11 @@ public class CubeWatcher implements ITicket, ICubeWatcher {
             this.previousWorldTime = this.getWorldTime();
         }
         this.players.add(player);
+        playerCubeMap.updateTickRange(this);
 
         if (this.sentToPlayers) {
+            // entities are sent once the cube packets are, see PlayerCubeMap.onCubesSent
             this.sendToPlayer(player);
-            ((ICubicEntityTracker) playerCubeMap.getWorldServer().getEntityTracker())
-                    .sendLeashedEntitiesInCube(player, this.getCube());
         }
     }
 
@@ -130,6 +136,7 @@ public class CubeWatcher implements ITicket, ICubeWatcher {
         // If we haven't loaded yet don't load the chunk just so we can clean it up
         if (this.cube == null) {
             this.players.remove(player);
+            playerCubeMap.updateTickRange(this);
 
             if (this.players.isEmpty()) {
                 playerCubeMap.removeEntry(this);
@@ -137,12 +144,15 @@ public class CubeWatcher implements ITicket, ICubeWatcher {
             return;
         }
 
-        if (this.sentToPlayers) {
+        boolean wasWaitingForSend = this.playersWaitingForSend.remove(player);
+        this.playersReceiving.remove(player);
+        if (this.sentToPlayers && !wasWaitingForSend) {
             PacketDispatcher.sendTo(new PacketUnloadCube(this.cubePos), player);
             playerCubeMap.removeSchedulesSendCubeToPlayer(cube, player);
         }
 
         this.players.remove(player);
+        playerCubeMap.updateTickRange(this);
         MinecraftForge.EVENT_BUS.post(new CubeUnWatchEvent(cube, cubePos, this, player));
 
         if (this.players.isEmpty()) {
@@ -218,7 +228,8 @@ public class CubeWatcher implements ITicket, ICubeWatcher {
 
     boolean isWaitingForLighting() {
         // if lighting couldn't be updated 3 times in a row, give up and consider it done anyway
-        return this.cube == null || (this.cube.hasLightUpdates() && lightGenerationAttempts < 3);
+        return this.cube == null || cubeCache.isWaitingForInitialLighting(this.cube)
+                || (this.cube.hasLightUpdates() && lightGenerationAttempts < 3);
     }
 
     boolean isWaitingForColumn() {
@@ -229,7 +240,13 @@ public class CubeWatcher implements ITicket, ICubeWatcher {
     // CHECKED: 1.10.2-12.18.1.2092
     SendToPlayersResult sendToPlayers() {
         if (this.sentToPlayers) {
-            return SendToPlayersResult.ALREADY_DONE;
+            if (this.playersWaitingForSend.isEmpty()) {
+                return SendToPlayersResult.ALREADY_DONE;
+            }
+            for (EntityPlayerMP player : this.playersWaitingForSend.toArray(new EntityPlayerMP[0])) {
+                sendToPlayer(player);
+            }
+            return this.playersWaitingForSend.isEmpty() ? SendToPlayersResult.CUBE_SENT : SendToPlayersResult.WAITING_SEND_RATE;
         }
         if (isWaitingForCube()) {
             return SendToPlayersResult.WAITING;
@@ -252,7 +269,7 @@ public class CubeWatcher implements ITicket, ICubeWatcher {
             sendToPlayer(playerEntry);
         }
 
-        return SendToPlayersResult.CUBE_SENT;
+        return this.playersWaitingForSend.isEmpty() ? SendToPlayersResult.CUBE_SENT : SendToPlayersResult.WAITING_SEND_RATE;
     }
 
     // CHECKED: 1.10.2-12.18.1.2092
@@ -261,9 +278,48 @@ public class CubeWatcher implements ITicket, ICubeWatcher {
             return;
         }
         assert cube != null;
+        if (playerCubeMap.isCubeSendLimited(player)) {
+            // don't hold back other players, send it to this one when its connection can take more
+            if (!this.playersWaitingForSend.contains(player)) {
+                this.playersWaitingForSend.add(player);
+            }
+            playerCubeMap.onCubeSendDeferred(this);
+            return;
+        }
+        this.playersWaitingForSend.remove(player);
+        if (!this.playersReceiving.contains(player)) {
+            this.playersReceiving.add(player);
+        }
         playerCubeMap.scheduleSendCubeToPlayer(cube, player);
     }
 
+    /**
+     * Called when the packets containing this cube have been sent to the player
+     */
+    void onSentToPlayer(EntityPlayerMP player) {
+        this.playersReceiving.remove(player);
+    }
+
+    /**
+     * Called when the packets containing this cube couldn't be created for the player. The cube is sent again later.
+     */
+    void onSendFailed(EntityPlayerMP player) {
+        this.playersReceiving.remove(player);
+        if (!this.playersWaitingForSend.contains(player)) {
+            this.playersWaitingForSend.add(player);
+        }
+        playerCubeMap.onCubeSendDeferred(this);
+    }
+
+    /**
+     * @return true if the packets containing this cube have been sent to the player. Cubes that are only scheduled to be
+     * sent, or are still being encoded, are not sent yet.
+     */
+    boolean isSentToPlayer(EntityPlayerMP player) {
+        return this.sentToPlayers && this.players.contains(player) && !this.playersWaitingForSend.contains(player)
+                && !this.playersReceiving.contains(player);
+    }
+
     // CHECKED: 1.10.2-12.18.1.2092
     void updateInhabitedTime() {
         final long now = getWorldTime();
@@ -308,16 +364,25 @@ public class CubeWatcher implements ITicket, ICubeWatcher {
 
         if (this.dirtyBlocks.size() >= ForgeModContainer.clumpingThreshold) {
             // send whole cube
-            this.players.forEach(entry -> playerCubeMap.scheduleSendCubeToPlayer(cube, entry));
+            for (EntityPlayerMP player : this.players) {
+                if (!this.playersWaitingForSend.contains(player)) {
+                    playerCubeMap.scheduleSendCubeToPlayer(cube, player);
+                }
+            }
         } else {
-            // send all the dirty blocks
+            // send all the dirty blocks, players still waiting for the cube get it with the changes
             PacketCubeBlockChange packet = null;
             for (EntityPlayerMP player : this.players) {
+                if (this.playersWaitingForSend.contains(player)) {
+                    continue;
+                }
                 if (playerCubeMap.vanillaNetworkHandler.hasCubicChunks(player)) {
                     if (packet == null) { // create packet lazily
                         packet = new PacketCubeBlockChange(this.cube, this.dirtyBlocks);
                     }
-                    PacketDispatcher.sendTo(packet, player);
+                    if (!playerCubeMap.addBlockChanges(player, packet)) {
+                        PacketDispatcher.sendTo(packet, player);
+                    }
                 } else {
                     playerCubeMap.vanillaNetworkHandler.sendBlockChanges(dirtyBlocks, cube, player);
                 }
@@ -344,7 +409,11 @@ public class CubeWatcher implements ITicket, ICubeWatcher {
         if (packet == null) {
             return;
         }
-        sendPacketToAllPlayers(packet);
+        for (EntityPlayerMP entry : this.players) {
+            if (!this.playersWaitingForSend.contains(entry)) {
+                playerCubeMap.sendBlockEntityPacket(entry, packet);
+            }
+        }
     }
 
     boolean containsPlayer(EntityPlayerMP player) {
@@ -429,15 +498,37 @@ public class CubeWatcher implements ITicket, ICubeWatcher {
         return playerCubeMap.getWorldServer().getWorldTime();
     }
 
-    private void sendPacketToAllPlayers(Packet<?> packet) {
-        for (EntityPlayerMP entry : this.players) {
-            entry.connection.sendPacket(packet);
+    @Override public void sendPacketToAllPlayers(IMessage packet) {
+        if (this.playersWaitingForSend.isEmpty()) {
+            PacketDispatcher.sendToAll(packet, this.players);
+            return;
         }
+        List<EntityPlayerMP> players = new ArrayList<>(this.players);
+        players.removeAll(this.playersWaitingForSend);
+        PacketDispatcher.sendToAll(packet, players);
     }
 
-    @Override public void sendPacketToAllPlayers(IMessage packet) {
-        for (EntityPlayerMP entry : this.players) {
-            PacketDispatcher.sendTo(packet, entry);
+    /**
+     * Sends a packet to all players the cube has been sent to, or another packet to players whose client can't read it.
+     *
+     * @param packet the packet for players matching {@code supported}
+     * @param supported whether the player's client can read the packet
+     * @param fallback creates the packet for the other players, called at most once. Nothing is sent to them if it returns null.
+     */
+    public void sendPacketToAllPlayers(IMessage packet, Predicate<EntityPlayerMP> supported, Supplier<IMessage> fallback) {
+        List<EntityPlayerMP> supportedPlayers = new ArrayList<>(this.players.size());
+        List<EntityPlayerMP> otherPlayers = new ArrayList<>();
+        for (EntityPlayerMP player : this.players) {
+            if (!this.playersWaitingForSend.contains(player)) {
+                (supported.apply(player) ? supportedPlayers : otherPlayers).add(player);
+            }
+        }
+        PacketDispatcher.sendToAll(packet, supportedPlayers);
+        if (!otherPlayers.isEmpty()) {
+            IMessage fallbackPacket = fallback.get();
+            if (fallbackPacket != null) {
+                PacketDispatcher.sendToAll(fallbackPacket, otherPlayers);
+            }
         }
     }
 
@@ -462,6 +553,10 @@ public class CubeWatcher implements ITicket, ICubeWatcher {
     }
 
     public enum SendToPlayersResult {
-        ALREADY_DONE, CUBE_SENT, WAITING, WAITING_LIGHT
+        ALREADY_DONE, CUBE_SENT, WAITING, WAITING_LIGHT,
+        /**
+         * The cube has been sent to some players, others will get it when their connection can take more cubes
+         */
+        WAITING_SEND_RATE
     }
 }
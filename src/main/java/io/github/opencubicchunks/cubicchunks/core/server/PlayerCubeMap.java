@@ -30,8 +30,6 @@ import static net.minecraft.util.math.MathHelper.clamp;
 
 import com.google.common.base.Predicate;
 import com.google.common.collect.AbstractIterator;
-import com.google.common.collect.ComparisonChain;
-import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Multimaps;
 import gnu.trove.map.TIntObjectMap;
@@ -47,17 +45,23 @@ import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
 import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldInternal;
 import io.github.opencubicchunks.cubicchunks.core.entity.ICubicEntityTracker;
 import io.github.opencubicchunks.cubicchunks.core.lighting.LightingManager;
+import io.github.opencubicchunks.cubicchunks.core.network.CubePacketEncoder;
+import io.github.opencubicchunks.cubicchunks.core.network.PacketCubeBlockChange;
+import io.github.opencubicchunks.cubicchunks.core.network.PacketColumn;
 import io.github.opencubicchunks.cubicchunks.core.network.PacketCubes;
 import io.github.opencubicchunks.cubicchunks.core.network.PacketDispatcher;
+import io.github.opencubicchunks.cubicchunks.core.network.PacketHeightMapUpdate;
+import io.github.opencubicchunks.cubicchunks.core.network.PacketMultiCubeBlockChange;
 import io.github.opencubicchunks.cubicchunks.core.util.WatchersSortingList;
 import io.github.opencubicchunks.cubicchunks.core.visibility.CubeSelector;
-import io.github.opencubicchunks.cubicchunks.core.visibility.CuboidalCubeSelector;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
 import it.unimi.dsi.fastutil.objects.ObjectSet;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.network.Packet;
 import net.minecraft.server.management.PlayerChunkMap;
 import net.minecraft.server.management.PlayerChunkMapEntry;
 import net.minecraft.util.math.BlockPos;
@@ -65,24 +69,21 @@ import net.minecraft.util.math.ChunkPos;
 import net.minecraft.world.WorldProvider;
 import net.minecraft.world.WorldServer;
 import net.minecraft.world.chunk.Chunk;
-import net.minecraftforge.common.ForgeChunkManager;
-import net.minecraftforge.common.ForgeChunkManager.Ticket;
 import net.minecraftforge.common.MinecraftForge;
 
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
 
-import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
@@ -96,32 +97,36 @@ import javax.annotation.ParametersAreNonnullByDefault;
 public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHeightChangeListener {
 
     private static final Predicate<EntityPlayerMP> NOT_SPECTATOR = player -> player != null && !player.isSpectator();
+    /**
+     * Distance (in blocks) from a player within which cubes and columns are random ticked
+     */
+    private static final int TICK_RANGE = 128;
+    /**
+     * Distance (in cubes) from a player's cube to the furthest cube whose center can be within {@link #TICK_RANGE}
+     * of that player, for any position of the player inside its cube
+     */
+    private static final int TICK_RANGE_CUBES = 9;
+
     private static final Predicate<EntityPlayerMP> CAN_GENERATE_CHUNKS = player -> player != null &&
             (!player.isSpectator() || player.getServerWorld().getGameRules().getBoolean("spectatorsGenerateChunks"));
 
     /**
-     * Comparator that specifies order in which cubes will be generated and sent to clients
+     * Priority that specifies order in which cubes will be generated and sent to clients:
+     * squared distance to the closest player, in cubes
      */
-    private static final Comparator<CubeWatcher> CUBE_ORDER = (watcher1, watcher2) ->
-            ComparisonChain.start().compare(
-                    watcher1.getClosestPlayerDistance(),
-                    watcher2.getClosestPlayerDistance()
-            ).result();
+    private static final ToIntFunction<CubeWatcher> CUBE_ORDER = watcher -> distanceBucket(watcher.getClosestPlayerDistance());
 
     /**
-     * Comparator that specifies order in which columns will be generated and sent to clients
+     * Priority that specifies order in which columns will be generated and sent to clients:
+     * squared distance to the closest player, in columns
      */
-    private static final Comparator<ColumnWatcher> COLUMN_ORDER = (watcher1, watcher2) ->
-            ComparisonChain.start().compare(
-                    watcher1.getClosestPlayerDistance(),
-                    watcher2.getClosestPlayerDistance()
-            ).result();
+    private static final ToIntFunction<ColumnWatcher> COLUMN_ORDER = watcher -> distanceBucket(watcher.getClosestPlayerDistance());
 
     /**
      * Cube selector is used to find which cube positions need to be loaded/unloaded
-     * By default use CuboidalCubeSelector.
+     * By default use CuboidalCubeSelector, the shape can be changed per dimension in config.
      */
-    private final CubeSelector cubeSelector = new CuboidalCubeSelector();
+    private final CubeSelector cubeSelector;
 
     /**
      * Mapping if entityId to PlayerCubeMap.PlayerWrapper objects.
@@ -147,6 +152,11 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
      */
     private final Set<CubeWatcher> cubeWatchersToUpdate = new HashSet<>();
 
+    /**
+     * Block changes of all cubes collected in this tick for players that get them in one {@link PacketMultiCubeBlockChange}
+     */
+    private final Map<EntityPlayerMP, BlockChangeBatch> blockChangeBatches = new IdentityHashMap<>();
+
     /**
      * All columnWatchers that have pending height updates to send.
      */
@@ -190,6 +200,14 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
      */
     private final WatchersSortingList<ColumnWatcher> columnsToGenerate = new WatchersSortingList<ColumnWatcher>(COLUMN_ORDER);
 
+    /**
+     * Reused buffers for positions changed by player movement, see {@link #updatePlayer(PlayerWrapper, CubePos, CubePos)}
+     */
+    private final IntArrayList cubesToRemoveBuffer = new IntArrayList();
+    private final IntArrayList cubesToLoadBuffer = new IntArrayList();
+    private final IntArrayList columnsToRemoveBuffer = new IntArrayList();
+    private final IntArrayList columnsToLoadBuffer = new IntArrayList();
+
     private int horizontalViewDistance;
     private int verticalViewDistance;
 
@@ -198,9 +216,6 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
      */
     private long previousWorldTime = 0;
 
-    private boolean toGenerateNeedSort = true;
-    private boolean toSendToClientNeedSort = true;
-
     private final CubeProviderServer cubeCache;
 
     private final Multimap<EntityPlayerMP, Cube> cubesToSend = Multimaps.newSetMultimap(new HashMap<>(), HashSet::new);
@@ -216,6 +231,14 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
 
     private final TickableChunkContainer tickableChunksCubesToReturn = new TickableChunkContainer();
 
+    /**
+     * Watchers with a non-spectator player within {@link #TICK_RANGE} blocks, used to find cubes and columns to random tick.
+     * Maintained incrementally: a watcher is checked again when it gains or loses a player, and watchers around a player
+     * are checked again when that player moves into a different cube or changes spectator mode.
+     */
+    private final ObjectSet<CubeWatcher> cubeWatchersInTickRange = new ObjectOpenHashSet<>();
+    private final ObjectSet<ColumnWatcher> columnWatchersInTickRange = new ObjectOpenHashSet<>();
+
     // see comment in updateMovingPlayer() for explnation why it's in this class
     private final ChunkGc chunkGc;
 
@@ -224,6 +247,7 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
     public PlayerCubeMap(WorldServer worldServer) {
         super(worldServer);
         this.cubeCache = ((ICubicWorldInternal.Server) worldServer).getCubeCache();
+        this.cubeSelector = CubeSelector.create(CubicChunksConfig.getCubeSelectorShape(worldServer.provider.getDimension()));
         this.setPlayerViewDistance(worldServer.getMinecraftServer().getPlayerList().getViewDistance(),
                 ((ICubicPlayerList) worldServer.getMinecraftServer().getPlayerList()).getVerticalViewDistance());
         ((ICubicWorldInternal) worldServer).getLightingManager().registerHeightChangeListener(this);
@@ -275,22 +299,59 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
     }
 
     private void addTickableCubes(TickableChunkContainer tickableChunksCubes) {
-        for (CubeWatcher watcher : cubeWatchers) {
+        for (CubeWatcher watcher : cubeWatchersInTickRange) {
             ICube cube = watcher.getCube();
-            if (cube == null || !watcher.hasPlayerMatchingInRange(NOT_SPECTATOR, 128)) {
-                continue;
+            if (cube != null) {
+                tickableChunksCubes.addCube(cube);
             }
-            tickableChunksCubes.addCube(cube);
         }
     }
 
     private void addTickableColumns(TickableChunkContainer tickableChunksCubes) {
-        for (ColumnWatcher watcher : columnWatchers) {
+        for (ColumnWatcher watcher : columnWatchersInTickRange) {
             Chunk chunk = watcher.getChunk();
-            if (chunk == null || !watcher.hasPlayerMatchingInRange(128.0D, NOT_SPECTATOR)) {
-                continue;
+            if (chunk != null) {
+                tickableChunksCubes.addColumn(chunk);
+            }
+        }
+    }
+
+    void updateTickRange(CubeWatcher watcher) {
+        if (watcher.hasPlayerMatchingInRange(NOT_SPECTATOR, TICK_RANGE)) {
+            cubeWatchersInTickRange.add(watcher);
+        } else {
+            cubeWatchersInTickRange.remove(watcher);
+        }
+    }
+
+    void updateTickRange(ColumnWatcher watcher) {
+        if (watcher.hasPlayerMatchingInRange(TICK_RANGE, NOT_SPECTATOR)) {
+            columnWatchersInTickRange.add(watcher);
+        } else {
+            columnWatchersInTickRange.remove(watcher);
+        }
+    }
+
+    /**
+     * Checks again all watchers that a player in the given cube could be in tick range of.
+     */
+    private void updateTickRangeNear(int cubeX, int cubeY, int cubeZ) {
+        // only watchers within view distance can contain the player
+        int horizontal = Math.min(TICK_RANGE_CUBES, horizontalViewDistance);
+        int vertical = Math.min(TICK_RANGE_CUBES, verticalViewDistance);
+        for (int x = cubeX - horizontal; x <= cubeX + horizontal; x++) {
+            for (int z = cubeZ - horizontal; z <= cubeZ + horizontal; z++) {
+                ColumnWatcher columnWatcher = columnWatchers.get(x, z);
+                if (columnWatcher != null) {
+                    updateTickRange(columnWatcher);
+                }
+                for (int y = cubeY - vertical; y <= cubeY + vertical; y++) {
+                    CubeWatcher cubeWatcher = cubeWatchers.get(x, y, z);
+                    if (cubeWatcher != null) {
+                        updateTickRange(cubeWatcher);
+                    }
+                }
             }
-            tickableChunksCubes.addColumn(chunk);
         }
     }
 
@@ -313,6 +374,18 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
                 addPlayer(player);
             }
         }
+        getWorldServer().profiler.endStartSection("spectatorChanges");
+        for (PlayerWrapper playerWrapper : this.players.valueCollection()) {
+            boolean spectator = playerWrapper.playerEntity.isSpectator();
+            if (spectator != playerWrapper.spectator) {
+                playerWrapper.spectator = spectator;
+                updateTickRangeNear(playerWrapper.getManagedCubePosX(), playerWrapper.getManagedCubePosY(), playerWrapper.getManagedCubePosZ());
+            }
+        }
+        getWorldServer().profiler.endStartSection("sendRates");
+        for (PlayerWrapper playerWrapper : this.players.valueCollection()) {
+            playerWrapper.sendScheduler.tick();
+        }
         getWorldServer().profiler.endStartSection("tickEntries");
         //force update-all every 8000 ticks (400 seconds)
         if (currentTime - this.previousWorldTime > 8000L) {
@@ -330,28 +403,13 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
             this.cubeWatchersToUpdate.forEach(CubeWatcher::update);
             this.cubeWatchersToUpdate.clear();
         }
+        sendBlockChangeBatches();
 
         if (!columnWatchersToUpdate.isEmpty()) {
             this.columnWatchersToUpdate.forEach(ColumnWatcher::update);
             this.columnWatchersToUpdate.clear();
         }
 
-        getWorldServer().profiler.endStartSection("sortToGenerate");
-        //sort toLoadPending if needed, but at most every 4 ticks
-        if (this.toGenerateNeedSort && currentTime % 4L == 0L) {
-            this.toGenerateNeedSort = false;
-            this.cubesToGenerate.sort();
-            this.columnsToGenerate.sort();
-        }
-        getWorldServer().profiler.endStartSection("sortToSend");
-        //sort cubesToSendToClients every other 4 ticks
-        if (this.toSendToClientNeedSort && currentTime % 4L == 2L) {
-            this.toSendToClientNeedSort = false;
-            this.cubesToSendToClients.sort();
-            this.columnsToSendToClients.sort();
-            this.cubesToAddPlayerTo.forEach((p, set) -> set.sort());
-        }
-
         getWorldServer().profiler.endStartSection("generate");
         if (!this.columnsToGenerate.isEmpty()) {
             getWorldServer().profiler.startSection("columns");
@@ -405,6 +463,9 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
                             || state == CubeWatcher.SendToPlayersResult.ALREADY_DONE) {
                         iterator.remove();
                         this.cubesToSendToClients.remove(watcher);
+                    } else if (state == CubeWatcher.SendToPlayersResult.WAITING_SEND_RATE) {
+                        // the rest of the players get it from cubesToSendToClients
+                        iterator.remove();
                     }
                     if (!alreadyLoaded) {
                         --chunksToGenerate;
@@ -439,7 +500,7 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
 
             while (it.hasNext() && toSend > 0) {
                 CubeWatcher playerInstance = it.next();
-
+                // players whose send rate is used up are skipped by the watcher, and it stays here until they get the cube
                 CubeWatcher.SendToPlayersResult state = playerInstance.sendToPlayers();
                 if (state == CubeWatcher.SendToPlayersResult.ALREADY_DONE || state == CubeWatcher.SendToPlayersResult.CUBE_SENT) {
                     it.remove();
@@ -457,11 +518,12 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
             for (Iterator<EntityPlayerMP> iterator = cubesToAddPlayerTo.keySet().iterator(); iterator.hasNext(); ) {
                 EntityPlayerMP entityPlayerMP = iterator.next();
                 WatchersSortingList<CubeWatcher> watchers = cubesToAddPlayerTo.get(entityPlayerMP);
-                int toSend = CubicChunksConfig.cubesToSendPerTick;
+                int toSend = getCubesToSendRemaining(entityPlayerMP);
                 Iterator<CubeWatcher> iter;
                 for (iter = watchers.iterator(); toSend > 0 && iter.hasNext(); ) {
                     CubeWatcher watcher = iter.next();
                     watcher.addPlayer(entityPlayerMP);
+                    updatePriority(watcher);
                     CubeWatcher.SendToPlayersResult state = watcher.sendToPlayers();
                     if (state == CubeWatcher.SendToPlayersResult.WAITING_LIGHT || state == CubeWatcher.SendToPlayersResult.WAITING) {
                         if (!cubesToGenerate.contains(watcher)) {
@@ -489,20 +551,14 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
         }
         getWorldServer().profiler.endStartSection("sendCubes");//unload
         if (!cubesToSend.isEmpty()) {
+            CubePacketEncoder.SnapshotCache snapshots = new CubePacketEncoder.SnapshotCache();
             for (EntityPlayerMP player : cubesToSend.keySet()) {
-                Collection<Cube> cubes = cubesToSend.get(player);
+                List<Cube> cubes = new ArrayList<>(cubesToSend.get(player));
                 if (vanillaNetworkHandler.hasCubicChunks(player)) {
-                    PacketCubes packet = new PacketCubes(new ArrayList<>(cubes));
-                    PacketDispatcher.sendTo(packet, player);
+                    sendCubesPackets(player, cubes, snapshots);
                 } else {
                     vanillaNetworkHandler.sendCubeLoadPackets(cubes, player);
-                }
-                //Sending entities per cube.
-                for (Cube cube : cubes) {
-                    ((ICubicEntityTracker) getWorldServer().getEntityTracker()).sendLeashedEntitiesInCube(player, cube);
-                    CubeWatcher watcher = getCubeWatcher(cube.getCoords());
-                    assert watcher != null;
-                    MinecraftForge.EVENT_BUS.post(new CubeWatchEvent(cube, cube.getCoords(), watcher, player));
+                    onCubesSent(player, cubes);
                 }
             }
             cubesToSend.clear();
@@ -528,12 +584,12 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
      * Attempts to load the cube and send it to client.
      * If it can't load it or send it to client - adds it to cubesToGenerate/cubesToSendToClients
      */
-    private CubeWatcher getOrCreateCubeWatcher(@Nonnull CubePos cubePos) {
-        CubeWatcher cubeWatcher = this.cubeWatchers.get(cubePos.getX(), cubePos.getY(), cubePos.getZ());
+    private CubeWatcher getOrCreateCubeWatcher(int cubeX, int cubeY, int cubeZ) {
+        CubeWatcher cubeWatcher = this.cubeWatchers.get(cubeX, cubeY, cubeZ);
 
         if (cubeWatcher == null) {
             // make a new watcher
-            cubeWatcher = new CubeWatcher(this, cubePos);
+            cubeWatcher = new CubeWatcher(this, new CubePos(cubeX, cubeY, cubeZ));
             this.cubeWatchers.put(cubeWatcher);
 
 
@@ -555,10 +611,10 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
      * Returns existing ColumnWatcher or creates new one if it doesn't exist.
      * Always creates the Column.
      */
-    private ColumnWatcher getOrCreateColumnWatcher(ChunkPos chunkPos) {
-        ColumnWatcher columnWatcher = this.columnWatchers.get(chunkPos.x, chunkPos.z);
+    private ColumnWatcher getOrCreateColumnWatcher(int columnX, int columnZ) {
+        ColumnWatcher columnWatcher = this.columnWatchers.get(columnX, columnZ);
         if (columnWatcher == null) {
-            columnWatcher = new ColumnWatcher(this, chunkPos);
+            columnWatcher = new ColumnWatcher(this, new ChunkPos(columnX, columnZ));
             this.columnWatchers.put(columnWatcher);
             if (columnWatcher.getChunk() == null) {
                 this.columnsToGenerate.appendToEnd(columnWatcher);
@@ -615,20 +671,21 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
 
         CubePos playerCubePos = CubePos.fromEntity(player);
 
-        this.cubeSelector.forAllVisibleFrom(playerCubePos, horizontalViewDistance, verticalViewDistance, (currentPos) -> {
+        this.cubeSelector.forAllVisibleFrom(playerCubePos.getX(), playerCubePos.getY(), playerCubePos.getZ(),
+                horizontalViewDistance, verticalViewDistance, (x, y, z) -> {
             //create cubeWatcher and chunkWatcher
             //order is important
-            ColumnWatcher chunkWatcher = getOrCreateColumnWatcher(currentPos.chunkPos());
+            ColumnWatcher chunkWatcher = getOrCreateColumnWatcher(x, z);
             //and add the player to them
             if (!chunkWatcher.containsPlayer(player)) {
                 chunkWatcher.addPlayer(player);
+                updatePriority(chunkWatcher);
             }
-            CubeWatcher cubeWatcher = getOrCreateCubeWatcher(currentPos);
+            CubeWatcher cubeWatcher = getOrCreateCubeWatcher(x, y, z);
 
             scheduleAddPlayerToWatcher(cubeWatcher, player);
         });
         this.players.put(player.getEntityId(), playerWrapper);
-        this.setNeedSort();
     }
 
     // CHECKED: 1.10.2-12.18.1.2092
@@ -644,17 +701,18 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
 
         // send unload columns later so that they get unloaded after their corresponding cubes
         ObjectSet<ColumnWatcher> toSendUnload = new ObjectOpenHashSet<>((horizontalViewDistance*2+1) * (horizontalViewDistance*2+1) * 6);
-        this.cubeSelector.forAllVisibleFrom(playerCubePos, horizontalViewDistance, verticalViewDistance, (cubePos) -> {
+        this.cubeSelector.forAllVisibleFrom(playerCubePos.getX(), playerCubePos.getY(), playerCubePos.getZ(),
+                horizontalViewDistance, verticalViewDistance, (x, y, z) -> {
 
             // get the watcher
-            CubeWatcher watcher = getCubeWatcher(cubePos);
+            CubeWatcher watcher = cubeWatchers.get(x, y, z);
             if (watcher != null) {
                 // remove from the watcher, it also removes the watcher if it becomes empty
                 removePlayerFromCubeWatcher(watcher, player);
             }
 
             // remove column watchers if needed
-            ColumnWatcher columnWatcher = getColumnWatcher(cubePos.chunkPos());
+            ColumnWatcher columnWatcher = columnWatchers.get(x, z);
             if (columnWatcher == null) {
                 return;
             }
@@ -663,10 +721,14 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
         });
         toSendUnload.stream()
                 .filter(watcher->watcher.containsPlayer(player))
-                .forEach(watcher->watcher.removePlayer(player));
+                .forEach(watcher -> {
+                    watcher.removePlayer(player);
+                    updatePriority(watcher);
+                });
         this.players.remove(player.getEntityId());
-        this.setNeedSort();
         vanillaNetworkHandler.removePlayer(player);
+        // cube packets still being encoded would arrive after the player is already in another world
+        PacketDispatcher.dropPendingMessages(player, getWorldServer());
     }
 
     // CHECKED: 1.10.2-12.18.1.2092
@@ -690,7 +752,6 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
 
         this.updatePlayer(playerWrapper, playerWrapper.getManagedCubePos(), CubePos.fromEntity(player));
         playerWrapper.updateManagedPos();
-        this.setNeedSort();
 
         if (!vanillaNetworkHandler.hasCubicChunks(player)) {
             vanillaNetworkHandler.updatePlayerPosition(this, player, playerWrapper.getManagedCubePos());
@@ -713,48 +774,116 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
 
     private void updatePlayer(PlayerWrapper entry, CubePos oldPos, CubePos newPos) {
         getWorldServer().profiler.startSection("updateMovedPlayer");
-        Set<CubePos> cubesToRemove = new HashSet<>();
-        Set<CubePos> cubesToLoad = new HashSet<>();
-        Set<ChunkPos> columnsToRemove = new HashSet<>();
-        Set<ChunkPos> columnsToLoad = new HashSet<>();
+        // positions are stored as consecutive coordinates, the buffers are reused to avoid allocating on every move
+        IntArrayList cubesToRemove = this.cubesToRemoveBuffer;
+        IntArrayList cubesToLoad = this.cubesToLoadBuffer;
+        IntArrayList columnsToRemove = this.columnsToRemoveBuffer;
+        IntArrayList columnsToLoad = this.columnsToLoadBuffer;
+        cubesToRemove.clear();
+        cubesToLoad.clear();
+        columnsToRemove.clear();
+        columnsToLoad.clear();
 
         getWorldServer().profiler.startSection("findChanges");
         // calculate new visibility
-        this.cubeSelector.findChanged(oldPos, newPos, horizontalViewDistance, verticalViewDistance, cubesToRemove, cubesToLoad, columnsToRemove,
-                columnsToLoad);
+        this.cubeSelector.findChanged(oldPos, newPos, horizontalViewDistance, verticalViewDistance,
+                (x, y, z) -> addCube(cubesToRemove, x, y, z),
+                (x, y, z) -> addCube(cubesToLoad, x, y, z),
+                (x, z) -> addColumn(columnsToRemove, x, z),
+                (x, z) -> addColumn(columnsToLoad, x, z));
 
         getWorldServer().profiler.endStartSection("createColumns");
         //order is important, columns first
-        columnsToLoad.forEach(pos -> {
-            ColumnWatcher columnWatcher = this.getOrCreateColumnWatcher(pos);
-            assert columnWatcher.getPos().equals(pos);
+        for (int i = 0; i < columnsToLoad.size(); i += 2) {
+            ColumnWatcher columnWatcher = this.getOrCreateColumnWatcher(columnsToLoad.getInt(i), columnsToLoad.getInt(i + 1));
             columnWatcher.addPlayer(entry.playerEntity);
-        });
+            updatePriority(columnWatcher);
+        }
         getWorldServer().profiler.endStartSection("createCubes");
-        cubesToLoad.forEach(pos -> {
-            CubeWatcher cubeWatcher = this.getOrCreateCubeWatcher(pos);
-            assert cubeWatcher.getCubePos().equals(pos);
+        for (int i = 0; i < cubesToLoad.size(); i += 3) {
+            CubeWatcher cubeWatcher = this.getOrCreateCubeWatcher(cubesToLoad.getInt(i), cubesToLoad.getInt(i + 1), cubesToLoad.getInt(i + 2));
             scheduleAddPlayerToWatcher(cubeWatcher, entry.playerEntity);
-        });
+        }
         getWorldServer().profiler.endStartSection("removeCubes");
-        cubesToRemove.forEach(pos -> {
-            CubeWatcher cubeWatcher = this.getCubeWatcher(pos);
+        for (int i = 0; i < cubesToRemove.size(); i += 3) {
+            CubeWatcher cubeWatcher = this.cubeWatchers.get(cubesToRemove.getInt(i), cubesToRemove.getInt(i + 1), cubesToRemove.getInt(i + 2));
             if (cubeWatcher != null) {
-                assert cubeWatcher.getCubePos().equals(pos);
                 removePlayerFromCubeWatcher(cubeWatcher, entry.playerEntity);
             }
-        });
+        }
         getWorldServer().profiler.endStartSection("removeColumns");
-        columnsToRemove.forEach(pos -> {
-            ColumnWatcher columnWatcher = this.getColumnWatcher(pos);
+        for (int i = 0; i < columnsToRemove.size(); i += 2) {
+            ColumnWatcher columnWatcher = this.columnWatchers.get(columnsToRemove.getInt(i), columnsToRemove.getInt(i + 1));
             if (columnWatcher != null) {
-                assert columnWatcher.getPos().equals(pos);
                 columnWatcher.removePlayer(entry.playerEntity);
+                updatePriority(columnWatcher);
             }
-        });
-        getWorldServer().profiler.endSection();//removeColumns
+        }
+        getWorldServer().profiler.endStartSection("updatePriorities");
+        updatePrioritiesNear(entry.playerEntity, newPos);
+        getWorldServer().profiler.endStartSection("updateTickRange");
+        updateTickRangeNear(oldPos.getX(), oldPos.getY(), oldPos.getZ());
+        updateTickRangeNear(newPos.getX(), newPos.getY(), newPos.getZ());
+        getWorldServer().profiler.endSection();//updateTickRange
         getWorldServer().profiler.endSection();//updateMovedPlayer
-        setNeedSort();
+    }
+
+    /**
+     * Moves watchers that the given player can see to their new priority buckets, after the player moved.
+     * Watchers that the player stopped seeing are updated when the player is removed from them.
+     */
+    private void updatePrioritiesNear(EntityPlayerMP player, CubePos playerPos) {
+        WatchersSortingList<CubeWatcher> toAddPlayerTo = cubesToAddPlayerTo.get(player);
+        if (toAddPlayerTo != null) {
+            toAddPlayerTo.sort();
+        }
+        if (!cubesToGenerate.isEmpty() || !cubesToSendToClients.isEmpty()) {
+            this.cubeSelector.forAllVisibleFrom(playerPos.getX(), playerPos.getY(), playerPos.getZ(),
+                    horizontalViewDistance, verticalViewDistance, (x, y, z) -> {
+                CubeWatcher watcher = cubeWatchers.get(x, y, z);
+                if (watcher != null) {
+                    updatePriority(watcher);
+                }
+            });
+        }
+        if (!columnsToGenerate.isEmpty() || !columnsToSendToClients.isEmpty()) {
+            for (int dx = -horizontalViewDistance; dx <= horizontalViewDistance; dx++) {
+                for (int dz = -horizontalViewDistance; dz <= horizontalViewDistance; dz++) {
+                    ColumnWatcher watcher = columnWatchers.get(playerPos.getX() + dx, playerPos.getZ() + dz);
+                    if (watcher != null) {
+                        updatePriority(watcher);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void addCube(IntArrayList cubes, int x, int y, int z) {
+        cubes.add(x);
+        cubes.add(y);
+        cubes.add(z);
+    }
+
+    private static void addColumn(IntArrayList columns, int x, int z) {
+        columns.add(x);
+        columns.add(z);
+    }
+
+    private void updatePriority(CubeWatcher watcher) {
+        cubesToGenerate.update(watcher);
+        cubesToSendToClients.update(watcher);
+    }
+
+    private void updatePriority(ColumnWatcher watcher) {
+        columnsToGenerate.update(watcher);
+        columnsToSendToClients.update(watcher);
+    }
+
+    /**
+     * Converts squared distance in blocks to squared distance in cubes, used as priority bucket
+     */
+    private static int distanceBucket(double distanceSq) {
+        return (int) Math.min(distanceSq / (Cube.SIZE * Cube.SIZE), WatchersSortingList.MAX_PRIORITY);
     }
 
     private void removePlayerFromCubeWatcher(CubeWatcher cubeWatcher, EntityPlayerMP playerEntity) {
@@ -765,15 +894,16 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
             }
         }
         cubeWatcher.removePlayer(playerEntity);
+        updatePriority(cubeWatcher);
     }
 
     private void scheduleAddPlayerToWatcher(CubeWatcher cubeWatcher, EntityPlayerMP playerEntity) {
-        cubesToAddPlayerTo.computeIfAbsent(playerEntity, p -> new WatchersSortingList<>(Comparator.comparingDouble(w -> {
+        cubesToAddPlayerTo.computeIfAbsent(playerEntity, p -> new WatchersSortingList<>(w -> {
             double dx = w.getCubePos().getXCenter() - playerEntity.posX;
             double dy = w.getCubePos().getYCenter() - playerEntity.posY;
             double dz = w.getCubePos().getZCenter() - playerEntity.posZ;
-            return dx*dx + dy*dy + dz*dz;
-        }))).appendToEnd(cubeWatcher);
+            return distanceBucket(dx*dx + dy*dy + dz*dz);
+        })).appendToEnd(cubeWatcher);
     }
 
     // CHECKED: 1.10.2-12.18.1.2092
@@ -787,9 +917,20 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
 
     public boolean isPlayerWatchingCube(EntityPlayerMP player, int cubeX, int cubeY, int cubeZ) {
         CubeWatcher watcher = this.getCubeWatcher(new CubePos(cubeX, cubeY, cubeZ));
-        return watcher != null &&
-                watcher.containsPlayer(player) &&
-                watcher.isSentToPlayers();
+        return watcher != null && watcher.isSentToPlayer(player);
+    }
+
+    /**
+     * Sends the whole heightmap of every column the player is watching. Used when the player's client starts reading
+     * heightmaps from {@link PacketColumn}, as the columns sent before that came without one.
+     */
+    public void resendHeightMaps(EntityPlayerMP player) {
+        for (ColumnWatcher watcher : columnWatchers) {
+            if (watcher.isSentToPlayers() && watcher.containsPlayer(player)) {
+                IColumn column = (IColumn) watcher.getChunk();
+                PacketDispatcher.sendTo(new PacketHeightMapUpdate(watcher.getPos(), column.getOpacityIndex()), player);
+            }
+        }
     }
 
     // CHECKED: 1.10.2-12.18.1.2092
@@ -832,13 +973,14 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
 
             if (newHorizontalViewDistance > oldHorizontalViewDistance || newVerticalViewDistance > oldVerticalViewDistance) {
                 //if newRadius is bigger, we only need to load new cubes
-                this.cubeSelector.forAllVisibleFrom(playerPos, newHorizontalViewDistance, newVerticalViewDistance, pos -> {
+                this.cubeSelector.forAllVisibleFrom(playerPos.getX(), playerPos.getY(), playerPos.getZ(),
+                        newHorizontalViewDistance, newVerticalViewDistance, (x, y, z) -> {
                     //order is important
-                    ColumnWatcher columnWatcher = this.getOrCreateColumnWatcher(pos.chunkPos());
+                    ColumnWatcher columnWatcher = this.getOrCreateColumnWatcher(x, z);
                     if (!columnWatcher.containsPlayer(player)) {
                         columnWatcher.addPlayer(player);
                     }
-                    CubeWatcher cubeWatcher = this.getOrCreateCubeWatcher(pos);
+                    CubeWatcher cubeWatcher = this.getOrCreateCubeWatcher(x, y, z);
                     if (!cubeWatcher.containsPlayer(player)) {
                         scheduleAddPlayerToWatcher(cubeWatcher, player);
                     }
@@ -846,39 +988,43 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
                 // either both got smaller or only one of them changed
             } else {
                 //if it got smaller...
-                Set<CubePos> cubesToUnload = new HashSet<>();
-                Set<ChunkPos> columnsToUnload = new HashSet<>();
+                IntArrayList cubesToUnload = this.cubesToRemoveBuffer;
+                IntArrayList columnsToUnload = this.columnsToRemoveBuffer;
+                cubesToUnload.clear();
+                columnsToUnload.clear();
                 this.cubeSelector.findAllUnloadedOnViewDistanceDecrease(playerPos,
                         oldHorizontalViewDistance, newHorizontalViewDistance,
-                        oldVerticalViewDistance, newVerticalViewDistance, cubesToUnload, columnsToUnload);
+                        oldVerticalViewDistance, newVerticalViewDistance,
+                        (x, y, z) -> addCube(cubesToUnload, x, y, z),
+                        (x, z) -> addColumn(columnsToUnload, x, z));
 
-                cubesToUnload.forEach(pos -> {
-                    CubeWatcher cubeWatcher = this.getCubeWatcher(pos);
+                for (int i = 0; i < cubesToUnload.size(); i += 3) {
+                    CubeWatcher cubeWatcher = this.cubeWatchers.get(
+                            cubesToUnload.getInt(i), cubesToUnload.getInt(i + 1), cubesToUnload.getInt(i + 2));
                     if (cubeWatcher != null) {
                         removePlayerFromCubeWatcher(cubeWatcher, player);
                     } else {
                         CubicChunks.LOGGER.warn("cubeWatcher null on render distance change");
                     }
-                });
-                columnsToUnload.forEach(pos -> {
-                    ColumnWatcher columnWatcher = this.getColumnWatcher(pos);
+                }
+                for (int i = 0; i < columnsToUnload.size(); i += 2) {
+                    ColumnWatcher columnWatcher = this.columnWatchers.get(columnsToUnload.getInt(i), columnsToUnload.getInt(i + 1));
                     if (columnWatcher != null && columnWatcher.containsPlayer(player)) {
                         columnWatcher.removePlayer(player);
                     } else {
                         CubicChunks.LOGGER.warn("cubeWatcher null or doesn't contain player on render distance change");
                     }
-                });
+                }
             }
         }
 
         this.horizontalViewDistance = newHorizontalViewDistance;
         this.verticalViewDistance = newVerticalViewDistance;
-        this.setNeedSort();
-    }
-
-    private void setNeedSort() {
-        this.toGenerateNeedSort = true;
-        this.toSendToClientNeedSort = true;
+        this.cubesToGenerate.sort();
+        this.cubesToSendToClients.sort();
+        this.columnsToGenerate.sort();
+        this.columnsToSendToClients.sort();
+        this.cubesToAddPlayerTo.forEach((p, list) -> list.sort());
     }
 
     @Override
@@ -891,6 +1037,53 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
         throw new UnsupportedOperationException();
     }
 
+    /**
+     * Adds block changes of a cube to the ones sent to the player at the end of updating cube watchers, if the player's
+     * client can receive block changes of multiple cubes in one packet.
+     *
+     * @return true if the changes will be sent, false if they need to be sent separately
+     */
+    boolean addBlockChanges(EntityPlayerMP player, PacketCubeBlockChange changes) {
+        BlockChangeBatch batch = blockChangeBatches.get(player);
+        if (batch == null) {
+            if (!PacketMultiCubeBlockChange.isSupported(player)) {
+                return false;
+            }
+            batch = new BlockChangeBatch();
+            blockChangeBatches.put(player, batch);
+        }
+        batch.changes.add(changes);
+        return true;
+    }
+
+    /**
+     * Sends block entity update packet to the player, after the block changes collected for the player in this tick
+     */
+    void sendBlockEntityPacket(EntityPlayerMP player, Packet<?> packet) {
+        BlockChangeBatch batch = blockChangeBatches.get(player);
+        if (batch == null) {
+            PacketDispatcher.sendPacket(packet, player);
+        } else {
+            batch.blockEntityPackets.add(packet);
+        }
+    }
+
+    private void sendBlockChangeBatches() {
+        if (blockChangeBatches.isEmpty()) {
+            return;
+        }
+        for (Map.Entry<EntityPlayerMP, BlockChangeBatch> entry : blockChangeBatches.entrySet()) {
+            EntityPlayerMP player = entry.getKey();
+            BlockChangeBatch batch = entry.getValue();
+            // both go through PacketDispatcher to stay ordered after cube packets that are still being encoded
+            PacketDispatcher.sendTo(new PacketMultiCubeBlockChange(batch.changes), player);
+            for (Packet<?> packet : batch.blockEntityPackets) {
+                PacketDispatcher.sendPacket(packet, player);
+            }
+        }
+        blockChangeBatches.clear();
+    }
+
     void addToUpdateEntry(CubeWatcher cubeWatcher) {
         this.cubeWatchersToUpdate.add(cubeWatcher);
     }
@@ -914,6 +1107,7 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
         CubeWatcher removed = this.cubeWatchers.remove(cubePos.getX(), cubePos.getY(), cubePos.getZ());
         assert removed == cubeWatcher : "Removed unexpected cube watcher";
         this.cubeWatchersToUpdate.remove(cubeWatcher);
+        this.cubeWatchersInTickRange.remove(cubeWatcher);
         this.cubesToGenerate.remove(cubeWatcher);
         this.cubesToSendToClients.remove(cubeWatcher);
         if (cubeWatcher.getCube() != null) {
@@ -938,10 +1132,77 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
         this.columnsToGenerate.remove(entry);
         this.columnsToSendToClients.remove(entry);
         this.columnWatchersToUpdate.remove(entry);
+        this.columnWatchersInTickRange.remove(entry);
+    }
+
+    /**
+     * Sends cubes to the player split into packets of about {@link CubicChunksConfig#cubesPacketTargetSize} bytes. The packets
+     * are encoded by {@link CubePacketEncoder}, so they may be sent in a later tick.
+     */
+    private void sendCubesPackets(EntityPlayerMP player, List<Cube> cubes, CubePacketEncoder.SnapshotCache snapshots) {
+        PlayerWrapper playerWrapper = this.players.get(player.getEntityId());
+        CompletableFuture<List<PacketCubes>> packets = CubePacketEncoder.encode(cubes, player, CubicChunksConfig.cubesPacketTargetSize,
+                snapshots);
+        PacketDispatcher.sendWhenDone(packets, player, () -> {
+            if (playerWrapper != null) {
+                for (PacketCubes packet : packets.join()) {
+                    playerWrapper.sendScheduler.onCubesSent(packet.getCubeCount(), packet.getEncodedSize());
+                }
+            }
+            onCubesSent(player, cubes);
+        }, () -> onCubesSendFailed(player, cubes));
+    }
+
+    private void onCubesSent(EntityPlayerMP player, List<Cube> cubes) {
+        //Sending entities per cube.
+        for (Cube cube : cubes) {
+            CubeWatcher watcher = getCubeWatcher(cube.getCoords());
+            // the player may have moved away while the packets were being encoded
+            if (watcher == null || !watcher.containsPlayer(player)) {
+                continue;
+            }
+            // the entity tracker only sends entities in cubes the player already has
+            watcher.onSentToPlayer(player);
+            ((ICubicEntityTracker) getWorldServer().getEntityTracker()).sendLeashedEntitiesInCube(player, cube);
+            MinecraftForge.EVENT_BUS.post(new CubeWatchEvent(cube, cube.getCoords(), watcher, player));
+        }
+    }
+
+    private void onCubesSendFailed(EntityPlayerMP player, List<Cube> cubes) {
+        // try again in a later tick, so that the watchers don't consider these cubes sent
+        for (Cube cube : cubes) {
+            CubeWatcher watcher = getCubeWatcher(cube.getCoords());
+            if (watcher != null && watcher.containsPlayer(player)) {
+                watcher.onSendFailed(player);
+            }
+        }
+    }
+
+    private int getCubesToSendRemaining(EntityPlayerMP player) {
+        PlayerWrapper playerWrapper = this.players.get(player.getEntityId());
+        return playerWrapper == null ? CubicChunksConfig.cubesToSendPerTick : playerWrapper.sendScheduler.getCubesRemaining();
+    }
+
+    boolean isCubeSendLimited(@Nullable EntityPlayerMP player) {
+        return player != null && getCubesToSendRemaining(player) <= 0;
+    }
+
+    /**
+     * Called when a cube watcher couldn't send its cube to some of its players because of their send rate
+     */
+    void onCubeSendDeferred(CubeWatcher watcher) {
+        if (!this.cubesToSendToClients.contains(watcher)) {
+            this.cubesToSendToClients.appendToEnd(watcher);
+        }
     }
 
     public void scheduleSendCubeToPlayer(Cube cube, EntityPlayerMP player) {
-        cubesToSend.put(player, cube);
+        if (cubesToSend.put(player, cube)) {
+            PlayerWrapper playerWrapper = this.players.get(player.getEntityId());
+            if (playerWrapper != null) {
+                playerWrapper.sendScheduler.onCubeScheduled();
+            }
+        }
     }
 
     public void removeSchedulesSendCubeToPlayer(Cube cube, EntityPlayerMP player) {
@@ -960,13 +1221,25 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
         return this.cubeWatchers.get(coords.getX(), coords.getY(), coords.getZ()) != null;
     }
 
+    private static final class BlockChangeBatch {
+
+        final List<PacketCubeBlockChange> changes = new ArrayList<>();
+        final List<Packet<?>> blockEntityPackets = new ArrayList<>();
+    }
+
     private static final class PlayerWrapper {
 
         final EntityPlayerMP playerEntity;
         private double managedPosY;
+        /** Spectator mode of the player when tick range was last updated */
+        boolean spectator;
+
+        final CubeSendScheduler sendScheduler;
 
         PlayerWrapper(EntityPlayerMP player) {
             this.playerEntity = player;
+            this.spectator = player.isSpectator();
+            this.sendScheduler = new CubeSendScheduler(player);
         }
 
         void updateManagedPos() {
@@ -1014,14 +1287,10 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
     public Iterator<Cube> getCubeIterator() {
         WorldServer world = this.getWorldServer();
         final Iterator<CubeWatcher> iterator = this.cubeWatchers.iterator();
-        ImmutableSetMultimap<ChunkPos, Ticket> persistentChunksFor = ForgeChunkManager.getPersistentChunksFor(world);
         world.profiler.startSection("forcedChunkLoading");
-        @SuppressWarnings("unchecked")
-        final Iterator<Cube> persistentCubesIterator = persistentChunksFor.keys().stream()
-                .filter(Objects::nonNull)
-                .map(input -> (Collection<Cube>) ((IColumn) world.getChunk(input.x, input.z)).getLoadedCubes())
-                .collect(ArrayList<Cube>::new, ArrayList::addAll, ArrayList::addAll)
-                .iterator();
+        List<Cube> persistentCubes = new ArrayList<>();
+        ((ICubicWorldInternal.Server) world).getForcedCubeIndex().collectLoadedCubes(cubeCache, persistentCubes);
+        final Iterator<Cube> persistentCubesIterator = persistentCubes.iterator();
         world.profiler.endSection();
         
         return new AbstractIterator<Cube>() {
@@ -24,18 +24,30 @@
  */
 package io.github.opencubicchunks.cubicchunks.core.server;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
 import io.github.opencubicchunks.cubicchunks.api.util.Coords;
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
 import io.github.opencubicchunks.cubicchunks.api.world.ICubeProviderServer;
+import io.github.opencubicchunks.cubicchunks.api.worldgen.CubePrimer;
+import io.github.opencubicchunks.cubicchunks.api.worldgen.ICubeGenerator;
 import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
 import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
+import io.github.opencubicchunks.cubicchunks.core.server.chunkio.async.forge.AsyncWorldIOExecutor;
 import io.github.opencubicchunks.cubicchunks.core.util.ticket.ITicket;
 import io.github.opencubicchunks.cubicchunks.core.world.ICubeProviderInternal;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.BlankCube;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
 import mcp.MethodsReturnNonnullByDefault;
 
@@ -46,6 +58,8 @@ import net.minecraft.world.World;
 @MethodsReturnNonnullByDefault
 public class SpawnCubes implements ITicket {
 
+    private static final int LOAD_STALL_TIMEOUT_SECONDS = 30;
+
     @Nullable private BlockPos spawnPoint = null;
     private int radiusXZGenerate = CubicChunksConfig.spawnGenerateDistanceXZ;
     private int radiusYGenerate = CubicChunksConfig.spawnGenerateDistanceY;
@@ -106,43 +120,177 @@ public class SpawnCubes implements ITicket {
         int spawnCubeY = Coords.blockToCube(spawnPoint.getY());
         int spawnCubeZ = Coords.blockToCube(spawnPoint.getZ());
 
-        AtomicLong lastTime = new AtomicLong(System.currentTimeMillis());
-        final int progressReportInterval = 1000;//ms
-        int totalToGenerate = (radiusXZGenerate * 2 + 1) * (radiusXZGenerate * 2 + 1) * (radiusYGenerate * 2 + 1);
-        AtomicInteger generated = new AtomicInteger();
-
         int r = Math.max(radiusXZGenerate, radiusXZForce);
         int ry = Math.max(radiusYGenerate, radiusYForce);
 
-        forEachCube(spawnCubeX, spawnCubeY, spawnCubeZ, r, ry, (cubeX, cubeY, cubeZ) -> serverCubeCache.asyncGetCube(cubeX, cubeY, cubeZ, ICubeProviderServer.Requirement.LOAD, c -> {}));
+        List<CubePos> allCubes = new ArrayList<>();
+        List<CubePos> innerCubes = new ArrayList<>();
         forEachCube(spawnCubeX, spawnCubeY, spawnCubeZ, r, ry, (cubeX, cubeY, cubeZ) -> {
-            ICubeProviderServer.Requirement req;
+            CubePos pos = new CubePos(cubeX, cubeY, cubeZ);
+            allCubes.add(pos);
+            // not on the edge?
+            if (Math.abs(cubeX - spawnCubeX) < radiusXZGenerate
+                    && Math.abs(cubeZ - spawnCubeZ) < radiusXZGenerate
+                    && Math.abs(cubeY - spawnCubeY) < radiusYGenerate) {
+                innerCubes.add(pos);
+            }
+        });
 
-            int dx = Math.abs(cubeX - spawnCubeX);
-            int dy = Math.abs(cubeY - spawnCubeY);
-            int dz = Math.abs(cubeZ - spawnCubeZ);
+        List<CubePos> missing = loadExisting(serverCubeCache, allCubes, spawnCubeX, spawnCubeZ);
+        generateMissing(serverCubeCache, missing, spawnCubeX, spawnCubeZ);
 
-            // is edge?
-            if (dx >= radiusXZGenerate || dz >= radiusXZGenerate || dy >= radiusYGenerate) {
-                req = ICubeProviderServer.Requirement.GENERATE;
-            } else {
-                req = ICubeProviderServer.Requirement.LIGHT;
-            }
+        // population can generate and populate neighbors, so populate everything before lighting anything.
+        // Lighting goes top-down within each column, as that's the order in which skylight becomes known
+        ProgressReporter populateProgress = new ProgressReporter("populating", innerCubes.size());
+        for (CubePos pos : innerCubes) {
+            serverCubeCache.getCubeNow(pos.getX(), pos.getY(), pos.getZ(), ICubeProviderServer.Requirement.POPULATE);
+            populateProgress.step();
+        }
+        populateProgress.done();
 
-            Cube cube = serverCubeCache.getCubeNow(cubeX, cubeY, cubeZ, req);
+        ProgressReporter lightProgress = new ProgressReporter("lighting", innerCubes.size());
+        for (CubePos pos : innerCubes) {
+            Cube cube = serverCubeCache.getCubeNow(pos.getX(), pos.getY(), pos.getZ(), ICubeProviderServer.Requirement.LIGHT);
             assert cube != null;
+            lightProgress.step();
+        }
+        lightProgress.done();
+    }
+
+    /**
+     * Loads all existing cubes in parallel and adds tickets to the ones in forced area.
+     *
+     * @return positions of cubes that don't exist yet
+     */
+    private List<CubePos> loadExisting(CubeProviderServer serverCubeCache, List<CubePos> cubes, int spawnCubeX, int spawnCubeZ) {
+        ProgressReporter progress = new ProgressReporter("loading", cubes.size());
+        List<CubePos> missing = new ArrayList<>();
+        AtomicInteger pending = new AtomicInteger(cubes.size());
 
-            if (dx <= radiusXZForce && dz <= radiusXZForce) {
-                cube.getTickets().add(this);
+        AsyncWorldIOExecutor.setBulkLoadThreads(Runtime.getRuntime().availableProcessors());
+        try {
+            for (CubePos pos : cubes) {
+                serverCubeCache.asyncGetCube(pos.getX(), pos.getY(), pos.getZ(), ICubeProviderServer.Requirement.LOAD, loaded -> {
+                    // the callback may get a cube that hasn't been added to the world if the column has been unloaded
+                    Cube cube = serverCubeCache.getLoadedCube(pos.getX(), pos.getY(), pos.getZ());
+                    if (cube == null) {
+                        missing.add(pos);
+                    } else {
+                        addTicket(cube, spawnCubeX, spawnCubeZ);
+                    }
+                    pending.decrementAndGet();
+                    progress.step();
+                });
             }
-            generated.incrementAndGet();
-            if (System.currentTimeMillis() >= lastTime.get() + progressReportInterval) {
-                lastTime.set(System.currentTimeMillis());
-                CubicChunks.LOGGER.info("Preparing spawn area: {}%", generated.get() * 100 / totalToGenerate);
+            // the server isn't ticking yet, so finish the loading here
+            long lastProgressTime = System.nanoTime();
+            int lastPending = pending.get();
+            while (pending.get() > 0) {
+                AsyncWorldIOExecutor.tick();
+                if (pending.get() != lastPending) {
+                    lastPending = pending.get();
+                    lastProgressTime = System.nanoTime();
+                } else if (System.nanoTime() - lastProgressTime > TimeUnit.SECONDS.toNanos(LOAD_STALL_TIMEOUT_SECONDS)) {
+                    // the remaining cubes will be loaded synchronously when generating
+                    CubicChunks.LOGGER.warn("Loading spawn cubes stalled with {} cubes remaining, continuing", lastPending);
+                    progress.done();
+                    return collectNotLoaded(serverCubeCache, cubes);
+                }
+                sleep();
             }
-        });
-        CubicChunks.LOGGER.info("Preparing spawn area: 100%");
+        } finally {
+            AsyncWorldIOExecutor.setBulkLoadThreads(0);
+        }
+        progress.done();
+        return missing;
+    }
+
+    /**
+     * Generates missing cubes, concurrently if the generator supports it.
+     */
+    private void generateMissing(CubeProviderServer serverCubeCache, List<CubePos> missing, int spawnCubeX, int spawnCubeZ) {
+        ProgressReporter progress = new ProgressReporter("generating", missing.size());
+        ICubeGenerator generator = serverCubeCache.getCubeGenerator();
 
+        if (generator.supportsConcurrentCubeGeneration() && !missing.isEmpty()) {
+            // columns are needed for cubes, and column generation isn't necessarily thread safe
+            for (CubePos pos : missing) {
+                serverCubeCache.getColumn(pos.getX(), pos.getZ(), ICubeProviderServer.Requirement.GENERATE);
+            }
+            int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+            ExecutorService executor = Executors.newFixedThreadPool(threads, task -> {
+                Thread thread = new Thread(task, "Spawn area generator thread");
+                thread.setDaemon(true);
+                return thread;
+            });
+            try {
+                List<Future<Optional<CubePrimer>>> primers = new ArrayList<>(missing.size());
+                for (CubePos pos : missing) {
+                    primers.add(executor.submit(() -> generator.tryGenerateCube(pos.getX(), pos.getY(), pos.getZ(), new CubePrimer(), true)));
+                }
+                for (int i = 0; i < missing.size(); i++) {
+                    CubePos pos = missing.get(i);
+                    Optional<CubePrimer> primer = getPrimer(primers.get(i), pos);
+                    Cube cube = primer.isPresent()
+                            ? serverCubeCache.addGeneratedCube(pos.getX(), pos.getY(), pos.getZ(), primer.get())
+                            : serverCubeCache.getCubeNow(pos.getX(), pos.getY(), pos.getZ(), ICubeProviderServer.Requirement.GENERATE);
+                    assert cube != null;
+                    addTicket(cube, spawnCubeX, spawnCubeZ);
+                    progress.step();
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+        } else {
+            for (CubePos pos : missing) {
+                Cube cube = serverCubeCache.getCubeNow(pos.getX(), pos.getY(), pos.getZ(), ICubeProviderServer.Requirement.GENERATE);
+                assert cube != null;
+                addTicket(cube, spawnCubeX, spawnCubeZ);
+                progress.step();
+            }
+        }
+        progress.done();
+    }
+
+    private Optional<CubePrimer> getPrimer(Future<Optional<CubePrimer>> future, CubePos pos) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while generating spawn area", e);
+        } catch (ExecutionException e) {
+            // try again on the server thread, so that the error is reported the usual way if it happens again
+            CubicChunks.LOGGER.error("Error generating cube {} concurrently, retrying on server thread", pos, e.getCause());
+            return Optional.empty();
+        }
+    }
+
+    private List<CubePos> collectNotLoaded(CubeProviderServer serverCubeCache, List<CubePos> cubes) {
+        List<CubePos> notLoaded = new ArrayList<>();
+        for (CubePos pos : cubes) {
+            if (serverCubeCache.getLoadedCube(pos.getX(), pos.getY(), pos.getZ()) == null) {
+                notLoaded.add(pos);
+            }
+        }
+        return notLoaded;
+    }
+
+    private void addTicket(Cube cube, int spawnCubeX, int spawnCubeZ) {
+        if (cube instanceof BlankCube) {
+            return;
+        }
+        if (Math.abs(cube.getX() - spawnCubeX) <= radiusXZForce && Math.abs(cube.getZ() - spawnCubeZ) <= radiusXZForce) {
+            cube.getTickets().add(this);
+        }
+    }
+
+    private static void sleep() {
+        try {
+            Thread.sleep(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while loading spawn area", e);
+        }
     }
 
     private void forEachCube(int spawnCubeX, int spawnCubeY, int spawnCubeZ, int r, int ry, XYZConsumer action) {
@@ -162,4 +310,32 @@ public class SpawnCubes implements ITicket {
     @FunctionalInterface private interface XYZConsumer {
         void accept(int x, int y, int z);
     }
+
+    private static class ProgressReporter {
+
+        private static final long REPORT_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+        private final String stage;
+        private final int total;
+        private int done;
+        private long lastReportTime = System.nanoTime();
+
+        ProgressReporter(String stage, int total) {
+            this.stage = stage;
+            this.total = total;
+        }
+
+        void step() {
+            done++;
+            long time = System.nanoTime();
+            if (time >= lastReportTime + REPORT_INTERVAL) {
+                lastReportTime = time;
+                CubicChunks.LOGGER.info("Preparing spawn area ({}): {}% ({}/{})", stage, done * 100 / Math.max(total, 1), done, total);
+            }
+        }
+
+        void done() {
+            CubicChunks.LOGGER.info("Preparing spawn area ({}): 100% ({} cubes)", stage, total);
+        }
+    }
 }
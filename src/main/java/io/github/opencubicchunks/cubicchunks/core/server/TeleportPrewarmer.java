@@ -0,0 +1,302 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.server;
+
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.api.world.ICubeProviderServer;
+import io.github.opencubicchunks.cubicchunks.api.world.ICubicWorld;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
+import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldInternal;
+import io.github.opencubicchunks.cubicchunks.core.util.ticket.ITicket;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.init.Blocks;
+import net.minecraft.network.NetHandlerPlayServer;
+import net.minecraft.network.play.server.SPacketPlayerPosLook;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.DimensionType;
+import net.minecraft.world.WorldServer;
+import net.minecraftforge.common.DimensionManager;
+import net.minecraftforge.fml.common.Mod;
+import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
+import net.minecraftforge.fml.common.gameevent.PlayerEvent;
+import net.minecraftforge.fml.common.gameevent.TickEvent;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Loads cubes around teleport destinations before players get there. Without it, a long distance teleport makes
+ * {@link PlayerCubeMap} find a completely new view volume, and cube watchers load and generate all of it synchronously.
+ * <p>
+ * For nether portals, the destination is loaded while the player waits in the portal. If enabled by
+ * {@link CubicChunksConfig#delayCommandTeleports}, command teleports of players are delayed until the cubes around the destination
+ * are loaded, or until the timeout expires.
+ * <p>
+ * Jobs are kept by player UUID, so that a job started before the player respawns or changes dimension can be dropped.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+@Mod.EventBusSubscriber(modid = CubicChunks.MODID)
+public class TeleportPrewarmer {
+
+    private static final Map<UUID, Job> jobs = new HashMap<>();
+
+    /**
+     * Equivalent of {@link NetHandlerPlayServer#setPlayerLocation(double, double, double, float, float, Set)} that
+     * delays the teleport until the destination is loaded, if enabled by {@link CubicChunksConfig#delayCommandTeleports}.
+     */
+    public static void setPlayerLocationWhenReady(NetHandlerPlayServer connection, double x, double y, double z, float yaw, float pitch,
+            Set<SPacketPlayerPosLook.EnumFlags> relativeSet) {
+        EntityPlayerMP player = connection.player;
+        if (!CubicChunksConfig.delayCommandTeleports || CubicChunksConfig.teleportPrewarmDistance <= 0
+                || !(player.world instanceof WorldServer) || !((ICubicWorld) player.world).isCubicWorld()) {
+            connection.setPlayerLocation(x, y, z, yaw, pitch, relativeSet);
+            return;
+        }
+        // the player may move before the teleport happens, so make the position absolute now
+        double absX = relativeSet.contains(SPacketPlayerPosLook.EnumFlags.X) ? player.posX + x : x;
+        double absY = relativeSet.contains(SPacketPlayerPosLook.EnumFlags.Y) ? player.posY + y : y;
+        double absZ = relativeSet.contains(SPacketPlayerPosLook.EnumFlags.Z) ? player.posZ + z : z;
+        Set<SPacketPlayerPosLook.EnumFlags> flags = EnumSet.noneOf(SPacketPlayerPosLook.EnumFlags.class);
+        flags.addAll(relativeSet);
+        flags.remove(SPacketPlayerPosLook.EnumFlags.X);
+        flags.remove(SPacketPlayerPosLook.EnumFlags.Y);
+        flags.remove(SPacketPlayerPosLook.EnumFlags.Z);
+
+        WorldServer world = (WorldServer) player.world;
+        Job job = new Job(player, world, CubePos.fromEntityCoords(absX, absY, absZ), () -> {
+            // the player object is replaced on respawn, don't move the new one
+            if (player.world == world && !player.hasDisconnected() && connection.player == player) {
+                connection.setPlayerLocation(absX, absY, absZ, yaw, pitch, flags);
+            }
+        });
+        start(player, job);
+    }
+
+    private static void start(EntityPlayerMP player, Job job) {
+        Job previous = jobs.remove(player.getUniqueID());
+        if (previous != null) {
+            previous.finish();
+        }
+        job.start();
+        if (job.isReady()) {
+            job.finish();
+        } else {
+            jobs.put(player.getUniqueID(), job);
+        }
+    }
+
+    private static void cancel(EntityPlayer player) {
+        Job job = jobs.remove(player.getUniqueID());
+        if (job != null) {
+            job.cancel();
+        }
+    }
+
+    @SubscribeEvent
+    public static void onPlayerTick(TickEvent.PlayerTickEvent evt) {
+        if (evt.phase != TickEvent.Phase.END || !(evt.player instanceof EntityPlayerMP) || CubicChunksConfig.teleportPrewarmDistance <= 0) {
+            return;
+        }
+        EntityPlayerMP player = (EntityPlayerMP) evt.player;
+        // players need to stay in the portal for a while before they get teleported, checking only every few ticks is enough
+        if ((player.ticksExisted & 3) != 0 || jobs.containsKey(player.getUniqueID()) || player.isSpectator()
+                || player.world.getBlockState(new BlockPos(player)).getBlock() != Blocks.PORTAL) {
+            return;
+        }
+        int targetDimension = player.dimension == DimensionType.NETHER.getId() ? DimensionType.OVERWORLD.getId() : DimensionType.NETHER.getId();
+        WorldServer target = DimensionManager.getWorld(targetDimension);
+        if (target == null || !((ICubicWorld) target).isCubicWorld()) {
+            return;
+        }
+        double scale = player.world.provider.getMovementFactor() / target.provider.getMovementFactor();
+        start(player, new Job(player, target, CubePos.fromEntityCoords(player.posX * scale, player.posY, player.posZ * scale), null));
+    }
+
+    @SubscribeEvent
+    public static void onServerTick(TickEvent.ServerTickEvent evt) {
+        if (evt.phase != TickEvent.Phase.END || jobs.isEmpty()) {
+            return;
+        }
+        List<Job> finished = new ArrayList<>();
+        for (Iterator<Job> it = jobs.values().iterator(); it.hasNext(); ) {
+            Job job = it.next();
+            if (job.player.hasDisconnected() || job.tick()) {
+                it.remove();
+                finished.add(job);
+            }
+        }
+        // run after iterating, teleporting may start another job
+        finished.forEach(Job::finish);
+    }
+
+    @SubscribeEvent
+    public static void onPlayerLoggedOut(PlayerEvent.PlayerLoggedOutEvent evt) {
+        cancel(evt.player);
+    }
+
+    @SubscribeEvent
+    public static void onPlayerRespawn(PlayerEvent.PlayerRespawnEvent evt) {
+        cancel(evt.player);
+    }
+
+    @SubscribeEvent
+    public static void onPlayerChangedDimension(PlayerEvent.PlayerChangedDimensionEvent evt) {
+        cancel(evt.player);
+    }
+
+    private static final class Job implements ITicket {
+
+        private final EntityPlayerMP player;
+        private final WorldServer world;
+        private final CubeProviderServer cubeCache;
+        private final CubePos center;
+        @Nullable private final Runnable onReady;
+        private final List<Cube> heldCubes = new ArrayList<>();
+        private final List<CubePos> missing = new ArrayList<>();
+        private int pendingLoads;
+        private int ticksLeft;
+        private boolean finished;
+
+        Job(EntityPlayerMP player, WorldServer world, CubePos center, @Nullable Runnable onReady) {
+            this.player = player;
+            this.world = world;
+            this.cubeCache = ((ICubicWorldInternal.Server) world).getCubeCache();
+            this.center = center;
+            this.onReady = onReady;
+            this.ticksLeft = CubicChunksConfig.teleportPrewarmTimeout;
+        }
+
+        void start() {
+            int radius = CubicChunksConfig.teleportPrewarmDistance;
+            ICubicWorld cubicWorld = (ICubicWorld) world;
+            for (int dx = -radius; dx <= radius; dx++) {
+                for (int dy = -radius; dy <= radius; dy++) {
+                    for (int dz = -radius; dz <= radius; dz++) {
+                        CubePos pos = center.add(dx, dy, dz);
+                        if (pos.getMinBlockY() >= cubicWorld.getMaxHeight() || pos.getMaxBlockY() < cubicWorld.getMinHeight()) {
+                            continue;
+                        }
+                        Cube loaded = cubeCache.getLoadedCube(pos);
+                        if (loaded != null) {
+                            hold(loaded);
+                            continue;
+                        }
+                        pendingLoads++;
+                        cubeCache.asyncGetCube(pos.getX(), pos.getY(), pos.getZ(), ICubeProviderServer.Requirement.LOAD, c -> onLoaded(pos));
+                    }
+                }
+            }
+        }
+
+        private void onLoaded(CubePos pos) {
+            pendingLoads--;
+            if (finished) {
+                return;
+            }
+            // the callback may get a cube that hasn't been added to the world if the column has been unloaded
+            Cube cube = cubeCache.getLoadedCube(pos);
+            if (cube == null) {
+                missing.add(pos);
+            } else {
+                hold(cube);
+            }
+        }
+
+        private void hold(Cube cube) {
+            cube.getTickets().add(this);
+            heldCubes.add(cube);
+        }
+
+        private boolean isDone() {
+            return pendingLoads <= 0 && (missing.isEmpty() || CubicChunksConfig.teleportPrewarmGenerateTimeMillis <= 0);
+        }
+
+        /**
+         * @return true if the teleport can be done now. Portal prewarming keeps the cubes loaded until it times out.
+         */
+        boolean isReady() {
+            return onReady != null && isDone();
+        }
+
+        /**
+         * @return true if this job should be finished
+         */
+        boolean tick() {
+            if (--ticksLeft < 0) {
+                if (onReady != null) {
+                    CubicChunks.LOGGER.debug("Teleport destination prewarming at {} timed out with {} cubes loading and {} to generate",
+                            center, pendingLoads, missing.size());
+                }
+                return true;
+            }
+            if (pendingLoads <= 0 && !missing.isEmpty()) {
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CubicChunksConfig.teleportPrewarmGenerateTimeMillis);
+                while (!missing.isEmpty() && System.nanoTime() < deadline) {
+                    CubePos pos = missing.remove(missing.size() - 1);
+                    Cube cube = cubeCache.getCubeNow(pos.getX(), pos.getY(), pos.getZ(), ICubeProviderServer.Requirement.LIGHT);
+                    if (cube != null) {
+                        hold(cube);
+                    }
+                }
+            }
+            return isReady();
+        }
+
+        void finish() {
+            cancel();
+            if (onReady != null) {
+                onReady.run();
+            }
+        }
+
+        /**
+         * Releases the cubes without teleporting the player
+         */
+        void cancel() {
+            finished = true;
+            heldCubes.forEach(cube -> cube.getTickets().remove(this));
+            heldCubes.clear();
+        }
+
+        @Override public boolean shouldTick() {
+            return false;
+        }
+    }
+}
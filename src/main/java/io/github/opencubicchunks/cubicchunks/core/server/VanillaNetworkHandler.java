@@ -33,6 +33,7 @@ import io.github.opencubicchunks.cubicchunks.core.asm.mixin.core.common.vanillac
 import io.github.opencubicchunks.cubicchunks.core.asm.mixin.core.common.vanillaclient.ISPacketMultiBlockChange;
 import io.github.opencubicchunks.cubicchunks.core.asm.mixin.fixes.common.vanillaclient.INetHandlerPlayServer;
 import io.github.opencubicchunks.cubicchunks.core.util.AddressTools;
+import io.github.opencubicchunks.cubicchunks.core.util.FieldCopier;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
@@ -57,14 +58,11 @@ import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 import net.minecraftforge.fml.common.network.NetworkRegistry;
 import net.minecraftforge.fml.common.network.handshake.NetworkDispatcher;
 
-import java.lang.reflect.Constructor;
-import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.IdentityHashMap;
 import java.util.List;
@@ -76,7 +74,6 @@ import java.util.stream.Collectors;
 import static io.github.opencubicchunks.cubicchunks.api.util.Coords.*;
 
 public class VanillaNetworkHandler {
-    private static final Map<Class<?>, Field[]> packetFields = new IdentityHashMap<>();
     private static final Set<UUID> bedrockPlayers = new HashSet<>();
     private final WorldServer world;
     private Map<EntityPlayerMP, CubePos> playerOffsets = new IdentityHashMap<>();
@@ -84,6 +81,12 @@ public class VanillaNetworkHandler {
     // packets still sent with the client on the old offset will be processed
     private Map<EntityPlayerMP, CubePos> playerOffsetsC2S = new IdentityHashMap<>();
     private Map<EntityPlayerMP, Integer> expectedTeleportId = new IdentityHashMap<>();
+    /**
+     * Vanilla section data (blocks, block light and sky light) of cubes encoded in the current world tick. It doesn't depend on
+     * the player offset, so it's shared by all players that get the same cube in the same tick.
+     */
+    private final Map<CubePos, byte[]> sectionDataCache = new HashMap<>();
+    private long sectionDataCacheTime = Long.MIN_VALUE;
 
     public VanillaNetworkHandler(WorldServer world) {
         this.world = world;
@@ -97,43 +100,11 @@ public class VanillaNetworkHandler {
         bedrockPlayers.remove(player.getUniqueID());
     }
 
-    // TODO: more efficient way?
     public static Packet<?> copyPacket(Packet<?> packetIn) {
         if (!CubicChunksConfig.allowVanillaClients) {
             return packetIn;
         }
-        try {
-            Field[] fields = packetFields.computeIfAbsent(packetIn.getClass(), VanillaNetworkHandler::collectFields);
-            Constructor<?> constructor = packetIn.getClass().getConstructor();
-            Packet<?> newPacket = (Packet<?>) constructor.newInstance();
-            for (Field field : fields) {
-                Object v = field.get(packetIn);
-                field.set(newPacket, v);
-            }
-            return newPacket;
-        } catch (NoSuchMethodException | InstantiationException | IllegalAccessException | InvocationTargetException e) {
-            throw new Error(e);
-        }
-    }
-
-
-    private static Field[] collectFields(Class<?> aClass) {
-        return collectFieldList(aClass).toArray(new Field[0]);
-    }
-
-    private static List<Field> collectFieldList(Class<?> aClass) {
-        List<Field> fields = new ArrayList<>();
-        do {
-            Field[] f = aClass.getDeclaredFields();
-            for (Field field : f) {
-                if (!Modifier.isStatic(field.getModifiers())) {
-                    field.setAccessible(true);
-                    fields.add(field);
-                }
-            }
-            aClass = aClass.getSuperclass();
-        } while (aClass != Object.class);
-        return fields;
+        return FieldCopier.copy(packetIn);
     }
 
     private CubePos getPlayerOffsetS2C(EntityPlayerMP player) {
@@ -218,6 +189,7 @@ public class VanillaNetworkHandler {
         if (!CubicChunksConfig.allowVanillaClients) {
             return;
         }
+        sectionDataCache.remove(cube.getCoords());
         CubePos offset = getPlayerOffsetS2C(player);
         int posX = cube.getX() + offset.getX();
         int posY = cube.getY() + offset.getY();
@@ -332,7 +304,7 @@ public class VanillaNetworkHandler {
         List<ICube> secondSendCubes = new ArrayList<>();
         List<ICube> lastSendCubes = new ArrayList<>();
         for (CubeWatcher cubeWatcher : cubeMap.cubeWatchers) {
-            if (!cubeWatcher.isSentToPlayers() || !cubeWatcher.containsPlayer(player)) {
+            if (!cubeWatcher.isSentToPlayer(player)) {
                 continue;
             }
             int cy = Math.abs(player.chunkCoordY - cubeWatcher.getY());
@@ -386,9 +358,10 @@ public class VanillaNetworkHandler {
         world.getEntityTracker().updateVisibility(player);
     }
 
-    private static SPacketChunkData constructChunkData(ChunkPos pos, Iterable<ICube> cubes, CubePos offset, boolean hasSkyLight) {
+    private SPacketChunkData constructChunkData(ChunkPos pos, Iterable<ICube> cubes, CubePos offset, boolean hasSkyLight) {
         ICube[] cubesToSend = new ICube[16];
         int mask = getCubesToSend(cubes, offset, cubesToSend);
+        byte[][] sections = getSectionData(cubesToSend, hasSkyLight, mask);
 
         SPacketChunkData chunkData = new SPacketChunkData();
         @SuppressWarnings("ConstantConditions")
@@ -396,10 +369,10 @@ public class VanillaNetworkHandler {
         dataAccess.setChunkX(pos.x + offset.getX());
         dataAccess.setChunkZ(pos.z + offset.getZ());
         dataAccess.setFullChunk(false);
-        byte[] dataBuffer = new byte[computeBufferSize(cubesToSend, hasSkyLight, mask)];
+        byte[] dataBuffer = new byte[computeBufferSize(sections)];
         PacketBuffer buf = new PacketBuffer(Unpooled.wrappedBuffer(dataBuffer));
         buf.writerIndex(0);
-        int availableSections = writeData(buf, cubesToSend, hasSkyLight, mask);
+        int availableSections = writeData(buf, sections);
         dataAccess.setAvailableSections(availableSections);
         dataAccess.setBuffer(dataBuffer);
 
@@ -426,9 +399,10 @@ public class VanillaNetworkHandler {
         return chunkData;
     }
 
-    private static SPacketChunkData constructFullChunkData(Chunk chunk, Iterable<ICube> cubes, CubePos offset, boolean hasSkyLight) {
+    private SPacketChunkData constructFullChunkData(Chunk chunk, Iterable<ICube> cubes, CubePos offset, boolean hasSkyLight) {
         ICube[] cubesToSend = new ICube[16];
         int mask = getCubesToSend(cubes, offset, cubesToSend);
+        byte[][] sections = getSectionData(cubesToSend, hasSkyLight, mask);
 
         SPacketChunkData chunkData = new SPacketChunkData();
         @SuppressWarnings("ConstantConditions")
@@ -436,10 +410,10 @@ public class VanillaNetworkHandler {
         dataAccess.setChunkX(chunk.x + offset.getX());
         dataAccess.setChunkZ(chunk.z + offset.getZ());
         dataAccess.setFullChunk(true);
-        byte[] dataBuffer = new byte[computeBufferSize(chunk, cubesToSend, hasSkyLight, mask)];
+        byte[] dataBuffer = new byte[computeBufferSize(chunk, sections)];
         PacketBuffer buf = new PacketBuffer(Unpooled.wrappedBuffer(dataBuffer));
         buf.writerIndex(0);
-        int availableSections = writeData(chunk, buf, cubesToSend, hasSkyLight, mask);
+        int availableSections = writeData(chunk, buf, sections);
         dataAccess.setAvailableSections(availableSections);
         dataAccess.setBuffer(dataBuffer);
 
@@ -486,72 +460,70 @@ public class VanillaNetworkHandler {
         return teList;
     }
 
-    private static int computeBufferSize(ICube[] cubesToSend, boolean hasSkyLight, int mask) {
-        int total = 0;
-        int cubeCount = cubesToSend.length;
-
-        for (int j = 0; j < cubeCount; j++) {
-            ExtendedBlockStorage storage = getStorage(cubesToSend, j);
-
-            if (storage != Chunk.NULL_BLOCK_STORAGE && (mask & 1 << j) != 0) {
-                total += storage.getData().getSerializedSize();
-                total += storage.getBlockLight().getData().length;
-
-                if (hasSkyLight) {
-                    total += storage.getSkyLight().getData().length;
-                }
+    /**
+     * @return encoded section data for each cube in the mask, null for the other entries
+     */
+    private byte[][] getSectionData(ICube[] cubesToSend, boolean hasSkyLight, int mask) {
+        long time = world.getTotalWorldTime();
+        if (time != sectionDataCacheTime) {
+            sectionDataCache.clear();
+            sectionDataCacheTime = time;
+        }
+        byte[][] sections = new byte[cubesToSend.length][];
+        for (int j = 0; j < cubesToSend.length; j++) {
+            if ((mask & 1 << j) != 0) {
+                ICube cube = cubesToSend[j];
+                sections[j] = sectionDataCache.computeIfAbsent(cube.getCoords(), pos -> encodeSection(cube, hasSkyLight));
             }
         }
-
-        return total;
-    }
-
-    private static ExtendedBlockStorage getStorage(ICube[] cubesToSend, int idx) {
-        return cubesToSend[idx] == null ? null : cubesToSend[idx].getStorage();
+        return sections;
     }
 
-    private static int computeBufferSize(Chunk chunk) {
-        return 256;
+    @SuppressWarnings("ConstantConditions")
+    private static byte[] encodeSection(ICube cube, boolean hasSkyLight) {
+        // empty cubes are never in the mask, see getCubesToSend
+        ExtendedBlockStorage storage = cube.getReadOnlyStorage();
+        int size = storage.getData().getSerializedSize() + storage.getBlockLight().getData().length;
+        if (hasSkyLight) {
+            size += storage.getSkyLight().getData().length;
+        }
+        byte[] data = new byte[size];
+        PacketBuffer buf = new PacketBuffer(Unpooled.wrappedBuffer(data));
+        buf.writerIndex(0);
+        storage.getData().write(buf);
+        buf.writeBytes(storage.getBlockLight().getData());
+        if (hasSkyLight) {
+            buf.writeBytes(storage.getSkyLight().getData());
+        }
+        return data;
     }
 
-    private static int computeBufferSize(Chunk chunk, ICube[] cubesToSend, boolean hasSkyLight, int mask) {
+    private static int computeBufferSize(byte[][] sections) {
         int total = 0;
-        int cubeCount = cubesToSend.length;
-
-        for (int j = 0; j < cubeCount; j++) {
-            ExtendedBlockStorage storage = getStorage(cubesToSend, j);
-
-            if (storage != Chunk.NULL_BLOCK_STORAGE && (!storage.isEmpty()) && (mask & 1 << j) != 0) {
-                total += storage.getData().getSerializedSize();
-                total += storage.getBlockLight().getData().length;
-
-                if (hasSkyLight) {
-                    total += storage.getSkyLight().getData().length;
-                }
+        for (byte[] section : sections) {
+            if (section != null) {
+                total += section.length;
             }
         }
-        total += chunk.getBiomeArray().length;
         return total;
     }
 
-    private static int writeData(PacketBuffer buf, ICube[] cubes, boolean hasSkylight, int mask) {
-        int sentSections = 0;
+    private static int computeBufferSize(Chunk chunk) {
+        return 256;
+    }
 
-        int cubeCount = cubes.length;
-        for (int j = 0; j < cubeCount; ++j) {
-            ExtendedBlockStorage storage = getStorage(cubes, j);
+    private static int computeBufferSize(Chunk chunk, byte[][] sections) {
+        return computeBufferSize(sections) + chunk.getBiomeArray().length;
+    }
 
-            if (storage != Chunk.NULL_BLOCK_STORAGE && (mask & 1 << j) != 0) {
+    private static int writeData(PacketBuffer buf, byte[][] sections) {
+        int sentSections = 0;
+        for (int j = 0; j < sections.length; ++j) {
+            if (sections[j] != null) {
                 sentSections |= 1 << j;
-                storage.getData().write(buf);
-                buf.writeBytes(storage.getBlockLight().getData());
-
-                if (hasSkylight) {
-                    buf.writeBytes(storage.getSkyLight().getData());
-                }
+                buf.writeBytes(sections[j]);
             }
         }
-
         return sentSections;
     }
 
@@ -559,26 +531,9 @@ public class VanillaNetworkHandler {
         buf.writeBytes(chunk.getBiomeArray());
     }
 
-    private static int writeData(Chunk chunk, PacketBuffer buf, ICube[] cubes, boolean hasSkylight, int mask) {
-        int sentSections = 0;
-
-        int cubeCount = cubes.length;
-        for (int j = 0; j < cubeCount; ++j) {
-            ExtendedBlockStorage storage = getStorage(cubes, j);
-
-            if (storage != Chunk.NULL_BLOCK_STORAGE && (!storage.isEmpty()) && (mask & 1 << j) != 0) {
-                sentSections |= 1 << j;
-                storage.getData().write(buf);
-                buf.writeBytes(storage.getBlockLight().getData());
-
-                if (hasSkylight) {
-                    buf.writeBytes(storage.getSkyLight().getData());
-                }
-            }
-        }
-
+    private static int writeData(Chunk chunk, PacketBuffer buf, byte[][] sections) {
+        int sentSections = writeData(buf, sections);
         buf.writeBytes(chunk.getBiomeArray());
-
         return sentSections;
     }
 
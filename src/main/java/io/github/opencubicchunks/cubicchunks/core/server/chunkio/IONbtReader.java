@@ -34,8 +34,9 @@ import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
 import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldInternal;
 import io.github.opencubicchunks.cubicchunks.core.lighting.LightingManager;
 import io.github.opencubicchunks.cubicchunks.core.world.ClientHeightMap;
-import io.github.opencubicchunks.cubicchunks.core.world.ServerHeightMap;
+import io.github.opencubicchunks.cubicchunks.core.world.IServerHeightMap;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.SharedCubeStorage;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.block.Block;
 import net.minecraft.nbt.NBTTagCompound;
@@ -105,8 +106,8 @@ public class IONbtReader {
 
     private static void readOpacityIndex(NBTTagCompound nbt, Chunk chunk) {// biomes
         IHeightMap hmap = ((IColumn) chunk).getOpacityIndex();
-        if (hmap instanceof ServerHeightMap) {
-            ((ServerHeightMap) hmap).readData(nbt.getByteArray("OpacityIndex"));
+        if (hmap instanceof IServerHeightMap) {
+            ((IServerHeightMap) hmap).readData(nbt.getByteArray("OpacityIndex"));
         } else {
             ((ClientHeightMap) hmap).setData(nbt.getByteArray("OpacityIndexClient"));
         }
@@ -215,7 +216,8 @@ public class IONbtReader {
             }
 
             ebs.recalculateRefCounts();
-            cube.setStorage(ebs);
+            ExtendedBlockStorage shared = SharedCubeStorage.findShared(ebs);
+            cube.setStorage(shared == null ? ebs : shared);
         }
     }
 
@@ -32,7 +32,7 @@ import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
 import io.github.opencubicchunks.cubicchunks.core.asm.mixin.ICubicWorldInternal;
 import io.github.opencubicchunks.cubicchunks.core.lighting.LightingManager;
 import io.github.opencubicchunks.cubicchunks.core.world.ClientHeightMap;
-import io.github.opencubicchunks.cubicchunks.core.world.ServerHeightMap;
+import io.github.opencubicchunks.cubicchunks.core.world.IServerHeightMap;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.block.Block;
@@ -123,8 +123,8 @@ class IONbtWriter {
 
     private static void writeOpacityIndex(Chunk column, NBTTagCompound nbt) {// light index
         IHeightMap hmap = ((IColumn) column).getOpacityIndex();
-        if (hmap instanceof ServerHeightMap) {
-            nbt.setByteArray("OpacityIndex", ((ServerHeightMap) hmap).getData());
+        if (hmap instanceof IServerHeightMap) {
+            nbt.setByteArray("OpacityIndex", ((IServerHeightMap) hmap).getData());
         } else {
             nbt.setByteArray("OpacityIndexClient", ((ClientHeightMap) hmap).getData());
         }
@@ -145,7 +145,8 @@ class IONbtWriter {
 
         // this will allow to detect worlds with older versions of light propagation in CC
         cubeNbt.setInteger("initLightVersion", 1);
-        cubeNbt.setBoolean("initLightDone", cube.isInitialLightingDone());
+        // deferred lighting is not saved, it will be computed or deferred again when the cube is loaded
+        cubeNbt.setBoolean("initLightDone", cube.isInitialLightingDone() && !cube.isLightingDeferred());
 
         if (cube.getCapabilities() != null) {
             try {
@@ -158,7 +159,7 @@ class IONbtWriter {
     }
 
     private static void writeBlocks(Cube cube, NBTTagCompound cubeNbt) {
-        ExtendedBlockStorage ebs = cube.getStorage();
+        ExtendedBlockStorage ebs = cube.getReadOnlyStorage();
         if (ebs == null) {
             return; // no data to save anyway
         }
@@ -65,6 +65,9 @@ public class AsyncWorldIOExecutor {
     private static final Map<QueuedCube, AsyncCubeIOProvider> cubeTasks = new ConcurrentHashMap<>(20000, 0.8f, 1);
     private static final Map<QueuedColumn, AsyncColumnIOProvider> columnTasks = Maps.newConcurrentMap();
 
+    private static int playerCount = 0;
+    private static int bulkLoadThreads = 0;
+
     private static final AtomicInteger threadCounter = new AtomicInteger();
     private static final ThreadPoolExecutor cubeThreadPool = new ThreadPoolExecutor(BASE_THREADS, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS,
             new LinkedBlockingQueue<>(),
@@ -338,7 +341,19 @@ public class AsyncWorldIOExecutor {
      * @param players New player count
      */
     private static void adjustPoolSize(int players) {
-        cubeThreadPool.setCorePoolSize(Math.max(BASE_THREADS, players / PLAYERS_PER_THREAD));
+        playerCount = players;
+        cubeThreadPool.setCorePoolSize(Math.max(Math.max(BASE_THREADS, players / PLAYERS_PER_THREAD), bulkLoadThreads));
+    }
+
+    /**
+     * Set minimum amount of cube loading threads, regardless of player count. Used to load large amount of cubes at once,
+     * for example when preparing spawn area. Setting it to 0 restores the default.
+     *
+     * @param threads Minimum thread count
+     */
+    public static void setBulkLoadThreads(int threads) {
+        bulkLoadThreads = threads;
+        adjustPoolSize(playerCount);
     }
 
     public static boolean canDropColumn(World world, int x, int z) {
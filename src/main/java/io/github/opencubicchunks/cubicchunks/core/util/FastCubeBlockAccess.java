@@ -43,6 +43,8 @@ import net.minecraft.world.World;
 import net.minecraft.world.chunk.Chunk;
 import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 
+import java.util.BitSet;
+
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
@@ -59,9 +61,12 @@ public class FastCubeBlockAccess implements ILightBlockAccess {
     @Nonnull private final ExtendedBlockStorage[][][] cache;
     @Nonnull private final Cube[][][] cubes;
     @Nonnull private final Chunk[][] columns;
+    // cubes already marked dirty, indexed the same way as cubes array flattened
+    @Nonnull private final BitSet modifiedCubes;
     private final int originX, originY, originZ;
     private final int dx, dy, dz;
     @Nonnull private final World world;
+    @Nonnull private final BlockPos.MutableBlockPos scratchPos = new BlockPos.MutableBlockPos();
 
     public FastCubeBlockAccess(ICubeProviderInternal cache, ICube cube, int radius) {
         this(cube.getWorld(), cache,
@@ -77,6 +82,7 @@ public class FastCubeBlockAccess implements ILightBlockAccess {
         this.cache = new ExtendedBlockStorage[dx][dy][dz];
         this.cubes = new Cube[dx][dy][dz];
         this.columns = new Chunk[dx][dz];
+        this.modifiedCubes = new BitSet(dx * dy * dz);
         this.originX = Math.min(start.getX(), end.getX());
         this.originY = Math.min(start.getY(), end.getY());
         this.originZ = Math.min(start.getZ(), end.getZ());
@@ -87,11 +93,10 @@ public class FastCubeBlockAccess implements ILightBlockAccess {
                 for (int relativeCubeY = 0; relativeCubeY < dy; relativeCubeY++) {
                     Cube cube = prov.getLoadedCube(originX + relativeCubeX, originY + relativeCubeY, originZ + relativeCubeZ);
                     if (cube != null) {
-                        ExtendedBlockStorage storage = cube.getStorage();
+                        // shared storage is copied in setLightFor only when light actually changes
+                        ExtendedBlockStorage storage = cube.getReadOnlyStorage();
                         this.cache[relativeCubeX][relativeCubeY][relativeCubeZ] = storage;
                         this.cubes[relativeCubeX][relativeCubeY][relativeCubeZ] = cube;
-                        // markDirty ahead of time to avoid doing it on every setLight
-                        cube.markDirty();
                     }
                 }
             }
@@ -153,13 +158,23 @@ public class FastCubeBlockAccess implements ILightBlockAccess {
         return this.getBlockState(pos.getX(), pos.getY(), pos.getZ()).getLightOpacity(world, pos);
     }
 
+    @Override
+    public int getBlockLightOpacity(int blockX, int blockY, int blockZ) {
+        return this.getBlockState(blockX, blockY, blockZ).getLightOpacity(world, scratchPos.setPos(blockX, blockY, blockZ));
+    }
+
     @Override 
     public int getLightFor(EnumSkyBlock lightType, BlockPos pos) {
-        ExtendedBlockStorage ebs = this.getStorage(pos.getX(), pos.getY(), pos.getZ());
+        return getLightFor(lightType, pos.getX(), pos.getY(), pos.getZ());
+    }
+
+    @Override
+    public int getLightFor(EnumSkyBlock lightType, int blockX, int blockY, int blockZ) {
+        ExtendedBlockStorage ebs = this.getStorage(blockX, blockY, blockZ);
         if (ebs != null) {
-            int localX = blockToLocal(pos.getX());
-            int localY = blockToLocal(pos.getY());
-            int localZ = blockToLocal(pos.getZ());
+            int localX = blockToLocal(blockX);
+            int localY = blockToLocal(blockY);
+            int localZ = blockToLocal(blockZ);
 
             if (lightType == EnumSkyBlock.SKY) {
                 return ebs.getSkyLight(localX, localY, localZ);
@@ -172,32 +187,64 @@ public class FastCubeBlockAccess implements ILightBlockAccess {
 
     @Override 
     public boolean setLightFor(EnumSkyBlock lightType, BlockPos pos, int val) {
-        ExtendedBlockStorage ebs = this.getStorage(pos.getX(), pos.getY(), pos.getZ());
+        return setLightFor(lightType, pos.getX(), pos.getY(), pos.getZ(), val);
+    }
+
+    @Override
+    public boolean setLightFor(EnumSkyBlock lightType, int blockX, int blockY, int blockZ, int val) {
+        ExtendedBlockStorage ebs = this.getStorage(blockX, blockY, blockZ);
         if (ebs != null) {
-            int localX = blockToLocal(pos.getX());
-            int localY = blockToLocal(pos.getY());
-            int localZ = blockToLocal(pos.getZ());
+            int localX = blockToLocal(blockX);
+            int localY = blockToLocal(blockY);
+            int localZ = blockToLocal(blockZ);
 
+            int current = lightType == EnumSkyBlock.SKY
+                    ? ebs.getSkyLight(localX, localY, localZ)
+                    : ebs.getBlockLight(localX, localY, localZ);
+            if (current == val) {
+                return true;
+            }
+            Cube cube = getCube(blockX, blockY, blockZ);
+            assert cube != null;
+            if (cube.isStorageShared()) {
+                ebs = cube.getStorage();
+                assert ebs != null;
+                setStorage(blockX, blockY, blockZ, ebs);
+            }
             if (lightType == EnumSkyBlock.SKY) {
                 ebs.setSkyLight(localX, localY, localZ, val);
             } else {
                 ebs.setBlockLight(localX, localY, localZ, val);
             }
+            markModified(cube, blockX, blockY, blockZ);
             return true;
         }
-        Cube cube = getCube(pos.getX(), pos.getY(), pos.getZ());
+        Cube cube = getCube(blockX, blockY, blockZ);
         if (cube != null) {
-            cube.setLightFor(lightType, pos, val);
-            setStorage(pos.getX(), pos.getY(), pos.getZ(), cube.getStorage());
+            cube.setLightFor(lightType, new BlockPos(blockX, blockY, blockZ), val);
+            setStorage(blockX, blockY, blockZ, cube.getStorage());
             return true;
         }
         return false;
     }
 
+    // only cubes where light actually changed are marked to be saved
+    private void markModified(Cube cube, int blockX, int blockY, int blockZ) {
+        int cubeX = Coords.blockToCube(blockX) - originX;
+        int cubeY = Coords.blockToCube(blockY) - originY;
+        int cubeZ = Coords.blockToCube(blockZ) - originZ;
+        int index = (cubeX * dy + cubeY) * dz + cubeZ;
+        if (!modifiedCubes.get(index)) {
+            modifiedCubes.set(index);
+            cube.markDirty();
+        }
+    }
+
     @Override public boolean canSeeSky(BlockPos pos) {
-        int blockX = pos.getX();
-        int blockY = pos.getY();
-        int blockZ = pos.getZ();
+        return canSeeSky(pos.getX(), pos.getY(), pos.getZ());
+    }
+
+    private boolean canSeeSky(int blockX, int blockY, int blockZ) {
         int cubeX = Coords.blockToCube(blockX);
         int cubeZ = Coords.blockToCube(blockZ);
         if (cubeX < originX || cubeZ < originZ)
@@ -224,6 +271,21 @@ public class FastCubeBlockAccess implements ILightBlockAccess {
         }
     }
 
+    @Override public int getEmittedLight(int blockX, int blockY, int blockZ, EnumSkyBlock type) {
+        switch (type) {
+            case BLOCK:
+                return getBlockState(blockX, blockY, blockZ).getLightValue(world, scratchPos.setPos(blockX, blockY, blockZ));
+            case SKY:
+                return canSeeSky(blockX, blockY, blockZ) ? 15 : 0;
+            default:
+                throw new AssertionError();
+        }
+    }
+
+    @Override public boolean hasNeighborsAccessible(int blockX, int blockY, int blockZ) {
+        return true;
+    }
+
     public static ILightBlockAccess forBlockRegion(ICubeProviderInternal prov, BlockPos startPos, BlockPos endPos) {
         //TODO: fix it
         BlockPos midPos = Coords.midPos(startPos, endPos);
@@ -234,18 +296,32 @@ public class FastCubeBlockAccess implements ILightBlockAccess {
 
     @Override
     public void markEdgeNeedLightUpdate(BlockPos pos, EnumSkyBlock type) {
+        markEdgeNeedLightUpdate(pos.getX(), pos.getY(), pos.getZ(), type);
+    }
+
+    @Override
+    public void markEdgeNeedLightUpdate(int blockX, int blockY, int blockZ, EnumSkyBlock type) {
         if (type == EnumSkyBlock.BLOCK)
             return;
-        int x = pos.getX();
-        int y = pos.getY();
-        int z = pos.getZ();
-        Cube cube = this.getCube(x, y, z);
+        Cube cube = this.getCube(blockX, blockY, blockZ);
         if (cube == null)
             return;
+        markEdgeNeedSkyLightUpdate(cube, blockX, blockY, blockZ);
+    }
+
+    /**
+     * Marks the edges of the cube touching the given position as needing sky light update.
+     *
+     * @param cube the cube containing the position
+     * @param blockX block x coordinate on the edge of the cube
+     * @param blockY block y coordinate on the edge of the cube
+     * @param blockZ block z coordinate on the edge of the cube
+     */
+    public static void markEdgeNeedSkyLightUpdate(Cube cube, int blockX, int blockY, int blockZ) {
         // What edge?
-        int localX = Coords.blockToLocal(x);
-        int localY = Coords.blockToLocal(y);
-        int localZ = Coords.blockToLocal(z);
+        int localX = Coords.blockToLocal(blockX);
+        int localY = Coords.blockToLocal(blockY);
+        int localZ = Coords.blockToLocal(blockZ);
         if (localX == 0) {
             cube.markEdgeNeedSkyLightUpdate(EnumFacing.WEST);
         } else if (localX == 15) {
@@ -0,0 +1,121 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.util;
+
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Creates shallow copies of objects by creating a new instance with the no-arg constructor and copying all non-static fields,
+ * including fields of superclasses.
+ * <p>
+ * The field accesses are combined into one method handle when the copier is created, so copying doesn't box primitive
+ * values or do access checks.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public final class FieldCopier<T> {
+
+    private static final ClassValue<FieldCopier<?>> COPIERS = new ClassValue<FieldCopier<?>>() {
+        @Override protected FieldCopier<?> computeValue(Class<?> type) {
+            return new FieldCopier<>(type);
+        }
+    };
+
+    // ()Object
+    private final MethodHandle constructor;
+    // (Object from, Object to)void
+    private final MethodHandle copyFields;
+
+    private FieldCopier(Class<T> type) {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            this.constructor = ReflectionUtil.constructHandle(type).asType(MethodType.methodType(Object.class));
+
+            // copies nothing, each field is prepended to it
+            MethodHandle copy = MethodHandles.dropArguments(
+                    MethodHandles.constant(Void.class, null).asType(MethodType.methodType(void.class)), 0, type, type);
+            Class<?> cl = type;
+            do {
+                for (Field field : cl.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers())) {
+                        continue;
+                    }
+                    field.setAccessible(true);
+                    // (T to, T from)void
+                    MethodHandle copyField = MethodHandles.filterArguments(
+                            lookup.unreflectSetter(field).asType(MethodType.methodType(void.class, type, field.getType())),
+                            1, lookup.unreflectGetter(field).asType(MethodType.methodType(field.getType(), type)));
+                    copy = MethodHandles.foldArguments(copy, copyField);
+                }
+                cl = cl.getSuperclass();
+            } while (cl != Object.class && cl != null);
+            // swap arguments to (from, to) and erase the types
+            this.copyFields = MethodHandles.permuteArguments(copy, MethodType.methodType(void.class, type, type), 1, 0)
+                    .asType(MethodType.methodType(void.class, Object.class, Object.class));
+        } catch (IllegalAccessException e) {
+            //if it happens - either something has gone horribly wrong or the JVM is blocking access
+            throw new Error(e);
+        }
+    }
+
+    /**
+     * @return the copier for objects of exactly the given class, created on first use
+     */
+    public static <T> FieldCopier<T> forClass(Class<T> type) {
+        return ReflectionUtil.cast(COPIERS.get(type));
+    }
+
+    /**
+     * @return a new object of the same class with all fields set to the values in the given object
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T copy(T obj) {
+        return forClass((Class<T>) obj.getClass()).copyOf(obj);
+    }
+
+    /**
+     * @param obj an object of the exact class of this copier
+     * @return a new object with all fields set to the values in the given object
+     */
+    public T copyOf(T obj) {
+        try {
+            Object newObj = (Object) constructor.invokeExact();
+            copyFields.invokeExact((Object) obj, newObj);
+            return ReflectionUtil.cast(newObj);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new RuntimeException(t);
+        }
+    }
+}
@@ -24,91 +24,104 @@
  */
 package io.github.opencubicchunks.cubicchunks.core.util;
 
-import it.unimi.dsi.fastutil.objects.Object2IntMap;
-import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2ObjectMap;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
 
 import java.util.Arrays;
-import java.util.Comparator;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
 
 import javax.annotation.Nonnull;
 
 /**
- * Helper class to delay removing of an elements. Created and used to reduce CPU
- * load during removing elements from this list on event of player movement as
- * replacement of {@code ArrayList}.
+ * Priority list of watchers, bucketed by an integer priority (usually squared distance to the closest player
+ * in cube units). Lower priorities are iterated first, elements within one bucket are iterated in insertion order.
+ * <p>
+ * Adding and removing elements is O(1). Instead of sorting the whole list when players move, only the elements
+ * whose priority may have changed need to be moved to a different bucket using {@link #update(Object)}.
  */
 @SuppressWarnings({"unchecked"})
 public class WatchersSortingList<T> implements Iterable<T> {
 
-    /** Order in which list should be sorted during tick event */
-    private final Comparator<T> order;
-
-    /** Contain all data in sorting order */
-    private Object[] data = new Object[32768];
-    /**
-     * First used element of a data array. Leave some unused space to append
-     * elements with high priority.
-     */
-    private int start = data.length / 4;
     /**
-     * Size of a list. Used to limit accessible members of data array during
-     * sorting and iteration.
+     * Highest bucket index. Elements with priority above it are all put into the last bucket, which keeps
+     * iteration over empty buckets cheap.
      */
-    private int size = 0, removed = 0;
-    /**
-     * Contain all data without certain order. Used to detect if element is
-     * already added
-     */
-    private final Object2IntMap<T> indexMap = new Object2IntOpenHashMap<>();
-
-    public WatchersSortingList(Comparator<T> orderIn) {
-        indexMap.defaultReturnValue(-1);
-        // With this trick we can drop removed elements to the end of a list.
-        order = (o1, o2) -> {
-            boolean o1Removed = o1 == null;
-            boolean o2Removed = o2 == null;
-            if(o1Removed && o2Removed)
-                return 0;
-            if(o1Removed)
-                return Integer.MAX_VALUE;
-            if(o2Removed)
-                return Integer.MIN_VALUE;
-            return orderIn.compare(o1, o2);
-        };
+    public static final int MAX_PRIORITY = 4095;
+
+    /** Provides bucket index of an element */
+    private final ToIntFunction<T> priority;
+
+    private Node<T>[] heads = new Node[64];
+    private Node<T>[] tails = new Node[64];
+    /** Highest bucket that may be non-empty. Used to limit iteration. */
+    private int maxBucket = -1;
+
+    /** Node of each element. Used to detect if element is already added and for O(1) removal */
+    private final Object2ObjectMap<T, Node<T>> nodes = new Object2ObjectOpenHashMap<>();
+
+    public WatchersSortingList(ToIntFunction<T> priority) {
+        this.priority = priority;
     }
 
-    /** Sort and remove dead elements */
+    /** Recompute priorities of all elements and move them to their buckets */
     public void sort() {
-        Arrays.sort((T[]) data, start, start + size, order);
-        int newSize = Integer.MIN_VALUE;
-        for (int i = start; i <= start + size; i++) {
-            if (data[i] == null) {
-                newSize = i - start;
-                break;
+        Node<T>[] oldHeads = heads;
+        int oldMaxBucket = maxBucket;
+        heads = new Node[heads.length];
+        tails = new Node[tails.length];
+        maxBucket = -1;
+        for (int i = 0; i <= oldMaxBucket; i++) {
+            for (Node<T> node = oldHeads[i]; node != null; node = node.next) {
+                if (!node.removed) {
+                    // old node is kept intact so that any iterator positioned on it can continue
+                    node.removed = true;
+                    linkLast(node.element, bucketOf(node.element));
+                }
             }
-            indexMap.put((T) data[i], i);
         }
-        assert newSize != Integer.MIN_VALUE;
-        size = newSize;
-        removed = 0;
     }
 
     /**
-     * Check if list is empty. Even when it return true list still could contain
-     * data, but it will be removed in attempt to access it via iterator.
+     * Recompute priority of a single element and move it to a different bucket if needed.
+     * Does nothing if the element is not in this list.
+     *
+     * @param element element to update
+     */
+    public void update(T element) {
+        Node<T> node = nodes.get(element);
+        if (node == null) {
+            return;
+        }
+        int bucket = bucketOf(element);
+        if (bucket == node.bucket) {
+            return;
+        }
+        unlink(node);
+        linkLast(element, bucket);
+    }
+
+    /**
+     * Check if list is empty.
      * 
      * @return if list contain any accessible data
      */
     public boolean isEmpty() {
-        return size - removed == 0;
+        return nodes.isEmpty();
+    }
+
+    /**
+     * @return amount of elements in this list
+     */
+    public int size() {
+        return nodes.size();
     }
 
     /**
-     * Return iterator over elements of list. If iterator meet any element which
-     * is scheduled to be removed by {@code remove(T element)} function, it will
-     * be removed from data.
+     * Return iterator over elements of list, in order of increasing priority. Elements removed from the list
+     * while iterating are skipped, elements added while iterating may or may not be returned.
      * 
      * @return iterator over elements
      */
@@ -116,16 +129,28 @@ public class WatchersSortingList<T> implements Iterable<T> {
     public Iterator<T> iterator() {
         return new Iterator<T>() {
 
-            int i = start;
-            T prev = null;
-            T next = null;
+            int bucket = -1;
+            Node<T> current = null;
+            Node<T> next = null;
 
             private void peekNext() {
-                while (next == null && i < start + size) {
-                    T e = (T) data[i++];
-                    if (e != null) {
-                        next = e;
+                if (next != null) {
+                    return;
+                }
+                Node<T> node = current == null ? null : current.next;
+                while (true) {
+                    while (node != null && node.removed) {
+                        node = node.next;
+                    }
+                    if (node != null) {
+                        next = node;
+                        return;
+                    }
+                    if (++bucket > maxBucket) {
+                        bucket = maxBucket;
+                        return;
                     }
+                    node = heads[bucket];
                 }
             }
 
@@ -139,29 +164,30 @@ public class WatchersSortingList<T> implements Iterable<T> {
             public T next() {
                 peekNext();
                 if (next == null)
-                    throw new ArrayIndexOutOfBoundsException();
-                prev = next;
+                    throw new NoSuchElementException();
+                current = next;
                 next = null;
-                return prev;
+                return current.element;
             }
 
             @Override
             public void remove() {
-                WatchersSortingList.this.remove(prev);
+                if (current == null)
+                    throw new IllegalStateException();
+                WatchersSortingList.this.remove(current.element);
             }
         };
     }
 
     /**
-     * Schedule element to be removed if it is contained in list.
+     * Remove element if it is contained in list.
      *
      * @param entry entry to remove
      */
     public void remove(T entry) {
-        int idx = indexMap.removeInt(entry);
-        if (idx >= 0) {
-            data[idx] = null;
-            removed++;
+        Node<T> node = nodes.get(entry);
+        if (node != null) {
+            unlink(node);
         }
     }
 
@@ -172,52 +198,47 @@ public class WatchersSortingList<T> implements Iterable<T> {
      * @param predicate a predicate matching entries to remove
      */
     public void removeIf(Predicate<T> predicate) {
-        for (int i = start; i < start + size; i++) {
-            T a = (T) data[i];
-            if (a == null) {
-                continue;
-            }
-            if (predicate.test(a)) {
-                indexMap.remove(a);
-                data[i] = null;
-                removed++;
+        for (int i = 0; i <= maxBucket; i++) {
+            for (Node<T> node = heads[i]; node != null; node = node.next) {
+                if (!node.removed && predicate.test(node.element)) {
+                    unlink(node);
+                }
             }
         }
     }
 
     /**
-     * Append element to start of a list.
+     * Append element to start of a list, ahead of all other elements. It keeps that position until
+     * it's priority is updated.
      *
      * @param element element to add
      * @throws NullPointerException in attempt to add {@code null}.
      * @throws IllegalArgumentException if list already contain such element.
      */
     public void appendToStart(T element) {
-        if (element == null)
-            throw new NullPointerException("This list does not allow null elements.");
-        if (start <= 0)
-            grow();
-        --start;
-        data[start] = element;
-        indexMap.put(element, start);
-        size++;
+        checkNotContained(element);
+        ensureBucket(0);
+        Node<T> node = new Node<>(element, 0);
+        node.next = heads[0];
+        if (heads[0] != null) {
+            heads[0].prev = node;
+        } else {
+            tails[0] = node;
+        }
+        heads[0] = node;
+        nodes.put(element, node);
     }
 
     /**
-     * Add element to an end of list.
+     * Add element to an end of it's priority bucket.
      *
      * @param element element to add
      * @throws NullPointerException in attempt to add {@code null}.
      * @throws IllegalArgumentException if list already contain such element.
      */
     public void appendToEnd(T element) {
-        if (element == null)
-            throw new NullPointerException("This list does not allow null elements.");
-        if (start + size >= this.data.length)
-            grow();
-        data[start + size] = element;
-        indexMap.put(element, start + size);
-        size++;
+        checkNotContained(element);
+        linkLast(element, bucketOf(element));
     }
     
     /**
@@ -225,19 +246,62 @@ public class WatchersSortingList<T> implements Iterable<T> {
      * @return {@code true} if list contains element.
      */
     public boolean contains(T element) {
-        return indexMap.containsKey(element);
-    }
-
-    private void grow() {
-        Object[] newData = new Object[data.length * 2];
-        int newStart = newData.length / 4;
-        System.arraycopy(data, start, newData, newStart, size);
-        data = newData;
-        start = newStart;
-        for (int i = start; i < start + size; i++) {
-            if (data[i] != null) {
-                indexMap.put((T) data[i], i);
-            }
+        return nodes.containsKey(element);
+    }
+
+    private void checkNotContained(T element) {
+        if (element == null)
+            throw new NullPointerException("This list does not allow null elements.");
+        if (nodes.containsKey(element))
+            throw new IllegalArgumentException("Element " + element + " is already in this list");
+    }
+
+    private int bucketOf(T element) {
+        int p = priority.applyAsInt(element);
+        return p < 0 ? 0 : Math.min(p, MAX_PRIORITY);
+    }
+
+    private void ensureBucket(int bucket) {
+        if (bucket >= heads.length) {
+            int newLength = Math.min(Math.max(heads.length * 2, bucket + 1), MAX_PRIORITY + 1);
+            heads = Arrays.copyOf(heads, newLength);
+            tails = Arrays.copyOf(tails, newLength);
+        }
+        if (bucket > maxBucket) {
+            maxBucket = bucket;
+        }
+    }
+
+    private void linkLast(T element, int bucket) {
+        ensureBucket(bucket);
+        Node<T> node = new Node<>(element, bucket);
+        node.prev = tails[bucket];
+        if (tails[bucket] != null) {
+            tails[bucket].next = node;
+        } else {
+            heads[bucket] = node;
+        }
+        tails[bucket] = node;
+        nodes.put(element, node);
+    }
+
+    /**
+     * Unlinks the node from it's bucket. The {@code next} reference of the removed node is kept so that iterators
+     * positioned on it can still continue.
+     */
+    private void unlink(Node<T> node) {
+        nodes.remove(node.element);
+        node.removed = true;
+        int bucket = node.bucket;
+        if (node.prev != null) {
+            node.prev.next = node.next;
+        } else {
+            heads[bucket] = node.next;
+        }
+        if (node.next != null) {
+            node.next.prev = node.prev;
+        } else {
+            tails[bucket] = node.prev;
         }
     }
     
@@ -245,10 +309,22 @@ public class WatchersSortingList<T> implements Iterable<T> {
     public String toString(){
         StringBuilder sb = new StringBuilder();
         sb.append("[");
-        for (Object datum : data) {
-            sb.append(datum).append(",");
+        for (T element : this) {
+            sb.append(element).append(",");
         }
         sb.append("]");
         return sb.toString();
     }
+
+    private static final class Node<T> {
+        final T element;
+        final int bucket;
+        Node<T> prev, next;
+        boolean removed;
+
+        Node(T element, int bucket) {
+            this.element = element;
+            this.bucket = bucket;
+        }
+    }
 }
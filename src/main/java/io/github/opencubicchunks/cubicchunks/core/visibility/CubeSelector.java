@@ -25,6 +25,7 @@
 package io.github.opencubicchunks.cubicchunks.core.visibility;
 
 import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.util.math.ChunkPos;
 
@@ -33,15 +34,68 @@ import java.util.function.Consumer;
 
 import javax.annotation.ParametersAreNonnullByDefault;
 
+/**
+ * Determines which cubes and columns are visible from a given position.
+ * <p>
+ * The primitive methods accepting {@link CubeConsumer} and {@link ColumnConsumer} are what implementations provide,
+ * they don't allocate any position objects. The {@link CubePos}/{@link ChunkPos} based methods are convenience
+ * wrappers on top of them.
+ */
 @ParametersAreNonnullByDefault
 @MethodsReturnNonnullByDefault
 public abstract class CubeSelector {
 
-    public abstract void forAllVisibleFrom(CubePos cubePos, int horizontalViewDistance, int verticalViewDistance, Consumer<CubePos> consumer);
+    public static CubeSelector create(CubicChunksConfig.CubeSelectorShape shape) {
+        switch (shape) {
+            case SPHERE:
+                return new SphericalCubeSelector();
+            case ELLIPSOID:
+                return new EllipsoidalCubeSelector();
+            case CUBOID:
+            default:
+                return new CuboidalCubeSelector();
+        }
+    }
+
+    public abstract void forAllVisibleFrom(int cubeX, int cubeY, int cubeZ, int horizontalViewDistance, int verticalViewDistance,
+            CubeConsumer consumer);
 
     public abstract void findChanged(CubePos oldAddress, CubePos newAddress, int horizontalViewDistance, int verticalViewDistance,
-            Set<CubePos> cubesToRemove, Set<CubePos> cubesToLoad, Set<ChunkPos> columnsToRemove, Set<ChunkPos> columnsToLoad);
+            CubeConsumer cubesToRemove, CubeConsumer cubesToLoad, ColumnConsumer columnsToRemove, ColumnConsumer columnsToLoad);
+
+    public abstract void findAllUnloadedOnViewDistanceDecrease(CubePos playerAddress, int oldHorizontalViewDistance,
+            int newHorizontalViewDistance, int oldVerticalViewDistance, int newVerticalViewDistance,
+            CubeConsumer cubesToUnload, ColumnConsumer columnsToUnload);
+
+    public void forAllVisibleFrom(CubePos cubePos, int horizontalViewDistance, int verticalViewDistance, Consumer<CubePos> consumer) {
+        forAllVisibleFrom(cubePos.getX(), cubePos.getY(), cubePos.getZ(), horizontalViewDistance, verticalViewDistance,
+                (x, y, z) -> consumer.accept(new CubePos(x, y, z)));
+    }
+
+    public void findChanged(CubePos oldAddress, CubePos newAddress, int horizontalViewDistance, int verticalViewDistance,
+            Set<CubePos> cubesToRemove, Set<CubePos> cubesToLoad, Set<ChunkPos> columnsToRemove, Set<ChunkPos> columnsToLoad) {
+        findChanged(oldAddress, newAddress, horizontalViewDistance, verticalViewDistance,
+                (x, y, z) -> cubesToRemove.add(new CubePos(x, y, z)),
+                (x, y, z) -> cubesToLoad.add(new CubePos(x, y, z)),
+                (x, z) -> columnsToRemove.add(new ChunkPos(x, z)),
+                (x, z) -> columnsToLoad.add(new ChunkPos(x, z)));
+    }
+
+    public void findAllUnloadedOnViewDistanceDecrease(CubePos playerAddress, int oldHorizontalViewDistance, int newHorizontalViewDistance,
+            int oldVerticalViewDistance, int newVerticalViewDistance, Set<CubePos> cubesToUnload, Set<ChunkPos> columnsToUnload) {
+        findAllUnloadedOnViewDistanceDecrease(playerAddress, oldHorizontalViewDistance, newHorizontalViewDistance,
+                oldVerticalViewDistance, newVerticalViewDistance,
+                (x, y, z) -> cubesToUnload.add(new CubePos(x, y, z)),
+                (x, z) -> columnsToUnload.add(new ChunkPos(x, z)));
+    }
+
+    @FunctionalInterface
+    public interface CubeConsumer {
+        void accept(int cubeX, int cubeY, int cubeZ);
+    }
 
-    public abstract void findAllUnloadedOnViewDistanceDecrease(CubePos playerAddress, int oldHorizontalViewDistance, int newHorizontalViewDistance,
-            int oldVerticalViewDistance, int newVerticalViewDistance, Set<CubePos> cubesToUnload, Set<ChunkPos> columnsToUnload);
+    @FunctionalInterface
+    public interface ColumnConsumer {
+        void accept(int cubeX, int cubeZ);
+    }
 }
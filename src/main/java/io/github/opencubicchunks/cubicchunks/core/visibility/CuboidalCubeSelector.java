@@ -26,10 +26,6 @@ package io.github.opencubicchunks.cubicchunks.core.visibility;
 
 import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
 import mcp.MethodsReturnNonnullByDefault;
-import net.minecraft.util.math.ChunkPos;
-
-import java.util.Set;
-import java.util.function.Consumer;
 
 import javax.annotation.ParametersAreNonnullByDefault;
 
@@ -38,14 +34,12 @@ import javax.annotation.ParametersAreNonnullByDefault;
 public class CuboidalCubeSelector extends CubeSelector {
 
     @Override
-    public void forAllVisibleFrom(CubePos cubePos, int horizontalViewDistance, int verticalViewDistance, Consumer<CubePos> consumer) {
-        int cubeX = cubePos.getX();
-        int cubeY = cubePos.getY();
-        int cubeZ = cubePos.getZ();
+    public void forAllVisibleFrom(int cubeX, int cubeY, int cubeZ, int horizontalViewDistance, int verticalViewDistance,
+            CubeConsumer consumer) {
         for (int x = cubeX - horizontalViewDistance; x <= cubeX + horizontalViewDistance; x++) {
             for (int y = cubeY - verticalViewDistance; y <= cubeY + verticalViewDistance; y++) {
                 for (int z = cubeZ - horizontalViewDistance; z <= cubeZ + horizontalViewDistance; z++) {
-                    consumer.accept(new CubePos(x, y, z));
+                    consumer.accept(x, y, z);
                 }
             }
         }
@@ -54,79 +48,91 @@ public class CuboidalCubeSelector extends CubeSelector {
     @Override
     public void findChanged(CubePos oldPos, CubePos newPos,
             int horizontalViewDistance, int verticalViewDistance,
-            Set<CubePos> cubesToRemove, Set<CubePos> cubesToLoad,
-            Set<ChunkPos> columnsToRemove, Set<ChunkPos> columnsToLoad) {
+            CubeConsumer cubesToRemove, CubeConsumer cubesToLoad,
+            ColumnConsumer columnsToRemove, ColumnConsumer columnsToLoad) {
         int oldX = oldPos.getX();
         int oldY = oldPos.getY();
         int oldZ = oldPos.getZ();
         int newX = newPos.getX();
         int newY = newPos.getY();
         int newZ = newPos.getZ();
-        int dx = newX - oldX;
-        int dy = newY - oldY;
-        int dz = newZ - oldZ;
-
-        for (int currentX = newX - horizontalViewDistance; currentX <= newX + horizontalViewDistance; ++currentX) {
-            for (int currentZ = newZ - horizontalViewDistance; currentZ <= newZ + horizontalViewDistance; ++currentZ) {
-                //first handle columns
-                //is current position outside of the old render distance square?
-                if (!this.isPointWithinCubeVolume(oldX, 0, oldZ, currentX, 0, currentZ, horizontalViewDistance, verticalViewDistance)) {
-                    columnsToLoad.add(new ChunkPos(currentX, currentZ));
-                }
+        int h = horizontalViewDistance;
+        int v = verticalViewDistance;
 
-                //if we moved the current point to where it would be previously,
-                //would it be outside of current render distance square?
-                if (!this.isPointWithinCubeVolume(newX, 0, newZ, currentX - dx, 0, currentZ - dz, horizontalViewDistance, verticalViewDistance)) {
-                    columnsToRemove.add(new ChunkPos(currentX - dx, currentZ - dz));
-                }
-                for (int currentY = newY - verticalViewDistance; currentY <= newY + verticalViewDistance; ++currentY) {
-                    //now handle cubes, the same way
-                    if (!this.isPointWithinCubeVolume(oldX, oldY, oldZ, currentX, currentY, currentZ,
-                            horizontalViewDistance, verticalViewDistance)) {
-                        cubesToLoad.add(new CubePos(currentX, currentY, currentZ));
-                    }
-                    if (!this.isPointWithinCubeVolume(newX, newY, newZ, currentX - dx, currentY - dy, currentZ - dz,
-                            horizontalViewDistance, verticalViewDistance)) {
-                        cubesToRemove.add(new CubePos(currentX - dx, currentY - dy, currentZ - dz));
-                    }
-                }
-            }
-        }
+        // columns in the new square but not in the old one need to be loaded, and the other way around
+        forAllInDifference(newX - h, newX + h, newZ - h, newZ + h, oldX - h, oldX + h, oldZ - h, oldZ + h, columnsToLoad);
+        forAllInDifference(oldX - h, oldX + h, oldZ - h, oldZ + h, newX - h, newX + h, newZ - h, newZ + h, columnsToRemove);
 
-        assert cubesToLoad.stream().allMatch(pos -> !cubesToRemove.contains(pos)) : "cubesToRemove contains element from cubesToLoad!";
-        assert columnsToLoad.stream().allMatch(pos -> !columnsToRemove.contains(pos)) : "columnsToRemove contains element from columnsToLoad!";
+        forAllInDifference(
+                newX - h, newX + h, newY - v, newY + v, newZ - h, newZ + h,
+                oldX - h, oldX + h, oldY - v, oldY + v, oldZ - h, oldZ + h, cubesToLoad);
+        forAllInDifference(
+                oldX - h, oldX + h, oldY - v, oldY + v, oldZ - h, oldZ + h,
+                newX - h, newX + h, newY - v, newY + v, newZ - h, newZ + h, cubesToRemove);
     }
 
     @Override
     public void findAllUnloadedOnViewDistanceDecrease(CubePos playerPos,
             int oldHorizontalViewDistance, int newHorizontalViewDistance,
             int oldVerticalViewDistance, int newVerticalViewDistance,
-            Set<CubePos> cubesToUnload, Set<ChunkPos> columnsToUnload) {
-        int playerCubeX = playerPos.getX();
-        int playerCubeY = playerPos.getY();
-        int playerCubeZ = playerPos.getZ();
+            CubeConsumer cubesToUnload, ColumnConsumer columnsToUnload) {
+        int x = playerPos.getX();
+        int y = playerPos.getY();
+        int z = playerPos.getZ();
+        int oldH = oldHorizontalViewDistance;
+        int newH = newHorizontalViewDistance;
+        int oldV = oldVerticalViewDistance;
+        int newV = newVerticalViewDistance;
 
-        for (int cubeX = playerCubeX - oldHorizontalViewDistance; cubeX <= playerCubeX + oldHorizontalViewDistance; cubeX++) {
-            for (int cubeZ = playerCubeZ - oldHorizontalViewDistance; cubeZ <= playerCubeZ + oldHorizontalViewDistance; cubeZ++) {
-                if (!isPointWithinCubeVolume(playerCubeX, 0, playerCubeZ, cubeX, 0, cubeZ, newHorizontalViewDistance, newVerticalViewDistance)) {
-                    columnsToUnload.add(new ChunkPos(cubeX, cubeZ));
-                }
-                for (int cubeY = playerCubeY - oldVerticalViewDistance; cubeY <= playerCubeY + oldVerticalViewDistance; cubeY++) {
-                    if (!isPointWithinCubeVolume(playerCubeX, playerCubeY, playerCubeZ, cubeX, cubeY, cubeZ, newHorizontalViewDistance,
-                            newVerticalViewDistance)) {
-                        cubesToUnload.add(new CubePos(cubeX, cubeY, cubeZ));
+        forAllInDifference(x - oldH, x + oldH, z - oldH, z + oldH, x - newH, x + newH, z - newH, z + newH, columnsToUnload);
+        forAllInDifference(
+                x - oldH, x + oldH, y - oldV, y + oldV, z - oldH, z + oldH,
+                x - newH, x + newH, y - newV, y + newV, z - newH, z + newH, cubesToUnload);
+    }
+
+    /**
+     * Calls the consumer for all points in the box {@code [minX, maxX]x[minY, maxY]x[minZ, maxZ]} that are not in the excluded box.
+     * Instead of testing each point, Z coordinates are iterated only over the slabs on both sides of the excluded box.
+     */
+    private static void forAllInDifference(int minX, int maxX, int minY, int maxY, int minZ, int maxZ,
+            int exMinX, int exMaxX, int exMinY, int exMaxY, int exMinZ, int exMaxZ, CubeConsumer consumer) {
+        for (int x = minX; x <= maxX; x++) {
+            boolean xExcluded = x >= exMinX && x <= exMaxX;
+            for (int y = minY; y <= maxY; y++) {
+                if (xExcluded && y >= exMinY && y <= exMaxY) {
+                    for (int z = minZ, end = Math.min(maxZ, exMinZ - 1); z <= end; z++) {
+                        consumer.accept(x, y, z);
+                    }
+                    for (int z = Math.max(minZ, exMaxZ + 1); z <= maxZ; z++) {
+                        consumer.accept(x, y, z);
+                    }
+                } else {
+                    for (int z = minZ; z <= maxZ; z++) {
+                        consumer.accept(x, y, z);
                     }
                 }
             }
         }
     }
 
-    private boolean isPointWithinCubeVolume(int cubeX, int cubeY, int cubeZ, int pointX, int pointY, int pointZ, int horizontal, int vertical) {
-        int dx = cubeX - pointX;
-        int dy = cubeY - pointY;
-        int dz = cubeZ - pointZ;
-        return dx >= -horizontal && dx <= horizontal
-                && dy >= -vertical && dy <= vertical
-                && dz >= -horizontal && dz <= horizontal;
+    /**
+     * Two dimensional version of {@link #forAllInDifference(int, int, int, int, int, int, int, int, int, int, int, int, CubeConsumer)}
+     */
+    private static void forAllInDifference(int minX, int maxX, int minZ, int maxZ,
+            int exMinX, int exMaxX, int exMinZ, int exMaxZ, ColumnConsumer consumer) {
+        for (int x = minX; x <= maxX; x++) {
+            if (x >= exMinX && x <= exMaxX) {
+                for (int z = minZ, end = Math.min(maxZ, exMinZ - 1); z <= end; z++) {
+                    consumer.accept(x, z);
+                }
+                for (int z = Math.max(minZ, exMaxZ + 1); z <= maxZ; z++) {
+                    consumer.accept(x, z);
+                }
+            } else {
+                for (int z = minZ; z <= maxZ; z++) {
+                    consumer.accept(x, z);
+                }
+            }
+        }
     }
 }
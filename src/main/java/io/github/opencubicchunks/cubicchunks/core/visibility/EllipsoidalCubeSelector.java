@@ -0,0 +1,61 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.visibility;
+
+import mcp.MethodsReturnNonnullByDefault;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Selects cubes within an ellipsoid with horizontal view distance as horizontal radius and vertical view distance
+ * as vertical radius.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class EllipsoidalCubeSelector extends RoundCubeSelector {
+
+    @Override
+    protected int verticalExtent(int dx, int dz, int horizontalViewDistance, int verticalViewDistance) {
+        long h2 = (long) horizontalViewDistance * horizontalViewDistance;
+        long v2 = (long) verticalViewDistance * verticalViewDistance;
+        long r2 = (long) dx * dx + (long) dz * dz;
+        if (r2 > h2) {
+            return -1;
+        }
+        if (h2 == 0) {
+            return verticalViewDistance;
+        }
+        // (dx^2 + dz^2)/h^2 + dy^2/v^2 <= 1  <=>  dy^2 * h^2 <= (h^2 - dx^2 - dz^2) * v^2
+        long max = (h2 - r2) * v2;
+        int dy = (int) Math.sqrt((double) max / h2);
+        while (dy > 0 && (long) dy * dy * h2 > max) {
+            dy--;
+        }
+        while ((long) (dy + 1) * (dy + 1) * h2 <= max) {
+            dy++;
+        }
+        return Math.min(dy, verticalViewDistance);
+    }
+}
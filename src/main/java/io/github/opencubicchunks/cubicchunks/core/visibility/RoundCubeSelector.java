@@ -0,0 +1,156 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.visibility;
+
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import mcp.MethodsReturnNonnullByDefault;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Base class for selectors with a shape symmetric around the center cube, where the visible cubes of each column form
+ * a single vertical range centered on the center cube. The shape is described by the height of that range for each column,
+ * which allows computing changes column by column instead of testing every cube.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public abstract class RoundCubeSelector extends CubeSelector {
+
+    /**
+     * Returns the vertical extent of the visible area in a column.
+     *
+     * @param dx x offset of the column from the center, at most {@code horizontalViewDistance} in absolute value
+     * @param dz z offset of the column from the center, at most {@code horizontalViewDistance} in absolute value
+     * @param horizontalViewDistance horizontal view distance
+     * @param verticalViewDistance vertical view distance
+     * @return highest visible absolute y offset in that column, not higher than {@code verticalViewDistance},
+     *         or -1 if no cube in that column is visible
+     */
+    protected abstract int verticalExtent(int dx, int dz, int horizontalViewDistance, int verticalViewDistance);
+
+    @Override
+    public void forAllVisibleFrom(int cubeX, int cubeY, int cubeZ, int horizontalViewDistance, int verticalViewDistance,
+            CubeConsumer consumer) {
+        for (int dx = -horizontalViewDistance; dx <= horizontalViewDistance; dx++) {
+            for (int dz = -horizontalViewDistance; dz <= horizontalViewDistance; dz++) {
+                int extent = verticalExtent(dx, dz, horizontalViewDistance, verticalViewDistance);
+                for (int y = cubeY - extent; y <= cubeY + extent; y++) {
+                    consumer.accept(cubeX + dx, y, cubeZ + dz);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void findChanged(CubePos oldPos, CubePos newPos,
+            int horizontalViewDistance, int verticalViewDistance,
+            CubeConsumer cubesToRemove, CubeConsumer cubesToLoad,
+            ColumnConsumer columnsToRemove, ColumnConsumer columnsToLoad) {
+        int oldX = oldPos.getX();
+        int oldY = oldPos.getY();
+        int oldZ = oldPos.getZ();
+        int newX = newPos.getX();
+        int newY = newPos.getY();
+        int newZ = newPos.getZ();
+        int h = horizontalViewDistance;
+        int v = verticalViewDistance;
+
+        // all columns of the old area, some of them may also be in the new area
+        for (int x = oldX - h; x <= oldX + h; x++) {
+            for (int z = oldZ - h; z <= oldZ + h; z++) {
+                int oldExtent = verticalExtent(x - oldX, z - oldZ, h, v);
+                if (oldExtent < 0) {
+                    continue;
+                }
+                int newExtent = Math.abs(x - newX) <= h && Math.abs(z - newZ) <= h ? verticalExtent(x - newX, z - newZ, h, v) : -1;
+                if (newExtent < 0) {
+                    columnsToRemove.accept(x, z);
+                    forAllInRange(x, z, oldY - oldExtent, oldY + oldExtent, cubesToRemove);
+                } else {
+                    forAllInDifference(x, z, oldY - oldExtent, oldY + oldExtent, newY - newExtent, newY + newExtent, cubesToRemove);
+                    forAllInDifference(x, z, newY - newExtent, newY + newExtent, oldY - oldExtent, oldY + oldExtent, cubesToLoad);
+                }
+            }
+        }
+        // columns of the new area that are not in the old one
+        for (int x = newX - h; x <= newX + h; x++) {
+            for (int z = newZ - h; z <= newZ + h; z++) {
+                int newExtent = verticalExtent(x - newX, z - newZ, h, v);
+                if (newExtent < 0) {
+                    continue;
+                }
+                if (Math.abs(x - oldX) <= h && Math.abs(z - oldZ) <= h && verticalExtent(x - oldX, z - oldZ, h, v) >= 0) {
+                    continue;
+                }
+                columnsToLoad.accept(x, z);
+                forAllInRange(x, z, newY - newExtent, newY + newExtent, cubesToLoad);
+            }
+        }
+    }
+
+    @Override
+    public void findAllUnloadedOnViewDistanceDecrease(CubePos playerPos,
+            int oldHorizontalViewDistance, int newHorizontalViewDistance,
+            int oldVerticalViewDistance, int newVerticalViewDistance,
+            CubeConsumer cubesToUnload, ColumnConsumer columnsToUnload) {
+        int playerX = playerPos.getX();
+        int playerY = playerPos.getY();
+        int playerZ = playerPos.getZ();
+
+        for (int dx = -oldHorizontalViewDistance; dx <= oldHorizontalViewDistance; dx++) {
+            for (int dz = -oldHorizontalViewDistance; dz <= oldHorizontalViewDistance; dz++) {
+                int oldExtent = verticalExtent(dx, dz, oldHorizontalViewDistance, oldVerticalViewDistance);
+                if (oldExtent < 0) {
+                    continue;
+                }
+                int newExtent = Math.abs(dx) <= newHorizontalViewDistance && Math.abs(dz) <= newHorizontalViewDistance
+                        ? verticalExtent(dx, dz, newHorizontalViewDistance, newVerticalViewDistance) : -1;
+                int x = playerX + dx;
+                int z = playerZ + dz;
+                if (newExtent < 0) {
+                    columnsToUnload.accept(x, z);
+                    forAllInRange(x, z, playerY - oldExtent, playerY + oldExtent, cubesToUnload);
+                } else {
+                    forAllInDifference(x, z, playerY - oldExtent, playerY + oldExtent, playerY - newExtent, playerY + newExtent, cubesToUnload);
+                }
+            }
+        }
+    }
+
+    private static void forAllInRange(int x, int z, int minY, int maxY, CubeConsumer consumer) {
+        for (int y = minY; y <= maxY; y++) {
+            consumer.accept(x, y, z);
+        }
+    }
+
+    /**
+     * Calls the consumer for all cubes of a column in range {@code [minY, maxY]} but not in {@code [exMinY, exMaxY]},
+     * the excluded range must not be empty.
+     */
+    private static void forAllInDifference(int x, int z, int minY, int maxY, int exMinY, int exMaxY, CubeConsumer consumer) {
+        forAllInRange(x, z, minY, Math.min(maxY, exMinY - 1), consumer);
+        forAllInRange(x, z, Math.max(minY, exMaxY + 1), maxY, consumer);
+    }
+}
@@ -56,5 +56,12 @@ public interface ICubeProviderInternal extends ICubeProvider {
 
     interface Server extends ICubeProviderInternal {
         ICubeIO getCubeIO();
+
+        /**
+         * Computes the real initial lighting of the given cube if it has been deferred.
+         *
+         * @param cube the cube to light
+         */
+        void computeDeferredLighting(Cube cube);
     }
 }
@@ -26,74 +26,488 @@ package io.github.opencubicchunks.cubicchunks.core.world;
 
 import static io.github.opencubicchunks.cubicchunks.api.util.Coords.blockToCube;
 import static io.github.opencubicchunks.cubicchunks.api.util.Coords.blockToLocal;
+import static io.github.opencubicchunks.cubicchunks.api.util.Coords.cubeToMinBlock;
 
-import io.github.opencubicchunks.cubicchunks.api.world.ICube;
-import io.github.opencubicchunks.cubicchunks.api.world.IHeightMap;
+import io.github.opencubicchunks.cubicchunks.api.util.Coords;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.util.BitArray;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.BitSet;
 
-public class NewServerHeightMap implements IHeightMap {
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
 
-    // 16 entries per level -> 4 bits per level -> 8 levels = 4 bytes
+/**
+ * Hierarchical implementation of the server heightmap. Opacity is stored as a 16-bit mask for each block column of each
+ * cube, with bit localY set for opaque blocks. Cubes where all blocks are opaque share a single instance, and cubes
+ * without opaque blocks aren't stored at all.
+ * <p>
+ * On top of that, there are 6 scale levels of heightmaps, each one caching the top opaque block of each block column in
+ * 16 entries of the scale below, lazily recomputed when invalidated by opacity changes:
+ * <pre>
+ * scale 0 -> 16 blocks (cube opacity masks)
+ * scale 1 -> 256 blocks (9 bits per entry)
+ * scale 2 -> 4096 blocks (13 bits)
+ * scale 3 -> 65536 blocks (17 bits)
+ * scale 4 -> 2^20 blocks (21 bits)
+ * scale 5 -> 2^24 blocks (25 bits)
+ * scale 6 -> 2^28 blocks (29 bits)
+ * </pre>
+ * The highest block of each block column is also kept in the vanilla heightmap array, so {@link #getTopBlockY(int, int)}
+ * doesn't need to go through the hierarchy.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class NewServerHeightMap implements IServerHeightMap {
+
+    private static final int MAX_SCALE = 6;
+    private static final int COLUMN_COUNT = Cube.SIZE * Cube.SIZE;
+    private static final int CUBE_VOLUME = Cube.SIZE * Cube.SIZE * Cube.SIZE;
 
-    // scale 0 -> 16 blocks (4 bits)
-    // scale 1 -> 256 blocks (8 bits)
-    // scale 2 -> 4096 blocks (12 bits)
-    // scale 3 -> 65536 blocks (16 bits)
-    // scale 4 -> ... (20 bits)
-    // scale 5 -> ... (24 bits)
-    // scale 6 -> ... (28 bits)
-    // scale 7 -> ... (32 bits)
+    @Nonnull private final Int2ObjectMap<CubeOpacity> cubes = new Int2ObjectOpenHashMap<>();
 
+    // heightmaps by scale, index 0 is unused, the cube opacity masks are scale 0
     @SuppressWarnings("unchecked")
-    private Int2ObjectMap<HeightMap>[] heightmapsByScale = new Int2ObjectOpenHashMap[8];
+    @Nonnull private final Int2ObjectMap<ScaledHeightMap>[] heightmapsByScale = new Int2ObjectOpenHashMap[MAX_SCALE + 1];
+
+    /**
+     * The y-coordinate of the highest opaque block in each block column, shared with vanilla
+     */
+    @Nonnull private final HeightMap ymax;
 
-    public NewServerHeightMap() {
-        for (int i = 0; i < heightmapsByScale.length; i++) {
+    private int heightMapLowest;
+
+    public NewServerHeightMap(int[] heightmap) {
+        for (int i = 1; i < heightmapsByScale.length; i++) {
             heightmapsByScale[i] = new Int2ObjectOpenHashMap<>();
         }
+        this.ymax = new HeightMap(heightmap);
+        for (int i = 0; i < COLUMN_COUNT; i++) {
+            this.ymax.set(i, Coords.NO_HEIGHT);
+        }
+        this.heightMapLowest = Coords.NO_HEIGHT;
+    }
+
+    // Interface: IHeightMap ----------------------------------------------------------------------------------------
+
+    @Override
+    public void onOpacityChange(int localX, int blockY, int localZ, int opacity) {
+        if (blockY > CubicChunks.MAX_SUPPORTED_BLOCK_Y || blockY < CubicChunks.MIN_SUPPORTED_BLOCK_Y) {
+            return;
+        }
+        int xzIndex = getIndex(localX, localZ);
+        boolean isOpaque = opacity != 0;
+        if (!setOpaque(blockToCube(blockY), xzIndex, blockToLocal(blockY), isOpaque)) {
+            return;
+        }
+        updateScaledHeightMaps(xzIndex, blockY, isOpaque);
+
+        int top = this.ymax.get(xzIndex);
+        if (isOpaque && blockY > top) {
+            this.ymax.set(xzIndex, blockY);
+        } else if (!isOpaque && blockY == top) {
+            this.ymax.set(xzIndex, findTopBlockBelow(xzIndex, blockY));
+        }
+        this.heightMapLowest = Coords.NO_HEIGHT;
+    }
+
+    @Override
+    public int getTopBlockY(int localX, int localZ) {
+        return this.ymax.get(getIndex(localX, localZ));
+    }
+
+    @Override
+    public int getTopBlockYBelow(int localX, int localZ, int blockY) {
+        int xzIndex = getIndex(localX, localZ);
+        int top = this.ymax.get(xzIndex);
+        if (blockY > top) {
+            return top;
+        }
+        return findTopBlockBelow(xzIndex, blockY);
+    }
+
+    @Override
+    public int getLowestTopBlockY() {
+        if (this.heightMapLowest == Coords.NO_HEIGHT) {
+            this.heightMapLowest = Integer.MAX_VALUE;
+            for (int i = 0; i < COLUMN_COUNT; i++) {
+                if (this.ymax.get(i) < this.heightMapLowest) {
+                    this.heightMapLowest = this.ymax.get(i);
+                }
+            }
+            if (this.heightMapLowest == Coords.NO_HEIGHT) {
+                this.heightMapLowest--; // don't recalculate this on every call
+            }
+        }
+        return this.heightMapLowest;
+    }
+
+    // Helper ----------------------------------------------------------------------------------------------------------
+
+    /**
+     * @return true if opacity of the block has changed
+     */
+    private boolean setOpaque(int cubeY, int xzIndex, int localY, boolean isOpaque) {
+        CubeOpacity cube = this.cubes.get(cubeY);
+        if (cube == null) {
+            if (!isOpaque) {
+                return false;
+            }
+            cube = new CubeOpacity();
+            this.cubes.put(cubeY, cube);
+        }
+        int bit = 1 << localY;
+        if (((cube.masks[xzIndex] & bit) != 0) == isOpaque) {
+            return false;
+        }
+        if (cube == CubeOpacity.FULL) {
+            cube = new CubeOpacity(CubeOpacity.FULL);
+            this.cubes.put(cubeY, cube);
+        }
+        cube.masks[xzIndex] ^= bit;
+        cube.opaqueCount += isOpaque ? 1 : -1;
+        if (cube.opaqueCount == 0) {
+            this.cubes.remove(cubeY);
+        } else if (cube.opaqueCount == CUBE_VOLUME) {
+            this.cubes.put(cubeY, CubeOpacity.FULL);
+        }
+        return true;
+    }
+
+    private void updateScaledHeightMaps(int xzIndex, int blockY, boolean isOpaque) {
+        int key = blockToCube(blockY);
+        for (int scale = 1; scale <= MAX_SCALE; scale++) {
+            key >>= 4;
+            ScaledHeightMap heightMap = this.heightmapsByScale[scale].get(key);
+            if (heightMap == null) {
+                if (!isOpaque) {
+                    // there were never any opaque blocks in this range
+                    return;
+                }
+                heightMap = new ScaledHeightMap(scale, key);
+                this.heightmapsByScale[scale].put(key, heightMap);
+            }
+            if (!heightMap.update(xzIndex, blockY, isOpaque)) {
+                // top block of this range didn't change, so it didn't change for any of the larger ranges either
+                return;
+            }
+        }
+    }
+
+    private void ensureScaledHeightMapsExist(int cubeY) {
+        int key = cubeY;
+        for (int scale = 1; scale <= MAX_SCALE; scale++) {
+            key >>= 4;
+            if (!this.heightmapsByScale[scale].containsKey(key)) {
+                this.heightmapsByScale[scale].put(key, new ScaledHeightMap(scale, key));
+            }
+        }
+    }
+
+    /**
+     * @return y-coordinate of the top opaque block below blockY, or {@link Coords#NO_HEIGHT} if there is none
+     */
+    private int findTopBlockBelow(int xzIndex, int blockY) {
+        int key = blockToCube(blockY);
+        CubeOpacity cube = this.cubes.get(key);
+        if (cube != null) {
+            int mask = cube.masks[xzIndex] & ((1 << blockToLocal(blockY)) - 1);
+            if (mask != 0) {
+                return cubeToMinBlock(key) + topBit(mask);
+            }
+        }
+        // check all lower entries next to the current one on each scale, going up until one of them has an opaque block
+        for (int scale = 0; scale < MAX_SCALE; scale++) {
+            int parentKey = key >> 4;
+            if (this.heightmapsByScale[scale + 1].containsKey(parentKey)) {
+                for (int i = (key & 0xF) - 1; i >= 0; i--) {
+                    int top = getTop(scale, parentKey << 4 | i, xzIndex);
+                    if (top != Coords.NO_HEIGHT) {
+                        return top;
+                    }
+                }
+            }
+            key = parentKey;
+        }
+        int best = Coords.NO_HEIGHT;
+        for (ScaledHeightMap heightMap : this.heightmapsByScale[MAX_SCALE].values()) {
+            if (heightMap.scaledY < key) {
+                best = Math.max(best, heightMap.getTop(xzIndex));
+            }
+        }
+        return best;
+    }
+
+    private int getTop(int scale, int key, int xzIndex) {
+        if (scale == 0) {
+            CubeOpacity cube = this.cubes.get(key);
+            if (cube == null || cube.masks[xzIndex] == 0) {
+                return Coords.NO_HEIGHT;
+            }
+            return cubeToMinBlock(key) + topBit(cube.masks[xzIndex]);
+        }
+        ScaledHeightMap heightMap = this.heightmapsByScale[scale].get(key);
+        return heightMap == null ? Coords.NO_HEIGHT : heightMap.getTop(xzIndex);
+    }
+
+    private static int topBit(int mask) {
+        return 31 - Integer.numberOfLeadingZeros(mask & 0xFFFF);
+    }
+
+    private static int getIndex(int localX, int localZ) {
+        return (localZ << 4) | localX;
     }
 
-    public void addCube(ICube cube) {
+    // Serialization / NBT ---------------------------------------------------------------------------------------------
+    // The format is the same as in ServerHeightMap
 
+    @Override
+    public byte[] getData() {
+        try {
+            ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(buf);
+            writeData(out);
+            out.close();
+            return buf.toByteArray();
+        } catch (IOException ex) {
+            throw new Error(ex);
+        }
     }
 
-    public void unloadCube(ICube cube) {
+    @Override
+    public byte[] getDataForClient() {
+        try {
+            ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(buf);
+
+            for (int i = 0; i < COLUMN_COUNT; i++) {
+                out.writeInt(ymax.get(i));
+            }
 
+            out.close();
+            return buf.toByteArray();
+        } catch (IOException e) {
+            throw new Error(e);
+        }
     }
 
-    @Override public void onOpacityChange(int localX, int blockY, int localZ, int opacity) {
-        int cubeY = blockToCube(blockY);
-        if (opacity > 0) {
-            int localY = blockToLocal(blockY);
+    @Override
+    public void readData(byte[] data) {
+        try {
+            ByteArrayInputStream buf = new ByteArrayInputStream(data);
+            DataInputStream in = new DataInputStream(buf);
+            readData(in);
+            in.close();
+        } catch (IOException ex) {
+            throw new Error(ex);
         }
     }
 
-    @Override public int getTopBlockY(int localX, int localZ) {
-        return 0;
+    private void readData(DataInputStream in) throws IOException {
+        this.cubes.clear();
+        for (int scale = 1; scale <= MAX_SCALE; scale++) {
+            this.heightmapsByScale[scale].clear();
+        }
+        for (int i = 0; i < COLUMN_COUNT; i++) {
+            int minY = in.readInt();
+            int maxY = in.readInt();
+            int[] segments = new int[in.readUnsignedShort()];
+            for (int j = 0; j < segments.length; j++) {
+                segments[j] = in.readInt();
+            }
+            this.ymax.set(i, maxY);
+            if (maxY == Coords.NO_HEIGHT) {
+                continue;
+            }
+            if (segments.length == 0) {
+                setOpaqueRange(i, minY, maxY);
+                continue;
+            }
+            // segments alternate between opaque and transparent, starting with an opaque one
+            for (int j = 0; j < segments.length; j += 2) {
+                setOpaqueRange(i, segments[j], j + 1 < segments.length ? segments[j + 1] - 1 : maxY);
+            }
+        }
+        for (Int2ObjectMap.Entry<CubeOpacity> entry : this.cubes.int2ObjectEntrySet()) {
+            if (entry.getValue().opaqueCount == CUBE_VOLUME) {
+                entry.setValue(CubeOpacity.FULL);
+            }
+            ensureScaledHeightMapsExist(entry.getIntKey());
+        }
+        this.heightMapLowest = Coords.NO_HEIGHT;
+    }
+
+    private void setOpaqueRange(int xzIndex, int minY, int maxY) {
+        for (int cubeY = blockToCube(minY); cubeY <= blockToCube(maxY); cubeY++) {
+            int minLocal = cubeY == blockToCube(minY) ? blockToLocal(minY) : 0;
+            int maxLocal = cubeY == blockToCube(maxY) ? blockToLocal(maxY) : Cube.SIZE - 1;
+            int mask = (2 << maxLocal) - (1 << minLocal);
+            CubeOpacity cube = this.cubes.get(cubeY);
+            if (cube == null) {
+                cube = new CubeOpacity();
+                this.cubes.put(cubeY, cube);
+            }
+            int oldMask = cube.masks[xzIndex] & 0xFFFF;
+            cube.opaqueCount += Integer.bitCount(mask & ~oldMask);
+            cube.masks[xzIndex] = (short) (oldMask | mask);
+        }
     }
 
-    @Override public int getTopBlockYBelow(int localX, int localZ, int blockY) {
-        return 0;
+    private void writeData(DataOutputStream out) throws IOException {
+        int[] cubeYs = this.cubes.keySet().toIntArray();
+        IntArrays.quickSort(cubeYs);
+        IntArrayList segments = new IntArrayList();
+        for (int i = 0; i < COLUMN_COUNT; i++) {
+            // positions where opacity changes, alternating between start of opaque and start of transparent segment
+            segments.clear();
+            boolean opaque = false;
+            int prevCubeY = 0;
+            for (int cubeY : cubeYs) {
+                if (opaque && cubeY != prevCubeY + 1) {
+                    segments.add(cubeToMinBlock(prevCubeY + 1));
+                    opaque = false;
+                }
+                prevCubeY = cubeY;
+                int mask = this.cubes.get(cubeY).masks[i] & 0xFFFF;
+                if ((opaque && mask == 0xFFFF) || (!opaque && mask == 0)) {
+                    continue;
+                }
+                for (int localY = 0; localY < Cube.SIZE; localY++) {
+                    if (((mask >>> localY & 1) != 0) != opaque) {
+                        segments.add(cubeToMinBlock(cubeY) + localY);
+                        opaque = !opaque;
+                    }
+                }
+            }
+            if (!opaque && !segments.isEmpty()) {
+                segments.removeInt(segments.size() - 1);
+            }
+            if (segments.isEmpty()) {
+                out.writeInt(Coords.NO_HEIGHT);
+                out.writeInt(Coords.NO_HEIGHT);
+                out.writeShort(0);
+                continue;
+            }
+            out.writeInt(segments.getInt(0));
+            out.writeInt(this.ymax.get(i));
+            if (segments.size() == 1) {
+                // a single opaque segment from min to max
+                out.writeShort(0);
+            } else {
+                out.writeShort(segments.size());
+                for (int j = 0; j < segments.size(); j++) {
+                    out.writeInt(segments.getInt(j));
+                }
+            }
+        }
     }
 
-    @Override public int getLowestTopBlockY() {
-        return 0;
+    /**
+     * Opacity of all blocks in a cube, 16 bits for each block column
+     */
+    private static class CubeOpacity {
+
+        /**
+         * Shared instance for cubes with only opaque blocks, must never be modified
+         */
+        static final CubeOpacity FULL = new CubeOpacity();
+
+        static {
+            Arrays.fill(FULL.masks, (short) 0xFFFF);
+            FULL.opaqueCount = CUBE_VOLUME;
+        }
+
+        final short[] masks;
+        int opaqueCount;
+
+        CubeOpacity() {
+            this.masks = new short[COLUMN_COUNT];
+        }
+
+        CubeOpacity(CubeOpacity from) {
+            this.masks = from.masks.clone();
+            this.opaqueCount = from.opaqueCount;
+        }
     }
 
-    private class HeightMap {
+    /**
+     * Top opaque block of each block column in a range of 16^(scale+1) blocks
+     */
+    private class ScaledHeightMap {
+
+        // 0 if there is no opaque block, otherwise top block y relative to the start of the range, plus 1
         private final BitArray heights;
         private final BitSet invalidatedPositions;
         private final int scale, scaledY;
 
-        private HeightMap(int scale, int scaledY) {
-            this.heights = new BitArray(5 + scale*4, ICube.SIZE * ICube.SIZE);
-            this.invalidatedPositions = new BitSet(ICube.SIZE * ICube.SIZE);
+        private ScaledHeightMap(int scale, int scaledY) {
+            this.heights = new BitArray(5 + scale * 4, COLUMN_COUNT);
+            this.invalidatedPositions = new BitSet(COLUMN_COUNT);
+            this.invalidatedPositions.set(0, COLUMN_COUNT);
             this.scale = scale;
             this.scaledY = scaledY;
         }
+
+        private int getMinBlockY() {
+            return this.scaledY << ((this.scale + 1) * 4);
+        }
+
+        int getTop(int xzIndex) {
+            if (this.invalidatedPositions.get(xzIndex)) {
+                int top = Coords.NO_HEIGHT;
+                for (int i = 0xF; i >= 0; i--) {
+                    top = NewServerHeightMap.this.getTop(this.scale - 1, this.scaledY << 4 | i, xzIndex);
+                    if (top != Coords.NO_HEIGHT) {
+                        break;
+                    }
+                }
+                setTop(xzIndex, top);
+                this.invalidatedPositions.clear(xzIndex);
+                return top;
+            }
+            int value = this.heights.getAt(xzIndex);
+            return value == 0 ? Coords.NO_HEIGHT : getMinBlockY() + value - 1;
+        }
+
+        private void setTop(int xzIndex, int top) {
+            this.heights.setAt(xzIndex, top == Coords.NO_HEIGHT ? 0 : top - getMinBlockY() + 1);
+        }
+
+        /**
+         * Updates the top block after opacity change within this range.
+         *
+         * @return true if the top block may have changed
+         */
+        boolean update(int xzIndex, int blockY, boolean isOpaque) {
+            if (this.invalidatedPositions.get(xzIndex)) {
+                return true;
+            }
+            int top = getTop(xzIndex);
+            if (isOpaque) {
+                if (blockY > top) {
+                    setTop(xzIndex, blockY);
+                    return true;
+                }
+                return false;
+            }
+            if (blockY == top) {
+                this.invalidatedPositions.set(xzIndex);
+                return true;
+            }
+            return false;
+        }
     }
 }
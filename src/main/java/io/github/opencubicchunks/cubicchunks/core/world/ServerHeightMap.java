@@ -25,7 +25,6 @@
 package io.github.opencubicchunks.cubicchunks.core.world;
 
 import io.github.opencubicchunks.cubicchunks.api.util.Coords;
-import io.github.opencubicchunks.cubicchunks.api.world.IHeightMap;
 import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
 import mcp.MethodsReturnNonnullByDefault;
@@ -41,7 +40,7 @@ import javax.annotation.ParametersAreNonnullByDefault;
 
 @ParametersAreNonnullByDefault
 @MethodsReturnNonnullByDefault
-public class ServerHeightMap implements IHeightMap {
+public class ServerHeightMap implements IServerHeightMap {
 
     /**
      * Special value to indicate the absence of a segment in the segments arrays.
@@ -724,6 +723,7 @@ public class ServerHeightMap implements IHeightMap {
 
     // Serialization / NBT ---------------------------------------------------------------------------------------------
 
+    @Override
     public byte[] getData() {
         try {
             ByteArrayOutputStream buf = new ByteArrayOutputStream();
@@ -736,6 +736,7 @@ public class ServerHeightMap implements IHeightMap {
         }
     }
 
+    @Override
     public byte[] getDataForClient() {
         try {
             ByteArrayOutputStream buf = new ByteArrayOutputStream();
@@ -752,6 +753,7 @@ public class ServerHeightMap implements IHeightMap {
         }
     }
 
+    @Override
     public void readData(byte[] data) {
         try {
             ByteArrayInputStream buf = new ByteArrayInputStream(data);
@@ -85,7 +85,7 @@ public class StagingHeightMap implements IHeightMap {
     private int computeHeightMap(int localX, int localZ) {
         for (int j = 0, stagedCubesSize = stagedCubes.size(); j < stagedCubesSize; j++) {
             ICube stagedCube = stagedCubes.get(j);
-            ExtendedBlockStorage ebs = stagedCube.getStorage();
+            ExtendedBlockStorage ebs = stagedCube.getReadOnlyStorage();
             if (ebs == null || ebs.isEmpty()) {
                 continue;
             }
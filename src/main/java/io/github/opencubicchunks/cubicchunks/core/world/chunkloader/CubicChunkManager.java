@@ -109,7 +109,11 @@ public class CubicChunkManager {
             FMLLog.log.fatal("The mod {} attempted to force load a chunk with an invalid ticket. This is not permitted.", ticket.getModId());
             return;
         }
+        if (((ICubicTicketInternal) ticket).requestedCubes().contains(chunk)) {
+            return;
+        }
         ((ICubicTicketInternal) ticket).addRequestedCube(chunk);
+        ((ICubicWorldInternal.Server) ticket.world).getForcedCubeIndex().addForcedCube(chunk, ticket);
         Cube cube = (Cube) ((ICubicWorld) ticket.world).getCubeFromCubeCoords(chunk);
         cube.getTickets().add((ICubicTicketInternal) ticket);
         MinecraftForge.EVENT_BUS.post(new ForceCubeEvent(ticket, chunk));
@@ -144,10 +148,11 @@ public class CubicChunkManager {
      * @param chunk The chunk to unforce
      */
     public static void unforceChunk(ForgeChunkManager.Ticket ticket, CubePos chunk) {
-        if (ticket == null || chunk == null) {
+        if (ticket == null || chunk == null || !((ICubicTicketInternal) ticket).requestedCubes().contains(chunk)) {
             return;
         }
         ((ICubicTicketInternal) ticket).removeRequestedCube(chunk);
+        ((ICubicWorldInternal.Server) ticket.world).getForcedCubeIndex().removeForcedCube(chunk, ticket);
         MinecraftForge.EVENT_BUS.post(new UnforceCubeEvent(ticket, chunk));
         Cube cube = (Cube) ((ICubicWorld) ticket.world).getCubeFromCubeCoords(chunk);
         cube.getTickets().remove((ICubicTicketInternal) ticket);
@@ -222,6 +227,7 @@ public class CubicChunkManager {
         if (!((ICubicWorld) worldInstance).isCubicWorld() || !(worldInstance instanceof WorldServer)) {
             return;
         }
+        ((ICubicWorldInternal.Server) worldInstance).getForcedCubeIndex().addForcedColumn(event.getLocation(), ticket);
         addForcedCubesHeuristic(event, ticket, (WorldServer) worldInstance);
     }
 
@@ -262,9 +268,10 @@ public class CubicChunkManager {
     @SubscribeEvent public static void onForgeChunkManagerUnforceChunk(ForgeChunkManager.UnforceChunkEvent event) {
         ForgeChunkManager.Ticket ticket = event.getTicket();
         World world = ticket.world;
-        if (!((ICubicWorld) world).isCubicWorld()) {
+        if (!((ICubicWorld) world).isCubicWorld() || !(world instanceof WorldServer)) {
             return;
         }
+        ((ICubicWorldInternal.Server) world).getForcedCubeIndex().removeForcedColumn(event.getLocation(), ticket);
         for (int cubeY : ((ICubicTicketInternal) ticket).getAllForcedChunkCubes().get(event.getLocation())) {
             Cube cube = (Cube) ((ICubicWorld) world).getCubeFromCubeCoords(event.getLocation().x, cubeY, event.getLocation().z);
             cube.getTickets().remove((ITicket) ticket);
@@ -0,0 +1,167 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.world.chunkloader;
+
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.api.world.IColumn;
+import io.github.opencubicchunks.cubicchunks.core.server.CubeProviderServer;
+import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraftforge.common.ForgeChunkManager;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Per-world index of everything forced by chunkloading tickets, updated incrementally as tickets force and unforce
+ * columns and cubes. This avoids rebuilding the set of forced cubes from {@link net.minecraftforge.common.ForgeChunkManager}
+ * persistent chunk map every tick.
+ * <p>
+ * Columns are tracked with the set of tickets forcing them through ForgeChunkManager, cubes are counted per ticket forcing them
+ * through {@link CubicChunkManager}. Both are keyed by {@link ChunkPos#asLong(int, int)} of the column. The amount of columns and
+ * cubes forced by each mod's tickets is counted too.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class ForcedCubeIndex {
+
+    private final Long2ObjectMap<Set<ForgeChunkManager.Ticket>> forcedColumns = new Long2ObjectOpenHashMap<>();
+    private final Long2ObjectMap<Int2IntOpenHashMap> forcedCubes = new Long2ObjectOpenHashMap<>();
+    private final Object2IntOpenHashMap<String> forcedColumnsByMod = new Object2IntOpenHashMap<>();
+    private final Object2IntOpenHashMap<String> forcedCubesByMod = new Object2IntOpenHashMap<>();
+
+    public void addForcedColumn(ChunkPos pos, ForgeChunkManager.Ticket ticket) {
+        if (forcedColumns.computeIfAbsent(ChunkPos.asLong(pos.x, pos.z), k -> Collections.newSetFromMap(new IdentityHashMap<>(2))).add(ticket)) {
+            forcedColumnsByMod.addTo(ticket.getModId(), 1);
+        }
+    }
+
+    public void removeForcedColumn(ChunkPos pos, ForgeChunkManager.Ticket ticket) {
+        long key = ChunkPos.asLong(pos.x, pos.z);
+        Set<ForgeChunkManager.Ticket> tickets = forcedColumns.get(key);
+        if (tickets == null || !tickets.remove(ticket)) {
+            return;
+        }
+        decrement(forcedColumnsByMod, ticket.getModId());
+        if (tickets.isEmpty()) {
+            forcedColumns.remove(key);
+        }
+    }
+
+    public void addForcedCube(CubePos pos, ForgeChunkManager.Ticket ticket) {
+        forcedCubes.computeIfAbsent(ChunkPos.asLong(pos.getX(), pos.getZ()), k -> new Int2IntOpenHashMap(4)).addTo(pos.getY(), 1);
+        forcedCubesByMod.addTo(ticket.getModId(), 1);
+    }
+
+    public void removeForcedCube(CubePos pos, ForgeChunkManager.Ticket ticket) {
+        long key = ChunkPos.asLong(pos.getX(), pos.getZ());
+        Int2IntOpenHashMap column = forcedCubes.get(key);
+        if (column == null || !column.containsKey(pos.getY())) {
+            return;
+        }
+        decrement(forcedCubesByMod, ticket.getModId());
+        int count = column.get(pos.getY());
+        if (count <= 1) {
+            column.remove(pos.getY());
+            if (column.isEmpty()) {
+                forcedCubes.remove(key);
+            }
+        } else {
+            column.put(pos.getY(), count - 1);
+        }
+    }
+
+    /**
+     * @return amount of columns forced by tickets of the mod, a column forced by several tickets is counted once for each
+     */
+    public int getForcedColumnCount(String modId) {
+        return forcedColumnsByMod.getInt(modId);
+    }
+
+    /**
+     * @return amount of cubes forced by tickets of the mod, a cube forced by several tickets is counted once for each
+     */
+    public int getForcedCubeCount(String modId) {
+        return forcedCubesByMod.getInt(modId);
+    }
+
+    /**
+     * Adds all loaded cubes kept loaded by tickets to the given collection. Doesn't load anything.
+     * All loaded cubes of forced columns are added, followed by the remaining individually forced cubes.
+     *
+     * @param provider cube provider of the world
+     * @param out collection to add the cubes to
+     */
+    @SuppressWarnings("unchecked")
+    public void collectLoadedCubes(CubeProviderServer provider, Collection<Cube> out) {
+        for (LongIterator it = forcedColumns.keySet().iterator(); it.hasNext(); ) {
+            long key = it.nextLong();
+            Chunk column = provider.getLoadedColumn(getX(key), getZ(key));
+            if (column != null) {
+                out.addAll((Collection<Cube>) ((IColumn) column).getLoadedCubes());
+            }
+        }
+        for (Long2ObjectMap.Entry<Int2IntOpenHashMap> entry : forcedCubes.long2ObjectEntrySet()) {
+            long key = entry.getLongKey();
+            if (forcedColumns.containsKey(key)) {
+                continue;
+            }
+            int x = getX(key);
+            int z = getZ(key);
+            for (Int2IntMap.Entry cubeEntry : entry.getValue().int2IntEntrySet()) {
+                Cube cube = provider.getLoadedCube(x, cubeEntry.getIntKey(), z);
+                if (cube != null) {
+                    out.add(cube);
+                }
+            }
+        }
+    }
+
+    private static void decrement(Object2IntOpenHashMap<String> counts, String modId) {
+        if (counts.addTo(modId, -1) <= 1) {
+            counts.removeInt(modId);
+        }
+    }
+
+    private static int getX(long key) {
+        return (int) key;
+    }
+
+    private static int getZ(long key) {
+        return (int) (key >>> 32);
+    }
+}
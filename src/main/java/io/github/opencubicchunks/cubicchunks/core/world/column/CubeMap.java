@@ -153,7 +153,7 @@ public class CubeMap implements Iterable<Cube> {
         if (!isToTickValid()) {
             int count = 0;
             for (Cube cube : cubes) {
-                if (cube.getStorage() != null && cube.getTickets().shouldTick()) {
+                if (cube.getReadOnlyStorage() != null && cube.getTickets().shouldTick()) {
                     count++;
                 }
             }
@@ -161,8 +161,8 @@ public class CubeMap implements Iterable<Cube> {
             toBlockTick = new ExtendedBlockStorage[count];
             count = 0;
             for (Cube cube : cubes) {
-                if (cube.getStorage() != null && cube.getTickets().shouldTick()) {
-                    toBlockTick[count++] = cube.getStorage();
+                if (cube.getReadOnlyStorage() != null && cube.getTickets().shouldTick()) {
+                    toBlockTick[count++] = cube.getReadOnlyStorage();
                 }
             }
         }
@@ -173,11 +173,11 @@ public class CubeMap implements Iterable<Cube> {
     private boolean isToTickValid() {
         int index = 0;
         for (Cube cube : cubes) {
-            if (cube.getStorage() != null && cube.getTickets().shouldTick()) {
+            if (cube.getReadOnlyStorage() != null && cube.getTickets().shouldTick()) {
                 if (index >= toBlockTick.length) {
                     return false;
                 }
-                if (toBlockTick[index++] != cube.getStorage()) {
+                if (toBlockTick[index++] != cube.getReadOnlyStorage()) {
                     return false;
                 }
             }
@@ -116,6 +116,10 @@ public class Cube implements ICube {
      * Has the initial light map been calculated?
      */
     private boolean isInitialLightingDone = false;
+    /**
+     * Has initial lighting been skipped for this underground cube, leaving it fully dark until it's actually needed?
+     */
+    private boolean isLightingDeferred = false;
     /**
      * The world of this cube
      */
@@ -136,6 +140,10 @@ public class Cube implements ICube {
      */
     @Nullable
     private ExtendedBlockStorage storage;
+    /**
+     * Whether {@link #storage} is shared with other cubes, see {@link SharedCubeStorage}
+     */
+    private boolean storageShared;
     /**
      * Entities in this cube
      */
@@ -223,16 +231,24 @@ public class Cube implements ICube {
     public Cube(Chunk column, int cubeY, CubePrimer primer) {
         this(column, cubeY);
 
-        for (int y = Cube.SIZE - 1; y >= 0; y--) {
-            for (int z = 0; z < Cube.SIZE; z++) {
-                for (int x = 0; x < Cube.SIZE; x++) {
-                    IBlockState newstate = primer.getBlockState(x, y, z);
-
-                    if (newstate.getMaterial() != Material.AIR) {
-                        if (storage == NULL_STORAGE) {
-                            newStorage();
+        IBlockState uniformState = primer.getUniformState();
+        if (uniformState != null) {
+            if (uniformState.getMaterial() != Material.AIR) {
+                storage = SharedCubeStorage.get(uniformState, cubeToMinBlock(cubeY), world.provider.hasSkyLight(), 0, 0);
+                storageShared = true;
+            }
+        } else {
+            for (int y = Cube.SIZE - 1; y >= 0; y--) {
+                for (int z = 0; z < Cube.SIZE; z++) {
+                    for (int x = 0; x < Cube.SIZE; x++) {
+                        IBlockState newstate = primer.getBlockState(x, y, z);
+
+                        if (newstate.getMaterial() != Material.AIR) {
+                            if (storage == NULL_STORAGE) {
+                                newStorage();
+                            }
+                            storage.set(x, y, z, newstate);
                         }
-                        storage.set(x, y, z, newstate);
                     }
                 }
             }
@@ -271,6 +287,7 @@ public class Cube implements ICube {
         this.column = column;
         this.coords = coords;
         this.storage = storage;
+        this.storageShared = SharedCubeStorage.isShared(storage);
         this.entities = entities;
         this.tileEntityMap = tileEntityMap;
         this.tileEntityPosQueue = tileEntityPosQueue;
@@ -499,12 +516,45 @@ public class Cube implements ICube {
     @Override
     @Nullable
     public ExtendedBlockStorage getStorage() {
+        if (storageShared) {
+            storage = SharedCubeStorage.copyOf(storage);
+            storageShared = false;
+        }
         return this.storage;
     }
 
+    @Override
+    @Nullable
+    public ExtendedBlockStorage getReadOnlyStorage() {
+        return this.storage;
+    }
+
+    /**
+     * @return true if block storage of this cube is shared with other cubes and will be copied on first write
+     */
+    public boolean isStorageShared() {
+        return storageShared;
+    }
+
+    /**
+     * Replaces block storage of this cube with shared storage if it consists of only one block state with uniform light.
+     * This doesn't mark the cube as modified, as the contents don't change.
+     */
+    public void shareStorageIfUniform() {
+        if (storage == NULL_STORAGE || storageShared) {
+            return;
+        }
+        ExtendedBlockStorage shared = SharedCubeStorage.findShared(storage);
+        if (shared != null) {
+            storage = shared;
+            storageShared = true;
+        }
+    }
+
     @Nullable
     public ExtendedBlockStorage setStorage(@Nullable ExtendedBlockStorage ebs) {
         this.isModified = true;
+        this.storageShared = SharedCubeStorage.isShared(ebs);
         return this.storage = ebs;
     }
 
@@ -574,6 +624,7 @@ public class Cube implements ICube {
 
         for (int x = 0; x < Cube.SIZE; x++) {
             for (int z = 0; z < Cube.SIZE; z++) {
+                int oldTop = opindex.getTopBlockY(x, z);
 
                 for (int y = Cube.SIZE - 1; y >= 0; y--) {
                     IBlockState newstate = this.getBlockState(x, y, z);
@@ -581,6 +632,11 @@ public class Cube implements ICube {
                     column.setModified(true); //TODO: maybe ServerHeightMap needs its own isModified?
                     opindex.onOpacityChange(x, miny + y, z, newstate.getLightOpacity());
                 }
+                // heightmap is sent to clients with the column, they need to know about changes made by new cubes
+                if (opindex.getTopBlockY(x, z) != oldTop) {
+                    ((ICubicWorldInternal) world).getLightingManager().sendHeightMapUpdate(
+                            localToBlock(getX(), x), localToBlock(getZ(), z));
+                }
             }
         }
         isSurfaceTracked = true;
@@ -737,6 +793,23 @@ public class Cube implements ICube {
         this.isModified = true;
     }
 
+    /**
+     * @return true if initial lighting of this cube has been skipped and it's assumed to be fully dark
+     */
+    public boolean isLightingDeferred() {
+        return isLightingDeferred;
+    }
+
+    /**
+     * Sets whether initial lighting of this cube has been skipped. Deferred cubes are also marked as having their initial
+     * lighting done, so that they can be used as if they were lit.
+     *
+     * @param lightingDeferred true if initial lighting is deferred
+     */
+    public void setLightingDeferred(boolean lightingDeferred) {
+        this.isLightingDeferred = lightingDeferred;
+    }
+
     public void setCubeLoaded() {
         this.isCubeLoaded = true;
     }
@@ -0,0 +1,210 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.world.cube;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.MapMaker;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
+import net.minecraft.world.chunk.NibbleArray;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Provides {@link ExtendedBlockStorage} instances shared between all cubes at the same Y level that consist of a single block state
+ * with uniform light. A cube using shared storage must never modify it, and replaces it with a private copy made by
+ * {@link #copyOf(ExtendedBlockStorage)} before the first write.
+ * <p>
+ * Storages are shared only between cubes at the same Y coordinate, because {@link ExtendedBlockStorage#getYLocation()} is used by vanilla code.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public final class SharedCubeStorage {
+
+    private static final LoadingCache<Key, ExtendedBlockStorage> CACHE = CacheBuilder.newBuilder()
+            .weakValues()
+            .build(CacheLoader.from(SharedCubeStorage::create));
+
+    private static final Set<ExtendedBlockStorage> SHARED = Collections.newSetFromMap(new MapMaker().weakKeys().makeMap());
+
+    private SharedCubeStorage() {
+        throw new Error();
+    }
+
+    /**
+     * Returns shared storage filled with the given block state and light values
+     *
+     * @param state the block state
+     * @param yBase minimum block Y coordinate of the cube
+     * @param hasSkyLight whether the storage stores sky light
+     * @param skyLight sky light value, ignored if there is no sky light
+     * @param blockLight block light value
+     * @return shared storage instance, must not be modified
+     */
+    public static ExtendedBlockStorage get(IBlockState state, int yBase, boolean hasSkyLight, int skyLight, int blockLight) {
+        return CACHE.getUnchecked(new Key(state, yBase, hasSkyLight, hasSkyLight ? skyLight : 0, blockLight));
+    }
+
+    /**
+     * @param storage the storage to check
+     * @return true if this storage is a shared storage instance that must not be modified
+     */
+    public static boolean isShared(@Nullable ExtendedBlockStorage storage) {
+        return storage != null && SHARED.contains(storage);
+    }
+
+    /**
+     * Creates a private, modifiable copy of a shared storage.
+     *
+     * @param shared the shared storage
+     * @return a new storage with the same contents
+     */
+    public static ExtendedBlockStorage copyOf(ExtendedBlockStorage shared) {
+        boolean hasSkyLight = shared.getSkyLight() != null;
+        return fill(new ExtendedBlockStorage(shared.getYLocation(), hasSkyLight), shared.get(0, 0, 0),
+                hasSkyLight ? shared.getSkyLight(0, 0, 0) : 0, shared.getBlockLight(0, 0, 0));
+    }
+
+    /**
+     * Returns a shared equivalent of the given storage if it consists of a single block state with uniform light values.
+     *
+     * @param storage the storage to check
+     * @return shared storage with the same contents, or null if the storage isn't uniform
+     */
+    @Nullable
+    public static ExtendedBlockStorage findShared(ExtendedBlockStorage storage) {
+        if (isShared(storage)) {
+            return storage;
+        }
+        int blockLight = uniformValue(storage.getBlockLight());
+        if (blockLight < 0) {
+            return null;
+        }
+        boolean hasSkyLight = storage.getSkyLight() != null;
+        int skyLight = hasSkyLight ? uniformValue(storage.getSkyLight()) : 0;
+        if (skyLight < 0) {
+            return null;
+        }
+        IBlockState state;
+        if (storage.isEmpty()) {
+            state = Blocks.AIR.getDefaultState();
+        } else {
+            state = storage.get(0, 0, 0);
+            for (int i = 1; i < 4096; i++) {
+                if (storage.get(i & 15, i >> 8 & 15, i >> 4 & 15) != state) {
+                    return null;
+                }
+            }
+        }
+        return get(state, storage.getYLocation(), hasSkyLight, skyLight, blockLight);
+    }
+
+    /**
+     * @param data raw nibble array data
+     * @return the value of all nibbles if they are all equal, -1 otherwise
+     */
+    public static int uniformValue(byte[] data) {
+        byte first = data[0];
+        if ((first & 0xF) != (first >>> 4 & 0xF)) {
+            return -1;
+        }
+        for (byte b : data) {
+            if (b != first) {
+                return -1;
+            }
+        }
+        return first & 0xF;
+    }
+
+    private static int uniformValue(NibbleArray array) {
+        return uniformValue(array.getData());
+    }
+
+    private static ExtendedBlockStorage create(Key key) {
+        ExtendedBlockStorage storage = fill(new ExtendedBlockStorage(key.yBase, key.hasSkyLight), key.state, key.skyLight, key.blockLight);
+        SHARED.add(storage);
+        return storage;
+    }
+
+    private static ExtendedBlockStorage fill(ExtendedBlockStorage storage, IBlockState state, int skyLight, int blockLight) {
+        if (state != Blocks.AIR.getDefaultState()) {
+            for (int i = 0; i < 4096; i++) {
+                storage.set(i & 15, i >> 8 & 15, i >> 4 & 15, state);
+            }
+        }
+        Arrays.fill(storage.getBlockLight().getData(), (byte) (blockLight | blockLight << 4));
+        if (storage.getSkyLight() != null) {
+            Arrays.fill(storage.getSkyLight().getData(), (byte) (skyLight | skyLight << 4));
+        }
+        return storage;
+    }
+
+    private static final class Key {
+
+        final IBlockState state;
+        final int yBase;
+        final boolean hasSkyLight;
+        final int skyLight;
+        final int blockLight;
+
+        Key(IBlockState state, int yBase, boolean hasSkyLight, int skyLight, int blockLight) {
+            this.state = state;
+            this.yBase = yBase;
+            this.hasSkyLight = hasSkyLight;
+            this.skyLight = skyLight;
+            this.blockLight = blockLight;
+        }
+
+        @Override public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return state == key.state && yBase == key.yBase && hasSkyLight == key.hasSkyLight
+                    && skyLight == key.skyLight && blockLight == key.blockLight;
+        }
+
+        @Override public int hashCode() {
+            int result = System.identityHashCode(state);
+            result = 31 * result + yBase;
+            result = 31 * result + (hasSkyLight ? 1 : 0);
+            result = 31 * result + skyLight;
+            result = 31 * result + blockLight;
+            return result;
+        }
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.worldgen;
+
+import io.github.opencubicchunks.cubicchunks.api.worldgen.CubeGeneratorsRegistry;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunks;
+import io.github.opencubicchunks.cubicchunks.core.CubicChunksConfig;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Collects per-populator timing statistics for cubic populators and vanilla {@code IWorldGenerator}s.
+ * Entries are keyed by populator class name, so that all instances of a single populator type are accumulated together.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class WorldgenTimings implements CubeGeneratorsRegistry.IPopulatorProfiler {
+
+    private static final WorldgenTimings INSTANCE = new WorldgenTimings();
+
+    // sub-buckets per power of 2 in the latency histogram, 8 gives at most 12.5% error for percentiles
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HISTOGRAM_SIZE = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN = getThreadMXBean();
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    // stack of thread allocated bytes at begin(), populators can trigger generation of other cubes recursively
+    private final ThreadLocal<LongArrayList> allocationStack = ThreadLocal.withInitial(LongArrayList::new);
+
+    private long lastLogTime = System.nanoTime();
+
+    private WorldgenTimings() {
+    }
+
+    public static WorldgenTimings instance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Enables or disables collecting timings, depending on the current config.
+     */
+    public static void updateEnabled() {
+        CubeGeneratorsRegistry.setPopulatorProfiler(CubicChunksConfig.worldgenTimings ? INSTANCE : null);
+    }
+
+    public static boolean isEnabled() {
+        return CubicChunksConfig.worldgenTimings;
+    }
+
+    @Override public long begin() {
+        if (CubicChunksConfig.worldgenTimingsTrackAllocations && THREAD_MX_BEAN != null) {
+            allocationStack.get().push(THREAD_MX_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId()));
+        }
+        return System.nanoTime();
+    }
+
+    @Override public void end(Object populator, long start) {
+        long time = System.nanoTime() - start;
+        long allocated = -1;
+        if (CubicChunksConfig.worldgenTimingsTrackAllocations && THREAD_MX_BEAN != null) {
+            LongArrayList stack = allocationStack.get();
+            // the option could have been enabled between begin and end
+            if (!stack.isEmpty()) {
+                allocated = THREAD_MX_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId()) - stack.popLong();
+            }
+        }
+        entries.computeIfAbsent(populator.getClass().getName(), Entry::new).add(time, allocated);
+    }
+
+    /**
+     * Logs a summary of collected timings if the configured log interval has passed. Called once per server tick.
+     */
+    public void tick() {
+        int interval = CubicChunksConfig.worldgenTimingsLogInterval;
+        if (!isEnabled() || interval <= 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (now - lastLogTime < TimeUnit.SECONDS.toNanos(interval)) {
+            return;
+        }
+        lastLogTime = now;
+        List<String> lines = summary(CubicChunksConfig.worldgenTimingsLogCount);
+        if (lines.isEmpty()) {
+            return;
+        }
+        CubicChunks.LOGGER.info("Worldgen populator timings, slowest {} by total time:", lines.size());
+        for (String line : lines) {
+            CubicChunks.LOGGER.info("    {}", line);
+        }
+    }
+
+    public void reset() {
+        entries.clear();
+    }
+
+    /**
+     * @param count maximum amount of entries to return
+     * @return human readable summary of the {@code count} populators with the highest total time
+     */
+    public List<String> summary(int count) {
+        List<Stats> stats = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            stats.add(entry.snapshot());
+        }
+        stats.sort(Comparator.comparingLong((Stats s) -> s.totalNanos).reversed());
+
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < count && i < stats.size(); i++) {
+            Stats s = stats.get(i);
+            StringBuilder sb = new StringBuilder();
+            sb.append(s.name)
+                    .append(": total=").append(formatMillis(s.totalNanos))
+                    .append(", calls=").append(s.calls)
+                    .append(", avg=").append(formatMillis(s.calls == 0 ? 0 : s.totalNanos / s.calls))
+                    .append(", p99=").append(formatMillis(s.p99Nanos))
+                    .append(", max=").append(formatMillis(s.maxNanos));
+            if (s.allocatedBytes >= 0) {
+                sb.append(", alloc=").append(s.allocatedBytes / 1024).append("KiB");
+            }
+            lines.add(sb.toString());
+        }
+        return lines;
+    }
+
+    private static String formatMillis(long nanos) {
+        return String.format("%.3fms", nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    private static com.sun.management.ThreadMXBean getThreadMXBean() {
+        try {
+            java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (bean instanceof com.sun.management.ThreadMXBean
+                    && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+                ((com.sun.management.ThreadMXBean) bean).setThreadAllocatedMemoryEnabled(true);
+                return (com.sun.management.ThreadMXBean) bean;
+            }
+        } catch (LinkageError | UnsupportedOperationException ex) {
+            CubicChunks.LOGGER.debug("Thread allocation tracking not supported", ex);
+        }
+        return null;
+    }
+
+    // index of a log-linear histogram bucket, exact for values below SUB_BUCKETS
+    private static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) Math.max(value, 0);
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS + 1;
+        int subBucket = (int) (value >>> (magnitude - 1)) & (SUB_BUCKETS - 1);
+        return magnitude * SUB_BUCKETS + subBucket;
+    }
+
+    // highest value that falls into the given bucket
+    private static long bucketUpperBound(int index) {
+        int magnitude = index >>> SUB_BUCKET_BITS;
+        int subBucket = index & (SUB_BUCKETS - 1);
+        if (magnitude == 0) {
+            return subBucket;
+        }
+        return ((long) (SUB_BUCKETS | subBucket) << (magnitude - 1)) + (1L << (magnitude - 1)) - 1;
+    }
+
+    private static class Entry {
+
+        private final String name;
+        private final long[] histogram = new long[HISTOGRAM_SIZE];
+        private long totalNanos;
+        private long maxNanos;
+        private long calls;
+        private long allocatedBytes = -1;
+
+        Entry(String name) {
+            this.name = name;
+        }
+
+        synchronized void add(long nanos, long allocated) {
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+            calls++;
+            histogram[bucketIndex(nanos)]++;
+            if (allocated >= 0) {
+                allocatedBytes = Math.max(allocatedBytes, 0) + allocated;
+            }
+        }
+
+        synchronized Stats snapshot() {
+            long p99 = 0;
+            long threshold = calls - calls / 100;
+            long seen = 0;
+            for (int i = 0; i < histogram.length; i++) {
+                seen += histogram[i];
+                if (seen >= threshold) {
+                    p99 = Math.min(bucketUpperBound(i), maxNanos);
+                    break;
+                }
+            }
+            return new Stats(name, totalNanos, calls, p99, maxNanos, allocatedBytes);
+        }
+    }
+
+    private static class Stats {
+
+        final String name;
+        final long totalNanos;
+        final long calls;
+        final long p99Nanos;
+        final long maxNanos;
+        final long allocatedBytes;
+
+        Stats(String name, long totalNanos, long calls, long p99Nanos, long maxNanos, long allocatedBytes) {
+            this.name = name;
+            this.totalNanos = totalNanos;
+            this.calls = calls;
+            this.p99Nanos = p99Nanos;
+            this.maxNanos = maxNanos;
+            this.allocatedBytes = allocatedBytes;
+        }
+    }
+}
@@ -39,6 +39,7 @@ import io.github.opencubicchunks.cubicchunks.core.util.CompatHandler;
 import io.github.opencubicchunks.cubicchunks.core.world.IColumnInternal;
 import io.github.opencubicchunks.cubicchunks.core.world.cube.Cube;
 import io.github.opencubicchunks.cubicchunks.core.worldgen.WorldgenHangWatchdog;
+import io.github.opencubicchunks.cubicchunks.core.worldgen.WorldgenTimings;
 import io.github.opencubicchunks.cubicchunks.core.worldgen.generator.WorldGenUtils;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.block.state.IBlockState;
@@ -196,6 +197,13 @@ public class VanillaCompatibilityGenerator implements ICubeGenerator {
         vanilla.recreateStructures(column, column.x, column.z);
     }
     
+    private boolean mayHaveBedrock(int cubeY) {
+        int minY = Coords.cubeToMinBlock(cubeY);
+        int maxY = Coords.cubeToMaxBlock(cubeY);
+        return (hasBottomBedrock && minY - ((ICubicWorld) world).getMinHeight() < 5)
+                || (hasTopBedrock && ((ICubicWorld) world).getMaxHeight() - maxY - 1 < 5);
+    }
+
     private Random getCubeSpecificRandom(int cubeX, int cubeY, int cubeZ) {
         Random rand = new Random(world.getSeed());
         rand.setSeed(rand.nextInt() ^ cubeX);
@@ -215,11 +223,16 @@ public class VanillaCompatibilityGenerator implements ICubeGenerator {
             rand.setSeed(rand.nextInt() ^ cubeX);
             rand.setSeed(rand.nextInt() ^ cubeZ);
             if (cubeY < 0 || cubeY >= worldHeightCubes) {
+                IBlockState fill = cubeY < 0 ? extensionBlockBottom : extensionBlockTop;
+                if (!mayHaveBedrock(cubeY)) {
+                    // nothing to randomize, share one immutable primer between all these cubes
+                    return CubePrimer.createUniform(fill);
+                }
                 // Fill with bottom block
                 for (int y = 0; y < Cube.SIZE; y++) {
                     for (int z = 0; z < Cube.SIZE; z++) {
                         for (int x = 0; x < Cube.SIZE; x++) {
-                            IBlockState state = cubeY < 0 ? extensionBlockBottom : extensionBlockTop;
+                            IBlockState state = fill;
                             int blockY = Coords.localToBlock(cubeY, y);
                             state = WorldGenUtils.getRandomBedrockReplacement(world, rand, state, blockY, 5,
                                     hasTopBedrock, hasBottomBedrock);
@@ -382,13 +395,18 @@ public class VanillaCompatibilityGenerator implements ICubeGenerator {
         long zSeed = fmlRandom.nextLong() >> 2 + 1L;
         long chunkSeed = (xSeed * x + zSeed * z) ^ worldSeed;
 
+        WorldgenTimings timings = WorldgenTimings.isEnabled() ? WorldgenTimings.instance() : null;
         for (IWorldGenerator generator : generators) {
             fmlRandom.setSeed(chunkSeed);
+            long start = timings == null ? 0 : timings.begin();
             try {
                 CompatHandler.beforeGenerate(world, generator);
                 generator.generate(fmlRandom, x, z, world, vanillaGen, provider);
             } finally {
                 CompatHandler.afterGenerate(world);
+                if (timings != null) {
+                    timings.end(generator, start);
+                }
             }
         }
     }
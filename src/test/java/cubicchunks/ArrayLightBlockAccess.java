@@ -0,0 +1,184 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks;
+
+import io.github.opencubicchunks.cubicchunks.core.lighting.ILightBlockAccess;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.EnumSkyBlock;
+
+import java.util.Random;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Array backed light block access for testing and benchmarking light propagation without a world.
+ * Blocks with x coordinate >= unloadedFromX behave like unloaded cubes.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class ArrayLightBlockAccess implements ILightBlockAccess {
+
+    public final int size;
+    public final int min;
+    private final int unloadedFromX;
+
+    private final byte[] opacity;
+    private final byte[] emitted;
+    private final int[] heights;
+    private final byte[] skyLight;
+    private final byte[] blockLight;
+
+    public final LongList edgeUpdates = new LongArrayList();
+
+    private ArrayLightBlockAccess(int size, int unloadedFromX) {
+        this.size = size;
+        this.min = -size / 2;
+        this.unloadedFromX = unloadedFromX;
+        this.opacity = new byte[size * size * size];
+        this.emitted = new byte[size * size * size];
+        this.heights = new int[size * size];
+        this.skyLight = new byte[size * size * size];
+        this.blockLight = new byte[size * size * size];
+    }
+
+    /**
+     * Creates access with random terrain centered at 0, 0, 0, with no light
+     */
+    public static ArrayLightBlockAccess random(Random rand, int size, int unloadedFromX) {
+        ArrayLightBlockAccess access = new ArrayLightBlockAccess(size, unloadedFromX);
+        for (int i = 0; i < access.opacity.length; i++) {
+            access.opacity[i] = randomOpacity(rand);
+            access.emitted[i] = rand.nextInt(64) == 0 ? (byte) rand.nextInt(16) : 0;
+        }
+        for (int i = 0; i < access.heights.length; i++) {
+            access.heights[i] = access.min + rand.nextInt(size);
+        }
+        return access;
+    }
+
+    private static byte randomOpacity(Random rand) {
+        int r = rand.nextInt(8);
+        return (byte) (r < 4 ? 0 : r < 6 ? 15 : rand.nextInt(16));
+    }
+
+    public ArrayLightBlockAccess copy() {
+        ArrayLightBlockAccess copy = new ArrayLightBlockAccess(size, unloadedFromX);
+        System.arraycopy(opacity, 0, copy.opacity, 0, opacity.length);
+        System.arraycopy(emitted, 0, copy.emitted, 0, emitted.length);
+        System.arraycopy(heights, 0, copy.heights, 0, heights.length);
+        System.arraycopy(skyLight, 0, copy.skyLight, 0, skyLight.length);
+        System.arraycopy(blockLight, 0, copy.blockLight, 0, blockLight.length);
+        copy.edgeUpdates.addAll(edgeUpdates);
+        return copy;
+    }
+
+    /**
+     * Randomly changes the block at given position, and the height of its block column
+     */
+    public void randomize(Random rand, int x, int y, int z) {
+        int index = index(x, y, z);
+        opacity[index] = randomOpacity(rand);
+        emitted[index] = rand.nextBoolean() ? (byte) rand.nextInt(16) : 0;
+        heights[(x - min) * size + z - min] = min + rand.nextInt(size);
+    }
+
+    public byte[] getLightArray(EnumSkyBlock type) {
+        return type == EnumSkyBlock.SKY ? skyLight : blockLight;
+    }
+
+    private boolean inRange(int x, int y, int z) {
+        return x >= min && y >= min && z >= min && x < min + size && y < min + size && z < min + size;
+    }
+
+    private int index(int x, int y, int z) {
+        return ((x - min) * size + y - min) * size + z - min;
+    }
+
+    @Override public int getBlockLightOpacity(BlockPos pos) {
+        return getBlockLightOpacity(pos.getX(), pos.getY(), pos.getZ());
+    }
+
+    @Override public int getBlockLightOpacity(int x, int y, int z) {
+        return inRange(x, y, z) ? opacity[index(x, y, z)] : 0;
+    }
+
+    @Override public int getLightFor(EnumSkyBlock lightType, BlockPos pos) {
+        return getLightFor(lightType, pos.getX(), pos.getY(), pos.getZ());
+    }
+
+    @Override public int getLightFor(EnumSkyBlock lightType, int x, int y, int z) {
+        if (!inRange(x, y, z) || x >= unloadedFromX) {
+            return 0;
+        }
+        return getLightArray(lightType)[index(x, y, z)];
+    }
+
+    @Override public boolean setLightFor(EnumSkyBlock lightType, BlockPos pos, int val) {
+        return setLightFor(lightType, pos.getX(), pos.getY(), pos.getZ(), val);
+    }
+
+    @Override public boolean setLightFor(EnumSkyBlock lightType, int x, int y, int z, int val) {
+        if (!inRange(x, y, z) || x >= unloadedFromX) {
+            return false;
+        }
+        getLightArray(lightType)[index(x, y, z)] = (byte) val;
+        return true;
+    }
+
+    @Override public boolean canSeeSky(BlockPos pos) {
+        return canSeeSky(pos.getX(), pos.getY(), pos.getZ());
+    }
+
+    private boolean canSeeSky(int x, int y, int z) {
+        if (!inRange(x, y, z)) {
+            return false;
+        }
+        return heights[(x - min) * size + z - min] <= y;
+    }
+
+    @Override public int getEmittedLight(BlockPos pos, EnumSkyBlock type) {
+        return getEmittedLight(pos.getX(), pos.getY(), pos.getZ(), type);
+    }
+
+    @Override public int getEmittedLight(int x, int y, int z, EnumSkyBlock type) {
+        if (type == EnumSkyBlock.SKY) {
+            return canSeeSky(x, y, z) ? 15 : 0;
+        }
+        return inRange(x, y, z) ? emitted[index(x, y, z)] : 0;
+    }
+
+    @Override public void markEdgeNeedLightUpdate(BlockPos pos, EnumSkyBlock type) {
+        markEdgeNeedLightUpdate(pos.getX(), pos.getY(), pos.getZ(), type);
+    }
+
+    @Override public void markEdgeNeedLightUpdate(int x, int y, int z, EnumSkyBlock type) {
+        if (type == EnumSkyBlock.SKY) {
+            edgeUpdates.add(new BlockPos(x, y, z).toLong());
+        }
+    }
+}
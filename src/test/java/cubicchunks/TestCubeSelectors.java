@@ -0,0 +1,208 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks;
+
+import static org.junit.Assert.assertEquals;
+
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.core.visibility.CubeSelector;
+import io.github.opencubicchunks.cubicchunks.core.visibility.CuboidalCubeSelector;
+import io.github.opencubicchunks.cubicchunks.core.visibility.EllipsoidalCubeSelector;
+import io.github.opencubicchunks.cubicchunks.core.visibility.SphericalCubeSelector;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.util.math.ChunkPos;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Checks the incremental methods of cube selectors against a brute-force reference computed from
+ * {@link CubeSelector#forAllVisibleFrom(CubePos, int, int, java.util.function.Consumer)}.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestCubeSelectors {
+
+    @Test
+    public void testCuboidalFindChanged() {
+        testFindChanged(new CuboidalCubeSelector());
+    }
+
+    @Test
+    public void testCuboidalViewDistanceDecrease() {
+        testViewDistanceDecrease(new CuboidalCubeSelector());
+    }
+
+    @Test
+    public void testSphericalFindChanged() {
+        testFindChanged(new SphericalCubeSelector());
+    }
+
+    @Test
+    public void testSphericalViewDistanceDecrease() {
+        testViewDistanceDecrease(new SphericalCubeSelector());
+    }
+
+    @Test
+    public void testSphericalShape() {
+        testShape(new SphericalCubeSelector(), (dx, dy, dz, h, v) -> dx * dx + dy * dy + dz * dz <= h * h && Math.abs(dy) <= v);
+    }
+
+    @Test
+    public void testEllipsoidalFindChanged() {
+        testFindChanged(new EllipsoidalCubeSelector());
+    }
+
+    @Test
+    public void testEllipsoidalViewDistanceDecrease() {
+        testViewDistanceDecrease(new EllipsoidalCubeSelector());
+    }
+
+    @Test
+    public void testEllipsoidalShape() {
+        // the horizontal radius check keeps the shape a disk for vertical view distance 0
+        testShape(new EllipsoidalCubeSelector(), (dx, dy, dz, h, v) -> dx * dx + dz * dz <= h * h
+                && (long) (dx * dx + dz * dz) * v * v + (long) dy * dy * h * h <= (long) h * h * v * v && Math.abs(dy) <= v);
+    }
+
+    @Test
+    public void testCuboidalShape() {
+        testShape(new CuboidalCubeSelector(), (dx, dy, dz, h, v) -> Math.abs(dx) <= h && Math.abs(dy) <= v && Math.abs(dz) <= h);
+    }
+
+    private void testShape(CubeSelector selector, ShapePredicate shape) {
+        CubePos center = new CubePos(3, -7, 12);
+        for (int h = 0; h < 12; h++) {
+            for (int v = 0; v < 12; v++) {
+                Set<CubePos> expected = new HashSet<>();
+                for (int dx = -h; dx <= h; dx++) {
+                    for (int dy = -v; dy <= v; dy++) {
+                        for (int dz = -h; dz <= h; dz++) {
+                            if (shape.contains(dx, dy, dz, h, v)) {
+                                expected.add(new CubePos(center.getX() + dx, center.getY() + dy, center.getZ() + dz));
+                            }
+                        }
+                    }
+                }
+                List<CubePos> actual = new ArrayList<>();
+                selector.forAllVisibleFrom(center, h, v, actual::add);
+                assertSameElements("h=" + h + ", v=" + v, expected, actual);
+            }
+        }
+    }
+
+    private void testFindChanged(CubeSelector selector) {
+        Random rand = new Random(42);
+        for (int i = 0; i < 200; i++) {
+            int h = rand.nextInt(8);
+            int v = rand.nextInt(8);
+            CubePos oldPos = new CubePos(rand.nextInt(11) - 5, rand.nextInt(11) - 5, rand.nextInt(11) - 5);
+            // mostly short moves, sometimes teleports
+            int range = rand.nextInt(4) == 0 ? 40 : 3;
+            CubePos newPos = new CubePos(oldPos.getX() + rand.nextInt(range * 2 + 1) - range,
+                    oldPos.getY() + rand.nextInt(range * 2 + 1) - range,
+                    oldPos.getZ() + rand.nextInt(range * 2 + 1) - range);
+
+            Set<CubePos> oldCubes = visibleCubes(selector, oldPos, h, v);
+            Set<CubePos> newCubes = visibleCubes(selector, newPos, h, v);
+
+            List<CubePos> cubesToRemove = new ArrayList<>();
+            List<CubePos> cubesToLoad = new ArrayList<>();
+            List<ChunkPos> columnsToRemove = new ArrayList<>();
+            List<ChunkPos> columnsToLoad = new ArrayList<>();
+            selector.findChanged(oldPos, newPos, h, v,
+                    (x, y, z) -> cubesToRemove.add(new CubePos(x, y, z)),
+                    (x, y, z) -> cubesToLoad.add(new CubePos(x, y, z)),
+                    (x, z) -> columnsToRemove.add(new ChunkPos(x, z)),
+                    (x, z) -> columnsToLoad.add(new ChunkPos(x, z)));
+
+            String msg = "old=" + oldPos + ", new=" + newPos + ", h=" + h + ", v=" + v;
+            assertSameElements(msg, difference(oldCubes, newCubes), cubesToRemove);
+            assertSameElements(msg, difference(newCubes, oldCubes), cubesToLoad);
+            assertSameElements(msg, difference(columns(oldCubes), columns(newCubes)), columnsToRemove);
+            assertSameElements(msg, difference(columns(newCubes), columns(oldCubes)), columnsToLoad);
+        }
+    }
+
+    private void testViewDistanceDecrease(CubeSelector selector) {
+        Random rand = new Random(42);
+        for (int i = 0; i < 100; i++) {
+            int oldH = rand.nextInt(10);
+            int oldV = rand.nextInt(10);
+            int newH = rand.nextInt(oldH + 1);
+            int newV = rand.nextInt(oldV + 1);
+            CubePos pos = new CubePos(rand.nextInt(11) - 5, rand.nextInt(11) - 5, rand.nextInt(11) - 5);
+
+            Set<CubePos> oldCubes = visibleCubes(selector, pos, oldH, oldV);
+            Set<CubePos> newCubes = visibleCubes(selector, pos, newH, newV);
+
+            List<CubePos> cubesToUnload = new ArrayList<>();
+            List<ChunkPos> columnsToUnload = new ArrayList<>();
+            selector.findAllUnloadedOnViewDistanceDecrease(pos, oldH, newH, oldV, newV,
+                    (x, y, z) -> cubesToUnload.add(new CubePos(x, y, z)),
+                    (x, z) -> columnsToUnload.add(new ChunkPos(x, z)));
+
+            String msg = "pos=" + pos + ", h=" + oldH + "->" + newH + ", v=" + oldV + "->" + newV;
+            assertSameElements(msg, difference(oldCubes, newCubes), cubesToUnload);
+            assertSameElements(msg, difference(columns(oldCubes), columns(newCubes)), columnsToUnload);
+        }
+    }
+
+    private static Set<CubePos> visibleCubes(CubeSelector selector, CubePos pos, int h, int v) {
+        Set<CubePos> cubes = new HashSet<>();
+        selector.forAllVisibleFrom(pos, h, v, cubes::add);
+        return cubes;
+    }
+
+    private static Set<ChunkPos> columns(Set<CubePos> cubes) {
+        Set<ChunkPos> columns = new HashSet<>();
+        for (CubePos cube : cubes) {
+            columns.add(new ChunkPos(cube.getX(), cube.getZ()));
+        }
+        return columns;
+    }
+
+    private static <T> Set<T> difference(Set<T> a, Set<T> b) {
+        Set<T> out = new HashSet<>(a);
+        out.removeAll(b);
+        return out;
+    }
+
+    @FunctionalInterface
+    private interface ShapePredicate {
+        boolean contains(int dx, int dy, int dz, int h, int v);
+    }
+
+    private static <T> void assertSameElements(String msg, Set<T> expected, List<T> actual) {
+        assertEquals(msg + ": duplicate elements", actual.size(), new HashSet<>(actual).size());
+        assertEquals(msg, expected, new HashSet<>(actual));
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks;
+
+import static org.junit.Assert.*;
+
+import io.github.opencubicchunks.cubicchunks.core.util.FieldCopier;
+import mcp.MethodsReturnNonnullByDefault;
+import org.junit.Test;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestFieldCopier {
+
+    public static class Base {
+        private int id;
+        protected final String name;
+
+        public Base() {
+            this.name = "default";
+        }
+
+        Base(int id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+    }
+
+    public static class Child extends Base {
+        private static int instances;
+        private double x;
+        private byte yaw;
+        private boolean onGround;
+        private long[] data;
+
+        public Child() {
+            instances++;
+        }
+
+        Child(int id, String name, double x, byte yaw, boolean onGround, long[] data) {
+            super(id, name);
+            this.x = x;
+            this.yaw = yaw;
+            this.onGround = onGround;
+            this.data = data;
+        }
+    }
+
+    @Test
+    public void testCopiesAllFields() {
+        long[] data = {1, 2, 3};
+        Child orig = new Child(42, "name", 3.5, (byte) -7, true, data);
+        Child copy = FieldCopier.copy(orig);
+
+        assertNotSame(orig, copy);
+        assertEquals(42, ((Base) copy).id);
+        assertEquals("name", copy.name);
+        assertEquals(3.5, copy.x, 0);
+        assertEquals(-7, copy.yaw);
+        assertTrue(copy.onGround);
+        assertSame(data, copy.data);
+    }
+
+    @Test
+    public void testUsesNoArgConstructor() {
+        int instances = Child.instances;
+        FieldCopier.copy(new Child(1, "a", 0, (byte) 0, false, new long[0]));
+        assertEquals(instances + 1, Child.instances);
+    }
+
+    @Test
+    public void testCopierIsCached() {
+        assertSame(FieldCopier.forClass(Child.class), FieldCopier.forClass(Child.class));
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import io.github.opencubicchunks.cubicchunks.core.world.IServerHeightMap;
+import io.github.opencubicchunks.cubicchunks.core.world.NewServerHeightMap;
+import io.github.opencubicchunks.cubicchunks.core.world.ServerHeightMap;
+import mcp.MethodsReturnNonnullByDefault;
+import org.junit.Test;
+
+import java.util.Random;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestNewServerHeightMap {
+
+    @Test
+    public void testSameAsServerHeightMap() {
+        ServerHeightMap expected = new ServerHeightMap(new int[256]);
+        NewServerHeightMap actual = new NewServerHeightMap(new int[256]);
+        Random rand = new Random(42);
+        for (int i = 0; i < 200000; i++) {
+            int x = rand.nextInt(4);
+            int z = rand.nextInt(4);
+            int y = randomY(rand);
+            int opacity = rand.nextInt(3) == 0 ? 0 : 255;
+            expected.onOpacityChange(x, y, z, opacity);
+            actual.onOpacityChange(x, y, z, opacity);
+
+            if (i % 16 == 0) {
+                assertSame(expected, actual, rand);
+            }
+        }
+    }
+
+    @Test
+    public void testSaveFormatCompatible() {
+        ServerHeightMap original = new ServerHeightMap(new int[256]);
+        Random rand = new Random(1234);
+        for (int i = 0; i < 50000; i++) {
+            original.onOpacityChange(rand.nextInt(16), randomY(rand), rand.nextInt(16), rand.nextBoolean() ? 0 : 255);
+        }
+        // fill whole cubes, so that all-opaque cubes are tested too
+        for (int x = 0; x < 16; x++) {
+            for (int z = 0; z < 16; z++) {
+                for (int y = -64; y < -32; y++) {
+                    original.onOpacityChange(x, y, z, 255);
+                }
+            }
+        }
+
+        NewServerHeightMap loaded = new NewServerHeightMap(new int[256]);
+        loaded.readData(original.getData());
+        assertSame(original, loaded, rand);
+        assertArrayEquals(original.getData(), loaded.getData());
+        assertArrayEquals(original.getDataForClient(), loaded.getDataForClient());
+
+        ServerHeightMap reloaded = new ServerHeightMap(new int[256]);
+        reloaded.readData(loaded.getData());
+        assertSame(original, reloaded, rand);
+    }
+
+    private static int randomY(Random rand) {
+        switch (rand.nextInt(3)) {
+            case 0:
+                return rand.nextInt(64) - 32;
+            case 1:
+                return rand.nextInt(4096) - 2048;
+            default:
+                return rand.nextInt(1 << 20) - (1 << 19);
+        }
+    }
+
+    private static void assertSame(IServerHeightMap expected, IServerHeightMap actual, Random rand) {
+        for (int x = 0; x < 16; x++) {
+            for (int z = 0; z < 16; z++) {
+                int top = expected.getTopBlockY(x, z);
+                assertEquals(top, actual.getTopBlockY(x, z));
+                for (int i = 0; i < 8; i++) {
+                    int y = i == 0 ? top : i == 1 ? top + 1 : randomY(rand);
+                    assertEquals("x=" + x + ", y=" + y + ", z=" + z,
+                            expected.getTopBlockYBelow(x, z, y), actual.getTopBlockYBelow(x, z, y));
+                }
+            }
+        }
+        assertEquals(expected.getLowestTopBlockY(), actual.getLowestTopBlockY());
+    }
+}
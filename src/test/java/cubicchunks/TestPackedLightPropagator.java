@@ -0,0 +1,119 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import io.github.opencubicchunks.cubicchunks.core.lighting.LightPropagator;
+import io.github.opencubicchunks.cubicchunks.core.lighting.PackedLightPropagator;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.EnumSkyBlock;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Checks that {@link PackedLightPropagator} gives exactly the same results as {@link LightPropagator}.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestPackedLightPropagator {
+
+    private static final int SIZE = 64;
+    private static final int UPDATE_RADIUS = 8;
+
+    @Test
+    public void testInitialLight() {
+        for (int seed = 0; seed < 20; seed++) {
+            Random rand = new Random(seed);
+            ArrayLightBlockAccess legacy = ArrayLightBlockAccess.random(rand, SIZE, rand.nextBoolean() ? 4 : SIZE);
+            ArrayLightBlockAccess packed = legacy.copy();
+            List<BlockPos> positions = allInRadius(UPDATE_RADIUS);
+            for (EnumSkyBlock type : EnumSkyBlock.values()) {
+                compare(legacy, packed, positions, type, false, "seed " + seed);
+            }
+        }
+    }
+
+    @Test
+    public void testChangedBlocks() {
+        for (int seed = 0; seed < 20; seed++) {
+            Random rand = new Random(seed);
+            ArrayLightBlockAccess legacy = ArrayLightBlockAccess.random(rand, SIZE, rand.nextBoolean() ? 4 : SIZE);
+            List<BlockPos> all = allInRadius(UPDATE_RADIUS);
+            LightPropagator propagator = new LightPropagator();
+            for (EnumSkyBlock type : EnumSkyBlock.values()) {
+                propagator.propagateLight(BlockPos.ORIGIN, all, legacy, type, false, pos -> {});
+            }
+
+            for (int step = 0; step < 10; step++) {
+                List<BlockPos> changed = new ArrayList<>();
+                for (int i = 0, count = 1 + rand.nextInt(20); i < count; i++) {
+                    BlockPos pos = new BlockPos(
+                            rand.nextInt(UPDATE_RADIUS * 2 + 1) - UPDATE_RADIUS,
+                            rand.nextInt(UPDATE_RADIUS * 2 + 1) - UPDATE_RADIUS,
+                            rand.nextInt(UPDATE_RADIUS * 2 + 1) - UPDATE_RADIUS);
+                    legacy.randomize(rand, pos.getX(), pos.getY(), pos.getZ());
+                    changed.add(pos);
+                }
+                // light is the same in both after the previous step was compared
+                ArrayLightBlockAccess packed = legacy.copy();
+                for (EnumSkyBlock type : EnumSkyBlock.values()) {
+                    compare(legacy, packed, changed, type, true, "seed " + seed + ", step " + step);
+                }
+            }
+        }
+    }
+
+    private static void compare(ArrayLightBlockAccess legacy, ArrayLightBlockAccess packed, List<BlockPos> positions, EnumSkyBlock type,
+            boolean handleDecreased, String message) {
+        LongList legacyUpdates = new LongArrayList();
+        LongList packedUpdates = new LongArrayList();
+        new LightPropagator().propagateLight(BlockPos.ORIGIN, positions, legacy, type, handleDecreased,
+                pos -> legacyUpdates.add(pos.toLong()));
+        new PackedLightPropagator().propagateLight(BlockPos.ORIGIN, positions, packed, type, handleDecreased,
+                pos -> packedUpdates.add(pos.toLong()));
+
+        assertArrayEquals(message + ", " + type + " light values", legacy.getLightArray(type), packed.getLightArray(type));
+        assertEquals(message + ", " + type + " updated positions", legacyUpdates, packedUpdates);
+        assertEquals(message + ", " + type + " edge updates", legacy.edgeUpdates, packed.edgeUpdates);
+    }
+
+    private static List<BlockPos> allInRadius(int radius) {
+        List<BlockPos> positions = new ArrayList<>();
+        for (BlockPos pos : BlockPos.getAllInBox(new BlockPos(-radius, -radius, -radius), new BlockPos(radius, radius, radius))) {
+            positions.add(pos);
+        }
+        return positions;
+    }
+}
@@ -30,6 +30,8 @@ import io.github.opencubicchunks.cubicchunks.core.util.WatchersSortingList;
 import mcp.MethodsReturnNonnullByDefault;
 import org.junit.Test;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
 import javax.annotation.ParametersAreNonnullByDefault;
@@ -49,7 +51,7 @@ public class TestWatchersSortingList {
     @Test
     public void testIterator() {
         this.setup();
-        WatchersSortingList<Integer> list = new WatchersSortingList<>(Integer::compare);
+        WatchersSortingList<Integer> list = new WatchersSortingList<>(Integer::intValue);
         this.fillList(list);
         this.checkList(list);
     }
@@ -57,7 +59,7 @@ public class TestWatchersSortingList {
     @Test
     public void testSort() {
         this.setup();
-        WatchersSortingList<Integer> list = new WatchersSortingList<>(Integer::compare);
+        WatchersSortingList<Integer> list = new WatchersSortingList<>(Integer::intValue);
         this.fillList(list);
         list.sort();
         this.checkList(list);
@@ -72,6 +74,55 @@ public class TestWatchersSortingList {
         }
     }
 
+    @Test
+    public void testUpdate() {
+        int[] priorities = {5, 3, 8, 1};
+        WatchersSortingList<Integer> list = new WatchersSortingList<>(i -> priorities[i]);
+        for (int i = 0; i < priorities.length; i++) {
+            list.appendToEnd(i);
+        }
+        assertEquals(Arrays.asList(3, 1, 0, 2), toList(list));
+
+        priorities[2] = 0;
+        list.update(2);
+        priorities[3] = 10;
+        list.update(3);
+        assertEquals(Arrays.asList(2, 1, 0, 3), toList(list));
+
+        list.remove(3);
+        list.appendToStart(3);
+        assertEquals(Arrays.asList(3, 2, 1, 0), toList(list));
+        list.sort();
+        assertEquals(Arrays.asList(2, 1, 0, 3), toList(list));
+    }
+
+    @Test
+    public void testRemoveWhileIterating() {
+        WatchersSortingList<Integer> list = new WatchersSortingList<>(Integer::intValue);
+        for (int i = 0; i < 10; i++) {
+            list.appendToEnd(i);
+        }
+        List<Integer> seen = new ArrayList<>();
+        for (Iterator<Integer> it = list.iterator(); it.hasNext(); ) {
+            int e = it.next();
+            seen.add(e);
+            // remove the element the iterator would visit next
+            list.remove(e + 1);
+            if (e % 4 == 0) {
+                it.remove();
+            }
+        }
+        assertEquals(Arrays.asList(0, 2, 4, 6, 8), seen);
+        assertEquals(Arrays.asList(2, 6), toList(list));
+        assertEquals(2, list.size());
+    }
+
+    private static List<Integer> toList(WatchersSortingList<Integer> list) {
+        List<Integer> out = new ArrayList<>();
+        list.forEach(out::add);
+        return out;
+    }
+
     private void fillList(WatchersSortingList<Integer> list) {
         Random random = new Random(42);
         for (int i=0;i<64;i++) {
@@ -0,0 +1,183 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.network;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.core.util.AddressTools;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.world.EnumSkyBlock;
+import net.minecraft.world.chunk.NibbleArray;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestPacketCubeLightUpdates {
+
+    private static final int CUBE_VOLUME = 16 * 16 * 16;
+    private static final CubePos POS = new CubePos(3, -7, 100000);
+
+    @Test
+    public void testListFormat() {
+        testFormat(1, PacketCubeLightUpdates.FORMAT_LIST, EnumSkyBlock.SKY);
+        testFormat(100, PacketCubeLightUpdates.FORMAT_LIST, EnumSkyBlock.BLOCK);
+    }
+
+    @Test
+    public void testMaskFormat() {
+        testFormat(1000, PacketCubeLightUpdates.FORMAT_MASK, EnumSkyBlock.SKY);
+        testFormat(2001, PacketCubeLightUpdates.FORMAT_MASK, EnumSkyBlock.BLOCK);
+    }
+
+    @Test
+    public void testFullFormat() {
+        testFormat(CUBE_VOLUME, PacketCubeLightUpdates.FORMAT_FULL, EnumSkyBlock.SKY);
+    }
+
+    @Test
+    public void testFormatSwitchPoints() {
+        // list: 2 bytes per change, mask: 512 bytes and half a byte per change, full: 2048 bytes
+        testFormat(341, PacketCubeLightUpdates.FORMAT_LIST, EnumSkyBlock.SKY);
+        testFormat(342, PacketCubeLightUpdates.FORMAT_MASK, EnumSkyBlock.SKY);
+        testFormat(3070, PacketCubeLightUpdates.FORMAT_MASK, EnumSkyBlock.SKY);
+        testFormat(3071, PacketCubeLightUpdates.FORMAT_FULL, EnumSkyBlock.SKY);
+    }
+
+    @Test
+    public void testMaskBitOrder() {
+        NibbleArray light = randomLight(new Random(1));
+        long[] changed = new long[CUBE_VOLUME / Long.SIZE];
+        // enough changes for the mask format, at least one in every byte of the mask
+        List<Integer> addresses = new ArrayList<>();
+        for (int address = 0; address < CUBE_VOLUME; address += 7) {
+            addresses.add(address);
+            changed[address >>> 6] |= 1L << address;
+        }
+        PacketCubeLightUpdates packet = new PacketCubeLightUpdates(POS, EnumSkyBlock.SKY, light, changed, addresses.size());
+        assertEquals(PacketCubeLightUpdates.FORMAT_MASK, packet.getFormat());
+
+        byte[] data = packet.getData();
+        // bit i of byte n is position n * 8 + i
+        for (int address = 0; address < CUBE_VOLUME; address++) {
+            int bit = (data[address >> 3] >> (address & 7)) & 1;
+            assertEquals(address % 7 == 0 ? 1 : 0, bit);
+        }
+        // the values follow, two in each byte, the first one in the low nibble
+        for (int i = 0; i < addresses.size(); i++) {
+            int address = addresses.get(i);
+            int value = (data[CUBE_VOLUME / 8 + i / 2] >> (i % 2 * 4)) & 0xF;
+            assertEquals(getLight(light, address), value);
+        }
+    }
+
+    @Test
+    public void testEmpty() {
+        NibbleArray light = randomLight(new Random(2));
+        long[] changed = new long[CUBE_VOLUME / Long.SIZE];
+        PacketCubeLightUpdates read = roundTrip(new PacketCubeLightUpdates(POS, EnumSkyBlock.BLOCK, light, changed, 0));
+        assertEquals(PacketCubeLightUpdates.FORMAT_LIST, read.getFormat());
+        assertEquals(0, read.getData().length);
+
+        NibbleArray clientLight = new NibbleArray();
+        read.applyChanges(clientLight);
+        assertArrayEquals(new byte[CUBE_VOLUME / 2], clientLight.getData());
+    }
+
+    @Test
+    public void testNoStorage() {
+        long[] changed = new long[CUBE_VOLUME / Long.SIZE];
+        changed[0] = 1;
+        PacketCubeLightUpdates read = roundTrip(new PacketCubeLightUpdates(POS, EnumSkyBlock.SKY, null, changed, 1));
+        assertEquals(POS, read.getCubePos());
+        assertNull(read.getData());
+    }
+
+    private void testFormat(int changedCount, byte expectedFormat, EnumSkyBlock type) {
+        Random rand = new Random(changedCount);
+        NibbleArray light = randomLight(rand);
+
+        List<Integer> addresses = new ArrayList<>();
+        for (int i = 0; i < CUBE_VOLUME; i++) {
+            addresses.add(i);
+        }
+        Collections.shuffle(addresses, rand);
+        long[] changed = new long[CUBE_VOLUME / Long.SIZE];
+        for (int i = 0; i < changedCount; i++) {
+            int address = addresses.get(i);
+            changed[address >>> 6] |= 1L << address;
+        }
+
+        PacketCubeLightUpdates read = roundTrip(new PacketCubeLightUpdates(POS, type, light, changed, changedCount));
+        assertEquals(POS, read.getCubePos());
+        assertEquals(type, read.getType());
+        assertEquals(expectedFormat, read.getFormat());
+
+        if (expectedFormat == PacketCubeLightUpdates.FORMAT_FULL) {
+            assertArrayEquals(light.getData(), read.getData());
+            return;
+        }
+        NibbleArray clientLight = new NibbleArray();
+        read.applyChanges(clientLight);
+        for (int address = 0; address < CUBE_VOLUME; address++) {
+            boolean isChanged = (changed[address >>> 6] & (1L << address)) != 0;
+            assertEquals(isChanged ? getLight(light, address) : 0, getLight(clientLight, address));
+        }
+    }
+
+    private PacketCubeLightUpdates roundTrip(PacketCubeLightUpdates packet) {
+        ByteBuf buf = Unpooled.buffer();
+        packet.toBytes(buf);
+        PacketCubeLightUpdates read = new PacketCubeLightUpdates();
+        read.fromBytes(buf);
+        assertEquals(0, buf.readableBytes());
+        return read;
+    }
+
+    private NibbleArray randomLight(Random rand) {
+        NibbleArray light = new NibbleArray();
+        for (int address = 0; address < CUBE_VOLUME; address++) {
+            // never 0, so that unchanged positions on the client can be told apart
+            int value = 1 + rand.nextInt(15);
+            light.set(AddressTools.getLocalX(address), AddressTools.getLocalY(address), AddressTools.getLocalZ(address), value);
+        }
+        return light;
+    }
+
+    private int getLight(NibbleArray light, int address) {
+        return light.get(AddressTools.getLocalX(address), AddressTools.getLocalY(address), AddressTools.getLocalZ(address));
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.state.IBlockState;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestPacketMultiCubeBlockChange {
+
+    // IDs that need 1, 3 and 4 bytes as variable length integers
+    private final List<IBlockState> states = Arrays.asList(mock(IBlockState.class), mock(IBlockState.class), mock(IBlockState.class));
+    private final int[] stateIds = {1, 70000, 1 << 22};
+
+    @Test
+    public void testRoundTrip() {
+        List<PacketCubeBlockChange> changes = new ArrayList<>();
+        changes.add(change(new CubePos(10, -5, 3), new short[]{0, 4095, 1234}, new int[]{0, 1, 2}, new int[]{0x00FF1234}));
+        // large negative delta from the previous cube
+        changes.add(change(new CubePos(-100000, 200, 7), new short[]{17}, new int[]{2}, new int[]{-1, Integer.MIN_VALUE, Integer.MAX_VALUE}));
+        // neighbor of the first cube, positive delta
+        changes.add(change(new CubePos(10, -5, 4), new short[0], new int[0], new int[0]));
+        // same position as the previous cube, zero delta
+        changes.add(change(new CubePos(10, -5, 4), new short[]{5, 6}, new int[]{1, 1}, new int[]{-30000000}));
+
+        List<PacketCubeBlockChange> read = roundTrip(changes);
+
+        assertEquals(changes.size(), read.size());
+        for (int i = 0; i < changes.size(); i++) {
+            PacketCubeBlockChange expected = changes.get(i);
+            PacketCubeBlockChange actual = read.get(i);
+            assertEquals(expected.cubePos, actual.cubePos);
+            assertEquals(expected.localAddresses.length, actual.localAddresses.length);
+            for (int j = 0; j < expected.localAddresses.length; j++) {
+                assertEquals(expected.localAddresses[j], actual.localAddresses[j]);
+                assertSame(expected.blockStates[j], actual.blockStates[j]);
+            }
+            assertEquals(expected.heightValues.length, actual.heightValues.length);
+            for (int j = 0; j < expected.heightValues.length; j++) {
+                assertEquals(expected.heightValues[j], actual.heightValues[j]);
+            }
+        }
+    }
+
+    @Test
+    public void testEmpty() {
+        assertEquals(0, roundTrip(new ArrayList<>()).size());
+    }
+
+    @Test
+    public void testNearbyCubesUseSmallDeltas() {
+        List<PacketCubeBlockChange> changes = new ArrayList<>();
+        changes.add(change(new CubePos(1000000, 1000000, 1000000), new short[0], new int[0], new int[0]));
+        changes.add(change(new CubePos(1000001, 999999, 1000000), new short[0], new int[0], new int[0]));
+
+        ByteBuf buf = Unpooled.buffer();
+        new PacketMultiCubeBlockChange(changes).write(buf, this::getStateId);
+        // count, first cube: 3 bytes per coordinate, 2 counts; second cube: 1 byte per coordinate, 2 counts
+        assertEquals(1 + 3 * 3 + 2 + 3 + 2, buf.readableBytes());
+    }
+
+    private List<PacketCubeBlockChange> roundTrip(List<PacketCubeBlockChange> changes) {
+        ByteBuf buf = Unpooled.buffer();
+        new PacketMultiCubeBlockChange(changes).write(buf, this::getStateId);
+        PacketMultiCubeBlockChange read = new PacketMultiCubeBlockChange();
+        read.read(buf, this::getState);
+        assertEquals(0, buf.readableBytes());
+        return read.getChanges();
+    }
+
+    private PacketCubeBlockChange change(CubePos pos, short[] addresses, int[] stateIndexes, int[] heightValues) {
+        PacketCubeBlockChange change = new PacketCubeBlockChange();
+        change.cubePos = pos;
+        change.localAddresses = addresses;
+        change.blockStates = new IBlockState[stateIndexes.length];
+        for (int i = 0; i < stateIndexes.length; i++) {
+            change.blockStates[i] = states.get(stateIndexes[i]);
+        }
+        change.heightValues = heightValues;
+        return change;
+    }
+
+    private int getStateId(IBlockState state) {
+        return stateIds[states.indexOf(state)];
+    }
+
+    private IBlockState getState(int id) {
+        for (int i = 0; i < stateIds.length; i++) {
+            if (stateIds[i] == id) {
+                return states.get(i);
+            }
+        }
+        throw new AssertionError("Unknown state ID " + id);
+    }
+}
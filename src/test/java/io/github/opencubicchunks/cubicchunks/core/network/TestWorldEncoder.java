@@ -0,0 +1,125 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015-2019 OpenCubicChunks
+ *  Copyright (c) 2015-2019 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.core.network;
+
+import static org.junit.Assert.assertEquals;
+
+import io.netty.buffer.Unpooled;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.network.PacketBuffer;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestWorldEncoder {
+
+    private static final int ENTRIES = 16 * 16 * 16;
+
+    @Test
+    public void testUniformLinearPalette() {
+        int[] palette = {0, 17, 300, 5};
+        int[] entries = filled(2);
+        assertEquals(300, WorldEncoder.getUniformStateId(serialize(4, palette, entries)));
+
+        entries[ENTRIES - 1] = 1;
+        assertEquals(-1, WorldEncoder.getUniformStateId(serialize(4, palette, entries)));
+    }
+
+    @Test
+    public void testEntriesSpanningTwoLongs() {
+        int[] palette = {0, 17, 300, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 18, 19};
+        int[] entries = filled(16);
+        assertEquals(19, WorldEncoder.getUniformStateId(serialize(5, palette, entries)));
+
+        // with 5 bits per entry, entry 12 takes the last 4 bits of the first long and the first bit of the second one
+        for (int value : new int[]{0, 15}) {
+            int[] changed = entries.clone();
+            changed[12] = value;
+            assertEquals(-1, WorldEncoder.getUniformStateId(serialize(5, palette, changed)));
+        }
+    }
+
+    @Test
+    public void testGlobalPalette() {
+        // the global palette is written as an empty palette, entries are the state IDs
+        int[] entries = filled(4321);
+        assertEquals(4321, WorldEncoder.getUniformStateId(serialize(13, new int[0], entries)));
+
+        // with 13 bits per entry, entry 4 spans the first two longs
+        entries[4] = 4320;
+        assertEquals(-1, WorldEncoder.getUniformStateId(serialize(13, new int[0], entries)));
+    }
+
+    @Test
+    public void testEveryEntryIsChecked() {
+        for (int bits : new int[]{4, 5, 8, 13}) {
+            int[] entries = filled(3);
+            for (int i = 1; i < ENTRIES; i++) {
+                entries[i] = 1;
+                assertEquals("bits=" + bits + ", entry=" + i, -1,
+                        WorldEncoder.getUniformStateId(serialize(bits, bits > 8 ? new int[0] : new int[]{0, 1, 2, 3}, entries)));
+                entries[i] = 3;
+            }
+        }
+    }
+
+    private static int[] filled(int value) {
+        int[] entries = new int[ENTRIES];
+        Arrays.fill(entries, value);
+        return entries;
+    }
+
+    /**
+     * Serializes the entries the same way as BlockStateContainer#write, with entries packed like BitArray does.
+     */
+    private static byte[] serialize(int bits, int[] palette, int[] entries) {
+        long[] data = new long[(ENTRIES * bits + 63) / 64];
+        long mask = (1L << bits) - 1;
+        for (int i = 0; i < ENTRIES; i++) {
+            long bitIndex = (long) i * bits;
+            int startLong = (int) (bitIndex >> 6);
+            int endLong = (int) (((long) (i + 1) * bits - 1L) >> 6);
+            int shift = (int) (bitIndex & 63);
+            data[startLong] |= (entries[i] & mask) << shift;
+            if (startLong != endLong) {
+                data[endLong] |= (entries[i] & mask) >>> (64 - shift);
+            }
+        }
+        PacketBuffer out = new PacketBuffer(Unpooled.buffer());
+        out.writeByte(bits);
+        out.writeVarInt(palette.length);
+        for (int id : palette) {
+            out.writeVarInt(id);
+        }
+        out.writeLongArray(data);
+        byte[] bytes = new byte[out.readableBytes()];
+        out.readBytes(bytes);
+        return bytes;
+    }
+}